@@ -0,0 +1,35 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package io.confluent.connect.hdfs;
+
+import java.io.IOException;
+import java.util.List;
+
+import io.confluent.connect.hdfs.errors.BatchWriteException;
+
+/**
+ * A {@link RecordWriter} that can write a run of values in one call. {@link TopicPartitionWriter}
+ * hands it consecutive records that share a schema and a partition.
+ */
+public interface BatchRecordWriter<V> extends RecordWriter<V> {
+  /**
+   * Writes the values in order. A call that fails after writing some of the values throws a
+   * {@link BatchWriteException} with their number, so that they are not written a second time
+   * when the write is retried.
+   */
+  void writeAll(List<V> values) throws IOException;
+}
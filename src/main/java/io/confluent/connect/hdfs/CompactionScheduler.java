@@ -0,0 +1,242 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import io.confluent.connect.hdfs.partitioner.Partitioner;
+import io.confluent.connect.hdfs.partitioner.TimeBasedPartitioner;
+import io.confluent.connect.hdfs.storage.Storage;
+import io.confluent.connect.hdfs.wal.WAL;
+
+/**
+ * Compacts the time based partitions of a task once they are closed, in the background.
+ *
+ * <p>The files of a partition directory are merged on a single thread shared by the topic
+ * partitions of the task, one group of files at a time, and a merge only starts once the bytes
+ * read so far are within {@code compaction.max.bytes.per.second}. Merging writes nothing to the
+ * WAL. The merged file is swapped for its inputs by the {@link TopicPartitionWriter} that owns
+ * the WAL of the topic partition, between its own transactions, so recovery either sees the
+ * inputs or the merged file.
+ */
+public class CompactionScheduler {
+  private static final Logger log = LoggerFactory.getLogger(CompactionScheduler.class);
+
+  private final Compactor compactor;
+  private final TimeBasedPartitioner partitioner;
+  private final long watermarkMs;
+  private final long maxBytesPerSecond;
+  private final ExecutorService executor;
+  private final Time time;
+  // No merge starts before this time, to stay within the I/O budget. Guarded by this.
+  private long nextStartTime;
+
+  public CompactionScheduler(HdfsSinkConnectorConfig connectorConfig, Storage storage,
+                             Format format, Partitioner partitioner) {
+    this(connectorConfig, storage, format, partitioner, Time.SYSTEM);
+  }
+
+  public CompactionScheduler(HdfsSinkConnectorConfig connectorConfig, Storage storage,
+                             Format format, Partitioner partitioner, Time time) {
+    if (!(partitioner instanceof TimeBasedPartitioner)) {
+      throw new ConfigException(HdfsSinkConnectorConfig.COMPACTION_WATERMARK_MS_CONFIG,
+                                connectorConfig.getLong(
+                                    HdfsSinkConnectorConfig.COMPACTION_WATERMARK_MS_CONFIG),
+                                "Compaction requires a TimeBasedPartitioner.");
+    }
+    this.compactor = new Compactor(
+        connectorConfig, storage, Compactor.fileMerger(format),
+        format.getRecordWriterProvider().getExtension(),
+        connectorConfig.getLong(HdfsSinkConnectorConfig.COMPACTION_MAX_FILE_SIZE_CONFIG));
+    this.partitioner = (TimeBasedPartitioner) partitioner;
+    this.watermarkMs =
+        connectorConfig.getLong(HdfsSinkConnectorConfig.COMPACTION_WATERMARK_MS_CONFIG);
+    this.maxBytesPerSecond =
+        connectorConfig.getLong(HdfsSinkConnectorConfig.COMPACTION_MAX_BYTES_PER_SECOND_CONFIG);
+    this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "hdfs-compaction");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.nextStartTime = 0L;
+    this.time = time;
+  }
+
+  public TopicPartitionCompaction forPartition(TopicPartition tp) {
+    return new TopicPartitionCompaction(tp);
+  }
+
+  /**
+   * Stops compacting. A merge in progress still completes, so that its file can be discarded.
+   */
+  public void close() {
+    executor.shutdown();
+  }
+
+  private synchronized boolean mayStart(long now) {
+    return now >= nextStartTime;
+  }
+
+  private synchronized void merged(long bytes) {
+    if (maxBytesPerSecond > 0) {
+      nextStartTime = Math.max(nextStartTime, time.milliseconds())
+                      + bytes * 1000L / maxBytesPerSecond;
+    }
+  }
+
+  /**
+   * The compaction of the partition directories a topic partition committed files to. Used by the
+   * {@link TopicPartitionWriter} of the topic partition only.
+   */
+  public class TopicPartitionCompaction {
+    private final TopicPartition tp;
+    // Encoded partitions with committed files, in the order of their first commit.
+    private final Set<String> candidates;
+    private String current;
+    private int from;
+    private Future<Compactor.Merge> merge;
+    // A merge whose WAL transaction may have been appended, until it is committed.
+    private Compactor.Merge committing;
+
+    private TopicPartitionCompaction(TopicPartition tp) {
+      this.tp = tp;
+      this.candidates = new LinkedHashSet<>();
+    }
+
+    /**
+     * Records that a file was committed to an encoded partition.
+     */
+    void committed(String encodedPartition) {
+      if (!encodedPartition.equals(current)) {
+        candidates.add(encodedPartition);
+      }
+    }
+
+    /**
+     * Returns whether a merge has to be committed before the WAL is used for anything else.
+     */
+    boolean isCommitting() {
+      return committing != null;
+    }
+
+    /**
+     * Returns whether a merge is done and waits for the next call of {@link #run} to commit it.
+     */
+    boolean isMergeDone() {
+      return merge != null && merge.isDone();
+    }
+
+    /**
+     * Commits the merge that is done, if any, and starts merging the next group of files of a
+     * closed partition when the I/O budget allows it. Must be called when the WAL has no
+     * transaction in progress. A failed commit is retried by the next call.
+     */
+    void run(WAL wal, long now) throws IOException {
+      if (merge != null) {
+        if (!merge.isDone()) {
+          return;
+        }
+        try {
+          committing = merge.get();
+        } catch (ExecutionException | InterruptedException e) {
+          log.warn("Failed to merge the files of {} in {}", tp, current, e);
+          current = null;
+        }
+        merge = null;
+        if (committing == null) {
+          current = null;
+        }
+      }
+      if (committing != null) {
+        compactor.commit(wal, committing);
+        from = committing.next;
+        committing = null;
+      }
+      if (!mayStart(now)) {
+        return;
+      }
+      if (current == null && !nextClosed(now)) {
+        return;
+      }
+      final String directory = partitioner.generatePartitionedPath(tp.topic(), current);
+      final int position = from;
+      merge = executor.submit(new Callable<Compactor.Merge>() {
+        @Override
+        public Compactor.Merge call() throws IOException {
+          Compactor.Merge result = compactor.merge(tp, directory, position);
+          if (result != null) {
+            merged(result.bytes);
+          }
+          return result;
+        }
+      });
+    }
+
+    private boolean nextClosed(long now) {
+      Iterator<String> iterator = candidates.iterator();
+      while (iterator.hasNext()) {
+        String encodedPartition = iterator.next();
+        if (partitioner.isClosed(encodedPartition, now - watermarkMs)) {
+          iterator.remove();
+          current = encodedPartition;
+          from = 0;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Stops compacting. A merge that is not committed yet is discarded.
+     */
+    void close() {
+      final Future<Compactor.Merge> running = merge;
+      if (running != null && !running.cancel(false)) {
+        // Runs on the compaction thread after the merge, so this does not wait for it.
+        executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            Compactor.Merge result = running.get();
+            if (result != null) {
+              compactor.discard(result);
+            }
+            return null;
+          }
+        });
+      }
+      merge = null;
+      committing = null;
+      candidates.clear();
+    }
+  }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.confluent.connect.hdfs.avro.AvroFileMerger;
+import io.confluent.connect.hdfs.avro.AvroFormat;
+import io.confluent.connect.hdfs.filter.TopicPartitionCommittedFileFilter;
+import io.confluent.connect.hdfs.parquet.ParquetFileMerger;
+import io.confluent.connect.hdfs.parquet.ParquetFormat;
+import io.confluent.connect.hdfs.storage.Storage;
+import io.confluent.connect.hdfs.wal.WAL;
+
+/**
+ * Merges the committed files of a topic partition in a directory into fewer, larger files.
+ *
+ * <p>Consecutive files are merged into a file named after the start offset of the first and the
+ * end offset of the last one. The merged file and the removal of its inputs are written to the
+ * WAL of the topic partition as one transaction: the inputs are moved to the temp directory, so
+ * that a replay after a failure either finishes the swap or leaves the inputs in place. The
+ * caller has to hold the WAL lease, which also keeps a task from writing to the topic partition
+ * while files are merged.
+ */
+public class Compactor {
+  private static final Logger log = LoggerFactory.getLogger(Compactor.class);
+
+  private static final Comparator<FileStatus> START_OFFSET_ORDER = new Comparator<FileStatus>() {
+    @Override
+    public int compare(FileStatus left, FileStatus right) {
+      return Long.compare(FileUtils.extractStartOffset(left.getPath().getName()),
+                          FileUtils.extractStartOffset(right.getPath().getName()));
+    }
+  };
+
+  private final Storage storage;
+  private final FileMerger merger;
+  private final String url;
+  private final String topicsDir;
+  private final String extension;
+  private final String zeroPadOffsetFormat;
+  private final long maxFileSize;
+
+  /**
+   * @param maxFileSize the size a merged file stays within, or 0 to merge all files of a directory
+   */
+  public Compactor(HdfsSinkConnectorConfig connectorConfig, Storage storage, FileMerger merger,
+                   String extension, long maxFileSize) {
+    this.storage = storage;
+    this.merger = merger;
+    this.url = storage.url();
+    this.topicsDir = connectorConfig.getString(HdfsSinkConnectorConfig.TOPICS_DIR_CONFIG);
+    this.extension = extension;
+    this.zeroPadOffsetFormat
+        = "%0" +
+          connectorConfig.getInt(HdfsSinkConnectorConfig.FILENAME_OFFSET_ZERO_PAD_WIDTH_CONFIG) +
+          "d";
+    this.maxFileSize = maxFileSize;
+  }
+
+  /**
+   * Returns the merger for the files written by a format.
+   *
+   * @throws ConnectException if files of the format cannot be merged
+   */
+  public static FileMerger fileMerger(Format format) {
+    if (format instanceof AvroFormat) {
+      return new AvroFileMerger();
+    } else if (format instanceof ParquetFormat) {
+      return new ParquetFileMerger();
+    }
+    throw new ConnectException("Files of " + format.getClass().getName() + " cannot be merged");
+  }
+
+  /**
+   * Merges the committed files of a topic partition in a directory relative to the topics
+   * directory, and returns how many files fewer the directory has afterwards.
+   */
+  public int compact(WAL wal, TopicPartition tp, String directory) throws IOException {
+    int removed = 0;
+    int from = 0;
+    Merge merge;
+    while ((merge = merge(tp, directory, from)) != null) {
+      commit(wal, merge);
+      removed += merge.files - 1;
+      from = merge.next;
+    }
+    return removed;
+  }
+
+  /**
+   * Merges the first run of consecutive committed files, starting with the file at a position in
+   * the directory ordered by start offset, into a temp file. Nothing is written to the WAL, so
+   * this can run while a task writes to the topic partition. Returns null when no files from the
+   * position on can be merged.
+   */
+  Merge merge(TopicPartition tp, String directory, int from) throws IOException {
+    Path directoryPath = new Path(FileUtils.directoryName(url, topicsDir, directory));
+    if (!storage.exists(directoryPath)) {
+      return null;
+    }
+    FileStatus[] statuses =
+        storage.listStatus(directoryPath, new TopicPartitionCommittedFileFilter(tp));
+    Arrays.sort(statuses, START_OFFSET_ORDER);
+
+    int start = from;
+    while (start < statuses.length - 1) {
+      int end = start + 1;
+      long size = statuses[start].getLen();
+      while (end < statuses.length
+             && (maxFileSize <= 0 || size + statuses[end].getLen() <= maxFileSize)) {
+        size += statuses[end].getLen();
+        ++end;
+      }
+      if (end - start < 2) {
+        ++start;
+        continue;
+      }
+      Merge merge = merge(tp, directory, Arrays.asList(statuses).subList(start, end), start);
+      if (merge.files >= 2) {
+        return merge;
+      }
+      start += Math.max(merge.files, 1);
+    }
+    return null;
+  }
+
+  private Merge merge(TopicPartition tp, String directory, List<FileStatus> files, int position)
+      throws IOException {
+    String tempDirectory = HdfsSinkConnectorConstants.TEMPFILE_DIRECTORY + directory;
+    String tempFile = FileUtils.tempFileName(url, topicsDir, tempDirectory, extension);
+    List<Path> inputs = new ArrayList<>(files.size());
+    long bytes = 0L;
+    for (FileStatus file : files) {
+      inputs.add(file.getPath());
+      bytes += file.getLen();
+    }
+    int merged = merger.merge(storage.conf(), inputs, new Path(tempFile));
+    if (merged < 2) {
+      storage.delete(tempFile);
+      return new Merge(tempFile, null, null, merged, position + 1, bytes);
+    }
+
+    String first = inputs.get(0).getName();
+    String last = inputs.get(merged - 1).getName();
+    String committedFile = FileUtils.committedFileName(
+        url, topicsDir, directory, tp, FileUtils.extractStartOffset(first),
+        FileUtils.extractOffset(last), extension, zeroPadOffsetFormat);
+    Map<String, String> transaction = new LinkedHashMap<>();
+    transaction.put(tempFile, committedFile);
+    for (Path input : inputs.subList(0, merged)) {
+      transaction.put(input.toString(),
+                      FileUtils.tempFileName(url, topicsDir, tempDirectory, extension));
+    }
+    return new Merge(tempFile, committedFile, transaction, merged, position + 1, bytes);
+  }
+
+  /**
+   * Swaps a merged file for its inputs through the WAL. The WAL must not have a transaction in
+   * progress. A failed commit can be retried with the same merge.
+   */
+  void commit(WAL wal, Merge merge) throws IOException {
+    wal.append(WAL.beginMarker, "");
+    for (Map.Entry<String, String> entry : merge.transaction.entrySet()) {
+      wal.append(entry.getKey(), entry.getValue());
+    }
+    wal.append(WAL.endMarker, "");
+    for (Map.Entry<String, String> entry : merge.transaction.entrySet()) {
+      storage.commit(entry.getKey(), entry.getValue());
+    }
+    for (String removedFile : merge.transaction.values()) {
+      if (!removedFile.equals(merge.committedFile)) {
+        storage.delete(removedFile);
+      }
+    }
+    log.info("Merged {} files into {}", merge.files, merge.committedFile);
+  }
+
+  /**
+   * Deletes the merged file of a merge that is not committed.
+   */
+  void discard(Merge merge) throws IOException {
+    storage.delete(merge.tempFile);
+  }
+
+  /**
+   * A merged temp file and the WAL transaction that swaps it for its inputs.
+   */
+  static class Merge {
+    final String tempFile;
+    final String committedFile;
+    // The merged temp file to its committed file, then each input to a temp file.
+    final Map<String, String> transaction;
+    final int files;
+    // The position of the file after the merged one, once the merge is committed.
+    final int next;
+    final long bytes;
+
+    Merge(String tempFile, String committedFile, Map<String, String> transaction, int files,
+          int next, long bytes) {
+      this.tempFile = tempFile;
+      this.committedFile = committedFile;
+      this.transaction = transaction;
+      this.files = files;
+      this.next = next;
+      this.bytes = bytes;
+    }
+  }
+}
@@ -34,14 +34,13 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -49,6 +48,8 @@ import io.confluent.connect.avro.AvroData;
 import io.confluent.connect.hdfs.filter.CommittedFileFilter;
 import io.confluent.connect.hdfs.filter.TopicCommittedFileFilter;
 import io.confluent.connect.hdfs.hive.HiveMetaStore;
+import io.confluent.connect.hdfs.hive.HiveSyncMetrics;
+import io.confluent.connect.hdfs.hive.HiveUpdateExecutor;
 import io.confluent.connect.hdfs.hive.HiveUtil;
 import io.confluent.connect.hdfs.partitioner.Partitioner;
 import io.confluent.connect.hdfs.storage.Storage;
@@ -71,11 +72,15 @@ public class DataWriter {
   private HdfsSinkConnectorConfig connectorConfig;
   private AvroData avroData;
   private SinkTaskContext context;
-  private ExecutorService executorService;
+  private HiveUpdateExecutor executorService;
+  private CompactionScheduler compactionScheduler;
   private String hiveDatabase;
   private HiveMetaStore hiveMetaStore;
   private HiveUtil hive;
   private Queue<Future<Void>> hiveUpdateFutures;
+  private Map<String, Future<Void>> hiveSyncs;
+  private HiveSyncMetrics hiveSyncMetrics;
+  private long hiveSyncRetryTime = 0L;
   private boolean hiveIntegration;
   private Thread ticketRenewThread;
   private volatile boolean isRunning;
@@ -165,7 +170,7 @@ public class DataWriter {
       @SuppressWarnings("unchecked")
       Class<? extends Storage> storageClass = (Class<? extends Storage>) Class
               .forName(connectorConfig.getString(HdfsSinkConnectorConfig.STORAGE_CLASS_CONFIG));
-      storage = StorageFactory.createStorage(storageClass, conf, url);
+      storage = StorageFactory.createStorage(storageClass, connectorConfig, conf, url);
 
       createDir(topicsDir);
       createDir(topicsDir + HdfsSinkConnectorConstants.TEMPFILE_DIRECTORY);
@@ -185,15 +190,22 @@ public class DataWriter {
         hiveDatabase = connectorConfig.getString(HdfsSinkConnectorConfig.HIVE_DATABASE_CONFIG);
         hiveMetaStore = new HiveMetaStore(conf, connectorConfig);
         hive = format.getHiveUtil(connectorConfig, avroData, hiveMetaStore);
-        executorService = Executors.newSingleThreadExecutor();
+        executorService = new HiveUpdateExecutor(
+            connectorConfig.getInt(HdfsSinkConnectorConfig.HIVE_METASTORE_CLIENTS_CONFIG));
         hiveUpdateFutures = new LinkedList<>();
+        hiveSyncs = new LinkedHashMap<>();
+        hiveSyncMetrics = new HiveSyncMetrics();
+      }
+
+      if (connectorConfig.getLong(HdfsSinkConnectorConfig.COMPACTION_WATERMARK_MS_CONFIG) >= 0) {
+        compactionScheduler = new CompactionScheduler(connectorConfig, storage, format, partitioner);
       }
 
       topicPartitionWriters = new HashMap<>();
       for (TopicPartition tp: assignment) {
         TopicPartitionWriter topicPartitionWriter = new TopicPartitionWriter(
             tp, storage, writerProvider, partitioner, connectorConfig, context, avroData, hiveMetaStore, hive, schemaFileReader, executorService,
-            hiveUpdateFutures);
+            hiveUpdateFutures, compaction(tp));
         topicPartitionWriters.put(tp, topicPartitionWriter);
       }
     } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
@@ -212,6 +224,7 @@ public class DataWriter {
     }
 
     if (hiveIntegration) {
+      checkHiveSyncs();
       Iterator<Future<Void>> iterator = hiveUpdateFutures.iterator();
       while (iterator.hasNext()) {
         try {
@@ -239,43 +252,144 @@ public class DataWriter {
     topicPartitionWriters.get(tp).recover();
   }
 
+  /**
+   * Creates the Hive tables of the assigned topics that do not exist yet and adds the partitions
+   * that are missing from them, waiting for the sync to finish. The topics are synced in parallel
+   * on the Hive update threads.
+   */
   public void syncWithHive() throws ConnectException {
+    startHiveSync();
+    // Wait for every topic before reporting a failure, so that no sync outlives the call.
+    Throwable failure = null;
+    for (Future<Void> sync : hiveSyncs.values()) {
+      try {
+        sync.get();
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ConnectException("Interrupted while syncing with Hive", e);
+      }
+    }
+    hiveSyncs.clear();
+    if (failure instanceof ConnectException) {
+      throw (ConnectException) failure;
+    } else if (failure != null) {
+      throw new ConnectException(failure);
+    }
+  }
+
+  /**
+   * Starts syncing the Hive tables of the assigned topics in the background and returns
+   * immediately. The sync of a topic runs on the same Hive update thread as the schema changes and
+   * partitions of the topic's writers, so those are applied after the table has been created.
+   * A failed sync is logged and retried from {@link #write(Collection)}.
+   */
+  public void startHiveSync() {
     Set<String> topics = new HashSet<>();
     for (TopicPartition tp: assignment) {
       topics.add(tp.topic());
     }
+    topics.removeAll(hiveSyncs.keySet());
+    hiveSyncMetrics.started(topics.size());
+    for (String topic: topics) {
+      hiveSyncs.put(topic, submitHiveSync(topic));
+    }
+  }
 
-    try {
-      for (String topic: topics) {
-        String topicDir = FileUtils.topicDirectory(url, topicsDir, topic);
-        CommittedFileFilter filter = new TopicCommittedFileFilter(topic);
-        FileStatus fileStatusWithMaxOffset = FileUtils.fileStatusWithMaxOffset(storage, new Path(topicDir), filter);
-        if (fileStatusWithMaxOffset != null) {
-          Schema latestSchema = schemaFileReader.getSchema(conf, fileStatusWithMaxOffset.getPath());
-          hive.createTable(hiveDatabase, topic, latestSchema, partitioner);
-          List<String> partitions = hiveMetaStore.listPartitions(hiveDatabase, topic, (short) -1);
-          FileStatus[] statuses = FileUtils.getDirectories(storage, new Path(topicDir));
-          for (FileStatus status : statuses) {
-            String location = status.getPath().toString();
-            if (!partitions.contains(location)) {
-              String partitionValue = getPartitionValue(location);
-              hiveMetaStore.addPartition(hiveDatabase, topic, partitionValue);
-            }
-          }
+  private Future<Void> submitHiveSync(final String topic) {
+    return executorService.submit(topic, new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        syncWithHive(topic);
+        hiveSyncMetrics.synced();
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Drops the finished background syncs and resubmits the failed ones, at most once per
+   * {@value HdfsSinkConnectorConfig#RETRY_BACKOFF_CONFIG}.
+   */
+  private void checkHiveSyncs() {
+    long now = System.currentTimeMillis();
+    boolean retried = false;
+    Iterator<Map.Entry<String, Future<Void>>> iterator = hiveSyncs.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Future<Void>> entry = iterator.next();
+      if (!entry.getValue().isDone()) {
+        continue;
+      }
+      try {
+        entry.getValue().get();
+        log.info("Synced Hive table of topic {}", entry.getKey());
+        iterator.remove();
+      } catch (ExecutionException e) {
+        if (now >= hiveSyncRetryTime) {
+          log.error("Failed to sync Hive table of topic {}, retrying", entry.getKey(), e.getCause());
+          hiveSyncMetrics.failed();
+          entry.setValue(submitHiveSync(entry.getKey()));
+          retried = true;
         }
+      } catch (InterruptedException e) {
+        // ignore
       }
-    } catch (IOException e) {
-      throw new ConnectException(e);
+    }
+    if (retried) {
+      hiveSyncRetryTime = now + connectorConfig.getLong(HdfsSinkConnectorConfig.RETRY_BACKOFF_CONFIG);
+    }
+  }
+
+  private void syncWithHive(String topic) throws IOException {
+    Path topicDir = new Path(FileUtils.topicDirectory(url, topicsDir, topic));
+    if (!hiveMetaStore.tableExists(hiveDatabase, topic)) {
+      CommittedFileFilter filter = new TopicCommittedFileFilter(topic);
+      FileStatus fileStatusWithMaxOffset = FileUtils.fileStatusWithMaxOffset(storage, topicDir, filter);
+      if (fileStatusWithMaxOffset == null) {
+        return;
+      }
+      Schema latestSchema = schemaFileReader.getSchema(conf, fileStatusWithMaxOffset.getPath());
+      hive.createTable(hiveDatabase, topic, latestSchema, partitioner);
+    } else if (!storage.exists(topicDir)) {
+      return;
+    }
+
+    // Hive lists escaped names, which are normalized the same way as the directory names below.
+    Set<String> partitionNames = new HashSet<>();
+    for (String name : hiveMetaStore.listPartitionNames(hiveDatabase, topic)) {
+      partitionNames.add(HiveMetaStore.partitionName(name));
+    }
+    String topicPath = topicDir.toUri().getPath() + "/";
+    Map<String, String> missing = new HashMap<>();
+    for (FileStatus status : FileUtils.getDirectories(storage, topicDir)) {
+      String path = status.getPath().toUri().getPath();
+      String partitionName = path.startsWith(topicPath) ? path.substring(topicPath.length()) : path;
+      if (!partitionNames.contains(HiveMetaStore.partitionName(partitionName))) {
+        missing.put(partitionName, status.getPath().toString());
+      }
+    }
+    if (!missing.isEmpty()) {
+      log.info("Adding {} missing partitions to Hive table {}", missing.size(), topic);
+      hiveMetaStore.addPartitions(hiveDatabase, topic, missing);
+      hiveSyncMetrics.partitionsAdded(missing.size());
     }
   }
 
   public void open(Collection<TopicPartition> partitions) {
     assignment = new HashSet<>(partitions);
+    // Create all writers before recovering any of them, so that a WAL shared by the partitions of
+    // the task is read once for the whole assignment.
     for (TopicPartition tp: assignment) {
       TopicPartitionWriter topicPartitionWriter = new TopicPartitionWriter(
           tp, storage, writerProvider, partitioner, connectorConfig, context, avroData,
-          hiveMetaStore, hive, schemaFileReader, executorService, hiveUpdateFutures);
+          hiveMetaStore, hive, schemaFileReader, executorService, hiveUpdateFutures,
+          compaction(tp));
       topicPartitionWriters.put(tp, topicPartitionWriter);
+    }
+    for (TopicPartition tp: assignment) {
       // We need to immediately start recovery to ensure we pause consumption of messages for the
       // assigned topics while we try to recover offsets and rewind.
       recover(tp);
@@ -321,6 +435,15 @@ public class DataWriter {
         executorService.shutdownNow();
       }
     }
+    if (compactionScheduler != null) {
+      compactionScheduler.close();
+    }
+    if (hiveMetaStore != null) {
+      hiveMetaStore.close();
+    }
+    if (hiveSyncMetrics != null) {
+      hiveSyncMetrics.close();
+    }
 
     try {
       storage.close();
@@ -335,6 +458,10 @@ public class DataWriter {
     }
   }
 
+  private CompactionScheduler.TopicPartitionCompaction compaction(TopicPartition tp) {
+    return compactionScheduler == null ? null : compactionScheduler.forPartition(tp);
+  }
+
   public Partitioner getPartitioner() {
     return partitioner;
   }
@@ -375,17 +502,6 @@ public class DataWriter {
     return  ((Class<Format>) Class.forName(connectorConfig.getString(HdfsSinkConnectorConfig.FORMAT_CLASS_CONFIG))).newInstance();
   }
 
-  private String getPartitionValue(String path) {
-    String[] parts = path.split("/");
-    StringBuilder sb =  new StringBuilder();
-    sb.append("/");
-    for (int i = 3; i < parts.length; ++i) {
-      sb.append(parts[i]);
-      sb.append("/");
-    }
-    return sb.toString();
-  }
-
   private Partitioner createPartitioner(HdfsSinkConnectorConfig config)
       throws ClassNotFoundException, IllegalAccessException, InstantiationException {
 
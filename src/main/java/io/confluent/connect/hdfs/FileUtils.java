@@ -39,6 +39,10 @@ public class FileUtils {
     return fileName(url, logsDir, topicPart, "log");
   }
 
+  public static String taskLogDirectory(String url, String logsDir, String connectorName) {
+    return url + "/" + logsDir + "/" + HdfsSinkConnectorConstants.TASK_LOG_DIRECTORY + "/" + connectorName;
+  }
+
   public static String directoryName(String url, String topicsDir, TopicPartition topicPart) {
     String topic = topicPart.topic();
     int partition = topicPart.partition();
@@ -95,11 +99,11 @@ public class FileUtils {
 
   private static ArrayList<FileStatus> traverseImpl(Storage storage, Path path, PathFilter filter)
       throws IOException {
-    if (!storage.exists(path.toString())) {
+    if (!storage.exists(path)) {
       return new ArrayList<>();
     }
     ArrayList<FileStatus> result = new ArrayList<>();
-    FileStatus[] statuses = storage.listStatus(path.toString());
+    FileStatus[] statuses = storage.listStatus(path);
     for (FileStatus status : statuses) {
       if (status.isDirectory()) {
         result.addAll(traverseImpl(storage, status.getPath(), filter));
@@ -120,12 +124,12 @@ public class FileUtils {
 
   public static FileStatus fileStatusWithMaxOffset(Storage storage, Path path,
                                                    CommittedFileFilter filter) throws IOException {
-    if (!storage.exists(path.toString())) {
+    if (!storage.exists(path)) {
       return null;
     }
     long maxOffset = -1L;
     FileStatus fileStatusWithMaxOffset = null;
-    FileStatus[] statuses = storage.listStatus(path.toString());
+    FileStatus[] statuses = storage.listStatus(path);
     for (FileStatus status : statuses) {
       if (status.isDirectory()) {
         FileStatus fileStatus = fileStatusWithMaxOffset(storage, status.getPath(), filter);
@@ -160,14 +164,23 @@ public class FileUtils {
     return Long.parseLong(m.group(HdfsSinkConnectorConstants.PATTERN_END_OFFSET_GROUP));
   }
 
+  public static long extractStartOffset(String filename) {
+    Matcher m = HdfsSinkConnectorConstants.COMMITTED_FILENAME_PATTERN.matcher(filename);
+    // NB: if statement has side effect of enabling group() call
+    if (!m.matches()) {
+      throw new IllegalArgumentException(filename + " does not match COMMITTED_FILENAME_PATTERN");
+    }
+    return Long.parseLong(m.group(HdfsSinkConnectorConstants.PATTERN_START_OFFSET_GROUP));
+  }
+
   private static ArrayList<FileStatus> getDirectoriesImpl(Storage storage, Path path)
       throws IOException {
-    FileStatus[] statuses = storage.listStatus(path.toString());
+    FileStatus[] statuses = storage.listStatus(path);
     ArrayList<FileStatus> result = new ArrayList<>();
     for (FileStatus status : statuses) {
       if (status.isDirectory()) {
         int count = 0;
-        FileStatus[] fileStatuses = storage.listStatus(status.getPath().toString());
+        FileStatus[] fileStatuses = storage.listStatus(status.getPath());
         for (FileStatus fileStatus : fileStatuses) {
           if (fileStatus.isDirectory()) {
             result.addAll(getDirectoriesImpl(storage, fileStatus.getPath()));
@@ -72,6 +72,72 @@ public class HdfsSinkConnectorConfig extends AbstractConfig {
   public static final String FORMAT_CLASS_DEFAULT = "io.confluent.connect.hdfs.avro.AvroFormat";
   private static final String FORMAT_CLASS_DISPLAY = "Format class";
 
+  public static final String OPTIMISTIC_COMMIT_CONFIG = "optimistic.commit";
+  private static final String OPTIMISTIC_COMMIT_DOC =
+      "Whether to commit files by renaming them right away and relying on the result of the rename, "
+      + "instead of first checking that the temp file, the committed file and the target directory "
+      + "exist. Directories known to exist are cached by the task, so a commit usually takes a "
+      + "single NameNode call. Directories removed outside of the connector while it is running "
+      + "are recreated on the next failed rename.";
+  public static final boolean OPTIMISTIC_COMMIT_DEFAULT = false;
+  private static final String OPTIMISTIC_COMMIT_DISPLAY = "Optimistic Commit";
+
+  public static final String STORAGE_OPERATION_TIMEOUT_MS_CONFIG = "storage.operation.timeout.ms";
+  private static final String STORAGE_OPERATION_TIMEOUT_MS_DOC =
+      "The maximum time in milliseconds a single HDFS operation, such as closing a file, syncing "
+      + "the WAL or renaming a file, may take. An operation that takes longer fails and the topic "
+      + "partition is retried after ``retry.backoff.ms``. The default value 0 means no deadline.";
+  public static final long STORAGE_OPERATION_TIMEOUT_MS_DEFAULT = 0L;
+  private static final String STORAGE_OPERATION_TIMEOUT_MS_DISPLAY = "Storage Operation Timeout (ms)";
+
+  public static final String STORAGE_HEDGE_DELAY_MS_CONFIG = "storage.hedge.delay.ms";
+  private static final String STORAGE_HEDGE_DELAY_MS_DOC =
+      "The time in milliseconds after which an idempotent read, such as checking whether a file "
+      + "exists, listing a directory or reading a schema from a file, is started a second time "
+      + "and the first result is used. The default value 0 disables hedging.";
+  public static final long STORAGE_HEDGE_DELAY_MS_DEFAULT = 0L;
+  private static final String STORAGE_HEDGE_DELAY_MS_DISPLAY = "Storage Hedge Delay (ms)";
+
+  public static final String WAL_SCOPE_CONFIG = "wal.scope";
+  private static final String WAL_SCOPE_DOC =
+      "The scope of the write ahead logs. With ``partition`` each topic partition has its own log, "
+      + "which holds an HDFS lease and an open output stream per partition. With ``task`` all topic "
+      + "partitions of a task share a single log, which is synced once per entry no matter how many "
+      + "partitions the task writes. Each partition still holds the lease on a small lease file, "
+      + "written to once per transaction, so that a task taking over a partition fences its previous "
+      + "owner. Logs written in partition scope are still replayed after switching to task scope.";
+  public static final String WAL_SCOPE_PARTITION = "partition";
+  public static final String WAL_SCOPE_TASK = "task";
+  public static final String WAL_SCOPE_DEFAULT = WAL_SCOPE_PARTITION;
+  private static final String WAL_SCOPE_DISPLAY = "WAL Scope";
+
+  public static final String WAL_CHECKPOINT_INTERVAL_CONFIG = "wal.checkpoint.interval";
+  private static final String WAL_CHECKPOINT_INTERVAL_DOC =
+      "The number of transactions after which a write ahead log is checkpointed. A checkpoint "
+      + "starts a new log that only holds the last complete transaction of each topic partition, "
+      + "so that recovery replays a bounded log. Setting it to 0 disables checkpoints, in which "
+      + "case the log of a partition is only rotated when the partition is recovered.";
+  public static final int WAL_CHECKPOINT_INTERVAL_DEFAULT = 1000;
+  private static final String WAL_CHECKPOINT_INTERVAL_DISPLAY = "WAL Checkpoint Interval";
+
+  public static final String LOGS_URL_CONFIG = "logs.url";
+  private static final String LOGS_URL_DOC =
+      "The URL of the file system that holds ``logs.dir``, e.g. hdfs://hostname:port. The write "
+      + "ahead logs need appends, flushes and leases, so this is required by "
+      + "``ObjectStoreStorage``, whose object store provides none of them. Leave it empty to keep "
+      + "the logs on ``hdfs.url``.";
+  public static final String LOGS_URL_DEFAULT = "";
+  private static final String LOGS_URL_DISPLAY = "Logs URL";
+
+  public static final String WAL_VERSION_CONFIG = "wal.version";
+  private static final String WAL_VERSION_DOC =
+      "The format version of new write ahead log files. Version 1 encodes the file names of the "
+      + "log compactly, but cannot be read by connectors older than this one. Keep version 0 until "
+      + "every worker can read version 1, so the connector can still be downgraded. A log that is "
+      + "appended to keeps its version.";
+  public static final int WAL_VERSION_DEFAULT = 0;
+  private static final String WAL_VERSION_DISPLAY = "WAL Version";
+
   // Hive group
   public static final String HIVE_INTEGRATION_CONFIG = "hive.integration";
   private static final String HIVE_INTEGRATION_DOC =
@@ -102,6 +168,34 @@ public class HdfsSinkConnectorConfig extends AbstractConfig {
   private static final String HIVE_DATABASE_DEFAULT = "default";
   private static final String HIVE_DATABASE_DISPLAY = "Hive database";
 
+  public static final String HIVE_METASTORE_CLIENTS_CONFIG = "hive.metastore.clients";
+  private static final String HIVE_METASTORE_CLIENTS_DOC =
+      "The number of Hive metastore clients of a task, which is also the number of Hive updates it "
+      + "runs concurrently. The updates of a table are always applied in order, the updates of "
+      + "different tables run in parallel.";
+  public static final int HIVE_METASTORE_CLIENTS_DEFAULT = 1;
+  private static final String HIVE_METASTORE_CLIENTS_DISPLAY = "Hive Metastore Clients";
+
+  public static final String HIVE_STATISTICS_CONFIG = "hive.statistics";
+  private static final String HIVE_STATISTICS_DOC =
+      "Whether to add the row count, size and column statistics of each committed file to its Hive "
+      + "partition, so that queries can use them without running ANALYZE. The statistics are "
+      + "updated in the background, at most once per ``hive.statistics.interval.ms`` for each "
+      + "topic partition. Row counts and sizes are kept per topic partition and derived from the "
+      + "committed files, so retried and concurrent updates do not change them, while column "
+      + "statistics are approximate, so partitions are marked as not having accurate statistics. "
+      + "The number and size of files are listed before each update.";
+  public static final boolean HIVE_STATISTICS_DEFAULT = false;
+  private static final String HIVE_STATISTICS_DISPLAY = "Hive Statistics";
+
+  public static final String HIVE_STATISTICS_INTERVAL_MS_CONFIG = "hive.statistics.interval.ms";
+  private static final String HIVE_STATISTICS_INTERVAL_MS_DOC =
+      "The minimum time between two updates of the Hive statistics of a topic partition, in "
+      + "milliseconds. The statistics of the files committed in the meantime are merged per "
+      + "partition. The value 0 updates them after every commit.";
+  public static final long HIVE_STATISTICS_INTERVAL_MS_DEFAULT = 60000L;
+  private static final String HIVE_STATISTICS_INTERVAL_MS_DISPLAY = "Hive Statistics Interval (ms)";
+
   // Security group
   public static final String HDFS_AUTHENTICATION_KERBEROS_CONFIG = "hdfs.authentication.kerberos";
   private static final String HDFS_AUTHENTICATION_KERBEROS_DOC =
@@ -226,6 +320,76 @@ public class HdfsSinkConnectorConfig extends AbstractConfig {
   public static final int FILENAME_OFFSET_ZERO_PAD_WIDTH_DEFAULT = 10;
   private static final String FILENAME_OFFSET_ZERO_PAD_WIDTH_DISPLAY = "Filename Offset Zero Pad Width";
 
+  public static final String MAX_OPEN_WRITERS_CONFIG = "max.open.writers";
+  private static final String MAX_OPEN_WRITERS_DOC =
+      "The maximum number of files a topic partition writes to at the same time. When a record "
+      + "needs another file, the least recently written file is closed and a new file is started "
+      + "for its partition directory when it receives records again. Closed files are committed "
+      + "with the other files of the topic partition. This bounds the memory and the output "
+      + "streams used by partitioners with many distinct partitions. The default value 0 does not "
+      + "limit the number of files.";
+  public static final int MAX_OPEN_WRITERS_DEFAULT = 0;
+  private static final String MAX_OPEN_WRITERS_DISPLAY = "Max Open Writers";
+
+  public static final String ROTATION_SCOPE_CONFIG = "rotation.scope";
+  private static final String ROTATION_SCOPE_DOC =
+      "The scope of file rotation. With ``topic.partition`` all files of a topic partition are "
+      + "rotated together once the topic partition reaches ``flush.size`` records or one of the "
+      + "rotation intervals. With ``encoded.partition`` the file of each partition directory is "
+      + "rotated on its own once it holds ``flush.size`` records or has been open for "
+      + "``rotate.interval.ms``, so a busy directory does not force small files in the others. "
+      + "Files are committed in offset order, so the committed offset of the topic partition only "
+      + "advances past records of which every file is committed. ``encoded.partition`` requires "
+      + "``rotate.interval.ms`` or ``rotate.schedule.interval.ms`` to be set, so that every file "
+      + "is eventually committed.";
+  public static final String ROTATION_SCOPE_TOPIC_PARTITION = "topic.partition";
+  public static final String ROTATION_SCOPE_ENCODED_PARTITION = "encoded.partition";
+  public static final String ROTATION_SCOPE_DEFAULT = ROTATION_SCOPE_TOPIC_PARTITION;
+  private static final String ROTATION_SCOPE_DISPLAY = "Rotation Scope";
+
+  public static final String COMPACTION_WATERMARK_MS_CONFIG = "compaction.watermark.ms";
+  private static final String COMPACTION_WATERMARK_MS_DOC =
+      "How long after a time based partition stops receiving records its committed files are "
+      + "merged by the task in the background, in milliseconds. Only partition directories the "
+      + "task committed files to are compacted, and only with ``TimeBasedPartitioner`` and the "
+      + "Avro or Parquet format. The default value -1 disables compaction.";
+  public static final long COMPACTION_WATERMARK_MS_DEFAULT = -1L;
+  private static final String COMPACTION_WATERMARK_MS_DISPLAY = "Compaction Watermark (ms)";
+
+  public static final String COMPACTION_MAX_FILE_SIZE_CONFIG = "compaction.max.file.size";
+  private static final String COMPACTION_MAX_FILE_SIZE_DOC =
+      "The maximum size in bytes of the files merged by compaction. The value 0 merges all files "
+      + "of a partition directory into one.";
+  public static final long COMPACTION_MAX_FILE_SIZE_DEFAULT = 256 * 1024 * 1024L;
+  private static final String COMPACTION_MAX_FILE_SIZE_DISPLAY = "Compaction Max File Size";
+
+  public static final String COMPACTION_MAX_BYTES_PER_SECOND_CONFIG = "compaction.max.bytes.per.second";
+  private static final String COMPACTION_MAX_BYTES_PER_SECOND_DOC =
+      "The number of bytes per second the compaction of a task reads on average. A task merges "
+      + "one group of files at a time and waits after each merge until it is within this budget. "
+      + "The value 0 does not limit compaction.";
+  public static final long COMPACTION_MAX_BYTES_PER_SECOND_DEFAULT = 10 * 1024 * 1024L;
+  private static final String COMPACTION_MAX_BYTES_PER_SECOND_DISPLAY = "Compaction Max Bytes Per Second";
+
+  public static final String SORT_FIELDS_CONFIG = "sort.fields";
+  private static final String SORT_FIELDS_DOC =
+      "Fields of the record values to sort the records of each file by, in order of precedence. "
+      + "Files hold the same records as without sorting, so offsets and file names do not change, "
+      + "but clustered values make the statistics and dictionaries of columnar formats more "
+      + "effective. Records with equal fields stay in offset order, and fields that a schema does "
+      + "not have are ignored. By default records are written in offset order.";
+  public static final String SORT_FIELDS_DEFAULT = "";
+  private static final String SORT_FIELDS_DISPLAY = "Sort Fields";
+
+  public static final String SORT_BUFFER_MAX_RECORDS_CONFIG = "sort.buffer.max.records";
+  private static final String SORT_BUFFER_MAX_RECORDS_DOC =
+      "The maximum number of records a file holds in memory to sort them with ``sort.fields``. "
+      + "Once it is reached, the records are sorted and spilled to the local ``staging.dir``, and "
+      + "the spilled runs are merged when the file is closed. The memory used is bounded by this "
+      + "times the number of open files, see ``max.open.writers``.";
+  public static final int SORT_BUFFER_MAX_RECORDS_DEFAULT = 100000;
+  private static final String SORT_BUFFER_MAX_RECORDS_DISPLAY = "Sort Buffer Max Records";
+
   // Schema group
   public static final String SCHEMA_COMPATIBILITY_CONFIG = "schema.compatibility";
   private static final String SCHEMA_COMPATIBILITY_DOC =
@@ -247,6 +411,33 @@ public class HdfsSinkConnectorConfig extends AbstractConfig {
   public static final String STORAGE_CLASS_DEFAULT = "io.confluent.connect.hdfs.storage.HdfsStorage";
   private static final String STORAGE_CLASS_DISPLAY = "Storage Class";
 
+  public static final String STAGING_DIR_CONFIG = "staging.dir";
+  private static final String STAGING_DIR_DOC =
+      "Local directory used to stage temp files before they are uploaded under their final name. "
+      + "Used by ``ObjectStoreStorage`` and, if ``local.staging`` is enabled, by ``HdfsStorage``. "
+      + "Records sorted with ``sort.fields`` are spilled to it as well.";
+  public static final String STAGING_DIR_DEFAULT =
+      System.getProperty("java.io.tmpdir") + "/kafka-connect-hdfs-staging";
+  private static final String STAGING_DIR_DISPLAY = "Staging Directory";
+
+  public static final String LOCAL_STAGING_CONFIG = "local.staging";
+  private static final String LOCAL_STAGING_DOC =
+      "Whether ``HdfsStorage`` writes temp files to the local staging directory and uploads each "
+      + "one to HDFS in a single sequential copy when it is closed, before it is recorded in the "
+      + "write ahead log. This keeps a DataNode pipeline open only while a file is uploaded "
+      + "instead of while it is written, at the cost of local disk space. The records of files "
+      + "that are still open when the worker fails are consumed from Kafka again.";
+  public static final boolean LOCAL_STAGING_DEFAULT = false;
+  private static final String LOCAL_STAGING_DISPLAY = "Local Staging";
+
+  public static final String STAGING_MAX_BYTES_CONFIG = "staging.max.bytes";
+  private static final String STAGING_MAX_BYTES_DOC =
+      "The maximum number of bytes of temp files in the staging directory. Once it is reached, new "
+      + "temp files are written to the storage directly until staged files are committed. The "
+      + "default value 0 does not limit the staging directory.";
+  public static final long STAGING_MAX_BYTES_DEFAULT = 0L;
+  private static final String STAGING_MAX_BYTES_DISPLAY = "Staging Max Bytes";
+
   public static final String HDFS_GROUP = "HDFS";
   public static final String HIVE_GROUP = "Hive";
   public static final String SECURITY_GROUP = "Security";
@@ -269,16 +460,29 @@ public class HdfsSinkConnectorConfig extends AbstractConfig {
         .define(HADOOP_HOME_CONFIG, Type.STRING, HADOOP_HOME_DEFAULT, Importance.HIGH, HADOOP_HOME_DOC, HDFS_GROUP, 3, Width.SHORT, HADOOP_HOME_DISPLAY)
         .define(TOPICS_DIR_CONFIG, Type.STRING, TOPICS_DIR_DEFAULT, Importance.HIGH, TOPICS_DIR_DOC, HDFS_GROUP, 4, Width.SHORT, TOPICS_DIR_DISPLAY)
         .define(LOGS_DIR_CONFIG, Type.STRING, LOGS_DIR_DEFAULT, Importance.HIGH, LOGS_DIR_DOC, HDFS_GROUP, 5, Width.SHORT, LOGS_DIR_DISPLAY)
-        .define(FORMAT_CLASS_CONFIG, Type.STRING, FORMAT_CLASS_DEFAULT, Importance.HIGH, FORMAT_CLASS_DOC, HDFS_GROUP, 6, Width.SHORT, FORMAT_CLASS_DISPLAY);
+        .define(FORMAT_CLASS_CONFIG, Type.STRING, FORMAT_CLASS_DEFAULT, Importance.HIGH, FORMAT_CLASS_DOC, HDFS_GROUP, 6, Width.SHORT, FORMAT_CLASS_DISPLAY)
+        .define(OPTIMISTIC_COMMIT_CONFIG, Type.BOOLEAN, OPTIMISTIC_COMMIT_DEFAULT, Importance.LOW, OPTIMISTIC_COMMIT_DOC, HDFS_GROUP, 7, Width.SHORT, OPTIMISTIC_COMMIT_DISPLAY)
+        .define(STORAGE_OPERATION_TIMEOUT_MS_CONFIG, Type.LONG, STORAGE_OPERATION_TIMEOUT_MS_DEFAULT, ConfigDef.Range.atLeast(0), Importance.LOW, STORAGE_OPERATION_TIMEOUT_MS_DOC, HDFS_GROUP, 8, Width.SHORT, STORAGE_OPERATION_TIMEOUT_MS_DISPLAY)
+        .define(STORAGE_HEDGE_DELAY_MS_CONFIG, Type.LONG, STORAGE_HEDGE_DELAY_MS_DEFAULT, ConfigDef.Range.atLeast(0), Importance.LOW, STORAGE_HEDGE_DELAY_MS_DOC, HDFS_GROUP, 9, Width.SHORT, STORAGE_HEDGE_DELAY_MS_DISPLAY)
+        .define(WAL_SCOPE_CONFIG, Type.STRING, WAL_SCOPE_DEFAULT, ConfigDef.ValidString.in(WAL_SCOPE_PARTITION, WAL_SCOPE_TASK), Importance.LOW, WAL_SCOPE_DOC, HDFS_GROUP, 10, Width.SHORT, WAL_SCOPE_DISPLAY)
+        .define(WAL_CHECKPOINT_INTERVAL_CONFIG, Type.INT, WAL_CHECKPOINT_INTERVAL_DEFAULT, ConfigDef.Range.atLeast(0), Importance.LOW, WAL_CHECKPOINT_INTERVAL_DOC, HDFS_GROUP, 11, Width.SHORT, WAL_CHECKPOINT_INTERVAL_DISPLAY)
+        .define(LOGS_URL_CONFIG, Type.STRING, LOGS_URL_DEFAULT, Importance.LOW, LOGS_URL_DOC, HDFS_GROUP, 12, Width.MEDIUM, LOGS_URL_DISPLAY)
+        .define(WAL_VERSION_CONFIG, Type.INT, WAL_VERSION_DEFAULT, ConfigDef.Range.between(0, 1), Importance.LOW, WAL_VERSION_DOC, HDFS_GROUP, 13, Width.SHORT, WAL_VERSION_DISPLAY);
 
     // Define Hive configuration group
     config.define(HIVE_INTEGRATION_CONFIG, Type.BOOLEAN, HIVE_INTEGRATION_DEFAULT, Importance.HIGH, HIVE_INTEGRATION_DOC, HIVE_GROUP, 1, Width.SHORT, HIVE_INTEGRATION_DISPLAY,
-                  Arrays.asList(HIVE_METASTORE_URIS_CONFIG, HIVE_CONF_DIR_CONFIG, HIVE_HOME_CONFIG, HIVE_DATABASE_CONFIG, SCHEMA_COMPATIBILITY_CONFIG))
+                  Arrays.asList(HIVE_METASTORE_URIS_CONFIG, HIVE_CONF_DIR_CONFIG, HIVE_HOME_CONFIG, HIVE_DATABASE_CONFIG, HIVE_METASTORE_CLIENTS_CONFIG, HIVE_STATISTICS_CONFIG, HIVE_STATISTICS_INTERVAL_MS_CONFIG, SCHEMA_COMPATIBILITY_CONFIG))
         .define(HIVE_METASTORE_URIS_CONFIG, Type.STRING, HIVE_METASTORE_URIS_DEFAULT, Importance.HIGH, HIVE_METASTORE_URIS_DOC, HIVE_GROUP, 2, Width.MEDIUM,
                 HIVE_METASTORE_URIS_DISPLAY, hiveIntegrationDependentsRecommender)
         .define(HIVE_CONF_DIR_CONFIG, Type.STRING, HIVE_CONF_DIR_DEFAULT, Importance.HIGH, HIVE_CONF_DIR_DOC, HIVE_GROUP, 3, Width.MEDIUM, HIVE_CONF_DIR_DISPLAY, hiveIntegrationDependentsRecommender)
         .define(HIVE_HOME_CONFIG, Type.STRING, HIVE_HOME_DEFAULT, Importance.HIGH, HIVE_HOME_DOC, HIVE_GROUP, 4, Width.MEDIUM, HIVE_HOME_DISPLAY, hiveIntegrationDependentsRecommender)
-        .define(HIVE_DATABASE_CONFIG, Type.STRING, HIVE_DATABASE_DEFAULT, Importance.HIGH, HIVE_DATABASE_DOC, HIVE_GROUP, 5, Width.SHORT, HIVE_DATABASE_DISPLAY, hiveIntegrationDependentsRecommender);
+        .define(HIVE_DATABASE_CONFIG, Type.STRING, HIVE_DATABASE_DEFAULT, Importance.HIGH, HIVE_DATABASE_DOC, HIVE_GROUP, 5, Width.SHORT, HIVE_DATABASE_DISPLAY, hiveIntegrationDependentsRecommender)
+        .define(HIVE_METASTORE_CLIENTS_CONFIG, Type.INT, HIVE_METASTORE_CLIENTS_DEFAULT, ConfigDef.Range.atLeast(1), Importance.LOW, HIVE_METASTORE_CLIENTS_DOC, HIVE_GROUP, 6, Width.SHORT,
+                HIVE_METASTORE_CLIENTS_DISPLAY, hiveIntegrationDependentsRecommender)
+        .define(HIVE_STATISTICS_CONFIG, Type.BOOLEAN, HIVE_STATISTICS_DEFAULT, Importance.LOW, HIVE_STATISTICS_DOC, HIVE_GROUP, 7, Width.SHORT,
+                HIVE_STATISTICS_DISPLAY, hiveIntegrationDependentsRecommender)
+        .define(HIVE_STATISTICS_INTERVAL_MS_CONFIG, Type.LONG, HIVE_STATISTICS_INTERVAL_MS_DEFAULT, ConfigDef.Range.atLeast(0), Importance.LOW, HIVE_STATISTICS_INTERVAL_MS_DOC, HIVE_GROUP, 8,
+                Width.SHORT, HIVE_STATISTICS_INTERVAL_MS_DISPLAY, hiveIntegrationDependentsRecommender);
 
     // Define Security configuration group
     config.define(HDFS_AUTHENTICATION_KERBEROS_CONFIG, Type.BOOLEAN, HDFS_AUTHENTICATION_KERBEROS_DEFAULT, Importance.HIGH, HDFS_AUTHENTICATION_KERBEROS_DOC,
@@ -315,10 +519,20 @@ public class HdfsSinkConnectorConfig extends AbstractConfig {
         .define(LOCALE_CONFIG, Type.STRING, LOCALE_DEFAULT, Importance.MEDIUM, LOCALE_DOC, CONNECTOR_GROUP, 10, Width.MEDIUM, LOCALE_DISPLAY, partitionerClassDependentsRecommender)
         .define(TIMEZONE_CONFIG, Type.STRING, TIMEZONE_DEFAULT, Importance.MEDIUM, TIMEZONE_DOC, CONNECTOR_GROUP, 11, Width.MEDIUM, TIMEZONE_DISPLAY, partitionerClassDependentsRecommender)
         .define(FILENAME_OFFSET_ZERO_PAD_WIDTH_CONFIG, Type.INT, FILENAME_OFFSET_ZERO_PAD_WIDTH_DEFAULT, ConfigDef.Range.atLeast(0), Importance.LOW, FILENAME_OFFSET_ZERO_PAD_WIDTH_DOC,
-                CONNECTOR_GROUP, 12, Width.SHORT, FILENAME_OFFSET_ZERO_PAD_WIDTH_DISPLAY);
+                CONNECTOR_GROUP, 12, Width.SHORT, FILENAME_OFFSET_ZERO_PAD_WIDTH_DISPLAY)
+        .define(MAX_OPEN_WRITERS_CONFIG, Type.INT, MAX_OPEN_WRITERS_DEFAULT, ConfigDef.Range.atLeast(0), Importance.LOW, MAX_OPEN_WRITERS_DOC, CONNECTOR_GROUP, 13, Width.SHORT, MAX_OPEN_WRITERS_DISPLAY)
+        .define(ROTATION_SCOPE_CONFIG, Type.STRING, ROTATION_SCOPE_DEFAULT, ConfigDef.ValidString.in(ROTATION_SCOPE_TOPIC_PARTITION, ROTATION_SCOPE_ENCODED_PARTITION), Importance.LOW, ROTATION_SCOPE_DOC, CONNECTOR_GROUP, 14, Width.SHORT, ROTATION_SCOPE_DISPLAY)
+        .define(COMPACTION_WATERMARK_MS_CONFIG, Type.LONG, COMPACTION_WATERMARK_MS_DEFAULT, Importance.LOW, COMPACTION_WATERMARK_MS_DOC, CONNECTOR_GROUP, 15, Width.SHORT, COMPACTION_WATERMARK_MS_DISPLAY)
+        .define(COMPACTION_MAX_FILE_SIZE_CONFIG, Type.LONG, COMPACTION_MAX_FILE_SIZE_DEFAULT, ConfigDef.Range.atLeast(0), Importance.LOW, COMPACTION_MAX_FILE_SIZE_DOC, CONNECTOR_GROUP, 16, Width.SHORT, COMPACTION_MAX_FILE_SIZE_DISPLAY)
+        .define(COMPACTION_MAX_BYTES_PER_SECOND_CONFIG, Type.LONG, COMPACTION_MAX_BYTES_PER_SECOND_DEFAULT, ConfigDef.Range.atLeast(0), Importance.LOW, COMPACTION_MAX_BYTES_PER_SECOND_DOC, CONNECTOR_GROUP, 17, Width.SHORT, COMPACTION_MAX_BYTES_PER_SECOND_DISPLAY)
+        .define(SORT_FIELDS_CONFIG, Type.LIST, SORT_FIELDS_DEFAULT, Importance.LOW, SORT_FIELDS_DOC, CONNECTOR_GROUP, 18, Width.LONG, SORT_FIELDS_DISPLAY)
+        .define(SORT_BUFFER_MAX_RECORDS_CONFIG, Type.INT, SORT_BUFFER_MAX_RECORDS_DEFAULT, ConfigDef.Range.atLeast(1), Importance.LOW, SORT_BUFFER_MAX_RECORDS_DOC, CONNECTOR_GROUP, 19, Width.SHORT, SORT_BUFFER_MAX_RECORDS_DISPLAY);
 
     // Define Internal configuration group
-    config.define(STORAGE_CLASS_CONFIG, Type.STRING, STORAGE_CLASS_DEFAULT, Importance.LOW, STORAGE_CLASS_DOC, INTERNAL_GROUP, 1, Width.MEDIUM, STORAGE_CLASS_DISPLAY);
+    config.define(STORAGE_CLASS_CONFIG, Type.STRING, STORAGE_CLASS_DEFAULT, Importance.LOW, STORAGE_CLASS_DOC, INTERNAL_GROUP, 1, Width.MEDIUM, STORAGE_CLASS_DISPLAY)
+        .define(STAGING_DIR_CONFIG, Type.STRING, STAGING_DIR_DEFAULT, Importance.LOW, STAGING_DIR_DOC, INTERNAL_GROUP, 2, Width.MEDIUM, STAGING_DIR_DISPLAY)
+        .define(LOCAL_STAGING_CONFIG, Type.BOOLEAN, LOCAL_STAGING_DEFAULT, Importance.LOW, LOCAL_STAGING_DOC, INTERNAL_GROUP, 3, Width.SHORT, LOCAL_STAGING_DISPLAY)
+        .define(STAGING_MAX_BYTES_CONFIG, Type.LONG, STAGING_MAX_BYTES_DEFAULT, ConfigDef.Range.atLeast(0), Importance.LOW, STAGING_MAX_BYTES_DOC, INTERNAL_GROUP, 4, Width.MEDIUM, STAGING_MAX_BYTES_DISPLAY);
   }
 
   private static class SchemaCompatibilityRecommender extends BooleanParentRecommender {
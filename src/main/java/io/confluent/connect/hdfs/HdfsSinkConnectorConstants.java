@@ -30,4 +30,11 @@ public class HdfsSinkConnectorConstants {
 
   // +tmp is a invalid topic name, naming the tmp directory this way to avoid conflicts.
   public static final String TEMPFILE_DIRECTORY = "/+tmp/";
+
+  // Holds the task level WALs under the logs directory, named like TEMPFILE_DIRECTORY for the same reason.
+  public static final String TASK_LOG_DIRECTORY = "+task";
+
+  // Task property set by the connector to give each task a stable identity, e.g. for its WAL.
+  public static final String TASK_ID_CONFIG = "hdfs.task.id";
+  public static final String CONNECTOR_NAME_CONFIG = "name";
 }
@@ -71,12 +71,23 @@ public class HdfsSinkTask extends SinkTask {
         DateTimeZone.forID(timeZoneString);
       }
 
+      if (connectorConfig.getString(HdfsSinkConnectorConfig.ROTATION_SCOPE_CONFIG)
+              .equals(HdfsSinkConnectorConfig.ROTATION_SCOPE_ENCODED_PARTITION)
+          && connectorConfig.getLong(HdfsSinkConnectorConfig.ROTATE_INTERVAL_MS_CONFIG) <= 0
+          && connectorConfig.getLong(HdfsSinkConnectorConfig.ROTATE_SCHEDULE_INTERVAL_MS_CONFIG) <= 0) {
+        throw new ConfigException("Rotation in encoded partition scope requires "
+            + HdfsSinkConnectorConfig.ROTATE_INTERVAL_MS_CONFIG + " or "
+            + HdfsSinkConnectorConfig.ROTATE_SCHEDULE_INTERVAL_MS_CONFIG + " to be set");
+      }
+
       int schemaCacheSize = connectorConfig.getInt(HdfsSinkConnectorConfig.SCHEMA_CACHE_SIZE_CONFIG);
       avroData = new AvroData(schemaCacheSize);
       hdfsWriter = new DataWriter(connectorConfig, context, avroData);
       recover(assignment);
       if (hiveIntegration) {
-        syncWithHive();
+        // The Hive tables are synced in the background, so a slow metastore does not hold up
+        // writing to HDFS.
+        hdfsWriter.startHiveSync();
       }
     } catch (ConfigException e) {
       throw new ConnectException("Couldn't start HdfsSinkConnector due to configuration error.", e);
@@ -127,10 +138,6 @@ public class HdfsSinkTask extends SinkTask {
     }
   }
 
-  private void syncWithHive() throws ConnectException {
-    hdfsWriter.syncWithHive();
-  }
-
   public AvroData getAvroData() {
     return avroData;
   }
@@ -0,0 +1,412 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs;
+
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import io.confluent.connect.avro.AvroData;
+import io.confluent.connect.hdfs.errors.BatchWriteException;
+import io.confluent.connect.hdfs.errors.IncompleteFileException;
+
+/**
+ * A {@link RecordWriter} that writes the records of a file ordered by fields of their values, so
+ * that the statistics and encodings of columnar formats work on clustered values. Records with
+ * equal fields stay in offset order.
+ *
+ * <p>Records are held until the writer is closed. Once a writer holds its maximum number of
+ * records, they are sorted and spilled to a local file as a run, and the runs are merged when the
+ * writer is closed. Spilled records keep their offset and value only, which is all the record
+ * writers of the connector use; their values are read back with the value schema of the file.
+ *
+ * <p>A close that fails before any record reached the underlying writer, or while closing it, can
+ * be retried. Once records were handed to the underlying writer, its file cannot be completed, so
+ * the underlying writer is closed, the records are dropped and the close fails with an
+ * {@link IncompleteFileException}, rather than leaving a partial file to be committed.
+ */
+public class SortingRecordWriter implements BatchRecordWriter<SinkRecord> {
+
+  private static final String OFFSET_FIELD = "offset";
+  private static final String VALUE_FIELD = "value";
+  // The number of records handed to the underlying writer at a time.
+  private static final int BATCH_SIZE = 1000;
+
+  private final RecordWriter<SinkRecord> writer;
+  private final Comparator<SinkRecord> order;
+  private final int maxRecords;
+  private final File spillDirectory;
+  private final AvroData avroData;
+  private final SinkRecord first;
+  private final org.apache.avro.Schema avroValueSchema;
+  private final org.apache.avro.Schema runSchema;
+  private final List<SinkRecord> records;
+  private final List<File> runs;
+  // Whether close started handing records to the underlying writer, and whether it handed all.
+  private boolean writing;
+  private boolean written;
+  private boolean closed;
+
+  private SortingRecordWriter(RecordWriter<SinkRecord> writer, List<String> fields,
+                              int maxRecords, File spillDirectory, AvroData avroData,
+                              SinkRecord first) {
+    this.writer = writer;
+    this.order = new FieldOrder(fields);
+    this.maxRecords = maxRecords;
+    this.spillDirectory = spillDirectory;
+    this.avroData = avroData;
+    this.first = first;
+    this.avroValueSchema = avroData.fromConnectSchema(first.valueSchema());
+    this.runSchema = org.apache.avro.Schema.createRecord(
+        "SortRun", null, "io.confluent.connect.hdfs", false,
+        Arrays.asList(
+            new org.apache.avro.Schema.Field(
+                OFFSET_FIELD, org.apache.avro.Schema.create(org.apache.avro.Schema.Type.LONG),
+                null, (Object) null),
+            new org.apache.avro.Schema.Field(VALUE_FIELD, avroValueSchema, null, (Object) null)));
+    this.records = new ArrayList<>();
+    this.runs = new ArrayList<>();
+    this.writing = false;
+    this.written = false;
+    this.closed = false;
+  }
+
+  /**
+   * Returns a writer that sorts the records of a file by the fields of their value schema among
+   * the given ones, or the writer itself if the schema has none of them.
+   *
+   * @param first the first record of the file, whose value schema all records share
+   */
+  public static RecordWriter<SinkRecord> wrap(RecordWriter<SinkRecord> writer,
+                                              List<String> fields, int maxRecords,
+                                              File spillDirectory, AvroData avroData,
+                                              SinkRecord first) {
+    Schema schema = first.valueSchema();
+    if (schema == null || schema.type() != Schema.Type.STRUCT) {
+      return writer;
+    }
+    List<String> present = new ArrayList<>();
+    for (String field : fields) {
+      if (schema.field(field) != null) {
+        present.add(field);
+      }
+    }
+    if (present.isEmpty()) {
+      return writer;
+    }
+    return new SortingRecordWriter(writer, present, maxRecords, spillDirectory, avroData, first);
+  }
+
+  @Override
+  public void write(SinkRecord record) throws IOException {
+    // Spill before adding the record, so that a failed spill does not leave it held.
+    if (records.size() >= maxRecords) {
+      spill();
+    }
+    records.add(record);
+  }
+
+  @Override
+  public void writeAll(List<SinkRecord> values) throws IOException {
+    for (int i = 0; i < values.size(); ++i) {
+      try {
+        write(values.get(i));
+      } catch (IOException e) {
+        throw new BatchWriteException(i, e);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    if (!written) {
+      if (writing) {
+        throw new IncompleteFileException("Cannot retry closing a sorted file after a failed write");
+      }
+      if (!runs.isEmpty() && !records.isEmpty()) {
+        spill();
+      }
+      writing = true;
+      try {
+        if (runs.isEmpty()) {
+          Collections.sort(records, order);
+          List<SinkRecord> batch = new ArrayList<>(Math.min(records.size(), BATCH_SIZE));
+          for (SinkRecord record : records) {
+            batch.add(record);
+            if (batch.size() == BATCH_SIZE) {
+              writeBatch(batch);
+            }
+          }
+          writeBatch(batch);
+        } else {
+          merge();
+        }
+      } catch (IOException | RuntimeException e) {
+        discard();
+        // Releases the underlying writer, whose partial file is discarded by the caller.
+        try {
+          writer.close();
+        } catch (IOException | RuntimeException closeException) {
+          e.addSuppressed(closeException);
+        }
+        throw new IncompleteFileException("Failed to write the sorted records of a file", e);
+      }
+      written = true;
+    }
+    writer.close();
+    closed = true;
+    discard();
+  }
+
+  private void discard() {
+    records.clear();
+    for (File run : runs) {
+      if (!run.delete()) {
+        run.deleteOnExit();
+      }
+    }
+    runs.clear();
+  }
+
+  private void writeBatch(List<SinkRecord> batch) throws IOException {
+    if (batch.size() > 1 && writer instanceof BatchRecordWriter) {
+      ((BatchRecordWriter<SinkRecord>) writer).writeAll(batch);
+    } else {
+      for (SinkRecord record : batch) {
+        writer.write(record);
+      }
+    }
+    batch.clear();
+  }
+
+  private void spill() throws IOException {
+    Collections.sort(records, order);
+    if (!spillDirectory.exists() && !spillDirectory.mkdirs() && !spillDirectory.exists()) {
+      throw new IOException("Failed to create the sort spill directory " + spillDirectory);
+    }
+    File run = File.createTempFile("sort-run-", ".avro", spillDirectory);
+    boolean spilled = false;
+    try (DataFileWriter<GenericRecord> out =
+             new DataFileWriter<>(new GenericDatumWriter<GenericRecord>(runSchema))) {
+      out.create(runSchema, run);
+      for (SinkRecord record : records) {
+        GenericRecord entry = new GenericData.Record(runSchema);
+        entry.put(OFFSET_FIELD, record.kafkaOffset());
+        entry.put(VALUE_FIELD, avroData.fromConnectData(record.valueSchema(), record.value()));
+        out.append(entry);
+      }
+      spilled = true;
+    } finally {
+      // A partial run is dropped, and its records are spilled again by the next attempt.
+      if (!spilled && !run.delete()) {
+        run.deleteOnExit();
+      }
+    }
+    runs.add(run);
+    records.clear();
+  }
+
+  private void merge() throws IOException {
+    List<RunReader> readers = new ArrayList<>(runs.size());
+    try {
+      PriorityQueue<RunReader> heads = new PriorityQueue<>(runs.size(), new Comparator<RunReader>() {
+        @Override
+        public int compare(RunReader left, RunReader right) {
+          return order.compare(left.head, right.head);
+        }
+      });
+      for (File run : runs) {
+        RunReader reader = new RunReader(run);
+        readers.add(reader);
+        if (reader.advance()) {
+          heads.add(reader);
+        }
+      }
+      List<SinkRecord> batch = new ArrayList<>(BATCH_SIZE);
+      while (!heads.isEmpty()) {
+        RunReader reader = heads.poll();
+        batch.add(reader.head);
+        if (batch.size() == BATCH_SIZE) {
+          writeBatch(batch);
+        }
+        if (reader.advance()) {
+          heads.add(reader);
+        }
+      }
+      writeBatch(batch);
+    } finally {
+      for (RunReader reader : readers) {
+        reader.close();
+      }
+    }
+  }
+
+  private class RunReader {
+    private final DataFileReader<GenericRecord> in;
+    private SinkRecord head;
+
+    RunReader(File run) throws IOException {
+      in = new DataFileReader<>(run, new GenericDatumReader<GenericRecord>(runSchema));
+    }
+
+    boolean advance() {
+      if (!in.hasNext()) {
+        head = null;
+        return false;
+      }
+      GenericRecord entry = in.next();
+      Object value = avroData.toConnectData(avroValueSchema, entry.get(VALUE_FIELD)).value();
+      head = new SinkRecord(first.topic(), first.kafkaPartition(), null, null,
+                            first.valueSchema(), restore(first.valueSchema(), value),
+                            (Long) entry.get(OFFSET_FIELD));
+      return true;
+    }
+
+    void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Rebuilds a value read from a run with the schema it was written with. The schema that the
+   * Avro conversion rebuilds may differ from it, for example in its optional fields' defaults,
+   * and the record writers expect values of the record's value schema.
+   */
+  private static Object restore(Schema schema, Object value) {
+    if (value == null) {
+      return null;
+    }
+    switch (schema.type()) {
+      case STRUCT: {
+        Struct read = (Struct) value;
+        Struct struct = new Struct(schema);
+        for (Field field : schema.fields()) {
+          struct.put(field, restore(field.schema(), read.get(field.name())));
+        }
+        return struct;
+      }
+      case ARRAY: {
+        List<Object> array = new ArrayList<>();
+        for (Object element : (Collection<?>) value) {
+          array.add(restore(schema.valueSchema(), element));
+        }
+        return array;
+      }
+      case MAP: {
+        Map<Object, Object> map = new HashMap<>();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+          map.put(restore(schema.keySchema(), entry.getKey()),
+                  restore(schema.valueSchema(), entry.getValue()));
+        }
+        return map;
+      }
+      default:
+        return value;
+    }
+  }
+
+  /**
+   * Orders records by fields of their values, then by offset. Values are compared if they are
+   * comparable and of the same class, and as unsigned bytes if they are binary. Nulls come first,
+   * and any other values are considered equal.
+   */
+  private static class FieldOrder implements Comparator<SinkRecord> {
+    private final List<String> fields;
+
+    FieldOrder(List<String> fields) {
+      this.fields = fields;
+    }
+
+    @Override
+    public int compare(SinkRecord left, SinkRecord right) {
+      Struct leftValue = (Struct) left.value();
+      Struct rightValue = (Struct) right.value();
+      for (String field : fields) {
+        int result = compareValues(get(leftValue, field), get(rightValue, field));
+        if (result != 0) {
+          return result;
+        }
+      }
+      return Long.compare(left.kafkaOffset(), right.kafkaOffset());
+    }
+
+    private static Object get(Struct value, String field) {
+      if (value == null) {
+        return null;
+      }
+      Field schemaField = value.schema().field(field);
+      return schemaField == null ? null : value.get(schemaField);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareValues(Object left, Object right) {
+      if (left == right) {
+        return 0;
+      } else if (left == null) {
+        return -1;
+      } else if (right == null) {
+        return 1;
+      }
+      if (left instanceof byte[]) {
+        left = ByteBuffer.wrap((byte[]) left);
+      }
+      if (right instanceof byte[]) {
+        right = ByteBuffer.wrap((byte[]) right);
+      }
+      if (left instanceof ByteBuffer && right instanceof ByteBuffer) {
+        return compareBytes((ByteBuffer) left, (ByteBuffer) right);
+      }
+      if (left instanceof Comparable && left.getClass() == right.getClass()) {
+        return ((Comparable<Object>) left).compareTo(right);
+      }
+      return 0;
+    }
+
+    private static int compareBytes(ByteBuffer left, ByteBuffer right) {
+      int length = Math.min(left.remaining(), right.remaining());
+      for (int i = 0; i < length; ++i) {
+        int result = (left.get(left.position() + i) & 0xff)
+                     - (right.get(right.position() + i) & 0xff);
+        if (result != 0) {
+          return result;
+        }
+      }
+      return left.remaining() - right.remaining();
+    }
+  }
+}
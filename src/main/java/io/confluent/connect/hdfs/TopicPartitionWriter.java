@@ -19,6 +19,7 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.errors.IllegalWorkerStateException;
@@ -30,25 +31,33 @@ import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
 import io.confluent.connect.avro.AvroData;
+import io.confluent.connect.hdfs.errors.BatchWriteException;
 import io.confluent.connect.hdfs.errors.HiveMetaStoreException;
+import io.confluent.connect.hdfs.errors.IncompleteFileException;
+import io.confluent.connect.hdfs.errors.StagedFileLostException;
 import io.confluent.connect.hdfs.filter.CommittedFileFilter;
+import io.confluent.connect.hdfs.filter.TopicCommittedFileFilter;
 import io.confluent.connect.hdfs.filter.TopicPartitionCommittedFileFilter;
 import io.confluent.connect.hdfs.hive.HiveMetaStore;
+import io.confluent.connect.hdfs.hive.HiveUpdateExecutor;
 import io.confluent.connect.hdfs.hive.HiveUtil;
+import io.confluent.connect.hdfs.hive.PartitionStats;
 import io.confluent.connect.hdfs.partitioner.Partitioner;
 import io.confluent.connect.hdfs.schema.Compatibility;
 import io.confluent.connect.hdfs.schema.SchemaUtils;
@@ -57,6 +66,8 @@ import io.confluent.connect.hdfs.wal.WAL;
 
 public class TopicPartitionWriter {
   private static final Logger log = LoggerFactory.getLogger(TopicPartitionWriter.class);
+  // Bounds the per-partition directory caches for partitioners with many distinct partitions.
+  private static final int DIRECTORY_CACHE_SIZE = 1000;
   private WAL wal;
   private Map<String, String> tempFiles;
   private Map<String, RecordWriter<SinkRecord>> writers;
@@ -97,9 +108,42 @@ public class TopicPartitionWriter {
   private HiveMetaStore hiveMetaStore;
   private SchemaFileReader schemaFileReader;
   private HiveUtil hive;
-  private ExecutorService executorService;
+  private HiveUpdateExecutor executorService;
   private Queue<Future<Void>> hiveUpdateFutures;
   private Set<String> hivePartitions;
+  private final boolean hiveStatistics;
+  private final long hiveStatisticsIntervalMs;
+  private long lastHiveStatisticsUpdate;
+  // The statistics of the open temp files, of the committed files of each encoded partition, and
+  // the encoded partitions with files committed since the last update.
+  private final Map<String, PartitionStats> fileStats;
+  private final Map<String, PartitionStats> committedStats;
+  private final Set<String> updatedStats;
+  // Partitioned directories and committed directory paths, computed once per encoded partition.
+  private final Map<String, String> directories;
+  private final Map<String, Path> committedDirectories;
+  private final Path topicDirectory;
+  private final int maxOpenWriters;
+  // Files closed before they are committed, either to stay within maxOpenWriters or, in encoded
+  // partition rotation, because they reached their own rotation thresholds.
+  private final List<ClosedFile> closedFiles;
+  private final boolean encodedPartitionRotation;
+  // Records written and open time of the file of each encoded partition, for encoded partition
+  // rotation. The open times are in insertion order, so the first one is the oldest.
+  private final Map<String, Integer> recordCounts;
+  private final Map<String, Long> openTimes;
+  private String lastEncodedPartition;
+  private boolean rotateAll;
+  // The closed files committed by the rotation in progress, fixed until it completes.
+  private final List<ClosedFile> committing;
+  private final CompactionScheduler.TopicPartitionCompaction compaction;
+  // Whether a transaction was appended to the WAL and its files are not all committed yet.
+  private boolean walPending;
+  private final List<String> sortFields;
+  private final int sortBufferMaxRecords;
+  private final File sortSpillDirectory;
+  // The clock of rotations, retries and compaction, which tests control.
+  private final Time time;
 
   public TopicPartitionWriter(
       TopicPartition tp,
@@ -123,9 +167,48 @@ public class TopicPartitionWriter {
       HiveMetaStore hiveMetaStore,
       HiveUtil hive,
       SchemaFileReader schemaFileReader,
-      ExecutorService executorService,
+      HiveUpdateExecutor executorService,
       Queue<Future<Void>> hiveUpdateFutures) {
+    this(tp, storage, writerProvider, partitioner, connectorConfig, context, avroData,
+         hiveMetaStore, hive, schemaFileReader, executorService, hiveUpdateFutures, null);
+  }
+
+  public TopicPartitionWriter(
+      TopicPartition tp,
+      Storage storage,
+      RecordWriterProvider writerProvider,
+      Partitioner partitioner,
+      HdfsSinkConnectorConfig connectorConfig,
+      SinkTaskContext context,
+      AvroData avroData,
+      HiveMetaStore hiveMetaStore,
+      HiveUtil hive,
+      SchemaFileReader schemaFileReader,
+      HiveUpdateExecutor executorService,
+      Queue<Future<Void>> hiveUpdateFutures,
+      CompactionScheduler.TopicPartitionCompaction compaction) {
+    this(tp, storage, writerProvider, partitioner, connectorConfig, context, avroData,
+         hiveMetaStore, hive, schemaFileReader, executorService, hiveUpdateFutures, compaction,
+         Time.SYSTEM);
+  }
+
+  public TopicPartitionWriter(
+      TopicPartition tp,
+      Storage storage,
+      RecordWriterProvider writerProvider,
+      Partitioner partitioner,
+      HdfsSinkConnectorConfig connectorConfig,
+      SinkTaskContext context,
+      AvroData avroData,
+      HiveMetaStore hiveMetaStore,
+      HiveUtil hive,
+      SchemaFileReader schemaFileReader,
+      HiveUpdateExecutor executorService,
+      Queue<Future<Void>> hiveUpdateFutures,
+      CompactionScheduler.TopicPartitionCompaction compaction,
+      Time time) {
     this.tp = tp;
+    this.time = time;
     this.connectorConfig = connectorConfig;
     this.context = context;
     this.avroData = avroData;
@@ -148,7 +231,8 @@ public class TopicPartitionWriter {
     wal = storage.wal(logsDir, tp);
 
     buffer = new LinkedList<>();
-    writers = new HashMap<>();
+    // In access order, so that the least recently written file is closed first.
+    writers = new LinkedHashMap<>(16, 0.75f, true);
     tempFiles = new HashMap<>();
     appended = new HashSet<>();
     startOffsets = new HashMap<>();
@@ -158,6 +242,16 @@ public class TopicPartitionWriter {
     offset = -1L;
     sawInvalidOffset = false;
     extension = writerProvider.getExtension();
+    directories = newDirectoryCache();
+    committedDirectories = newDirectoryCache();
+    topicDirectory = new Path(FileUtils.topicDirectory(url, topicsDir, tp.topic()));
+    maxOpenWriters = connectorConfig.getInt(HdfsSinkConnectorConfig.MAX_OPEN_WRITERS_CONFIG);
+    closedFiles = new ArrayList<>();
+    encodedPartitionRotation = connectorConfig.getString(HdfsSinkConnectorConfig.ROTATION_SCOPE_CONFIG)
+        .equals(HdfsSinkConnectorConfig.ROTATION_SCOPE_ENCODED_PARTITION);
+    recordCounts = new HashMap<>();
+    openTimes = new LinkedHashMap<>();
+    committing = new ArrayList<>();
     zeroPadOffsetFormat
         = "%0" +
           connectorConfig.getInt(HdfsSinkConnectorConfig.FILENAME_OFFSET_ZERO_PAD_WIDTH_CONFIG) +
@@ -172,6 +266,20 @@ public class TopicPartitionWriter {
       this.hiveUpdateFutures = hiveUpdateFutures;
       hivePartitions = new HashSet<>();
     }
+    hiveStatistics = hiveIntegration
+                     && connectorConfig.getBoolean(HdfsSinkConnectorConfig.HIVE_STATISTICS_CONFIG);
+    hiveStatisticsIntervalMs =
+        connectorConfig.getLong(HdfsSinkConnectorConfig.HIVE_STATISTICS_INTERVAL_MS_CONFIG);
+    fileStats = new HashMap<>();
+    committedStats = new HashMap<>();
+    updatedStats = new HashSet<>();
+    this.compaction = compaction;
+    walPending = false;
+    sortFields = connectorConfig.getList(HdfsSinkConnectorConfig.SORT_FIELDS_CONFIG);
+    sortBufferMaxRecords =
+        connectorConfig.getInt(HdfsSinkConnectorConfig.SORT_BUFFER_MAX_RECORDS_CONFIG);
+    sortSpillDirectory = new File(
+        connectorConfig.getString(HdfsSinkConnectorConfig.STAGING_DIR_CONFIG), "sort");
 
     if(rotateScheduleIntervalMs > 0) {
       timeZone = DateTimeZone.forID(connectorConfig.getString(HdfsSinkConnectorConfig.TIMEZONE_CONFIG));
@@ -234,7 +342,7 @@ public class TopicPartitionWriter {
   }
 
   private void updateRotationTimers() {
-    lastRotate = System.currentTimeMillis();
+    lastRotate = time.milliseconds();
     if(log.isDebugEnabled() && rotateIntervalMs > 0) {
       log.debug("Update last rotation timer. Next rotation for {} will be in {}ms", tp, rotateIntervalMs);
     }
@@ -248,7 +356,7 @@ public class TopicPartitionWriter {
 
   @SuppressWarnings("fallthrough")
   public void write() {
-    long now = System.currentTimeMillis();
+    long now = time.milliseconds();
     if (failureTime > 0 && now - failureTime < timeoutMs) {
       return;
     }
@@ -259,6 +367,9 @@ public class TopicPartitionWriter {
       }
       updateRotationTimers();
     }
+    if (compaction != null && compaction.isCommitting() && !runCompaction(now)) {
+      return;
+    }
     while(!buffer.isEmpty()) {
       try {
         switch (state) {
@@ -268,11 +379,10 @@ public class TopicPartitionWriter {
           case WRITE_PARTITION_PAUSED:
             if (currentSchema == null) {
               if (compatibility != Compatibility.NONE && offset != -1) {
-                String topicDir = FileUtils.topicDirectory(url, topicsDir, tp.topic());
                 CommittedFileFilter filter = new TopicPartitionCommittedFileFilter(tp);
-                FileStatus fileStatusWithMaxOffset = FileUtils.fileStatusWithMaxOffset(storage, new Path(topicDir), filter);
+                FileStatus fileStatusWithMaxOffset = FileUtils.fileStatusWithMaxOffset(storage, topicDirectory, filter);
                 if (fileStatusWithMaxOffset != null) {
-                  currentSchema = schemaFileReader.getSchema(conf, fileStatusWithMaxOffset.getPath());
+                  currentSchema = readSchema(fileStatusWithMaxOffset.getPath());
                 }
               }
             }
@@ -281,18 +391,19 @@ public class TopicPartitionWriter {
             if (SchemaUtils.shouldChangeSchema(valueSchema, currentSchema, compatibility)) {
               currentSchema = valueSchema;
               if (hiveIntegration) {
-                createHiveTable();
-                alterHiveSchema();
+                applyHiveSchema();
               }
               if (recordCounter > 0) {
+                // Files hold records of a single schema, so every file is rotated.
+                rotateAll = true;
                 nextState();
               } else {
                 break;
               }
             } else {
               SinkRecord projectedRecord = SchemaUtils.project(record, currentSchema, compatibility);
-              writeRecord(projectedRecord);
-              buffer.poll();
+              String encodedPartition = partitioner.encodePartition(projectedRecord);
+              writeRecords(nextRun(projectedRecord, encodedPartition), encodedPartition);
               if (shouldRotate(now)) {
                 log.info("Starting commit and rotation for topic partition {} with start offsets {}"
                          + " and end offsets {}", tp, startOffsets, offsets);
@@ -303,8 +414,7 @@ public class TopicPartitionWriter {
               }
             }
           case SHOULD_ROTATE:
-            updateRotationTimers();
-            closeTempFile();
+            closeTempFiles(now);
             nextState();
           case TEMP_FILE_CLOSED:
             appendToWAL();
@@ -320,9 +430,12 @@ public class TopicPartitionWriter {
         }
       } catch (SchemaProjectorException | IllegalWorkerStateException | HiveMetaStoreException e ) {
         throw new RuntimeException(e);
+      } catch (IncompleteFileException e) {
+        rewind(e);
+        break;
       } catch (IOException | ConnectException e) {
         log.error("Exception on topic partition {}: ", tp, e);
-        failureTime = System.currentTimeMillis();
+        failureTime = time.milliseconds();
         setRetryTimeout(timeoutMs);
         break;
       }
@@ -331,21 +444,28 @@ public class TopicPartitionWriter {
       // committing files after waiting for rotateIntervalMs time but less than flush.size records available
       if (recordCounter > 0 && shouldRotate(now)) {
         log.info("committing files after waiting for rotateIntervalMs time but less than flush.size records available.");
-        updateRotationTimers();
 
         try {
-          closeTempFile();
+          closeTempFiles(now);
           appendToWAL();
           commitFile();
+        } catch (IncompleteFileException e) {
+          rewind(e);
         } catch (IOException e) {
           log.error("Exception on topic partition {}: ", tp, e);
-          failureTime = System.currentTimeMillis();
+          failureTime = time.milliseconds();
           setRetryTimeout(timeoutMs);
         }
       }
 
       resume();
       state = State.WRITE_STARTED;
+      if (compaction != null && !walPending) {
+        runCompaction(now);
+      }
+      if (hiveStatistics) {
+        maybeUpdateHiveStats(now);
+      }
     }
   }
 
@@ -357,8 +477,11 @@ public class TopicPartitionWriter {
         if (writers.containsKey(encodedPartition)) {
           log.debug("Discarding in progress tempfile {} for {} {}",
                     tempFiles.get(encodedPartition), tp, encodedPartition);
-          closeTempFile(encodedPartition);
-          deleteTempFile(encodedPartition);
+          try {
+            closeTempFile(encodedPartition);
+          } finally {
+            deleteTempFile(encodedPartition);
+          }
         }
       } catch (IOException e) {
         log.error("Error discarding temp file {} for {} {} when closing TopicPartitionWriter:",
@@ -367,6 +490,33 @@ public class TopicPartitionWriter {
     }
 
     writers.clear();
+    for (ClosedFile closedFile : closedFiles) {
+      if (walPending && committing.contains(closedFile)) {
+        // Recorded in the WAL, so it is committed when the WAL is replayed.
+        log.debug("Keeping closed tempfile {} for {} to be committed by the WAL",
+                  closedFile.tempFile, tp);
+        continue;
+      }
+      try {
+        log.debug("Discarding closed tempfile {} for {}", closedFile.tempFile, tp);
+        storage.delete(closedFile.tempFile);
+      } catch (IOException e) {
+        log.error("Error discarding temp file {} for {} when closing TopicPartitionWriter:",
+                  closedFile.tempFile, tp, e);
+      }
+    }
+    closedFiles.clear();
+    committing.clear();
+    recordCounts.clear();
+    openTimes.clear();
+    fileStats.clear();
+    if (!updatedStats.isEmpty()) {
+      updateHiveStats(time.milliseconds());
+    }
+    committedStats.clear();
+    if (compaction != null) {
+      compaction.close();
+    }
 
     try {
       wal.close();
@@ -407,8 +557,40 @@ public class TopicPartitionWriter {
     return writerProvider.getExtension();
   }
 
+  private Schema readSchema(final Path path) throws IOException {
+    return storage.executor().executeIdempotent("read-schema", new Callable<Schema>() {
+      @Override
+      public Schema call() throws IOException {
+        return schemaFileReader.getSchema(conf, path);
+      }
+    });
+  }
+
   private String getDirectory(String encodedPartition) {
-    return partitioner.generatePartitionedPath(tp.topic(), encodedPartition);
+    String directory = directories.get(encodedPartition);
+    if (directory == null) {
+      directory = partitioner.generatePartitionedPath(tp.topic(), encodedPartition);
+      directories.put(encodedPartition, directory);
+    }
+    return directory;
+  }
+
+  private Path getCommittedDirectory(String encodedPartition) {
+    Path directory = committedDirectories.get(encodedPartition);
+    if (directory == null) {
+      directory = new Path(FileUtils.directoryName(url, topicsDir, getDirectory(encodedPartition)));
+      committedDirectories.put(encodedPartition, directory);
+    }
+    return directory;
+  }
+
+  private static <V> Map<String, V> newDirectoryCache() {
+    return new LinkedHashMap<String, V>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+        return size() > DIRECTORY_CACHE_SIZE;
+      }
+    };
   }
 
   private void nextState() {
@@ -424,17 +606,42 @@ public class TopicPartitionWriter {
     boolean scheduledRotation = rotateScheduleIntervalMs > 0 && now >= nextScheduledRotate;
     boolean messageSizeRotation = recordCounter >= flushSize;
 
+    if (encodedPartitionRotation) {
+      boolean oldestFileRotation = !openTimes.isEmpty()
+          && shouldRotate(openTimes.keySet().iterator().next(), now);
+      return scheduledRotation || oldestFileRotation
+             || (lastEncodedPartition != null && shouldRotate(lastEncodedPartition, now));
+    }
     return periodicRotation || scheduledRotation || messageSizeRotation;
   }
 
+  private boolean shouldRotate(String encodedPartition, long now) {
+    Integer count = recordCounts.get(encodedPartition);
+    Long openTime = openTimes.get(encodedPartition);
+    boolean periodicRotation = rotateIntervalMs > 0 && openTime != null
+                               && now - openTime >= rotateIntervalMs;
+    boolean messageSizeRotation = count != null && count >= flushSize;
+    return periodicRotation || messageSizeRotation;
+  }
+
   private void readOffset() throws ConnectException {
+    long committedOffset = committedOffset();
+    if (committedOffset >= 0) {
+      offset = committedOffset;
+    }
+  }
+
+  /**
+   * Returns the offset after the last committed record, or -1 if no file is committed.
+   */
+  private long committedOffset() throws ConnectException {
     try {
-      String path = FileUtils.topicDirectory(url, topicsDir, tp.topic());
       CommittedFileFilter filter = new TopicPartitionCommittedFileFilter(tp);
-      FileStatus fileStatusWithMaxOffset = FileUtils.fileStatusWithMaxOffset(storage, new Path(path), filter);
-      if (fileStatusWithMaxOffset != null) {
-        offset = FileUtils.extractOffset(fileStatusWithMaxOffset.getPath().getName()) + 1;
+      FileStatus fileStatusWithMaxOffset = FileUtils.fileStatusWithMaxOffset(storage, topicDirectory, filter);
+      if (fileStatusWithMaxOffset == null) {
+        return -1L;
       }
+      return FileUtils.extractOffset(fileStatusWithMaxOffset.getPath().getName()) + 1;
     } catch (IOException e) {
       throw new ConnectException(e);
     }
@@ -449,22 +656,33 @@ public class TopicPartitionWriter {
   }
 
   private RecordWriter<SinkRecord> getWriter(SinkRecord record, String encodedPartition)
-      throws ConnectException {
-    try {
-      if (writers.containsKey(encodedPartition)) {
-        return writers.get(encodedPartition);
-      }
-      String tempFile = getTempFile(encodedPartition);
-      RecordWriter<SinkRecord> writer = writerProvider.getRecordWriter(conf, tempFile, record, avroData);
-      writers.put(encodedPartition, writer);
-      if (hiveIntegration && !hivePartitions.contains(encodedPartition)) {
-        addHivePartition(encodedPartition);
-        hivePartitions.add(encodedPartition);
-      }
-      return writer;
-    } catch (IOException e) {
-      throw new ConnectException(e);
+      throws IOException {
+    if (writers.containsKey(encodedPartition)) {
+      return writers.get(encodedPartition);
+    }
+    if (maxOpenWriters > 0 && writers.size() >= maxOpenWriters) {
+      spillTempFile(writers.keySet().iterator().next());
+    }
+    String tempFile = getTempFile(encodedPartition);
+    RecordWriter<SinkRecord> writer = writerProvider.getRecordWriter(conf, tempFile, record, avroData);
+    if (!sortFields.isEmpty()) {
+      // The sorting writer keeps the offset and value of the records it spills to disk, which is
+      // all the record writers use, and drops their key and timestamp.
+      writer = SortingRecordWriter.wrap(writer, sortFields, sortBufferMaxRecords,
+                                        sortSpillDirectory, avroData, record);
+    }
+    writers.put(encodedPartition, writer);
+    if (encodedPartitionRotation) {
+      openTimes.put(encodedPartition, time.milliseconds());
     }
+    if (hiveStatistics) {
+      fileStats.put(encodedPartition, new PartitionStats(record.valueSchema()));
+    }
+    if (hiveIntegration && !hivePartitions.contains(encodedPartition)) {
+      addHivePartition(encodedPartition);
+      hivePartitions.add(encodedPartition);
+    }
+    return writer;
   }
 
   private String getTempFile(String encodedPartition) {
@@ -473,7 +691,7 @@ public class TopicPartitionWriter {
       tempFile = tempFiles.get(encodedPartition);
     } else {
       String directory = HdfsSinkConnectorConstants.TEMPFILE_DIRECTORY + getDirectory(encodedPartition);
-      tempFile = FileUtils.tempFileName(url, topicsDir, directory, extension);
+      tempFile = storage.tempFileName(topicsDir, directory, extension);
       tempFiles.put(encodedPartition, tempFile);
     }
     return tempFile;
@@ -482,6 +700,15 @@ public class TopicPartitionWriter {
   private void applyWAL() throws ConnectException {
     if (!recovered) {
       wal.apply();
+      // Checked before the log is truncated, so that the partition fails again until the lost
+      // records are dealt with.
+      long lostOffset = wal.firstLostOffset();
+      if (lostOffset >= 0 && committedOffset() > lostOffset) {
+        throw new StagedFileLostException(
+            "A staged file of " + tp + " was lost while files with records after its first offset "
+            + lostOffset + " were committed. Delete the committed files of " + tp
+            + " with records from offset " + lostOffset + " on to consume them again.");
+      }
     }
   }
 
@@ -507,33 +734,94 @@ public class TopicPartitionWriter {
     }
   }
 
-  private void writeRecord(SinkRecord record) throws IOException {
+  /**
+   * Returns the buffered records, starting with the head of the buffer, that can be written in one
+   * call: consecutive offsets, the same schema instance and the same encoded partition, up to the
+   * number of records left before a rotation. Rotation is checked once after the run, so a run
+   * never crosses the point where a record by record write would have rotated.
+   */
+  private List<SinkRecord> nextRun(SinkRecord first, String encodedPartition) {
+    List<SinkRecord> run = new ArrayList<>();
+    run.add(first);
+    if (offset == -1 || first.kafkaOffset() != offset + recordCounter) {
+      return run;
+    }
+    int limit = flushSize - recordCounter;
+    if (encodedPartitionRotation) {
+      Integer count = recordCounts.get(encodedPartition);
+      limit = flushSize - (count == null ? 0 : count);
+    }
+    Schema valueSchema = buffer.peek().valueSchema();
+    Iterator<SinkRecord> iterator = buffer.iterator();
+    iterator.next();
+    while (run.size() < limit && iterator.hasNext()) {
+      SinkRecord record = iterator.next();
+      if (record.valueSchema() != valueSchema
+          || record.kafkaOffset() != first.kafkaOffset() + run.size()) {
+        break;
+      }
+      SinkRecord projectedRecord = SchemaUtils.project(record, currentSchema, compatibility);
+      if (!encodedPartition.equals(partitioner.encodePartition(projectedRecord))) {
+        break;
+      }
+      run.add(projectedRecord);
+    }
+    return run;
+  }
+
+  /**
+   * Writes a run of records from {@link #nextRun} and removes them from the buffer as they are
+   * written.
+   */
+  private void writeRecords(List<SinkRecord> records, String encodedPartition) throws IOException {
+    SinkRecord first = records.get(0);
     long expectedOffset = offset + recordCounter;
     if (offset == -1) {
-      offset = record.kafkaOffset();
-    } else if (record.kafkaOffset() != expectedOffset) {
+      offset = first.kafkaOffset();
+    } else if (first.kafkaOffset() != expectedOffset) {
       // Currently it's possible to see stale data with the wrong offset after a rebalance when you
       // rewind, which we do since we manage our own offsets. See KAFKA-2894.
       if (!sawInvalidOffset) {
         log.info(
             "Ignoring stale out-of-order record in {}-{}. Has offset {} instead of expected offset {}",
-            record.topic(), record.kafkaPartition(), record.kafkaOffset(), expectedOffset);
+            first.topic(), first.kafkaPartition(), first.kafkaOffset(), expectedOffset);
       }
       sawInvalidOffset = true;
+      buffer.poll();
       return;
     }
 
     if (sawInvalidOffset) {
       log.info(
           "Recovered from stale out-of-order records in {}-{} with offset {}",
-          record.topic(), record.kafkaPartition(), expectedOffset);
+          first.topic(), first.kafkaPartition(), expectedOffset);
       sawInvalidOffset = false;
     }
 
-    String encodedPartition = partitioner.encodePartition(record);
-    RecordWriter<SinkRecord> writer = getWriter(record, encodedPartition);
-    writer.write(record);
+    RecordWriter<SinkRecord> writer = getWriter(first, encodedPartition);
+    if (records.size() > 1 && writer instanceof BatchRecordWriter) {
+      try {
+        ((BatchRecordWriter<SinkRecord>) writer).writeAll(records);
+      } catch (BatchWriteException e) {
+        // Only the records that were not written are written again when the write is retried.
+        for (SinkRecord record : records.subList(0, e.written())) {
+          recordWritten(record, encodedPartition);
+        }
+        throw e;
+      }
+      for (SinkRecord record : records) {
+        recordWritten(record, encodedPartition);
+      }
+    } else {
+      for (SinkRecord record : records) {
+        writer.write(record);
+        recordWritten(record, encodedPartition);
+      }
+    }
+  }
 
+  private void recordWritten(SinkRecord record, String encodedPartition) {
+    buffer.poll();
     if (!startOffsets.containsKey(encodedPartition)) {
       startOffsets.put(encodedPartition, record.kafkaOffset());
       offsets.put(encodedPartition, record.kafkaOffset());
@@ -541,22 +829,189 @@ public class TopicPartitionWriter {
       offsets.put(encodedPartition, record.kafkaOffset());
     }
     recordCounter++;
+    if (hiveStatistics) {
+      fileStats.get(encodedPartition).record(record.value(), record.kafkaOffset());
+    }
+    if (encodedPartitionRotation) {
+      Integer count = recordCounts.get(encodedPartition);
+      recordCounts.put(encodedPartition, count == null ? 1 : count + 1);
+      lastEncodedPartition = encodedPartition;
+    }
   }
 
   private void closeTempFile(String encodedPartition) throws IOException {
     if (writers.containsKey(encodedPartition)) {
-      RecordWriter<SinkRecord> writer = writers.get(encodedPartition);
-      writer.close();
+      final RecordWriter<SinkRecord> writer = writers.get(encodedPartition);
+      // Keyed by the writer, so a retry after a timeout waits for the pending close instead of
+      // closing the writer a second time.
+      storage.executor().execute("close", writer, new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          writer.close();
+          return null;
+        }
+      });
       writers.remove(encodedPartition);
     }
   }
 
+  /**
+   * Discards the files that are not committed yet and consumes their records again from Kafka,
+   * after one of them could not be completed. The records of a file interleave with those of the
+   * other files, so all of them are written again from the first offset that is not committed.
+   */
+  private void rewind(IncompleteFileException e) {
+    try {
+      if (walPending) {
+        // The files recorded in the WAL are committed before the others are discarded.
+        commitFile();
+      }
+    } catch (IOException | ConnectException commitException) {
+      log.error("Exception on topic partition {}: ", tp, commitException);
+      failureTime = time.milliseconds();
+      setRetryTimeout(timeoutMs);
+      return;
+    }
+    log.error("Writing {} again from offset {} after a file could not be completed: ", tp, offset,
+              e);
+    // The writer of the incomplete file fails to close again, and is dropped with the others.
+    for (String encodedPartition : new ArrayList<>(writers.keySet())) {
+      try {
+        closeTempFile(encodedPartition);
+      } catch (IOException closeException) {
+        log.warn("Error closing temp file {} for {} {}", tempFiles.get(encodedPartition), tp,
+                 encodedPartition, closeException);
+      }
+    }
+    writers.clear();
+    List<String> discarded = new ArrayList<>(tempFiles.values());
+    for (ClosedFile closedFile : closedFiles) {
+      discarded.add(closedFile.tempFile);
+    }
+    for (String tempFile : discarded) {
+      try {
+        storage.delete(tempFile);
+      } catch (IOException deleteException) {
+        log.warn("Error discarding temp file {} for {}", tempFile, tp, deleteException);
+      }
+    }
+    tempFiles.clear();
+    startOffsets.clear();
+    offsets.clear();
+    recordCounts.clear();
+    openTimes.clear();
+    fileStats.clear();
+    closedFiles.clear();
+    committing.clear();
+    rotateAll = false;
+    recordCounter = 0;
+    buffer.clear();
+    if (offset >= 0) {
+      context.offset(tp, offset);
+    }
+  }
+
+  /**
+   * Closes the temp file of an encoded partition before the rotation and keeps it to be committed
+   * once the records before it are committed. Committing it on its own would make the committed
+   * offsets of the topic partition skip the records still buffered in the other files.
+   */
+  private void spillTempFile(String encodedPartition) throws IOException {
+    closeTempFile(encodedPartition);
+    if (startOffsets.containsKey(encodedPartition)) {
+      persistTempFile(encodedPartition);
+    }
+    String tempFile = tempFiles.remove(encodedPartition);
+    Long startOffset = startOffsets.remove(encodedPartition);
+    Long endOffset = offsets.remove(encodedPartition);
+    recordCounts.remove(encodedPartition);
+    openTimes.remove(encodedPartition);
+    PartitionStats stats = fileStats.remove(encodedPartition);
+    if (startOffset == null) {
+      storage.delete(tempFile);
+      return;
+    }
+    String directory = getDirectory(encodedPartition);
+    String committedFile = FileUtils.committedFileName(url, topicsDir, directory, tp,
+                                                       startOffset, endOffset, extension,
+                                                       zeroPadOffsetFormat);
+    closedFiles.add(new ClosedFile(tempFile, committedFile, encodedPartition,
+                                   getCommittedDirectory(encodedPartition), startOffset, endOffset,
+                                   stats));
+    log.debug("Closed {} for {} with {} open files", tempFile, tp, writers.size());
+  }
+
+  private void closeTempFiles(long now) throws IOException {
+    if (!encodedPartitionRotation) {
+      updateRotationTimers();
+      closeTempFile();
+      for (String encodedPartition : tempFiles.keySet()) {
+        if (startOffsets.containsKey(encodedPartition)) {
+          persistTempFile(encodedPartition);
+        }
+      }
+      committing.clear();
+      committing.addAll(closedFiles);
+      return;
+    }
+    boolean scheduledRotation = rotateScheduleIntervalMs > 0 && now >= nextScheduledRotate;
+    if (scheduledRotation) {
+      updateRotationTimers();
+    }
+    for (String encodedPartition : new ArrayList<>(tempFiles.keySet())) {
+      if (scheduledRotation || rotateAll || shouldRotate(encodedPartition, now)) {
+        spillTempFile(encodedPartition);
+      }
+    }
+    rotateAll = false;
+    committing.clear();
+    committing.addAll(committableFiles());
+  }
+
   private void closeTempFile() throws IOException {
     for (String encodedPartition: tempFiles.keySet()) {
       closeTempFile(encodedPartition);
     }
   }
 
+  /**
+   * Replaces a closed temp file with the one the storage persisted it to, e.g. when it was staged
+   * on local disk, before it is recorded in the WAL.
+   */
+  private void persistTempFile(String encodedPartition) throws IOException {
+    tempFiles.put(encodedPartition, storage.persist(tempFiles.get(encodedPartition)));
+  }
+
+  /**
+   * Returns the closed files that can be committed without making the committed offsets skip
+   * records of files that are still open, or closed files that cannot be committed yet: the files
+   * that end before the start of every such file. Files can overlap, so a closed file that starts
+   * below the bound but ends after it lowers the bound to its own start.
+   */
+  private List<ClosedFile> committableFiles() {
+    long bound = Long.MAX_VALUE;
+    for (long startOffset : startOffsets.values()) {
+      bound = Math.min(bound, startOffset);
+    }
+    boolean lowered = true;
+    while (lowered) {
+      lowered = false;
+      for (ClosedFile closedFile : closedFiles) {
+        if (closedFile.startOffset < bound && closedFile.endOffset >= bound) {
+          bound = closedFile.startOffset;
+          lowered = true;
+        }
+      }
+    }
+    List<ClosedFile> committable = new ArrayList<>();
+    for (ClosedFile closedFile : closedFiles) {
+      if (closedFile.endOffset < bound) {
+        committable.add(closedFile);
+      }
+    }
+    return committable;
+  }
+
   private void appendToWAL(String encodedPartition) throws IOException {
     String tempFile = tempFiles.get(encodedPartition);
     if (appended.contains(tempFile)) {
@@ -576,14 +1031,33 @@ public class TopicPartitionWriter {
   }
 
   private void appendToWAL() throws IOException {
+    if (encodedPartitionRotation) {
+      if (!committing.isEmpty()) {
+        beginAppend();
+        appendToWAL(committing);
+        endAppend();
+      }
+      return;
+    }
     beginAppend();
     for (String encodedPartition: tempFiles.keySet()) {
       appendToWAL(encodedPartition);
     }
+    appendToWAL(committing);
     endAppend();
   }
 
+  private void appendToWAL(List<ClosedFile> files) throws IOException {
+    for (ClosedFile closedFile : files) {
+      if (!appended.contains(closedFile.tempFile)) {
+        wal.append(closedFile.tempFile, closedFile.committedFile);
+        appended.add(closedFile.tempFile);
+      }
+    }
+  }
+
   private void beginAppend() throws IOException {
+    walPending = true;
     if (!appended.contains(WAL.beginMarker)) {
       wal.append(WAL.beginMarker, "");
     }
@@ -597,9 +1071,55 @@ public class TopicPartitionWriter {
 
   private void commitFile() throws IOException {
     appended.clear();
-    for (String encodedPartition: tempFiles.keySet()) {
-      commitFile(encodedPartition);
+    if (encodedPartitionRotation) {
+      commitClosedFiles();
+      advanceOffset();
+    } else {
+      for (String encodedPartition: new ArrayList<>(tempFiles.keySet())) {
+        commitFile(encodedPartition);
+      }
+      commitClosedFiles();
+    }
+    walPending = false;
+    if (hiveStatistics) {
+      maybeUpdateHiveStats(time.milliseconds());
+    }
+  }
+
+  private void commitClosedFiles() throws IOException {
+    Iterator<ClosedFile> iterator = committing.iterator();
+    while (iterator.hasNext()) {
+      ClosedFile closedFile = iterator.next();
+      if (!storage.exists(closedFile.committedDirectory)) {
+        storage.mkdirs(closedFile.committedDirectory);
+      }
+      storage.commit(closedFile.tempFile, closedFile.committedFile);
+      iterator.remove();
+      closedFiles.remove(closedFile);
+      if (closedFile.stats != null) {
+        addCommittedStats(closedFile.encodedPartition, closedFile.stats);
+      }
+      if (compaction != null) {
+        compaction.committed(closedFile.encodedPartition);
+      }
+      log.info("Committed {} for {}", closedFile.committedFile, tp);
+    }
+  }
+
+  /**
+   * Advances the offset to the start of the first file that is not committed yet, in encoded
+   * partition rotation. The records before it are all in committed files.
+   */
+  private void advanceOffset() {
+    long nextOffset = offset + recordCounter;
+    for (long startOffset : startOffsets.values()) {
+      nextOffset = Math.min(nextOffset, startOffset);
+    }
+    for (ClosedFile closedFile : closedFiles) {
+      nextOffset = Math.min(nextOffset, closedFile.startOffset);
     }
+    recordCounter -= (int) (nextOffset - offset);
+    offset = nextOffset;
   }
 
   private void commitFile(String encodedPartiton) throws IOException {
@@ -614,17 +1134,43 @@ public class TopicPartitionWriter {
                                                        startOffset, endOffset, extension,
                                                        zeroPadOffsetFormat);
 
-    String directoryName = FileUtils.directoryName(url, topicsDir, directory);
-    if (!storage.exists(directoryName)) {
-      storage.mkdirs(directoryName);
+    Path directoryPath = getCommittedDirectory(encodedPartiton);
+    if (!storage.exists(directoryPath)) {
+      storage.mkdirs(directoryPath);
     }
     storage.commit(tempFile, committedFile);
     startOffsets.remove(encodedPartiton);
+    // The next file of the encoded partition gets a new temp file, which may be staged again.
+    tempFiles.remove(encodedPartiton);
+    PartitionStats stats = fileStats.remove(encodedPartiton);
+    if (stats != null) {
+      addCommittedStats(encodedPartiton, stats);
+    }
+    if (compaction != null) {
+      compaction.committed(encodedPartiton);
+    }
     offset = offset + recordCounter;
     recordCounter = 0;
     log.info("Committed {} for {}", committedFile, tp);
   }
 
+  /**
+   * Commits merged files and starts the next merge, between the transactions of this writer.
+   * Returns false if a merged file could not be committed, which is retried before the WAL is
+   * used again.
+   */
+  private boolean runCompaction(long now) {
+    try {
+      compaction.run(wal, now);
+      return true;
+    } catch (IOException | ConnectException e) {
+      log.error("Exception compacting topic partition {}: ", tp, e);
+      failureTime = time.milliseconds();
+      setRetryTimeout(timeoutMs);
+      return false;
+    }
+  }
+
   private void deleteTempFile(String encodedPartiton) throws IOException {
     storage.delete(tempFiles.get(encodedPartiton));
   }
@@ -633,36 +1179,103 @@ public class TopicPartitionWriter {
     context.timeout(timeoutMs);
   }
 
-  private void createHiveTable() {
-    Future<Void> future = executorService.submit(new Callable<Void>() {
+  private void applyHiveSchema() {
+    final Schema schema = currentSchema;
+    Future<Void> future = executorService.submit(tp.topic(), new Callable<Void>() {
       @Override
       public Void call() throws HiveMetaStoreException {
-        hive.createTable(hiveDatabase, tp.topic(), currentSchema, partitioner);
+        hive.applySchema(hiveDatabase, tp.topic(), schema, partitioner);
         return null;
       }
     });
     hiveUpdateFutures.add(future);
   }
 
-  private void alterHiveSchema() {
-    Future<Void> future = executorService.submit(new Callable<Void>() {
+  private void addHivePartition(final String location) {
+    Future<Void> future = executorService.submit(tp.topic(), new Callable<Void>() {
       @Override
-      public Void call() throws HiveMetaStoreException {
-        hive.alterSchema(hiveDatabase, tp.topic(), currentSchema);
+      public Void call() throws Exception {
+        hiveMetaStore.addPartition(hiveDatabase, tp.topic(), location);
         return null;
       }
     });
     hiveUpdateFutures.add(future);
   }
 
-  private void addHivePartition(final String location) {
-    Future<Void> future = executorService.submit(new Callable<Void>() {
+  private void addCommittedStats(String encodedPartition, PartitionStats stats) {
+    PartitionStats committed = committedStats.get(encodedPartition);
+    if (committed == null) {
+      committedStats.put(encodedPartition, stats);
+    } else {
+      committed.merge(stats);
+    }
+    updatedStats.add(encodedPartition);
+  }
+
+  private void maybeUpdateHiveStats(long now) {
+    if (!updatedStats.isEmpty() && now - lastHiveStatisticsUpdate >= hiveStatisticsIntervalMs) {
+      updateHiveStats(now);
+    }
+  }
+
+  /**
+   * Sets the statistics of the Hive partitions with files committed since the last update. The
+   * statistics are only hints for queries, so a failure is logged rather than failing the task;
+   * the next update of a partition sets its totals again. The number and size of the files of
+   * each partition are listed rather than counted, so that they account for merged files and for
+   * the files of other topic partitions.
+   */
+  private void updateHiveStats(long now) {
+    lastHiveStatisticsUpdate = now;
+    final Map<String, PartitionStats> stats = new HashMap<>();
+    final Map<String, Path> directories = new HashMap<>();
+    for (String encodedPartition : updatedStats) {
+      stats.put(encodedPartition, committedStats.get(encodedPartition));
+      directories.put(encodedPartition, getCommittedDirectory(encodedPartition));
+    }
+    updatedStats.clear();
+    Future<Void> future = executorService.submit(tp.topic(), new Callable<Void>() {
       @Override
-      public Void call() throws Exception {
-        hiveMetaStore.addPartition(hiveDatabase, tp.topic(), location);
+      public Void call() {
+        try {
+          CommittedFileFilter filter = new TopicCommittedFileFilter(tp.topic());
+          for (Map.Entry<String, PartitionStats> partition : stats.entrySet()) {
+            long numFiles = 0L;
+            long totalSize = 0L;
+            for (FileStatus status : storage.listStatus(directories.get(partition.getKey()), filter)) {
+              ++numFiles;
+              totalSize += status.getLen();
+            }
+            partition.getValue().partitionListed(numFiles, totalSize);
+          }
+          hiveMetaStore.updatePartitionStats(hiveDatabase, tp.topic(), tp.toString(), stats);
+        } catch (IOException | HiveMetaStoreException e) {
+          log.warn("Failed to update the Hive statistics of {}", tp, e);
+        }
         return null;
       }
     });
     hiveUpdateFutures.add(future);
   }
+
+  private static class ClosedFile {
+    private final String tempFile;
+    private final String committedFile;
+    private final String encodedPartition;
+    private final Path committedDirectory;
+    private final long startOffset;
+    private final long endOffset;
+    private final PartitionStats stats;
+
+    ClosedFile(String tempFile, String committedFile, String encodedPartition,
+               Path committedDirectory, long startOffset, long endOffset, PartitionStats stats) {
+      this.tempFile = tempFile;
+      this.committedFile = committedFile;
+      this.encodedPartition = encodedPartition;
+      this.committedDirectory = committedDirectory;
+      this.startOffset = startOffset;
+      this.endOffset = endOffset;
+      this.stats = stats;
+    }
+  }
 }
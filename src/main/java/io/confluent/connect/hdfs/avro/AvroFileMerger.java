@@ -0,0 +1,74 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.avro;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.util.List;
+
+import io.confluent.connect.hdfs.FileMerger;
+
+/**
+ * Merges Avro files by copying their data blocks, without decoding the records. Blocks are only
+ * recompressed when a file uses another codec than the first one.
+ */
+public class AvroFileMerger implements FileMerger {
+
+  @Override
+  public int merge(Configuration conf, List<Path> inputs, Path output) throws IOException {
+    DataFileWriter<Object> writer = null;
+    Schema schema = null;
+    String codec = null;
+    int merged = 0;
+    try {
+      for (Path input : inputs) {
+        try (DataFileStream<Object> stream = new DataFileStream<>(
+            input.getFileSystem(conf).open(input), new GenericDatumReader<Object>())) {
+          String inputCodec = codec(stream);
+          if (writer == null) {
+            schema = stream.getSchema();
+            codec = inputCodec;
+            writer = new DataFileWriter<>(new GenericDatumWriter<Object>());
+            writer.setCodec(CodecFactory.fromString(codec));
+            writer.create(schema, output.getFileSystem(conf).create(output));
+          } else if (!stream.getSchema().equals(schema)) {
+            break;
+          }
+          writer.appendAllFrom(stream, !inputCodec.equals(codec));
+          ++merged;
+        }
+      }
+    } finally {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+    return merged;
+  }
+
+  private static String codec(DataFileStream<Object> stream) {
+    String codec = stream.getMetaString(DataFileConstants.CODEC);
+    return codec == null ? DataFileConstants.NULL_CODEC : codec;
+  }
+}
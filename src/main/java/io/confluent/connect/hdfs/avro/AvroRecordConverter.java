@@ -0,0 +1,137 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.avro;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.errors.DataException;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import io.confluent.connect.avro.AvroData;
+import io.confluent.kafka.serializers.NonRecordContainer;
+
+/**
+ * Converts the values of the records of a file to Avro for writers that serialize each value
+ * before the next one is converted.
+ *
+ * <p>Structs whose fields are all primitives without a logical type fill a single
+ * {@link GenericData.Record}, and primitive values are passed through, instead of building a new
+ * record or {@link NonRecordContainer} for every value. Other schemas are converted by
+ * {@link AvroData}. The record returned for a value is only valid until the next value is
+ * converted.
+ */
+public class AvroRecordConverter {
+
+  private final AvroData avroData;
+  private final Schema schema;
+  private final List<Field> fields;
+  private final GenericData.Record record;
+  private final boolean primitive;
+
+  public AvroRecordConverter(AvroData avroData, Schema schema,
+                             org.apache.avro.Schema avroSchema) {
+    this.avroData = avroData;
+    this.schema = schema;
+    if (schema != null && schema.type() == Schema.Type.STRUCT && isFlat(schema, avroSchema)) {
+      fields = schema.fields();
+      record = new GenericData.Record(avroSchema);
+    } else {
+      fields = null;
+      record = null;
+    }
+    primitive = schema != null && isPrimitive(schema);
+  }
+
+  public Object convert(Object value) {
+    if (value != null && record != null) {
+      Struct struct = (Struct) value;
+      for (Field field : fields) {
+        record.put(field.index(), primitiveValue(field.schema(), struct.get(field)));
+      }
+      return record;
+    }
+    if (value != null && primitive) {
+      return primitiveValue(schema, value);
+    }
+    Object converted = avroData.fromConnectData(schema, value);
+    // AvroData wraps primitive types so their schema can be included. We need to unwrap
+    // NonRecordContainers to just their value to properly handle these types
+    if (converted instanceof NonRecordContainer) {
+      return ((NonRecordContainer) converted).getValue();
+    }
+    return converted;
+  }
+
+  private static boolean isFlat(Schema schema, org.apache.avro.Schema avroSchema) {
+    if (avroSchema.getType() != org.apache.avro.Schema.Type.RECORD
+        || avroSchema.getFields().size() != schema.fields().size()) {
+      return false;
+    }
+    for (Field field : schema.fields()) {
+      if (!isPrimitive(field.schema())
+          || !field.name().equals(avroSchema.getFields().get(field.index()).name())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether a schema is a primitive that AvroData converts without looking at its
+   * parameters, i.e. one without a name, which is how logical types are identified.
+   */
+  private static boolean isPrimitive(Schema schema) {
+    if (schema.name() != null) {
+      return false;
+    }
+    switch (schema.type()) {
+      case INT8:
+      case INT16:
+      case INT32:
+      case INT64:
+      case FLOAT32:
+      case FLOAT64:
+      case BOOLEAN:
+      case STRING:
+      case BYTES:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static Object primitiveValue(Schema schema, Object value) {
+    if (value == null) {
+      if (!schema.isOptional()) {
+        throw new DataException("Found null value for non-optional schema");
+      }
+      return null;
+    }
+    switch (schema.type()) {
+      case INT8:
+        return ((Byte) value).intValue();
+      case INT16:
+        return ((Short) value).intValue();
+      case BYTES:
+        return value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : value;
+      default:
+        return value;
+    }
+  }
+}
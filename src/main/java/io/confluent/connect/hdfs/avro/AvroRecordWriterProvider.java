@@ -16,7 +16,6 @@
 
 package io.confluent.connect.hdfs.avro;
 
-import io.confluent.kafka.serializers.NonRecordContainer;
 import org.apache.avro.file.DataFileWriter;
 import org.apache.avro.generic.GenericDatumWriter;
 import org.apache.avro.io.DatumWriter;
@@ -29,10 +28,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.List;
 
 import io.confluent.connect.avro.AvroData;
+import io.confluent.connect.hdfs.BatchRecordWriter;
 import io.confluent.connect.hdfs.RecordWriter;
 import io.confluent.connect.hdfs.RecordWriterProvider;
+import io.confluent.connect.hdfs.errors.BatchWriteException;
 
 public class AvroRecordWriterProvider implements RecordWriterProvider {
 
@@ -57,23 +59,39 @@ public class AvroRecordWriterProvider implements RecordWriterProvider {
     org.apache.avro.Schema avroSchema = avroData.fromConnectSchema(schema);
     writer.create(avroSchema, out);
 
-    return new RecordWriter<SinkRecord>(){
+    final AvroRecordConverter converter = new AvroRecordConverter(avroData, schema, avroSchema);
+
+    return new BatchRecordWriter<SinkRecord>(){
       @Override
       public void write(SinkRecord record) throws IOException {
-        log.trace("Sink record: {}", record.toString());
-        Object value = avroData.fromConnectData(schema, record.value());
-        // AvroData wraps primitive types so their schema can be included. We need to unwrap NonRecordContainers to just
-        // their value to properly handle these types
-        if (value instanceof NonRecordContainer)
-          writer.append(((NonRecordContainer) value).getValue());
-        else
-          writer.append(value);
+        writer.append(convert(record));
+      }
+
+      @Override
+      public void writeAll(List<SinkRecord> records) throws IOException {
+        // The converter reuses its record, so each value is appended before the next one is
+        // converted. DataFileWriter encodes it into its own reused block buffer.
+        for (int i = 0; i < records.size(); ++i) {
+          try {
+            writer.append(convert(records.get(i)));
+          } catch (IOException | RuntimeException e) {
+            if (i == 0) {
+              throw e;
+            }
+            throw new BatchWriteException(i, e);
+          }
+        }
       }
 
       @Override
       public void close() throws IOException {
         writer.close();
       }
+
+      private Object convert(SinkRecord record) {
+        log.trace("Sink record: {}", record.toString());
+        return converter.convert(record.value());
+      }
     };
   }
 }
@@ -0,0 +1,38 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.errors;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link io.confluent.connect.hdfs.BatchRecordWriter#writeAll} when it fails after
+ * writing some of the values, so that the caller only writes the others again.
+ */
+public class BatchWriteException extends IOException {
+
+  private final int written;
+
+  public BatchWriteException(int written, Throwable throwable) {
+    super(throwable);
+    this.written = written;
+  }
+
+  /**
+   * Returns the number of values at the start of the batch that were written.
+   */
+  public int written() {
+    return written;
+  }
+}
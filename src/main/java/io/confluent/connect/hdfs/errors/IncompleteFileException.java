@@ -0,0 +1,33 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.errors;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link io.confluent.connect.hdfs.RecordWriter#close} when its file can no longer be
+ * completed, e.g. because part of its records were written before a failure, so that the caller
+ * discards the file and writes its records again instead of retrying the close.
+ */
+public class IncompleteFileException extends IOException {
+
+  public IncompleteFileException(String s) {
+    super(s);
+  }
+
+  public IncompleteFileException(String s, Throwable throwable) {
+    super(s, throwable);
+  }
+}
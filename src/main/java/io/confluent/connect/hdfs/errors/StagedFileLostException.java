@@ -0,0 +1,35 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.errors;
+
+/**
+ * Thrown when a temp file staged outside the storage is lost while other files of its transaction
+ * were committed past its records, so the partition can neither resume after the committed files
+ * without dropping records nor before them without writing records a second time.
+ */
+public class StagedFileLostException extends RuntimeException {
+
+  public StagedFileLostException(String s) {
+    super(s);
+  }
+
+  public StagedFileLostException(String s, Throwable throwable) {
+    super(s, throwable);
+  }
+
+  public StagedFileLostException(Throwable throwable) {
+    super(throwable);
+  }
+}
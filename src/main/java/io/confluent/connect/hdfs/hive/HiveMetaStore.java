@@ -20,16 +20,32 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hive.conf.HiveConf;
 import org.apache.hadoop.hive.metastore.IMetaStoreClient;
+import org.apache.hadoop.hive.metastore.Warehouse;
 import org.apache.hadoop.hive.metastore.api.AlreadyExistsException;
+import org.apache.hadoop.hive.metastore.api.ColumnStatistics;
+import org.apache.hadoop.hive.metastore.api.ColumnStatisticsData;
+import org.apache.hadoop.hive.metastore.api.ColumnStatisticsDesc;
+import org.apache.hadoop.hive.metastore.api.ColumnStatisticsObj;
 import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
 import org.apache.hadoop.hive.metastore.api.InvalidObjectException;
 import org.apache.hadoop.hive.metastore.api.InvalidOperationException;
 import org.apache.hadoop.hive.metastore.api.MetaException;
 import org.apache.hadoop.hive.metastore.api.NoSuchObjectException;
 import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.SetPartitionsStatsRequest;
+import org.apache.hadoop.hive.metastore.api.StorageDescriptor;
 import org.apache.hadoop.hive.metastore.api.UnknownDBException;
 import org.apache.hadoop.hive.ql.metadata.Table;
 import org.apache.hive.hcatalog.common.HCatUtil;
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.MetricsReporter;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.utils.Time;
 import org.apache.thrift.TException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,17 +53,66 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
 import io.confluent.connect.hdfs.errors.HiveMetaStoreException;
+import io.confluent.connect.hdfs.storage.StorageOperationExecutor;
 
+/**
+ * Calls the Hive metastore through a pool of {@value HdfsSinkConnectorConfig#HIVE_METASTORE_CLIENTS_CONFIG}
+ * clients, so that updates of different tables run concurrently. The time calls wait for a client
+ * and the latency of the calls are exposed through JMX under
+ * {@value StorageOperationExecutor#JMX_PREFIX}.
+ */
 public class HiveMetaStore {
 
   private static final Logger log = LoggerFactory.getLogger(HiveMetaStore.class);
-  private final IMetaStoreClient client;
+  private static final String METRIC_GROUP = "hive-metastore";
+  private static final AtomicInteger INSTANCES = new AtomicInteger();
+  private static final int ADD_PARTITIONS_BATCH_SIZE = 1000;
+  private static final long CLOSE_CHECK_INTERVAL_MS = 1000L;
+
+  private final BlockingQueue<IMetaStoreClient> clients;
+  private volatile boolean closed = false;
+  private final Metrics metrics;
+  private final Sensor waitTime;
+  private final Sensor callLatency;
 
   public HiveMetaStore(Configuration conf, HdfsSinkConnectorConfig connectorConfig) throws HiveMetaStoreException {
+    this(createClients(conf, connectorConfig));
+  }
+
+  /**
+   * Creates a metastore that calls through the given clients, which it closes when it is closed.
+   * Tests use this to run against a metastore stand-in.
+   */
+  public HiveMetaStore(Collection<? extends IMetaStoreClient> clients) {
+    this.clients = new ArrayBlockingQueue<IMetaStoreClient>(clients.size(), false, clients);
+    metrics = new Metrics(new MetricConfig(),
+                          Collections.<MetricsReporter>singletonList(new JmxReporter(StorageOperationExecutor.JMX_PREFIX)),
+                          Time.SYSTEM);
+    Map<String, String> tags = new LinkedHashMap<>();
+    tags.put("instance", String.valueOf(INSTANCES.getAndIncrement()));
+    waitTime = metrics.sensor("client-wait-time");
+    waitTime.add(metrics.metricName("client-wait-time-avg", METRIC_GROUP, "The average time in ms a call waits for a metastore client.", tags), new Avg());
+    waitTime.add(metrics.metricName("client-wait-time-max", METRIC_GROUP, "The maximum time in ms a call waits for a metastore client.", tags), new Max());
+    callLatency = metrics.sensor("call-latency");
+    callLatency.add(metrics.metricName("call-latency-avg", METRIC_GROUP, "The average latency of metastore calls in ms.", tags), new Avg());
+    callLatency.add(metrics.metricName("call-latency-max", METRIC_GROUP, "The maximum latency of metastore calls in ms.", tags), new Max());
+  }
+
+  private static List<IMetaStoreClient> createClients(Configuration conf, HdfsSinkConnectorConfig connectorConfig)
+      throws HiveMetaStoreException {
     HiveConf hiveConf = new HiveConf(conf, HiveConf.class);
     String hiveConfDir = connectorConfig.getString(HdfsSinkConnectorConfig.HIVE_CONF_DIR_CONFIG);
     String hiveMetaStoreURIs = connectorConfig.getString(HdfsSinkConnectorConfig.HIVE_METASTORE_URIS_CONFIG);
@@ -65,32 +130,96 @@ public class HiveMetaStore {
       hiveConf.addResource(new Path(hiveSitePath));
     }
     hiveConf.set("hive.metastore.uris", hiveMetaStoreURIs);
+    int size = connectorConfig.getInt(HdfsSinkConnectorConfig.HIVE_METASTORE_CLIENTS_CONFIG);
+    List<IMetaStoreClient> clients = new ArrayList<>(size);
     try {
-      client = HCatUtil.getHiveMetastoreClient(hiveConf);
+      for (int i = 0; i < size; ++i) {
+        clients.add(HCatUtil.getHiveMetastoreClient(hiveConf));
+      }
     } catch (IOException | MetaException e) {
+      for (IMetaStoreClient client : clients) {
+        client.close();
+      }
       throw new HiveMetaStoreException(e);
     }
+    return clients;
   }
 
   private interface ClientAction<R> {
-    R call() throws TException;
+    R call(IMetaStoreClient client) throws TException;
   }
 
+  /**
+   * Runs the action with a client from the pool, waiting for one if all of them are in use.
+   */
   private <R> R doAction(ClientAction<R> action) throws TException {
-    // No need to implement retries here. We use RetryingMetaStoreClient
-    // which creates a proxy for a IMetaStoreClient implementation and 
-    // retries calls to it on failure. The retrying client is conscious
-    // of the socket timeout and does not call reconnect on an open connection.
-    // Since HiveMetaStoreClient's reconnect method does not check the status 
-    // of the connection, blind retries may cause a huge spike in the number
-    // of connections to the Hive MetaStore. 
-    return action.call();
+    long start = System.currentTimeMillis();
+    IMetaStoreClient client = null;
+    try {
+      while (client == null) {
+        if (closed) {
+          throw new TException("Hive metastore is closed");
+        }
+        client = clients.poll(CLOSE_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new TException("Interrupted while waiting for a Hive metastore client", e);
+    }
+    long acquired = System.currentTimeMillis();
+    waitTime.record(acquired - start);
+    try {
+      // No need to implement retries here. We use RetryingMetaStoreClient
+      // which creates a proxy for a IMetaStoreClient implementation and 
+      // retries calls to it on failure. The retrying client is conscious
+      // of the socket timeout and does not call reconnect on an open connection.
+      // Since HiveMetaStoreClient's reconnect method does not check the status 
+      // of the connection, blind retries may cause a huge spike in the number
+      // of connections to the Hive MetaStore. 
+      return action.call(client);
+    } finally {
+      callLatency.record(System.currentTimeMillis() - acquired);
+      release(client);
+    }
+  }
+
+  /**
+   * Returns the client to the pool, or closes it if the metastore was closed while it was in use.
+   */
+  private void release(IMetaStoreClient client) {
+    synchronized (clients) {
+      if (!closed) {
+        clients.add(client);
+        return;
+      }
+    }
+    client.close();
+  }
+
+  /**
+   * Closes the idle clients right away and the clients in use as soon as their call returns.
+   */
+  public void close() {
+    List<IMetaStoreClient> idle = new ArrayList<>();
+    synchronized (clients) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      clients.drainTo(idle);
+    }
+    for (IMetaStoreClient client : idle) {
+      client.close();
+    }
+    if (metrics != null) {
+      metrics.close();
+    }
   }
 
   public void addPartition(final String database, final String tableName, final String path) throws HiveMetaStoreException {
     ClientAction<Void> addPartition = new ClientAction<Void>() {
       @Override
-      public Void call() throws TException {
+      public Void call(IMetaStoreClient client) throws TException {
         // purposely don't check if the partition already exists because
         // getPartition(db, table, path) will throw an exception to indicate the
         // partition doesn't exist also. this way, it's only one call.
@@ -115,7 +244,7 @@ public class HiveMetaStore {
   public void dropPartition(final String database, final String tableName, final String path) throws HiveMetaStoreException {
     ClientAction<Void> dropPartition = new ClientAction<Void>() {
       @Override
-      public Void call() throws TException {
+      public Void call(IMetaStoreClient client) throws TException {
         client.dropPartition(database, tableNameConverter(tableName), path, false);
         return null;
       }
@@ -138,7 +267,7 @@ public class HiveMetaStore {
   public void createDatabase(final String database) throws HiveMetaStoreException {
     ClientAction<Void> create = new ClientAction<Void>() {
       @Override
-      public Void call() throws TException {
+      public Void call(IMetaStoreClient client) throws TException {
         client.createDatabase(new Database(database, "Database created by Kafka Connect", null, null));
         return null;
       }
@@ -161,7 +290,7 @@ public class HiveMetaStore {
   public void dropDatabase(final String name, final boolean deleteData) throws HiveMetaStoreException {
     ClientAction<Void> drop = new ClientAction<Void>() {
       @Override
-      public Void call() throws TException {
+      public Void call(IMetaStoreClient client) throws TException {
         client.dropDatabase(name, deleteData, true);
         return null;
       }
@@ -181,7 +310,7 @@ public class HiveMetaStore {
   public void createTable(final Table table) throws HiveMetaStoreException {
     ClientAction<Void> create = new ClientAction<Void>() {
       @Override
-      public Void call() throws TException {
+      public Void call(IMetaStoreClient client) throws TException {
         client.createTable(table.getTTable());
         return null;
       }
@@ -208,7 +337,7 @@ public class HiveMetaStore {
   public void alterTable(final Table table) throws HiveMetaStoreException {
     ClientAction<Void> alter = new ClientAction<Void>() {
       @Override
-      public Void call() throws TException {
+      public Void call(IMetaStoreClient client) throws TException {
         client.alter_table(table.getDbName(), tableNameConverter(table.getTableName()), table.getTTable());
         return null;
       }
@@ -232,7 +361,7 @@ public class HiveMetaStore {
   public void dropTable(final String database, final String tableName) {
     ClientAction<Void> drop = new ClientAction<Void>() {
       @Override
-      public Void call() throws TException {
+      public Void call(IMetaStoreClient client) throws TException {
         client.dropTable(database, tableNameConverter(tableName), false, true);
         return null;
       }
@@ -252,7 +381,7 @@ public class HiveMetaStore {
   public boolean tableExists(final String database, final String tableName) throws HiveMetaStoreException {
     ClientAction<Boolean> exists = new ClientAction<Boolean>() {
       @Override
-      public Boolean call() throws TException {
+      public Boolean call(IMetaStoreClient client) throws TException {
         return client.tableExists(database, tableNameConverter(tableName));
       }
     };
@@ -270,7 +399,7 @@ public class HiveMetaStore {
   public Table getTable(final String database, final String tableName) throws HiveMetaStoreException {
     ClientAction<Table> getTable = new ClientAction<Table>() {
       @Override
-      public Table call() throws TException {
+      public Table call(IMetaStoreClient client) throws TException {
         return new Table(client.getTable(database, tableNameConverter(tableName)));
       }
     };
@@ -292,10 +421,168 @@ public class HiveMetaStore {
     return table;
   }
 
+  /**
+   * Adds the partitions with the given names and locations in batches, skipping those that
+   * already exist.
+   */
+  public void addPartitions(final String database, final String tableName, final Map<String, String> partitions) throws HiveMetaStoreException {
+    ClientAction<Void> addPartitions = new ClientAction<Void>() {
+      @Override
+      public Void call(IMetaStoreClient client) throws TException {
+        org.apache.hadoop.hive.metastore.api.Table table = client.getTable(database, tableNameConverter(tableName));
+        List<Partition> batch = new ArrayList<>();
+        for (Map.Entry<String, String> entry : partitions.entrySet()) {
+          StorageDescriptor sd = new StorageDescriptor(table.getSd());
+          sd.setLocation(entry.getValue());
+          Partition partition = new Partition();
+          partition.setDbName(table.getDbName());
+          partition.setTableName(table.getTableName());
+          partition.setValues(new ArrayList<String>(Warehouse.makeSpecFromName(entry.getKey()).values()));
+          partition.setSd(sd);
+          batch.add(partition);
+          if (batch.size() == ADD_PARTITIONS_BATCH_SIZE) {
+            client.add_partitions(batch, true, false);
+            batch.clear();
+          }
+        }
+        if (!batch.isEmpty()) {
+          client.add_partitions(batch, true, false);
+        }
+        return null;
+      }
+    };
+
+    try {
+      doAction(addPartitions);
+    } catch (NoSuchObjectException e) {
+      throw new HiveMetaStoreException("Hive table not found: " + database + "." + tableNameConverter(tableName));
+    } catch (InvalidObjectException e) {
+      throw new HiveMetaStoreException("Invalid partitions for " + database + "." + tableNameConverter(tableName), e);
+    } catch (MetaException e) {
+      throw new HiveMetaStoreException("Hive MetaStore exception", e);
+    } catch (TException e) {
+      throw new HiveMetaStoreException("Exception communicating with the Hive MetaStore", e);
+    }
+  }
+
+  /**
+   * Returns the name the metastore lists for the partition stored in the given directory, relative
+   * to the table location. Keys and values are escaped the way {@link #listPartitionNames} returns
+   * them, so that names of both origins can be compared. A directory that is not of the form
+   * {@code key=value[/key=value...]} is returned unchanged.
+   */
+  public static String partitionName(String directory) {
+    try {
+      Map<String, String> spec = Warehouse.makeSpecFromName(directory);
+      return spec.isEmpty() ? directory : Warehouse.makePartName(spec, false);
+    } catch (MetaException | IllegalArgumentException e) {
+      return directory;
+    }
+  }
+
+  /**
+   * Sets the statistics the topic partition {@code writer} recorded for its partitions, keyed by
+   * partition name, in their parameters and column statistics. The partitions are read and
+   * updated in one call each, as are their column statistics. Updates of the same table should be
+   * made from one thread, as {@link HiveUpdateExecutor} does; see {@link PartitionStats} for how
+   * updates of other tasks are accounted for.
+   */
+  public void updatePartitionStats(final String database, final String tableName,
+                                   final String writer,
+                                   Map<String, PartitionStats> partitionStats) throws HiveMetaStoreException {
+    final Map<String, PartitionStats> stats = new HashMap<>();
+    for (Map.Entry<String, PartitionStats> entry : partitionStats.entrySet()) {
+      stats.put(partitionName(entry.getKey()), entry.getValue());
+    }
+    ClientAction<Void> updatePartitionStats = new ClientAction<Void>() {
+      @Override
+      public Void call(IMetaStoreClient client) throws TException {
+        org.apache.hadoop.hive.metastore.api.Table table = client.getTable(database, tableNameConverter(tableName));
+        Map<String, String> columnTypes = new HashMap<>();
+        for (FieldSchema column : table.getSd().getCols()) {
+          columnTypes.put(column.getName(), column.getType());
+        }
+        List<String> names = new ArrayList<>(stats.keySet());
+        List<Partition> partitions = client.getPartitionsByNames(table.getDbName(), table.getTableName(), names);
+        Map<String, List<ColumnStatisticsObj>> existing = client.getPartitionColumnStatistics(
+            table.getDbName(), table.getTableName(), names, new ArrayList<>(columnTypes.keySet()));
+
+        List<ColumnStatistics> columnStats = new ArrayList<>();
+        for (Partition partition : partitions) {
+          String name = Warehouse.makePartName(table.getPartitionKeys(), partition.getValues());
+          if (!stats.containsKey(name)) {
+            continue;
+          }
+          if (partition.getParameters() == null) {
+            partition.setParameters(new HashMap<String, String>());
+          }
+          Map<String, ColumnStatisticsData> columns = new HashMap<>();
+          if (existing.containsKey(name)) {
+            for (ColumnStatisticsObj column : existing.get(name)) {
+              columns.put(column.getColName(), column.getStatsData());
+            }
+          }
+          stats.get(name).addTo(writer, partition.getParameters(), columns);
+
+          List<ColumnStatisticsObj> objs = new ArrayList<>();
+          for (Map.Entry<String, ColumnStatisticsData> column : columns.entrySet()) {
+            String type = columnTypes.get(column.getKey());
+            if (type != null) {
+              objs.add(new ColumnStatisticsObj(column.getKey(), type, column.getValue()));
+            }
+          }
+          if (!objs.isEmpty()) {
+            ColumnStatisticsDesc desc = new ColumnStatisticsDesc(false, table.getDbName(), table.getTableName());
+            desc.setPartName(name);
+            columnStats.add(new ColumnStatistics(desc, objs));
+          }
+        }
+        if (!partitions.isEmpty()) {
+          client.alter_partitions(table.getDbName(), table.getTableName(), partitions);
+        }
+        if (!columnStats.isEmpty()) {
+          client.setPartitionColumnStatistics(new SetPartitionsStatsRequest(columnStats));
+        }
+        return null;
+      }
+    };
+
+    try {
+      doAction(updatePartitionStats);
+    } catch (NoSuchObjectException e) {
+      throw new HiveMetaStoreException("Hive table not found: " + database + "." + tableNameConverter(tableName));
+    } catch (InvalidObjectException | InvalidOperationException e) {
+      throw new HiveMetaStoreException("Invalid statistics for " + database + "." + tableNameConverter(tableName), e);
+    } catch (MetaException e) {
+      throw new HiveMetaStoreException("Hive MetaStore exception", e);
+    } catch (TException e) {
+      throw new HiveMetaStoreException("Exception communicating with the Hive MetaStore", e);
+    }
+  }
+
+  public List<String> listPartitionNames(final String database, final String tableName) throws HiveMetaStoreException {
+    ClientAction<List<String>> listPartitionNames = new ClientAction<List<String>>() {
+      @Override
+      public List<String> call(IMetaStoreClient client) throws TException {
+        return client.listPartitionNames(database, tableNameConverter(tableName), (short) -1);
+      }
+    };
+
+    try {
+      return doAction(listPartitionNames);
+    } catch (NoSuchObjectException e) {
+      return new ArrayList<>();
+    } catch (MetaException e) {
+      throw new HiveMetaStoreException("Hive MetaStore exception", e);
+    } catch (TException e) {
+      throw new HiveMetaStoreException("Exception communicating with the Hive MetaStore", e);
+    }
+  }
+
   public List<String> listPartitions(final String database, final String tableName, final short max) throws HiveMetaStoreException {
     ClientAction<List<String>> listPartitions = new ClientAction<List<String>>() {
       @Override
-      public List<String> call() throws TException {
+      public List<String> call(IMetaStoreClient client) throws TException {
         List<Partition> partitions = client.listPartitions(database, tableNameConverter(tableName), max);
         List<String> paths = new ArrayList<>();
         for (Partition partition : partitions) {
@@ -319,7 +606,7 @@ public class HiveMetaStore {
   public List<String> getAllTables(final String database) throws HiveMetaStoreException {
     ClientAction<List<String>> getAllTables = new ClientAction<List<String>>() {
       @Override
-      public List<String> call() throws TException {
+      public List<String> call(IMetaStoreClient client) throws TException {
         return client.getAllTables(database);
       }
     };
@@ -339,7 +626,7 @@ public class HiveMetaStore {
     ClientAction<List<String>> create =
         new ClientAction<List<String>>() {
           @Override
-          public List<String> call() throws TException {
+          public List<String> call(IMetaStoreClient client) throws TException {
             return client.getAllDatabases();
           }
         };
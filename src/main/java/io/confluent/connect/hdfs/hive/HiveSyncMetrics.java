@@ -0,0 +1,92 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.hive;
+
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.MetricsReporter;
+import org.apache.kafka.common.utils.Time;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.confluent.connect.hdfs.storage.StorageOperationExecutor;
+
+/**
+ * The progress of the background sync of the Hive tables with the topic directories, exposed
+ * through JMX under {@value StorageOperationExecutor#JMX_PREFIX}.
+ */
+public class HiveSyncMetrics {
+
+  private static final String METRIC_GROUP = "hive-sync";
+  private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+  private final Metrics metrics;
+  private final AtomicInteger topicsPending = new AtomicInteger();
+  private final AtomicInteger topicsSynced = new AtomicInteger();
+  private final AtomicLong partitionsAdded = new AtomicLong();
+  private final AtomicInteger failures = new AtomicInteger();
+
+  public HiveSyncMetrics() {
+    metrics = new Metrics(new MetricConfig(),
+                          Collections.<MetricsReporter>singletonList(new JmxReporter(StorageOperationExecutor.JMX_PREFIX)),
+                          Time.SYSTEM);
+    Map<String, String> tags = new LinkedHashMap<>();
+    tags.put("instance", String.valueOf(INSTANCES.getAndIncrement()));
+    addGauge("topics-pending", "The number of topics whose Hive table is not synced yet.", topicsPending, tags);
+    addGauge("topics-synced", "The number of topics whose Hive table has been synced.", topicsSynced, tags);
+    addGauge("partitions-added", "The number of missing partitions the sync added to Hive.", partitionsAdded, tags);
+    addGauge("sync-failures", "The number of failed syncs of a Hive table.", failures, tags);
+  }
+
+  private void addGauge(String name, String description, final Number value, Map<String, String> tags) {
+    metrics.addMetric(metrics.metricName(name, METRIC_GROUP, description, tags), new Measurable() {
+      @Override
+      public double measure(MetricConfig config, long now) {
+        return value.doubleValue();
+      }
+    });
+  }
+
+  public void started(int topics) {
+    topicsPending.addAndGet(topics);
+  }
+
+  public void partitionsAdded(int partitions) {
+    partitionsAdded.addAndGet(partitions);
+  }
+
+  public void synced() {
+    topicsPending.decrementAndGet();
+    topicsSynced.incrementAndGet();
+  }
+
+  public void failed() {
+    failures.incrementAndGet();
+  }
+
+  public int topicsPending() {
+    return topicsPending.get();
+  }
+
+  public void close() {
+    metrics.close();
+  }
+}
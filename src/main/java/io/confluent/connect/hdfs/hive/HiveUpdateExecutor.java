@@ -0,0 +1,74 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.hive;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs Hive metastore updates on a fixed number of threads. The updates of a table always run on
+ * the same thread, so they are applied in the order they were submitted, while the updates of
+ * different tables run in parallel.
+ */
+public class HiveUpdateExecutor {
+
+  private final ExecutorService[] executors;
+
+  public HiveUpdateExecutor(int threads) {
+    executors = new ExecutorService[threads];
+    for (int i = 0; i < threads; ++i) {
+      final String name = "hive-update-" + i;
+      executors[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, name);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+  }
+
+  public <T> Future<T> submit(String table, Callable<T> task) {
+    return executors[(table.hashCode() & Integer.MAX_VALUE) % executors.length].submit(task);
+  }
+
+  public void shutdown() {
+    for (ExecutorService executor : executors) {
+      executor.shutdown();
+    }
+  }
+
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (ExecutorService executor : executors) {
+      long remaining = deadline - System.nanoTime();
+      if (!executor.awaitTermination(Math.max(remaining, 0L), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public void shutdownNow() {
+    for (ExecutorService executor : executors) {
+      executor.shutdownNow();
+    }
+  }
+}
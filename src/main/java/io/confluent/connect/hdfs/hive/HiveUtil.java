@@ -17,6 +17,9 @@ package io.confluent.connect.hdfs.hive;
 import org.apache.hadoop.hive.ql.metadata.Table;
 import org.apache.kafka.connect.data.Schema;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import io.confluent.connect.avro.AvroData;
 import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
 import io.confluent.connect.hdfs.partitioner.Partitioner;
@@ -27,7 +30,10 @@ public abstract class HiveUtil {
   protected final String topicsDir;
   protected final AvroData avroData;
   protected final HiveMetaStore hiveMetaStore;
-
+  // The schema this task last applied to each table, keyed by database.table.
+  private final ConcurrentMap<String, Schema> appliedSchemas = new ConcurrentHashMap<>();
+  // Serializes the schema updates of each table, keyed by database.table.
+  private final ConcurrentMap<String, Object> tableLocks = new ConcurrentHashMap<>();
 
   public HiveUtil(HdfsSinkConnectorConfig connectorConfig, AvroData avroData, HiveMetaStore hiveMetaStore) {
     this.url = connectorConfig.getString(HdfsSinkConnectorConfig.HDFS_URL_CONFIG);
@@ -39,7 +45,40 @@ public abstract class HiveUtil {
   public abstract void createTable(String database, String tableName, Schema schema, Partitioner partitioner);
 
   public abstract void alterSchema(String database, String tableName, Schema schema);
-  
+
+  /**
+   * Creates the table with the schema and alters its schema, unless this task already applied the
+   * same schema to the table. The topic partitions of a task all apply a new schema of their topic,
+   * so only the first of them goes to the metastore. Updates of different tables run concurrently.
+   */
+  public void applySchema(String database, String tableName, Schema schema,
+                          Partitioner partitioner) {
+    String key = database + "." + tableName;
+    synchronized (tableLock(key)) {
+      Schema applied = appliedSchemas.get(key);
+      if (schema.equals(applied)) {
+        return;
+      }
+      if (applied == null) {
+        createTable(database, tableName, schema, partitioner);
+      }
+      alterSchema(database, tableName, schema);
+      appliedSchemas.put(key, schema);
+    }
+  }
+
+  private Object tableLock(String key) {
+    Object lock = tableLocks.get(key);
+    if (lock == null) {
+      Object newLock = new Object();
+      lock = tableLocks.putIfAbsent(key, newLock);
+      if (lock == null) {
+        lock = newLock;
+      }
+    }
+    return lock;
+  }
+
   public Table newTable(String database, String table){
     return new Table(database, hiveMetaStore.tableNameConverter(table));
   }
@@ -0,0 +1,576 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.hive;
+
+import org.apache.hadoop.hive.common.StatsSetupConst;
+import org.apache.hadoop.hive.metastore.api.BinaryColumnStatsData;
+import org.apache.hadoop.hive.metastore.api.BooleanColumnStatsData;
+import org.apache.hadoop.hive.metastore.api.ColumnStatisticsData;
+import org.apache.hadoop.hive.metastore.api.DoubleColumnStatsData;
+import org.apache.hadoop.hive.metastore.api.LongColumnStatsData;
+import org.apache.hadoop.hive.metastore.api.StringColumnStatsData;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The statistics of the records a topic partition wrote to a Hive partition, set in the
+ * parameters and column statistics of the partition so that queries can use them without an
+ * ANALYZE. The statistics of each file are merged into those of the partition when the file is
+ * committed, and written to Hive at most once per update interval.
+ *
+ * <p>Column statistics are kept for the top-level fields of primitive types. Distinct value
+ * counts are not computed; the counts already in Hive are kept. The raw data size is an estimate
+ * of the uncompressed size of the values.
+ *
+ * <p>The row count and raw data size of the partition are derived from the committed files
+ * rather than added to the values read from Hive: each topic partition keeps the totals of the
+ * files it committed, with the last offset they hold, in a parameter of its own, and the
+ * partition gets the sum of these parameters. A retried update then writes the same totals
+ * again, and the totals of a topic partition overwritten by a concurrent update of another one
+ * are restored by its next update. The number and total size of the files are set from a
+ * listing of the partition. Column statistics are still added to the ones in Hive, once per
+ * update, so partitions are marked as not having accurate statistics.
+ */
+public class PartitionStats {
+
+  // The parameters holding the last offset, row count and raw data size of each topic partition.
+  static final String WRITER_PARAMETER_PREFIX = "connect.hdfs.stats.";
+  // Holds the row count and raw data size the partition had before the connector first set them.
+  static final String PREVIOUS_PARAMETER = WRITER_PARAMETER_PREFIX + "previous";
+
+  // The column statistics of the rows recorded since the last update.
+  private List<ColumnStats> columns = new ArrayList<>();
+  private long pendingRows = 0L;
+  private long numRows = 0L;
+  private long rawDataSize = 0L;
+  private long firstOffset = -1L;
+  private long lastOffset = -1L;
+  // The totals of the topic partition in Hive before the first recorded offset, read on the
+  // first update.
+  private long baseRows = -1L;
+  private long baseRawDataSize = 0L;
+  private long numFiles = -1L;
+  private long totalSize = -1L;
+
+  public PartitionStats(Schema schema) {
+    if (schema != null && schema.type() == Schema.Type.STRUCT) {
+      for (Field field : schema.fields()) {
+        ColumnStats column = ColumnStats.create(field);
+        if (column != null) {
+          columns.add(column);
+        }
+      }
+    }
+  }
+
+  public synchronized void record(Object value, long offset) {
+    ++numRows;
+    ++pendingRows;
+    rawDataSize += estimateSize(value);
+    if (firstOffset < 0) {
+      firstOffset = offset;
+    }
+    lastOffset = Math.max(lastOffset, offset);
+    if (value instanceof Struct) {
+      Struct struct = (Struct) value;
+      for (ColumnStats column : columns) {
+        column.record(struct.get(column.field));
+      }
+    }
+  }
+
+  /**
+   * Adds the statistics of a committed file of the same partition. The columns of a file with
+   * another schema replace the columns of the same name and another type.
+   */
+  public synchronized void merge(PartitionStats file) {
+    synchronized (file) {
+      numRows += file.numRows;
+      pendingRows += file.pendingRows;
+      rawDataSize += file.rawDataSize;
+      if (file.firstOffset >= 0 && (firstOffset < 0 || file.firstOffset < firstOffset)) {
+        firstOffset = file.firstOffset;
+      }
+      lastOffset = Math.max(lastOffset, file.lastOffset);
+      for (ColumnStats column : file.columns) {
+        ColumnStats existing = column(column.field.name());
+        if (existing != null && existing.getClass() == column.getClass()) {
+          existing.merge(column);
+        } else {
+          columns.remove(existing);
+          columns.add(column);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets the number and total size of the committed files of the partition, as listed before the
+   * update. These replace the values in Hive rather than being added to them.
+   */
+  public synchronized void partitionListed(long numFiles, long totalSize) {
+    this.numFiles = numFiles;
+    this.totalSize = totalSize;
+  }
+
+  public synchronized long numRows() {
+    return numRows;
+  }
+
+  /**
+   * Sets the statistics of a partition, its parameters and its column statistics by column name,
+   * from the totals of the topic partition {@code writer}. The column statistics recorded since
+   * the last update are added to the existing ones and then reset.
+   */
+  public synchronized void addTo(String writer, Map<String, String> parameters,
+                                 Map<String, ColumnStatisticsData> columnStats) {
+    String key = WRITER_PARAMETER_PREFIX + writer;
+    long[] stored = writerTotals(parameters.get(key));
+    if (baseRows < 0) {
+      if (stored == null) {
+        baseRows = 0L;
+      } else if (stored[0] < firstOffset) {
+        baseRows = stored[1];
+        baseRawDataSize = stored[2];
+      } else {
+        // Records at or past the first one were counted by another writer of the topic partition.
+        baseRows = Math.max(stored[1] - numRows, 0L);
+        baseRawDataSize = Math.max(stored[2] - rawDataSize, 0L);
+      }
+    }
+    if (!hasWriterTotals(parameters) && parameters.containsKey(StatsSetupConst.ROW_COUNT)) {
+      parameters.put(PREVIOUS_PARAMETER, writerTotals(
+          -1L, parameter(parameters, StatsSetupConst.ROW_COUNT),
+          parameter(parameters, StatsSetupConst.RAW_DATA_SIZE)));
+    }
+
+    long rows = parameter(parameters, StatsSetupConst.ROW_COUNT);
+    for (ColumnStats column : columns) {
+      String name = column.field.name();
+      columnStats.put(name, column.addTo(columnStats.get(name), rows, pendingRows));
+    }
+    resetColumns();
+
+    parameters.put(key, writerTotals(lastOffset, baseRows + numRows,
+                                     baseRawDataSize + rawDataSize));
+    long totalRows = 0L;
+    long totalRawDataSize = 0L;
+    for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+      if (parameter.getKey().startsWith(WRITER_PARAMETER_PREFIX)) {
+        long[] totals = writerTotals(parameter.getValue());
+        if (totals != null) {
+          totalRows += totals[1];
+          totalRawDataSize += totals[2];
+        }
+      }
+    }
+    parameters.put(StatsSetupConst.ROW_COUNT, String.valueOf(totalRows));
+    parameters.put(StatsSetupConst.RAW_DATA_SIZE, String.valueOf(totalRawDataSize));
+    if (numFiles >= 0) {
+      parameters.put(StatsSetupConst.NUM_FILES, String.valueOf(numFiles));
+      parameters.put(StatsSetupConst.TOTAL_SIZE, String.valueOf(totalSize));
+    }
+    parameters.put(StatsSetupConst.COLUMN_STATS_ACCURATE, StatsSetupConst.FALSE);
+  }
+
+  private ColumnStats column(String name) {
+    for (ColumnStats column : columns) {
+      if (column.field.name().equals(name)) {
+        return column;
+      }
+    }
+    return null;
+  }
+
+  private void resetColumns() {
+    List<ColumnStats> reset = new ArrayList<>(columns.size());
+    for (ColumnStats column : columns) {
+      reset.add(ColumnStats.create(column.field));
+    }
+    columns = reset;
+    pendingRows = 0L;
+  }
+
+  private static boolean hasWriterTotals(Map<String, String> parameters) {
+    for (String name : parameters.keySet()) {
+      if (name.startsWith(WRITER_PARAMETER_PREFIX)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String writerTotals(long offset, long rows, long rawDataSize) {
+    return offset + "," + rows + "," + rawDataSize;
+  }
+
+  /**
+   * Returns the last offset, row count and raw data size of a writer parameter, or null if it is
+   * not set or not valid.
+   */
+  private static long[] writerTotals(String value) {
+    if (value == null) {
+      return null;
+    }
+    String[] parts = value.split(",");
+    if (parts.length != 3) {
+      return null;
+    }
+    try {
+      return new long[]{Long.parseLong(parts[0]), Math.max(Long.parseLong(parts[1]), 0L),
+                        Math.max(Long.parseLong(parts[2]), 0L)};
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static long parameter(Map<String, String> parameters, String name) {
+    String value = parameters.get(name);
+    if (value == null) {
+      return 0L;
+    }
+    try {
+      return Math.max(Long.parseLong(value), 0L);
+    } catch (NumberFormatException e) {
+      return 0L;
+    }
+  }
+
+  private static long estimateSize(Object value) {
+    if (value == null) {
+      return 0L;
+    } else if (value instanceof Struct) {
+      Struct struct = (Struct) value;
+      long size = 0L;
+      for (Field field : struct.schema().fields()) {
+        size += estimateSize(struct.get(field));
+      }
+      return size;
+    } else if (value instanceof String) {
+      return ((String) value).length();
+    } else if (value instanceof byte[]) {
+      return ((byte[]) value).length;
+    } else if (value instanceof ByteBuffer) {
+      return ((ByteBuffer) value).remaining();
+    } else if (value instanceof Collection) {
+      long size = 0L;
+      for (Object element : (Collection<?>) value) {
+        size += estimateSize(element);
+      }
+      return size;
+    } else if (value instanceof Map) {
+      long size = 0L;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        size += estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+      }
+      return size;
+    } else if (value instanceof Boolean || value instanceof Byte) {
+      return 1L;
+    } else if (value instanceof Short) {
+      return 2L;
+    } else if (value instanceof Integer || value instanceof Float) {
+      return 4L;
+    } else if (value instanceof BigDecimal) {
+      return ((BigDecimal) value).unscaledValue().bitLength() / 8 + 1;
+    }
+    return 8L;
+  }
+
+  private abstract static class ColumnStats {
+    final Field field;
+    long nulls = 0L;
+
+    ColumnStats(Field field) {
+      this.field = field;
+    }
+
+    /**
+     * Returns the statistics of the primitive fields, except for the logical types, whose Hive
+     * columns have other types.
+     */
+    static ColumnStats create(Field field) {
+      if (field.schema().name() != null) {
+        return null;
+      }
+      switch (field.schema().type()) {
+        case INT8:
+        case INT16:
+        case INT32:
+        case INT64:
+          return new LongStats(field);
+        case FLOAT32:
+        case FLOAT64:
+          return new DoubleStats(field);
+        case BOOLEAN:
+          return new BooleanStats(field);
+        case STRING:
+          return new StringStats(field);
+        case BYTES:
+          return new BinaryStats(field);
+        default:
+          return null;
+      }
+    }
+
+    void record(Object value) {
+      if (value == null) {
+        ++nulls;
+      } else {
+        recordValue(value);
+      }
+    }
+
+    abstract void recordValue(Object value);
+
+    /**
+     * Adds the statistics of the same column of another file.
+     */
+    void merge(ColumnStats other) {
+      nulls += other.nulls;
+    }
+
+    /**
+     * Returns the statistics of the column with these added to the existing ones, if any, of
+     * the given number of rows.
+     */
+    abstract ColumnStatisticsData addTo(ColumnStatisticsData existing, long existingRows, long rows);
+  }
+
+  private static class LongStats extends ColumnStats {
+    private long low = Long.MAX_VALUE;
+    private long high = Long.MIN_VALUE;
+
+    LongStats(Field field) {
+      super(field);
+    }
+
+    @Override
+    void recordValue(Object value) {
+      long number = ((Number) value).longValue();
+      low = Math.min(low, number);
+      high = Math.max(high, number);
+    }
+
+    @Override
+    void merge(ColumnStats other) {
+      super.merge(other);
+      low = Math.min(low, ((LongStats) other).low);
+      high = Math.max(high, ((LongStats) other).high);
+    }
+
+    @Override
+    ColumnStatisticsData addTo(ColumnStatisticsData existing, long existingRows, long rows) {
+      LongColumnStatsData stats = new LongColumnStatsData(nulls, 0L);
+      if (low <= high) {
+        stats.setLowValue(low);
+        stats.setHighValue(high);
+      }
+      if (existing != null && existing.isSetLongStats()) {
+        LongColumnStatsData old = existing.getLongStats();
+        stats.setNumNulls(stats.getNumNulls() + old.getNumNulls());
+        stats.setNumDVs(old.getNumDVs());
+        if (old.isSetLowValue()) {
+          stats.setLowValue(stats.isSetLowValue() ? Math.min(stats.getLowValue(), old.getLowValue()) : old.getLowValue());
+        }
+        if (old.isSetHighValue()) {
+          stats.setHighValue(stats.isSetHighValue() ? Math.max(stats.getHighValue(), old.getHighValue()) : old.getHighValue());
+        }
+      }
+      ColumnStatisticsData data = new ColumnStatisticsData();
+      data.setLongStats(stats);
+      return data;
+    }
+  }
+
+  private static class DoubleStats extends ColumnStats {
+    private double low = Double.POSITIVE_INFINITY;
+    private double high = Double.NEGATIVE_INFINITY;
+
+    DoubleStats(Field field) {
+      super(field);
+    }
+
+    @Override
+    void recordValue(Object value) {
+      double number = ((Number) value).doubleValue();
+      low = Math.min(low, number);
+      high = Math.max(high, number);
+    }
+
+    @Override
+    void merge(ColumnStats other) {
+      super.merge(other);
+      low = Math.min(low, ((DoubleStats) other).low);
+      high = Math.max(high, ((DoubleStats) other).high);
+    }
+
+    @Override
+    ColumnStatisticsData addTo(ColumnStatisticsData existing, long existingRows, long rows) {
+      DoubleColumnStatsData stats = new DoubleColumnStatsData(nulls, 0L);
+      if (low <= high) {
+        stats.setLowValue(low);
+        stats.setHighValue(high);
+      }
+      if (existing != null && existing.isSetDoubleStats()) {
+        DoubleColumnStatsData old = existing.getDoubleStats();
+        stats.setNumNulls(stats.getNumNulls() + old.getNumNulls());
+        stats.setNumDVs(old.getNumDVs());
+        if (old.isSetLowValue()) {
+          stats.setLowValue(stats.isSetLowValue() ? Math.min(stats.getLowValue(), old.getLowValue()) : old.getLowValue());
+        }
+        if (old.isSetHighValue()) {
+          stats.setHighValue(stats.isSetHighValue() ? Math.max(stats.getHighValue(), old.getHighValue()) : old.getHighValue());
+        }
+      }
+      ColumnStatisticsData data = new ColumnStatisticsData();
+      data.setDoubleStats(stats);
+      return data;
+    }
+  }
+
+  private static class BooleanStats extends ColumnStats {
+    private long trues = 0L;
+    private long falses = 0L;
+
+    BooleanStats(Field field) {
+      super(field);
+    }
+
+    @Override
+    void recordValue(Object value) {
+      if ((Boolean) value) {
+        ++trues;
+      } else {
+        ++falses;
+      }
+    }
+
+    @Override
+    void merge(ColumnStats other) {
+      super.merge(other);
+      trues += ((BooleanStats) other).trues;
+      falses += ((BooleanStats) other).falses;
+    }
+
+    @Override
+    ColumnStatisticsData addTo(ColumnStatisticsData existing, long existingRows, long rows) {
+      BooleanColumnStatsData stats = new BooleanColumnStatsData(trues, falses, nulls);
+      if (existing != null && existing.isSetBooleanStats()) {
+        BooleanColumnStatsData old = existing.getBooleanStats();
+        stats.setNumTrues(stats.getNumTrues() + old.getNumTrues());
+        stats.setNumFalses(stats.getNumFalses() + old.getNumFalses());
+        stats.setNumNulls(stats.getNumNulls() + old.getNumNulls());
+      }
+      ColumnStatisticsData data = new ColumnStatisticsData();
+      data.setBooleanStats(stats);
+      return data;
+    }
+  }
+
+  /**
+   * Lengths of strings and byte arrays. The average length of the existing statistics is weighted
+   * by the number of non-null values it was computed over.
+   */
+  private abstract static class LengthStats extends ColumnStats {
+    long maxLength = 0L;
+    long totalLength = 0L;
+
+    LengthStats(Field field) {
+      super(field);
+    }
+
+    void recordLength(long length) {
+      maxLength = Math.max(maxLength, length);
+      totalLength += length;
+    }
+
+    @Override
+    void merge(ColumnStats other) {
+      super.merge(other);
+      maxLength = Math.max(maxLength, ((LengthStats) other).maxLength);
+      totalLength += ((LengthStats) other).totalLength;
+    }
+
+    double averageLength(double existingAverage, long existingValues, long rows) {
+      long values = existingValues + rows - nulls;
+      return values > 0 ? (existingAverage * existingValues + totalLength) / values : 0.0;
+    }
+  }
+
+  private static class StringStats extends LengthStats {
+
+    StringStats(Field field) {
+      super(field);
+    }
+
+    @Override
+    void recordValue(Object value) {
+      recordLength(((String) value).length());
+    }
+
+    @Override
+    ColumnStatisticsData addTo(ColumnStatisticsData existing, long existingRows, long rows) {
+      StringColumnStatsData stats =
+          new StringColumnStatsData(maxLength, averageLength(0.0, 0L, rows), nulls, 0L);
+      if (existing != null && existing.isSetStringStats()) {
+        StringColumnStatsData old = existing.getStringStats();
+        long existingValues = Math.max(existingRows - old.getNumNulls(), 0L);
+        stats.setMaxColLen(Math.max(maxLength, old.getMaxColLen()));
+        stats.setAvgColLen(averageLength(old.getAvgColLen(), existingValues, rows));
+        stats.setNumNulls(nulls + old.getNumNulls());
+        stats.setNumDVs(old.getNumDVs());
+      }
+      ColumnStatisticsData data = new ColumnStatisticsData();
+      data.setStringStats(stats);
+      return data;
+    }
+  }
+
+  private static class BinaryStats extends LengthStats {
+
+    BinaryStats(Field field) {
+      super(field);
+    }
+
+    @Override
+    void recordValue(Object value) {
+      recordLength(value instanceof ByteBuffer ? ((ByteBuffer) value).remaining() : ((byte[]) value).length);
+    }
+
+    @Override
+    ColumnStatisticsData addTo(ColumnStatisticsData existing, long existingRows, long rows) {
+      BinaryColumnStatsData stats =
+          new BinaryColumnStatsData(maxLength, averageLength(0.0, 0L, rows), nulls);
+      if (existing != null && existing.isSetBinaryStats()) {
+        BinaryColumnStatsData old = existing.getBinaryStats();
+        long existingValues = Math.max(existingRows - old.getNumNulls(), 0L);
+        stats.setMaxColLen(Math.max(maxLength, old.getMaxColLen()));
+        stats.setAvgColLen(averageLength(old.getAvgColLen(), existingValues, rows));
+        stats.setNumNulls(nulls + old.getNumNulls());
+      }
+      ColumnStatisticsData data = new ColumnStatisticsData();
+      data.setBinaryStats(stats);
+      return data;
+    }
+  }
+}
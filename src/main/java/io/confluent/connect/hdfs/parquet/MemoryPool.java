@@ -0,0 +1,65 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.parquet;
+
+/**
+ * Shares a memory budget between the open Parquet writers of the worker.
+ *
+ * <p>A writer fixes its row group size when it is created, so each new writer gets an equal share
+ * of the pool with the writers already open, but no more than it asked for, no more than what the
+ * open writers left of the pool, and no less than the minimum. Writers opened earlier keep their
+ * size until they are closed and give it back. The pool is only exceeded by writers that get the
+ * minimum once it is used up.
+ */
+class MemoryPool {
+
+  private final long poolSize;
+  private int openWriters = 0;
+  private long allocated = 0L;
+
+  MemoryPool(long poolSize) {
+    this.poolSize = poolSize;
+  }
+
+  /**
+   * Registers a new writer and returns its row group size, to be given back with
+   * {@link #release(long)}.
+   */
+  synchronized long allocate(long requested, long minimum) {
+    ++openWriters;
+    long share = Math.min(poolSize / openWriters, poolSize - allocated);
+    long size = Math.max(minimum, Math.min(requested, share));
+    allocated += size;
+    return size;
+  }
+
+  /**
+   * Unregisters a writer and gives back the size returned by {@link #allocate(long, long)}.
+   */
+  synchronized void release(long size) {
+    if (openWriters > 0) {
+      --openWriters;
+      allocated = Math.max(allocated - size, 0L);
+    }
+  }
+
+  synchronized int openWriters() {
+    return openWriters;
+  }
+
+  synchronized long allocated() {
+    return allocated;
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.parquet;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroReadSupport;
+import org.apache.parquet.avro.AvroSchemaConverter;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.FileMetaData;
+import org.apache.parquet.schema.MessageType;
+
+import java.io.IOException;
+import java.util.List;
+
+import io.confluent.connect.hdfs.FileMerger;
+
+/**
+ * Merges Parquet files by reading their records and writing them to a new file with the settings
+ * of {@link ParquetRecordWriterProvider}. The Parquet version in use cannot append the row groups
+ * of one file to another, so the records are decoded and encoded again. The output is created
+ * with the schema of the first input, so inputs without records still merge into a valid file.
+ */
+public class ParquetFileMerger implements FileMerger {
+
+  // The key under which the Avro write support stores the Avro schema of a file.
+  private static final String AVRO_SCHEMA_KEY = "parquet.avro.schema";
+
+  @Override
+  public int merge(Configuration conf, List<Path> inputs, Path output) throws IOException {
+    ParquetWriter<GenericRecord> writer = null;
+    MessageType schema = null;
+    int merged = 0;
+    try {
+      for (Path input : inputs) {
+        FileMetaData metadata = org.apache.parquet.hadoop.ParquetFileReader.readFooter(conf, input)
+            .getFileMetaData();
+        MessageType inputSchema = metadata.getSchema();
+        if (schema != null && !inputSchema.equals(schema)) {
+          break;
+        }
+        if (writer == null) {
+          writer = ParquetRecordWriterProvider.createWriter(conf, output, avroSchema(metadata));
+        }
+        schema = inputSchema;
+        ParquetReader<GenericRecord> reader =
+            ParquetReader.builder(new AvroReadSupport<GenericRecord>(), input).withConf(conf).build();
+        try {
+          GenericRecord record;
+          while ((record = reader.read()) != null) {
+            writer.write(record);
+          }
+        } finally {
+          reader.close();
+        }
+        ++merged;
+      }
+    } finally {
+      if (writer != null) {
+        writer.close();
+      }
+    }
+    return merged;
+  }
+
+  private static Schema avroSchema(FileMetaData metadata) {
+    String schema = metadata.getKeyValueMetaData().get(AVRO_SCHEMA_KEY);
+    if (schema != null) {
+      return new Schema.Parser().parse(schema);
+    }
+    return new AvroSchemaConverter().convert(metadata.getSchema());
+  }
+}
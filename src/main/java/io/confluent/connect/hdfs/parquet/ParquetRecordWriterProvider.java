@@ -19,19 +19,61 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetOutputFormat;
 import org.apache.parquet.hadoop.ParquetWriter;
 import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.List;
 
 import io.confluent.connect.avro.AvroData;
+import io.confluent.connect.hdfs.avro.AvroRecordConverter;
+import io.confluent.connect.hdfs.BatchRecordWriter;
 import io.confluent.connect.hdfs.RecordWriterProvider;
 import io.confluent.connect.hdfs.RecordWriter;
+import io.confluent.connect.hdfs.errors.BatchWriteException;
 
+/**
+ * Writes Parquet files through the Avro object model.
+ *
+ * <p>The row group size, page size, dictionary encoding and compression codec are taken from the
+ * standard Parquet settings of the Hadoop configuration: {@value #BLOCK_SIZE_CONFIG} (256 MB by
+ * default), {@value #PAGE_SIZE_CONFIG} (64 KB), {@value #ENABLE_DICTIONARY_CONFIG} (true) and
+ * {@value #COMPRESSION_CONFIG} (snappy). A file buffers a row group in memory until it is
+ * flushed, so the row group size also bounds the memory of each open file.
+ *
+ * <p>The open files of the worker share {@value #MEMORY_POOL_RATIO_CONFIG} (0.95) of the maximum
+ * heap: a new file gets the configured row group size, an equal share of the pool with the files
+ * already open or what they left of the pool, whichever is smallest, but at least
+ * {@value #MIN_ROW_GROUP_SIZE_CONFIG} (1 MB). The heap is shared by all connectors of the worker,
+ * so the pool is sized with the ratio of the first file written and later ratios are ignored.
+ */
 public class ParquetRecordWriterProvider implements RecordWriterProvider {
 
+  private static final Logger log = LoggerFactory.getLogger(ParquetRecordWriterProvider.class);
+
   private final static String EXTENSION = ".parquet";
 
+  public static final String BLOCK_SIZE_CONFIG = ParquetOutputFormat.BLOCK_SIZE;
+  public static final String PAGE_SIZE_CONFIG = ParquetOutputFormat.PAGE_SIZE;
+  public static final String ENABLE_DICTIONARY_CONFIG = ParquetOutputFormat.ENABLE_DICTIONARY;
+  public static final String COMPRESSION_CONFIG = ParquetOutputFormat.COMPRESSION;
+  public static final String MEMORY_POOL_RATIO_CONFIG = "parquet.memory.pool.ratio";
+  public static final String MIN_ROW_GROUP_SIZE_CONFIG = "parquet.memory.min.chunk.size";
+  private static final int BLOCK_SIZE_DEFAULT = 256 * 1024 * 1024;
+  private static final int PAGE_SIZE_DEFAULT = 64 * 1024;
+  private static final CompressionCodecName COMPRESSION_DEFAULT = CompressionCodecName.SNAPPY;
+  private static final float MEMORY_POOL_RATIO_DEFAULT = 0.95f;
+  private static final long MIN_ROW_GROUP_SIZE_DEFAULT = 1024 * 1024;
+
+  // Created from the configuration of the first writer, as the heap is shared by all tasks and
+  // connectors of the worker.
+  private static MemoryPool memoryPool;
+  private static float memoryPoolRatio;
+  private static boolean memoryPoolRatioIgnored = false;
+
   @Override
   public String getExtension() {
     return EXTENSION;
@@ -41,27 +83,99 @@ public class ParquetRecordWriterProvider implements RecordWriterProvider {
   public RecordWriter<SinkRecord> getRecordWriter(
       Configuration conf, final String fileName, SinkRecord record, final AvroData avroData)
       throws IOException {
-    final Schema avroSchema = avroData.fromConnectSchema(record.valueSchema());
-    CompressionCodecName compressionCodecName = CompressionCodecName.SNAPPY;
-
-    int blockSize = 256 * 1024 * 1024;
-    int pageSize = 64 * 1024;
+    // A file holds records of a single schema, so the schema of the first record is used for all.
+    final org.apache.kafka.connect.data.Schema schema = record.valueSchema();
+    final Schema avroSchema = avroData.fromConnectSchema(schema);
+    final ParquetWriter<GenericRecord> writer = createWriter(conf, new Path(fileName), avroSchema);
 
-    Path path = new Path(fileName);
-    final ParquetWriter<GenericRecord> writer =
-        new AvroParquetWriter<>(path, avroSchema, compressionCodecName, blockSize, pageSize, true, conf);
+    final AvroRecordConverter converter = new AvroRecordConverter(avroData, schema, avroSchema);
 
-    return new RecordWriter<SinkRecord>() {
+    return new BatchRecordWriter<SinkRecord>() {
       @Override
       public void write(SinkRecord record) throws IOException {
-        Object value = avroData.fromConnectData(record.valueSchema(), record.value());
-        writer.write((GenericRecord) value);
+        writer.write(convert(record));
+      }
+
+      @Override
+      public void writeAll(List<SinkRecord> records) throws IOException {
+        // The converter reuses its record, so each value is written before the next one is
+        // converted.
+        for (int i = 0; i < records.size(); ++i) {
+          try {
+            writer.write(convert(records.get(i)));
+          } catch (IOException | RuntimeException e) {
+            if (i == 0) {
+              throw e;
+            }
+            throw new BatchWriteException(i, e);
+          }
+        }
       }
 
       @Override
       public void close() throws IOException {
         writer.close();
       }
+
+      private GenericRecord convert(SinkRecord record) {
+        return (GenericRecord) converter.convert(record.value());
+      }
     };
   }
+
+  /**
+   * Creates a writer with the settings of the Hadoop configuration and a row group size allocated
+   * from the memory pool, which is given back when the writer is closed.
+   */
+  static ParquetWriter<GenericRecord> createWriter(Configuration conf, Path path, Schema avroSchema)
+      throws IOException {
+    String compression = conf.get(COMPRESSION_CONFIG);
+    CompressionCodecName codec =
+        compression == null ? COMPRESSION_DEFAULT : CompressionCodecName.fromConf(compression);
+    int pageSize = conf.getInt(PAGE_SIZE_CONFIG, PAGE_SIZE_DEFAULT);
+    long minimum = Math.max(pageSize, conf.getLong(MIN_ROW_GROUP_SIZE_CONFIG,
+                                                   MIN_ROW_GROUP_SIZE_DEFAULT));
+    final MemoryPool pool = memoryPool(conf);
+    final int blockSize = (int) pool.allocate(conf.getInt(BLOCK_SIZE_CONFIG, BLOCK_SIZE_DEFAULT),
+                                              minimum);
+    try {
+      return new AvroParquetWriter<GenericRecord>(
+          path, avroSchema, codec, blockSize, pageSize,
+          conf.getBoolean(ENABLE_DICTIONARY_CONFIG, true), conf) {
+        private boolean released = false;
+
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            if (!released) {
+              released = true;
+              pool.release(blockSize);
+            }
+          }
+        }
+      };
+    } catch (IOException | RuntimeException e) {
+      pool.release(blockSize);
+      throw e;
+    }
+  }
+
+  static synchronized MemoryPool memoryPool(Configuration conf) {
+    float ratio = conf.getFloat(MEMORY_POOL_RATIO_CONFIG, MEMORY_POOL_RATIO_DEFAULT);
+    if (ratio <= 0 || ratio > 1) {
+      throw new IllegalArgumentException(
+          MEMORY_POOL_RATIO_CONFIG + " must be in (0, 1], but was " + ratio);
+    }
+    if (memoryPool == null) {
+      memoryPool = new MemoryPool((long) (Runtime.getRuntime().maxMemory() * ratio));
+      memoryPoolRatio = ratio;
+    } else if (ratio != memoryPoolRatio && !memoryPoolRatioIgnored) {
+      memoryPoolRatioIgnored = true;
+      log.warn("Ignoring {}={}, the Parquet memory pool of the worker has been sized with {}",
+               MEMORY_POOL_RATIO_CONFIG, ratio, memoryPoolRatio);
+    }
+    return memoryPool;
+  }
 }
@@ -17,6 +17,7 @@ package io.confluent.connect.hdfs.partitioner;
 import org.apache.hadoop.hive.metastore.api.FieldSchema;
 import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoFactory;
 import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
@@ -40,6 +41,7 @@ public class TimeBasedPartitioner implements Partitioner {
   protected List<FieldSchema> partitionFields = new ArrayList<>();
   private static String patternString = "'year'=Y{1,5}/('month'=M{1,5}/)?('day'=d{1,3}/)?('hour'=H{1,3}/)?('minute'=m{1,3}/)?";
   private static Pattern pattern = Pattern.compile(patternString);
+  private Time time = Time.SYSTEM;
 
   protected void init(long partitionDurationMs, String pathFormat, Locale locale,
                       DateTimeZone timeZone, boolean hiveIntegration) {
@@ -91,13 +93,37 @@ public class TimeBasedPartitioner implements Partitioner {
     init(partitionDurationMs, pathFormat, locale, timeZone, hiveIntegration);
   }
 
+  /**
+   * Sets the clock whose time records are partitioned by, which is the system clock by default.
+   */
+  public void setTime(Time time) {
+    this.time = time;
+  }
+
   @Override
   public String encodePartition(SinkRecord sinkRecord) {
-    long timestamp = System.currentTimeMillis();
+    long timestamp = time.milliseconds();
     DateTime bucket = new DateTime(getPartition(partitionDurationMs, timestamp, formatter.getZone()));
     return bucket.toString(formatter);
   }
 
+  /**
+   * Returns whether an encoded partition only holds times before the partition of a timestamp,
+   * so that records encoded at or after the timestamp no longer go to it.
+   */
+  public boolean isClosed(String encodedPartition, long timestamp) {
+    DateTime bucket = new DateTime(getPartition(partitionDurationMs, timestamp, formatter.getZone()));
+    String current = bucket.toString(formatter);
+    if (current.equals(encodedPartition)) {
+      return false;
+    }
+    try {
+      return formatter.parseMillis(encodedPartition) < formatter.parseMillis(current);
+    } catch (IllegalArgumentException e) {
+      // Not written with this path format.
+      return false;
+    }
+  }
 
   @Override
   public String generatePartitionedPath(String topic, String encodedPartition) {
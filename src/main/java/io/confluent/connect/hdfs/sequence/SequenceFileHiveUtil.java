@@ -0,0 +1,82 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package io.confluent.connect.hdfs.sequence;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.metastore.TableType;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.ql.metadata.Table;
+import org.apache.kafka.connect.data.Schema;
+
+import java.util.List;
+
+import io.confluent.connect.avro.AvroData;
+import io.confluent.connect.hdfs.FileUtils;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+import io.confluent.connect.hdfs.errors.HiveMetaStoreException;
+import io.confluent.connect.hdfs.hive.HiveMetaStore;
+import io.confluent.connect.hdfs.hive.HiveSchemaConverter;
+import io.confluent.connect.hdfs.hive.HiveUtil;
+import io.confluent.connect.hdfs.partitioner.Partitioner;
+
+public class SequenceFileHiveUtil extends HiveUtil {
+
+  // The values are JSON documents, the keys are ignored by Hive when reading SequenceFiles.
+  private static final String jsonSerde = "org.apache.hive.hcatalog.data.JsonSerDe";
+  private static final String sequenceFileInputFormat = "org.apache.hadoop.mapred.SequenceFileInputFormat";
+  private static final String sequenceFileOutputFormat = "org.apache.hadoop.hive.ql.io.HiveSequenceFileOutputFormat";
+
+  public SequenceFileHiveUtil(HdfsSinkConnectorConfig connectorConfig, AvroData avroData, HiveMetaStore hiveMetaStore) {
+    super(connectorConfig, avroData, hiveMetaStore);
+  }
+
+  @Override
+  public void createTable(String database, String tableName, Schema schema, Partitioner partitioner)
+      throws HiveMetaStoreException {
+    Table table = constructSequenceFileTable(database, tableName, schema, partitioner);
+    hiveMetaStore.createTable(table);
+  }
+
+  @Override
+  public void alterSchema(String database, String tableName, Schema schema) throws HiveMetaStoreException {
+    Table table = hiveMetaStore.getTable(database, tableName);
+    List<FieldSchema> columns = HiveSchemaConverter.convertSchema(schema);
+    table.setFields(columns);
+    hiveMetaStore.alterTable(table);
+  }
+
+  private Table constructSequenceFileTable(String database, String tableName, Schema schema, Partitioner partitioner)
+      throws HiveMetaStoreException {
+    Table table = newTable(database, tableName);
+    table.setTableType(TableType.EXTERNAL_TABLE);
+    table.getParameters().put("EXTERNAL", "TRUE");
+    String tablePath = FileUtils.hiveDirectoryName(url, topicsDir, tableName);
+    table.setDataLocation(new Path(tablePath));
+    table.setSerializationLib(jsonSerde);
+    try {
+      table.setInputFormatClass(sequenceFileInputFormat);
+      table.setOutputFormatClass(sequenceFileOutputFormat);
+    } catch (HiveException e) {
+      throw new HiveMetaStoreException("Cannot find input/output format:", e);
+    }
+    List<FieldSchema> columns = HiveSchemaConverter.convertSchema(schema);
+    table.setFields(columns);
+    table.setPartCols(partitioner.partitionFields());
+    return table;
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.confluent.connect.hdfs.sequence;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.kafka.connect.data.Schema;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import io.confluent.connect.avro.AvroData;
+import io.confluent.connect.hdfs.SchemaFileReader;
+
+public class SequenceFileReader implements SchemaFileReader {
+
+  private AvroData avroData;
+
+  public SequenceFileReader(AvroData avroData) {
+    this.avroData = avroData;
+  }
+
+  @Override
+  public Schema getSchema(Configuration conf, Path path) throws IOException {
+    try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(path))) {
+      Text schemaString = reader.getMetadata().get(
+          new Text(SequenceFileRecordWriterProvider.SCHEMA_METADATA_KEY));
+      if (schemaString == null) {
+        return null;
+      }
+      org.apache.avro.Schema schema = new org.apache.avro.Schema.Parser().parse(schemaString.toString());
+      return avroData.toConnectSchema(schema);
+    }
+  }
+
+  @Override
+  public Collection<Object> readData(Configuration conf, Path path) throws IOException {
+    ArrayList<Object> collection = new ArrayList<>();
+    try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(path))) {
+      LongWritable key = new LongWritable();
+      Text value = new Text();
+      while (reader.next(key, value)) {
+        collection.add(value.toString());
+      }
+    }
+    return collection;
+  }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.sequence;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.kafka.connect.data.ConnectSchema;
+import org.apache.kafka.connect.data.Date;
+import org.apache.kafka.connect.data.Decimal;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.data.Time;
+import org.apache.kafka.connect.data.Timestamp;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import io.confluent.connect.avro.AvroData;
+import io.confluent.connect.hdfs.BatchRecordWriter;
+import io.confluent.connect.hdfs.RecordWriter;
+import io.confluent.connect.hdfs.RecordWriterProvider;
+import io.confluent.connect.hdfs.errors.BatchWriteException;
+
+/**
+ * Writes block compressed Hadoop SequenceFiles. The key of each entry is the Kafka offset of the
+ * record and the value is the record value rendered as a JSON object, so that the files can be
+ * consumed by MapReduce jobs as well as by Hive through the HCatalog JSON SerDe. Values are
+ * rendered the way the Connect JsonConverter renders them without schemas: bytes and decimals as
+ * base64 strings, dates, times and timestamps as numbers. Since each value is a row, only struct
+ * values are supported. The Avro schema of the file is stored in the SequenceFile metadata under
+ * {@link #SCHEMA_METADATA_KEY}.
+ *
+ * <p>The compression codec is taken from the standard Hadoop
+ * {@value #COMPRESSION_CODEC_CONFIG} setting and defaults to {@link DefaultCodec}.
+ */
+public class SequenceFileRecordWriterProvider implements RecordWriterProvider {
+
+  private static final Logger log = LoggerFactory.getLogger(SequenceFileRecordWriterProvider.class);
+  private final static String EXTENSION = ".seq";
+
+  public static final String COMPRESSION_CODEC_CONFIG = "mapreduce.output.fileoutputformat.compress.codec";
+  public static final String SCHEMA_METADATA_KEY = "avro.schema";
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  @Override
+  public String getExtension() {
+    return EXTENSION;
+  }
+
+  @Override
+  public RecordWriter<SinkRecord> getRecordWriter(Configuration conf, final String fileName,
+                                                  SinkRecord record, final AvroData avroData)
+      throws IOException {
+    final Schema schema = record.valueSchema();
+    if (schema == null || schema.type() != Schema.Type.STRUCT) {
+      throw new DataException("SequenceFile values are written as JSON rows and must be structs, "
+                              + "but the value schema of " + record.topic() + "-"
+                              + record.kafkaPartition() + " is "
+                              + (schema == null ? "missing" : schema.type()));
+    }
+    org.apache.avro.Schema avroSchema = avroData.fromConnectSchema(schema);
+
+    Class<? extends CompressionCodec> codecClass =
+        conf.getClass(COMPRESSION_CODEC_CONFIG, DefaultCodec.class, CompressionCodec.class);
+    CompressionCodec codec = ReflectionUtils.newInstance(codecClass, conf);
+
+    SequenceFile.Metadata metadata = new SequenceFile.Metadata();
+    metadata.set(new Text(SCHEMA_METADATA_KEY), new Text(avroSchema.toString()));
+
+    Path path = new Path(fileName);
+    final SequenceFile.Writer writer = SequenceFile.createWriter(
+        conf,
+        SequenceFile.Writer.file(path),
+        SequenceFile.Writer.keyClass(LongWritable.class),
+        SequenceFile.Writer.valueClass(Text.class),
+        SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK, codec),
+        SequenceFile.Writer.metadata(metadata));
+
+    return new BatchRecordWriter<SinkRecord>() {
+      private final LongWritable key = new LongWritable();
+      private final Text value = new Text();
+      private final StringWriter json = new StringWriter();
+      // Reused across batches to hold the converted records of a batch.
+      private final List<String> values = new ArrayList<>();
+
+      @Override
+      public void write(SinkRecord record) throws IOException {
+        append(record.kafkaOffset(), convert(record));
+      }
+
+      @Override
+      public void writeAll(List<SinkRecord> records) throws IOException {
+        try {
+          for (SinkRecord record : records) {
+            values.add(convert(record));
+          }
+          for (int i = 0; i < values.size(); ++i) {
+            try {
+              append(records.get(i).kafkaOffset(), values.get(i));
+            } catch (IOException e) {
+              throw new BatchWriteException(i, e);
+            }
+          }
+        } finally {
+          values.clear();
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        writer.close();
+      }
+
+      private String convert(SinkRecord record) throws IOException {
+        log.trace("Sink record: {}", record.toString());
+        ConnectSchema.validateValue(schema, record.value());
+        json.getBuffer().setLength(0);
+        try (JsonGenerator generator = JSON_FACTORY.createJsonGenerator(json)) {
+          writeJson(generator, schema, record.value());
+        }
+        return json.toString();
+      }
+
+      private void append(long offset, String json) throws IOException {
+        key.set(offset);
+        value.set(json);
+        writer.append(key, value);
+      }
+    };
+  }
+
+  /**
+   * Writes a value the way the Connect JsonConverter does when schemas are disabled.
+   */
+  static void writeJson(JsonGenerator generator, Schema schema, Object value) throws IOException {
+    if (value == null) {
+      generator.writeNull();
+      return;
+    }
+    String name = schema.name();
+    if (Decimal.LOGICAL_NAME.equals(name)) {
+      generator.writeBinary(Decimal.fromLogical(schema, (BigDecimal) value));
+      return;
+    } else if (Date.LOGICAL_NAME.equals(name)) {
+      generator.writeNumber(Date.fromLogical(schema, (java.util.Date) value));
+      return;
+    } else if (Time.LOGICAL_NAME.equals(name)) {
+      generator.writeNumber(Time.fromLogical(schema, (java.util.Date) value));
+      return;
+    } else if (Timestamp.LOGICAL_NAME.equals(name)) {
+      generator.writeNumber(Timestamp.fromLogical(schema, (java.util.Date) value));
+      return;
+    }
+    switch (schema.type()) {
+      case INT8:
+      case INT16:
+      case INT32:
+      case INT64:
+        generator.writeNumber(((Number) value).longValue());
+        break;
+      case FLOAT32:
+        generator.writeNumber((Float) value);
+        break;
+      case FLOAT64:
+        generator.writeNumber((Double) value);
+        break;
+      case BOOLEAN:
+        generator.writeBoolean((Boolean) value);
+        break;
+      case STRING:
+        generator.writeString((String) value);
+        break;
+      case BYTES:
+        if (value instanceof ByteBuffer) {
+          ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+          byte[] bytes = new byte[buffer.remaining()];
+          buffer.get(bytes);
+          generator.writeBinary(bytes);
+        } else {
+          generator.writeBinary((byte[]) value);
+        }
+        break;
+      case ARRAY:
+        generator.writeStartArray();
+        for (Object element : (Collection<?>) value) {
+          writeJson(generator, schema.valueSchema(), element);
+        }
+        generator.writeEndArray();
+        break;
+      case MAP:
+        generator.writeStartObject();
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+          generator.writeFieldName(String.valueOf(entry.getKey()));
+          writeJson(generator, schema.valueSchema(), entry.getValue());
+        }
+        generator.writeEndObject();
+        break;
+      case STRUCT:
+        Struct struct = (Struct) value;
+        generator.writeStartObject();
+        for (Field field : schema.fields()) {
+          generator.writeFieldName(field.name());
+          writeJson(generator, field.schema(), struct.get(field));
+        }
+        generator.writeEndObject();
+        break;
+      default:
+        throw new DataException("Cannot write a value of type " + schema.type() + " as JSON");
+    }
+  }
+}
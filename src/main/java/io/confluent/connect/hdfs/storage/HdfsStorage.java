@@ -22,33 +22,114 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URI;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
+import io.confluent.connect.hdfs.FileUtils;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConstants;
 import io.confluent.connect.hdfs.wal.FSWAL;
+import io.confluent.connect.hdfs.wal.TaskWAL;
 import io.confluent.connect.hdfs.wal.WAL;
 
 public class HdfsStorage implements Storage {
 
-  private final FileSystem fs;
-  private final Configuration conf;
-  private final String url;
+  private static final Logger log = LoggerFactory.getLogger(HdfsStorage.class);
+
+  private static final int KNOWN_DIRECTORIES_SIZE = 10000;
+
+  protected final FileSystem fs;
+  protected final Configuration conf;
+  protected final String url;
+  protected final StorageOperationExecutor executor;
+  private final boolean optimisticCommit;
+  // Directories this task created or committed files into, only maintained for optimistic commits.
+  private final Set<Path> knownDirectories;
+  // Set when the WAL is shared by all partitions of the task, see configureWAL().
+  private String connectorName = null;
+  private String taskId = null;
+  private TaskWAL taskWAL = null;
+  private int walCheckpointInterval = HdfsSinkConnectorConfig.WAL_CHECKPOINT_INTERVAL_DEFAULT;
+  private byte walVersion = (byte) HdfsSinkConnectorConfig.WAL_VERSION_DEFAULT;
+  // Holds the write ahead logs, this storage unless logs.url is set. Shares the executor.
+  private HdfsStorage logStorage = this;
+  // Set when temp files are written to local disk first, see persist().
+  protected LocalStaging staging = null;
 
   public HdfsStorage(Configuration conf,  String url) throws IOException {
-    fs = FileSystem.newInstance(URI.create(url), conf);
+    this(conf, url, HdfsSinkConnectorConfig.OPTIMISTIC_COMMIT_DEFAULT,
+         StorageOperationExecutor.direct());
+  }
+
+  public HdfsStorage(HdfsSinkConnectorConfig connectorConfig, Configuration conf, String url)
+      throws IOException {
+    this(conf, url, connectorConfig.getBoolean(HdfsSinkConnectorConfig.OPTIMISTIC_COMMIT_CONFIG),
+         StorageOperationExecutor.create(connectorConfig));
+    configureWAL(connectorConfig);
+    if (connectorConfig.getBoolean(HdfsSinkConnectorConfig.LOCAL_STAGING_CONFIG)) {
+      staging = new LocalStaging(
+          conf, connectorConfig.getString(HdfsSinkConnectorConfig.STAGING_DIR_CONFIG),
+          connectorConfig.getLong(HdfsSinkConnectorConfig.STAGING_MAX_BYTES_CONFIG));
+      log.info("Staging temp files for {} in {}", url, staging.url());
+    }
+  }
+
+  protected HdfsStorage(Configuration conf, String url, boolean optimisticCommit,
+                        StorageOperationExecutor executor) throws IOException {
+    // Use the cached instance, which is the one the record writers obtain through
+    // Path.getFileSystem(), so that storage operations and writers share a single client.
+    fs = FileSystem.get(URI.create(url), conf);
     this.conf = conf;
     this.url = url;
+    this.optimisticCommit = optimisticCommit;
+    this.executor = executor;
+    knownDirectories = Collections.synchronizedSet(Collections.newSetFromMap(
+        new LinkedHashMap<Path, Boolean>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Path, Boolean> eldest) {
+            return size() > KNOWN_DIRECTORIES_SIZE;
+          }
+        }));
   }
 
   @Override
   public FileStatus[] listStatus(String path, PathFilter filter) throws IOException {
-    return fs.listStatus(new Path(path), filter);
+    return listStatus(new Path(path), filter);
+  }
+
+  @Override
+  public FileStatus[] listStatus(final Path path, final PathFilter filter) throws IOException {
+    return executor.executeIdempotent("list-status", new Callable<FileStatus[]>() {
+      @Override
+      public FileStatus[] call() throws IOException {
+        return fs.listStatus(path, filter);
+      }
+    });
   }
 
   @Override
   public FileStatus[] listStatus(String path) throws IOException {
-    return fs.listStatus(new Path(path));
+    return listStatus(new Path(path));
+  }
+
+  @Override
+  public FileStatus[] listStatus(final Path path) throws IOException {
+    return executor.executeIdempotent("list-status", new Callable<FileStatus[]>() {
+      @Override
+      public FileStatus[] call() throws IOException {
+        return fs.listStatus(path);
+      }
+    });
   }
 
   @Override
@@ -58,35 +139,147 @@ public class HdfsStorage implements Storage {
 
   @Override
   public boolean mkdirs(String filename) throws IOException {
-    return fs.mkdirs(new Path(filename));
+    return mkdirs(new Path(filename));
+  }
+
+  @Override
+  public boolean mkdirs(final Path path) throws IOException {
+    boolean created = executor.execute("mkdirs", new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws IOException {
+        return fs.mkdirs(path);
+      }
+    });
+    if (created && optimisticCommit) {
+      knownDirectories.add(path);
+    }
+    return created;
   }
 
   @Override
   public boolean exists(String filename) throws IOException {
-    return fs.exists(new Path(filename));
+    return exists(new Path(filename));
+  }
+
+  @Override
+  public boolean exists(final Path path) throws IOException {
+    if (staging != null && staging.isStaged(path)) {
+      return staging.exists(path);
+    }
+    if (optimisticCommit && knownDirectories.contains(path)) {
+      return true;
+    }
+    return executor.executeIdempotent("exists", new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws IOException {
+        return fs.exists(path);
+      }
+    });
   }
 
   @Override
   public void commit(String tempFile, String committedFile) throws IOException {
-    renameFile(tempFile, committedFile);
+    if (tempFile.equals(committedFile)) {
+      return;
+    }
+    commit(new Path(tempFile), new Path(committedFile));
   }
 
+  @Override
+  public void commit(final Path tempFile, final Path committedFile) throws IOException {
+    if (staging != null && staging.isStaged(tempFile)) {
+      commitStaged(tempFile, committedFile);
+      return;
+    }
+    executor.execute("commit", committedFile, new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        if (optimisticCommit) {
+          commitOptimistically(tempFile, committedFile);
+        } else {
+          renameFile(tempFile, committedFile);
+        }
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public String tempFileName(String topicsDir, String directory, String extension) {
+    if (staging != null) {
+      String stagedFile = staging.tempFileName(topicsDir, directory, extension);
+      if (stagedFile != null) {
+        return stagedFile;
+      }
+    }
+    return FileUtils.tempFileName(url, topicsDir, directory, extension);
+  }
+
+  /**
+   * Uploads a closed temp file written to the staging directory to its temp file name in HDFS and
+   * returns that name, or returns the temp file itself if it is not staged. Temp files are
+   * persisted before they are recorded in the WAL, so that the WAL never refers to a file that is
+   * lost with the local disk.
+   */
+  @Override
+  public String persist(String tempFile) throws IOException {
+    Path path = new Path(tempFile);
+    if (staging == null || !staging.isStaged(path)) {
+      return tempFile;
+    }
+    return upload(path).toString();
+  }
 
   @Override
   public void delete(String filename) throws IOException {
-    fs.delete(new Path(filename), true);
+    delete(new Path(filename));
+  }
+
+  @Override
+  public void delete(final Path path) throws IOException {
+    if (staging != null && staging.isStaged(path)) {
+      staging.delete(path);
+      return;
+    }
+    executor.execute("delete", new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws IOException {
+        return fs.delete(path, true);
+      }
+    });
+    if (optimisticCommit) {
+      forgetDirectories(path);
+    }
   }
 
   @Override
   public void close() throws IOException {
-    if (fs != null) {
-      fs.close();
+    // The file system is shared through the FileSystem cache with the record writers and the
+    // other tasks in this worker, so it is not closed here.
+    if (taskWAL != null) {
+      taskWAL.close();
     }
+    executor.close();
   }
 
   @Override
   public WAL wal(String topicsDir, TopicPartition topicPart) {
-    return new FSWAL(topicsDir, topicPart, this);
+    if (taskId == null) {
+      return new FSWAL(topicsDir, topicPart, this, logStorage, optimisticCommit,
+                       walCheckpointInterval, walVersion);
+    }
+    synchronized (this) {
+      if (taskWAL == null) {
+        taskWAL = new TaskWAL(topicsDir, connectorName, taskId, this, logStorage, optimisticCommit,
+                              walCheckpointInterval, walVersion);
+      }
+    }
+    return taskWAL.forPartition(topicPart);
+  }
+
+  @Override
+  public StorageOperationExecutor executor() {
+    return executor;
   }
 
   @Override
@@ -99,14 +292,108 @@ public class HdfsStorage implements Storage {
     return url;
   }
 
-  private void renameFile(String sourcePath, String targetPath) throws IOException {
-    if (sourcePath.equals(targetPath)) {
+  /**
+   * Commits a temp file written to the staging directory that was not persisted yet. The file is
+   * uploaded to its temp file name in HDFS and committed from there like any other temp file, so
+   * that a committed file is never visible before it is complete.
+   */
+  protected void commitStaged(Path stagedFile, Path committedFile) throws IOException {
+    commit(upload(stagedFile), committedFile);
+  }
+
+  /**
+   * Uploads a staged file to its temp file name in HDFS and deletes it. If the staged file is
+   * gone, a previous attempt uploaded it already.
+   */
+  private Path upload(final Path stagedFile) throws IOException {
+    final Path uploadedFile = staging.storagePath(stagedFile, url);
+    if (staging.exists(stagedFile)) {
+      executor.execute("upload", uploadedFile, new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          fs.copyFromLocalFile(false, true, stagedFile, uploadedFile);
+          return null;
+        }
+      });
+      staging.delete(stagedFile);
+    }
+    return uploadedFile;
+  }
+
+  /**
+   * Whether the write ahead logs are kept on another file system than the data, see logs.url.
+   */
+  protected final boolean hasSeparateLogStorage() {
+    return logStorage != this;
+  }
+
+  protected final void configureWAL(HdfsSinkConnectorConfig connectorConfig) throws IOException {
+    walCheckpointInterval =
+        connectorConfig.getInt(HdfsSinkConnectorConfig.WAL_CHECKPOINT_INTERVAL_CONFIG);
+    walVersion = connectorConfig.getInt(HdfsSinkConnectorConfig.WAL_VERSION_CONFIG).byteValue();
+    String logsUrl = connectorConfig.getString(HdfsSinkConnectorConfig.LOGS_URL_CONFIG);
+    if (!logsUrl.isEmpty() && !logsUrl.equals(url)) {
+      logStorage = new HdfsStorage(conf, logsUrl, optimisticCommit, executor);
+      log.info("Keeping the write ahead logs for {} on {}", url, logsUrl);
+    }
+    String scope = connectorConfig.getString(HdfsSinkConnectorConfig.WAL_SCOPE_CONFIG);
+    if (!HdfsSinkConnectorConfig.WAL_SCOPE_TASK.equals(scope)) {
+      return;
+    }
+    Map<String, String> props = connectorConfig.originalsStrings();
+    connectorName = props.containsKey(HdfsSinkConnectorConstants.CONNECTOR_NAME_CONFIG)
+                    ? props.get(HdfsSinkConnectorConstants.CONNECTOR_NAME_CONFIG)
+                    : "default";
+    taskId = props.containsKey(HdfsSinkConnectorConstants.TASK_ID_CONFIG)
+             ? props.get(HdfsSinkConnectorConstants.TASK_ID_CONFIG)
+             : "0";
+  }
+
+  private void renameFile(Path srcPath, Path dstPath) throws IOException {
+    if (srcPath.equals(dstPath)) {
       return;
     }
-    final Path srcPath = new Path(sourcePath);
-    final Path dstPath = new Path(targetPath);
     if (fs.exists(srcPath)) {
       fs.rename(srcPath, dstPath);
     }
   }
+
+  private void commitOptimistically(Path tempFile, Path committedFile) throws IOException {
+    if (tempFile.equals(committedFile)) {
+      return;
+    }
+    Path parent = committedFile.getParent();
+    try {
+      if (fs.rename(tempFile, committedFile)) {
+        knownDirectories.add(parent);
+        return;
+      }
+    } catch (FileNotFoundException e) {
+      // Some file systems report a missing source or target directory with an exception.
+    }
+    // The rename does not say why it failed. Either the temp file is gone because it has already
+    // been committed, the committed file exists, or the target directory does not exist. Only the
+    // last case needs another attempt.
+    knownDirectories.remove(parent);
+    if (!fs.exists(tempFile) || fs.exists(committedFile)) {
+      return;
+    }
+    mkdirs(parent);
+    if (!fs.rename(tempFile, committedFile)) {
+      throw new IOException("Failed to commit " + tempFile + " to " + committedFile);
+    }
+  }
+
+  private void forgetDirectories(Path path) {
+    String prefix = path.toString() + Path.SEPARATOR;
+    synchronized (knownDirectories) {
+      Iterator<Path> iterator = knownDirectories.iterator();
+      while (iterator.hasNext()) {
+        Path directory = iterator.next();
+        if (directory.equals(path) || directory.toString().startsWith(prefix)) {
+          iterator.remove();
+        }
+      }
+    }
+  }
 }
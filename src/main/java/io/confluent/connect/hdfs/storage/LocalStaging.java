@@ -0,0 +1,106 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package io.confluent.connect.hdfs.storage;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+import io.confluent.connect.hdfs.FileUtils;
+
+/**
+ * A local directory in which temp files are written before they are uploaded to the storage in
+ * one sequential copy when they are committed. Staged files have the same path relative to the
+ * staging directory as the temp files they replace have relative to the storage URL.
+ *
+ * <p>The staging directory can have a budget. Once the files in it take up the budget, new temp
+ * files are created in the storage directly until staged files are committed. The size of the
+ * directory is refreshed at most once per {@value #USAGE_REFRESH_MS} ms.
+ */
+class LocalStaging {
+
+  private static final Logger log = LoggerFactory.getLogger(LocalStaging.class);
+  private static final long USAGE_REFRESH_MS = 1000L;
+
+  private final FileSystem localFs;
+  private final String stagingUrl;
+  private final long maxBytes;
+  private long usedBytes = 0L;
+  private long usageRefreshTime = 0L;
+
+  /**
+   * @param maxBytes the budget of the staging directory, or 0 for no limit
+   */
+  LocalStaging(Configuration conf, String stagingDir, long maxBytes) throws IOException {
+    localFs = FileSystem.getLocal(conf);
+    stagingUrl = localFs.makeQualified(new Path(new File(stagingDir).getAbsolutePath())).toString();
+    this.maxBytes = maxBytes;
+  }
+
+  String url() {
+    return stagingUrl;
+  }
+
+  /**
+   * Returns the name of a new staged temp file, or null if the staging directory is over budget.
+   */
+  String tempFileName(String topicsDir, String directory, String extension) {
+    if (maxBytes > 0 && usedBytes() >= maxBytes) {
+      return null;
+    }
+    return FileUtils.tempFileName(stagingUrl, topicsDir, directory, extension);
+  }
+
+  boolean isStaged(Path path) {
+    return path.toString().startsWith(stagingUrl + "/");
+  }
+
+  boolean exists(Path path) throws IOException {
+    return localFs.exists(path);
+  }
+
+  void delete(Path path) throws IOException {
+    localFs.delete(path, true);
+  }
+
+  /**
+   * Returns the path a staged file has in the storage at the given URL.
+   */
+  Path storagePath(Path stagedFile, String url) {
+    return new Path(url + stagedFile.toString().substring(stagingUrl.length()));
+  }
+
+  private synchronized long usedBytes() {
+    long now = System.currentTimeMillis();
+    if (now - usageRefreshTime >= USAGE_REFRESH_MS) {
+      usageRefreshTime = now;
+      try {
+        Path root = new Path(stagingUrl);
+        usedBytes = localFs.exists(root) ? localFs.getContentSummary(root).getLength() : 0L;
+      } catch (IOException e) {
+        log.warn("Failed to get the size of {}, not staging new temp files", stagingUrl, e);
+        usedBytes = maxBytes;
+      }
+    }
+    return usedBytes;
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package io.confluent.connect.hdfs.storage;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+import io.confluent.connect.hdfs.wal.WAL;
+
+/**
+ * Storage for object stores accessed through the Hadoop FileSystem API, where a rename is a copy
+ * of the whole object followed by a delete.
+ *
+ * <p>Temp files are staged on the local file system and each one is written to the object store
+ * exactly once, directly under its committed name, when the file is committed. The WAL records the
+ * staged file together with its committed name, so a commit interrupted by a failure is completed
+ * during recovery as long as the staged file is still present. If the staged file is gone, e.g.
+ * because the task moved to another worker, the other files of its transaction may already be
+ * committed with higher offsets than its records. Recovery of the partition then fails with a
+ * {@link io.confluent.connect.hdfs.errors.StagedFileLostException} rather than drop the records or
+ * write the later ones a second time. While the staging directory is over its budget, temp files
+ * are written to the object store and renamed when they are committed.
+ *
+ * <p>The WAL needs appends, flushes and leases, which object stores do not provide, so it is kept
+ * on the file system given by {@code logs.url}, e.g. HDFS, which must be set.
+ *
+ * <p>This relies on the object store making a file visible only once it is closed, which is the
+ * case for S3A and similar file systems. It must not be used with HDFS.
+ */
+public class ObjectStoreStorage extends HdfsStorage {
+
+  private static final Logger log = LoggerFactory.getLogger(ObjectStoreStorage.class);
+
+  public ObjectStoreStorage(Configuration conf, String url) throws IOException {
+    this(conf, url, HdfsSinkConnectorConfig.STAGING_DIR_DEFAULT,
+         HdfsSinkConnectorConfig.STAGING_MAX_BYTES_DEFAULT,
+         HdfsSinkConnectorConfig.OPTIMISTIC_COMMIT_DEFAULT, StorageOperationExecutor.direct());
+  }
+
+  public ObjectStoreStorage(HdfsSinkConnectorConfig connectorConfig, Configuration conf, String url)
+      throws IOException {
+    this(conf, url, connectorConfig.getString(HdfsSinkConnectorConfig.STAGING_DIR_CONFIG),
+         connectorConfig.getLong(HdfsSinkConnectorConfig.STAGING_MAX_BYTES_CONFIG),
+         connectorConfig.getBoolean(HdfsSinkConnectorConfig.OPTIMISTIC_COMMIT_CONFIG),
+         StorageOperationExecutor.create(connectorConfig));
+    configureWAL(connectorConfig);
+    if (!hasSeparateLogStorage()) {
+      throw new ConfigException(HdfsSinkConnectorConfig.LOGS_URL_CONFIG, "",
+                                "must name a file system other than " + url + " to hold the "
+                                + "write ahead logs, since the object store cannot append to them");
+    }
+  }
+
+  private ObjectStoreStorage(Configuration conf, String url, String stagingDir,
+                             long stagingMaxBytes, boolean optimisticCommit,
+                             StorageOperationExecutor executor) throws IOException {
+    super(conf, url, optimisticCommit, executor);
+    staging = new LocalStaging(conf, stagingDir, stagingMaxBytes);
+    log.info("Staging temp files for {} in {}", url, staging.url());
+  }
+
+  @Override
+  public WAL wal(String logsDir, TopicPartition topicPart) {
+    if (!hasSeparateLogStorage()) {
+      throw new ConnectException("Object store " + url + " requires "
+                                 + HdfsSinkConnectorConfig.LOGS_URL_CONFIG
+                                 + " to hold the write ahead logs");
+    }
+    return super.wal(logsDir, topicPart);
+  }
+
+  /**
+   * Keeps a closed temp file staged, since uploading it to a temp file name would make the commit
+   * a copy of the whole object. The WAL refers to the staged file instead, see the class comment.
+   */
+  @Override
+  public String persist(String tempFile) {
+    return tempFile;
+  }
+
+  /**
+   * Uploads a staged file directly under its committed name, since the object store makes it
+   * visible only once it is complete.
+   */
+  @Override
+  protected void commitStaged(final Path stagedFile, final Path committedFile) throws IOException {
+    if (!staging.exists(stagedFile)) {
+      return;
+    }
+    executor.execute("upload", committedFile, new Callable<Void>() {
+      @Override
+      public Void call() throws IOException {
+        fs.copyFromLocalFile(true, true, stagedFile, committedFile);
+        return null;
+      }
+    });
+  }
+}
@@ -18,6 +18,7 @@ package io.confluent.connect.hdfs.storage;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.kafka.common.TopicPartition;
 
@@ -27,14 +28,23 @@ import io.confluent.connect.hdfs.wal.WAL;
 
 public interface Storage {
   boolean exists(String filename) throws IOException;
+  boolean exists(Path path) throws IOException;
   boolean mkdirs(String filename) throws IOException;
+  boolean mkdirs(Path path) throws IOException;
   void append(String filename, Object object) throws IOException;
   void delete(String filename) throws IOException;
+  void delete(Path path) throws IOException;
   void commit(String tempFile, String committedFile) throws IOException;
+  void commit(Path tempFile, Path committedFile) throws IOException;
+  String tempFileName(String topicsDir, String directory, String extension);
+  String persist(String tempFile) throws IOException;
   void close() throws IOException;
   WAL wal(String topicsDir, TopicPartition topicPart);
+  StorageOperationExecutor executor();
   FileStatus[] listStatus(String path, PathFilter filter) throws IOException;
+  FileStatus[] listStatus(Path path, PathFilter filter) throws IOException;
   FileStatus[] listStatus(String path) throws IOException;
+  FileStatus[] listStatus(Path path) throws IOException;
   String url();
   Configuration conf();
 }
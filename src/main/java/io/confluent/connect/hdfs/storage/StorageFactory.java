@@ -21,7 +21,30 @@ import org.apache.velocity.exception.MethodInvocationException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 
+import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+
 public class StorageFactory {
+  /**
+   * Create a storage instance, passing the connector configuration to storage classes that
+   * declare a {@code (HdfsSinkConnectorConfig, Configuration, String)} constructor and falling
+   * back to the {@code (Configuration, String)} constructor otherwise.
+   */
+  public static Storage createStorage(Class<? extends Storage> storageClass,
+                                      HdfsSinkConnectorConfig connectorConfig,
+                                      Configuration conf, String url) {
+    Constructor<? extends Storage> ctor;
+    try {
+      ctor = storageClass.getConstructor(HdfsSinkConnectorConfig.class, Configuration.class, String.class);
+    } catch (NoSuchMethodException e) {
+      return createStorage(storageClass, conf, url);
+    }
+    try {
+      return ctor.newInstance(connectorConfig, conf, url);
+    } catch (InvocationTargetException | MethodInvocationException | InstantiationException | IllegalAccessException e) {
+      throw new ConnectException(e);
+    }
+  }
+
   public static Storage createStorage(Class<? extends Storage> storageClass, Configuration conf, String url) {
     try {
       Constructor<? extends Storage> ctor =
@@ -0,0 +1,385 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package io.confluent.connect.hdfs.storage;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.MetricsReporter;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+
+/**
+ * Runs storage operations with a deadline, so that a slow DataNode or a NameNode pause makes the
+ * operation fail with an {@link InterruptedIOException} instead of blocking the task. Callers
+ * handle it like any other IOException, which puts the topic partition into the retry backoff.
+ *
+ * <p>Idempotent reads can be hedged: if the first attempt has not completed after the hedge delay,
+ * a second attempt is started and the first result is used. The latency of every operation is
+ * recorded and exposed through JMX under {@value #JMX_PREFIX}.
+ *
+ * <p>An operation that misses its deadline keeps running in the background; it is not
+ * interrupted, since an interrupted write can leave a stream in an undefined state and an
+ * interrupt closes the IPC connection that the shared FileSystem uses. Operations that are not
+ * safe to run twice, or not while an earlier attempt is still running, can pass a key; a later
+ * call with the same key waits for the pending attempt and returns its outcome instead of starting
+ * the operation again. At most {@value #MAX_THREADS} operations run at a time, so operations that
+ * hang do not pile up threads; once they are all taken, further operations fail until some
+ * complete.
+ */
+public class StorageOperationExecutor implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(StorageOperationExecutor.class);
+
+  public static final String JMX_PREFIX = "kafka.connect.hdfs";
+  private static final String METRIC_GROUP = "storage-operations";
+  private static final int PERCENTILES_SIZE_BYTES = 4000;
+  private static final double PERCENTILES_MAX_MS = 30000;
+  private static final AtomicInteger INSTANCES = new AtomicInteger();
+  static final int MAX_THREADS = 64;
+  private static final long THREAD_KEEP_ALIVE_MS = 60000;
+
+  private final long timeoutMs;
+  private final long hedgeDelayMs;
+  private final ExecutorService executor;
+  private final Metrics metrics;
+  private final Map<String, String> metricTags;
+  private final ConcurrentMap<Object, Future<?>> pending;
+
+  /**
+   * An executor that runs operations directly on the calling thread without recording metrics.
+   */
+  public static StorageOperationExecutor direct() {
+    return new StorageOperationExecutor(0, 0, false);
+  }
+
+  public static StorageOperationExecutor create(HdfsSinkConnectorConfig connectorConfig) {
+    return new StorageOperationExecutor(
+        connectorConfig.getLong(HdfsSinkConnectorConfig.STORAGE_OPERATION_TIMEOUT_MS_CONFIG),
+        connectorConfig.getLong(HdfsSinkConnectorConfig.STORAGE_HEDGE_DELAY_MS_CONFIG),
+        true);
+  }
+
+  public StorageOperationExecutor(long timeoutMs, long hedgeDelayMs, boolean recordMetrics) {
+    this.timeoutMs = timeoutMs;
+    this.hedgeDelayMs = hedgeDelayMs;
+    if (timeoutMs > 0 || hedgeDelayMs > 0) {
+      executor = new ThreadPoolExecutor(
+          0, MAX_THREADS, THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+          new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger threads = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread =
+                  new Thread(runnable, "hdfs-storage-operation-" + threads.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+    } else {
+      executor = null;
+    }
+    if (recordMetrics) {
+      metrics = new Metrics(new MetricConfig(),
+                            Collections.<MetricsReporter>singletonList(new JmxReporter(JMX_PREFIX)),
+                            Time.SYSTEM);
+      metricTags = new LinkedHashMap<>();
+      metricTags.put("instance", String.valueOf(INSTANCES.getAndIncrement()));
+    } else {
+      metrics = null;
+      metricTags = null;
+    }
+    pending = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Runs an operation that can be retried while an attempt that missed its deadline is still
+   * running, e.g. a rename whose retry finds the file already renamed.
+   */
+  public <T> T execute(String operation, Callable<T> callable) throws IOException {
+    return execute(operation, null, callable);
+  }
+
+  /**
+   * Runs an operation that must not run twice concurrently. If an earlier call with the same key
+   * missed its deadline and is still pending, this waits for it and returns its outcome.
+   */
+  public <T> T execute(String operation, Object key, Callable<T> callable) throws IOException {
+    long start = System.currentTimeMillis();
+    try {
+      if (executor == null || timeoutMs <= 0) {
+        return callable.call();
+      }
+      Future<T> future = null;
+      if (key != null) {
+        @SuppressWarnings("unchecked")
+        Future<T> previous = (Future<T>) pending.get(key);
+        future = previous;
+      }
+      if (future == null) {
+        future = submit(operation, callable);
+      }
+      return await(operation, key, future, start);
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    } finally {
+      record(operation, start);
+    }
+  }
+
+  /**
+   * Waits for the pending attempt of an operation with the key that missed its deadline, if
+   * there is one, so that what it uses can be released. Its outcome is ignored.
+   *
+   * @throws InterruptedIOException if the attempt is still running at the deadline
+   */
+  public void awaitPending(String operation, Object key) throws IOException {
+    Future<?> future = pending.get(key);
+    if (future == null) {
+      return;
+    }
+    long start = System.currentTimeMillis();
+    try {
+      await(operation, key, future, start);
+    } catch (InterruptedIOException e) {
+      throw e;
+    } catch (Exception e) {
+      log.debug("Pending {} failed", operation, e);
+    } finally {
+      record(operation, start);
+    }
+  }
+
+  /**
+   * Runs an idempotent read. It is hedged with a second attempt if the first one takes longer than
+   * the hedge delay.
+   */
+  public <T> T executeIdempotent(String operation, Callable<T> callable) throws IOException {
+    long start = System.currentTimeMillis();
+    try {
+      if (executor == null) {
+        return callable.call();
+      }
+      if (hedgeDelayMs <= 0) {
+        return await(operation, null, submit(operation, callable), start);
+      }
+      return hedge(operation, callable, start);
+    } catch (IOException | RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    } finally {
+      record(operation, start);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      // Running operations are left to complete rather than interrupted, see the class comment.
+      executor.shutdown();
+    }
+    pending.clear();
+    if (metrics != null) {
+      metrics.close();
+    }
+  }
+
+  private <T> T await(String operation, Object key, Future<T> future, long start) throws Exception {
+    try {
+      T result = timeoutMs > 0
+                 ? future.get(remaining(start), TimeUnit.MILLISECONDS)
+                 : future.get();
+      if (key != null) {
+        pending.remove(key, future);
+      }
+      return result;
+    } catch (TimeoutException e) {
+      if (key != null) {
+        pending.put(key, future);
+      }
+      throw timedOut(operation);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for " + operation);
+    } catch (ExecutionException e) {
+      if (key != null) {
+        pending.remove(key, future);
+      }
+      throw unwrap(e);
+    }
+  }
+
+  private <T> Future<T> submit(String operation, Callable<T> callable) throws IOException {
+    try {
+      return executor.submit(callable);
+    } catch (RejectedExecutionException e) {
+      throw rejected(operation, e);
+    }
+  }
+
+  private <T> T hedge(String operation, Callable<T> callable, long start) throws Exception {
+    CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+    Future<T> first;
+    try {
+      first = completionService.submit(callable);
+    } catch (RejectedExecutionException e) {
+      throw rejected(operation, e);
+    }
+    Future<T> second = null;
+    ExecutionException failure = null;
+    try {
+      int outstanding = 1;
+      Future<T> done = completionService.poll(Math.min(hedgeDelayMs, remaining(start)),
+                                              TimeUnit.MILLISECONDS);
+      if (done == null) {
+        try {
+          second = completionService.submit(callable);
+          ++outstanding;
+          log.debug("Hedging {} after {} ms", operation, hedgeDelayMs);
+        } catch (RejectedExecutionException e) {
+          log.debug("Not hedging {}, {} storage operations are running", operation, MAX_THREADS);
+        }
+      }
+      while (outstanding > 0) {
+        if (done == null) {
+          done = timeoutMs > 0
+                 ? completionService.poll(remaining(start), TimeUnit.MILLISECONDS)
+                 : completionService.take();
+          if (done == null) {
+            throw timedOut(operation);
+          }
+        }
+        --outstanding;
+        try {
+          return done.get();
+        } catch (ExecutionException e) {
+          // Wait for the other attempt before giving up.
+          if (failure == null) {
+            failure = e;
+          }
+          done = null;
+        }
+      }
+      throw unwrap(failure);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for " + operation);
+    } finally {
+      // The attempt that is still running completes in the background, see the class comment.
+      first.cancel(false);
+      if (second != null) {
+        second.cancel(false);
+      }
+    }
+  }
+
+  private long remaining(long start) {
+    if (timeoutMs <= 0) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, start + timeoutMs - System.currentTimeMillis());
+  }
+
+  private static IOException rejected(String operation, RejectedExecutionException e) {
+    return new IOException(
+        "Cannot start " + operation + " while " + MAX_THREADS + " storage operations are running",
+        e);
+  }
+
+  private InterruptedIOException timedOut(String operation) {
+    return new InterruptedIOException(operation + " did not complete within " + timeoutMs + " ms");
+  }
+
+  private static Exception unwrap(ExecutionException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof Exception) {
+      return (Exception) cause;
+    }
+    return e;
+  }
+
+  private void record(String operation, long start) {
+    if (metrics == null) {
+      return;
+    }
+    String sensorName = operation + "-latency";
+    Sensor sensor = metrics.getSensor(sensorName);
+    if (sensor == null) {
+      sensor = createSensor(sensorName, operation);
+    }
+    sensor.record(System.currentTimeMillis() - start);
+  }
+
+  private synchronized Sensor createSensor(String sensorName, String operation) {
+    Sensor sensor = metrics.getSensor(sensorName);
+    if (sensor != null) {
+      return sensor;
+    }
+    sensor = metrics.sensor(sensorName);
+    sensor.add(metricName(operation + "-latency-avg", "The average latency of " + operation + " in ms."),
+               new Avg());
+    sensor.add(metricName(operation + "-latency-max", "The maximum latency of " + operation + " in ms."),
+               new Max());
+    sensor.add(new Percentiles(
+        PERCENTILES_SIZE_BYTES,
+        PERCENTILES_MAX_MS,
+        Percentiles.BucketSizing.LINEAR,
+        new Percentile(metricName(operation + "-latency-p50", "The median latency of " + operation + " in ms."), 50),
+        new Percentile(metricName(operation + "-latency-p99", "The 99th percentile latency of " + operation + " in ms."), 99),
+        new Percentile(metricName(operation + "-latency-p999", "The 99.9th percentile latency of " + operation + " in ms."), 99.9)));
+    return sensor;
+  }
+
+  private MetricName metricName(String name, String description) {
+    return metrics.metricName(name, METRIC_GROUP, description, metricTags);
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.tools;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import io.confluent.connect.hdfs.Compactor;
+import io.confluent.connect.hdfs.FileUtils;
+import io.confluent.connect.hdfs.Format;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+import io.confluent.connect.hdfs.filter.TopicPartitionCommittedFileFilter;
+import io.confluent.connect.hdfs.storage.Storage;
+import io.confluent.connect.hdfs.storage.StorageFactory;
+import io.confluent.connect.hdfs.wal.WAL;
+
+/**
+ * Merges the small committed files of a topic partition, for the connector configuration in a
+ * properties file. The tool takes the WAL lease of the topic partition, so it should run while the
+ * partition is not assigned to a task, for example with the connector paused; a task that is
+ * assigned the partition waits until the tool is done. With a {@code task} WAL scope the log of
+ * the partition is shared with the other partitions of a task, so the tool only runs with the
+ * {@code partition} scope.
+ *
+ * <p>Usage: {@code CompactionTool <connector properties> <topic> <partition> [max file size]}
+ */
+public class CompactionTool {
+  private static final Logger log = LoggerFactory.getLogger(CompactionTool.class);
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3 || args.length > 4) {
+      System.err.println("Usage: CompactionTool <connector properties> <topic> <partition> "
+                         + "[max file size in bytes]");
+      System.exit(1);
+    }
+    HdfsSinkConnectorConfig connectorConfig =
+        new HdfsSinkConnectorConfig(Utils.propsToStringMap(Utils.loadProps(args[0])));
+    if (HdfsSinkConnectorConfig.WAL_SCOPE_TASK.equals(
+        connectorConfig.getString(HdfsSinkConnectorConfig.WAL_SCOPE_CONFIG))) {
+      System.err.println("CompactionTool does not support " + HdfsSinkConnectorConfig.WAL_SCOPE_CONFIG
+                         + "=" + HdfsSinkConnectorConfig.WAL_SCOPE_TASK + ", since the write ahead "
+                         + "log of the partition is shared with a running task");
+      System.exit(1);
+    }
+    TopicPartition tp = new TopicPartition(args[1], Integer.parseInt(args[2]));
+    long maxFileSize = args.length == 4 ? Long.parseLong(args[3]) : 0L;
+
+    System.setProperty("hadoop.home.dir",
+                       connectorConfig.getString(HdfsSinkConnectorConfig.HADOOP_HOME_CONFIG));
+    String hadoopConfDir =
+        connectorConfig.getString(HdfsSinkConnectorConfig.HADOOP_CONF_DIR_CONFIG);
+    Configuration conf = new Configuration();
+    if (!hadoopConfDir.equals("")) {
+      conf.addResource(new Path(hadoopConfDir + "/core-site.xml"));
+      conf.addResource(new Path(hadoopConfDir + "/hdfs-site.xml"));
+    }
+
+    String url = connectorConfig.getString(HdfsSinkConnectorConfig.HDFS_URL_CONFIG);
+    String topicsDir = connectorConfig.getString(HdfsSinkConnectorConfig.TOPICS_DIR_CONFIG);
+    String logsDir = connectorConfig.getString(HdfsSinkConnectorConfig.LOGS_DIR_CONFIG);
+    @SuppressWarnings("unchecked")
+    Class<? extends Storage> storageClass = (Class<? extends Storage>) Class
+        .forName(connectorConfig.getString(HdfsSinkConnectorConfig.STORAGE_CLASS_CONFIG));
+    @SuppressWarnings("unchecked")
+    Format format = ((Class<Format>) Class
+        .forName(connectorConfig.getString(HdfsSinkConnectorConfig.FORMAT_CLASS_CONFIG)))
+        .newInstance();
+
+    Storage storage = StorageFactory.createStorage(storageClass, connectorConfig, conf, url);
+    try {
+      Compactor compactor = new Compactor(
+          connectorConfig, storage, Compactor.fileMerger(format),
+          format.getRecordWriterProvider().getExtension(), maxFileSize);
+      WAL wal = storage.wal(logsDir, tp);
+      try {
+        wal.apply();
+        int removed = 0;
+        for (String directory : directories(storage, url, topicsDir, tp)) {
+          removed += compactor.compact(wal, tp, directory);
+        }
+        wal.truncate();
+        log.info("Removed {} files of {}", removed, tp);
+      } finally {
+        wal.close();
+      }
+    } finally {
+      storage.close();
+    }
+  }
+
+  /**
+   * Returns the directories that hold committed files of a topic partition, relative to the
+   * topics directory.
+   */
+  private static Set<String> directories(Storage storage, String url, String topicsDir,
+                                         TopicPartition tp) throws Exception {
+    String topicsPath = new Path(url + "/" + topicsDir).toUri().getPath();
+    Path topicDirectory = new Path(FileUtils.topicDirectory(url, topicsDir, tp.topic()));
+    Set<String> directories = new TreeSet<>();
+    for (FileStatus status : FileUtils.traverse(
+        storage, topicDirectory, new TopicPartitionCommittedFileFilter(tp))) {
+      String path = status.getPath().getParent().toUri().getPath();
+      directories.add(path.substring(topicsPath.length() + 1));
+    }
+    return directories;
+  }
+}
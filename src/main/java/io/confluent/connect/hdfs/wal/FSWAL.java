@@ -23,8 +23,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import io.confluent.connect.hdfs.FileUtils;
 import io.confluent.connect.hdfs.storage.Storage;
@@ -38,27 +39,84 @@ public class FSWAL implements WAL {
       "org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException";
 
   private WALFile.Writer writer = null;
+  // A writer that failed to append, replaced by a fresh log before the next append.
+  private WALFile.Writer failedWriter = null;
   private WALFile.Reader reader = null;
   private String logFile = null;
   private Configuration conf = null;
   private Storage storage = null;
+  // Holds the log file, which may be on another file system than the data, see logs.url.
+  private Storage logStorage = null;
+  private boolean optimisticCommit = false;
+  private int checkpointInterval = 0;
+  private byte version = WALFile.INITIAL_VERSION;
+  private long firstLostOffset = -1L;
+  private final WALTransactions transactions = new WALTransactions();
 
   public FSWAL(String logsDir, TopicPartition topicPart, Storage storage)
       throws ConnectException {
+    this(logsDir, topicPart, storage, false, 0);
+  }
+
+  /**
+   * @param optimisticCommit whether the storage commits only when the committed file does not
+   *                         exist yet, in which case entries are committed without checking first
+   * @param checkpointInterval the number of transactions after which the log is checkpointed, or
+   *                           0 to only rotate it on {@link #truncate()}
+   */
+  public FSWAL(String logsDir, TopicPartition topicPart, Storage storage, boolean optimisticCommit,
+               int checkpointInterval) throws ConnectException {
+    this(logsDir, topicPart, storage, storage, optimisticCommit, checkpointInterval,
+         WALFile.INITIAL_VERSION);
+  }
+
+  /**
+   * @param logStorage the storage that holds the log file, while the files it records are
+   *                   committed with {@code storage}
+   * @param version the format version of new log files, see wal.version
+   */
+  public FSWAL(String logsDir, TopicPartition topicPart, Storage storage, Storage logStorage,
+               boolean optimisticCommit, int checkpointInterval, byte version)
+      throws ConnectException {
     this.storage = storage;
-    this.conf = storage.conf();
-    String url = storage.url();
+    this.logStorage = logStorage;
+    this.optimisticCommit = optimisticCommit;
+    this.checkpointInterval = checkpointInterval;
+    this.version = version;
+    this.conf = logStorage.conf();
+    String url = logStorage.url();
     logFile = FileUtils.logFileName(url, logsDir, topicPart);
   }
 
   @Override
   public void append(String tempFile, String committedFile) throws ConnectException {
     try {
+      if (failedWriter != null) {
+        restart();
+      } else if (tempFile.equals(beginMarker) && checkpointInterval > 0
+                 && transactions.completedSinceCheckpoint() >= checkpointInterval) {
+        checkpoint();
+      }
       acquireLease();
-      WALEntry key = new WALEntry(tempFile);
-      WALEntry value = new WALEntry(committedFile);
-      writer.append(key, value);
-      writer.hsync();
+      final WALEntry key = new WALEntry(tempFile);
+      final WALEntry value = new WALEntry(committedFile);
+      final WALFile.Writer walWriter = writer;
+      try {
+        // Keyed by the writer, so that restart() can wait for an append that missed its deadline.
+        logStorage.executor().execute("wal-append", walWriter, new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            walWriter.append(key, value);
+            walWriter.hsync();
+            return null;
+          }
+        });
+      } catch (IOException e) {
+        failedWriter = walWriter;
+        writer = null;
+        throw e;
+      }
+      transactions.record(tempFile, committedFile);
     } catch (IOException e) {
       throw new ConnectException(e);
     }
@@ -71,7 +129,7 @@ public class FSWAL implements WAL {
       try {
         if (writer == null) {
           writer = WALFile.createWriter(conf, Writer.file(new Path(logFile)),
-                                        Writer.appendIfExists(true));
+                                        Writer.appendIfExists(true), Writer.version(version));
           log.info("Successfully acquired lease for {}", logFile);
         }
         break;
@@ -98,57 +156,130 @@ public class FSWAL implements WAL {
 
   @Override
   public void apply() throws ConnectException {
+    firstLostOffset = -1L;
     try {
-      if (!storage.exists(logFile)) {
+      if (!logStorage.exists(logFile)) {
         return;
       }
       acquireLease();
       if (reader == null) {
         reader = new WALFile.Reader(conf, Reader.file(new Path(logFile)));
       }
-      Map<WALEntry, WALEntry> entries = new HashMap<>();
+      // Every transaction but the last complete one was committed before the next one began, so
+      // only that one is replayed. The log is read sequentially, without commits in between.
+      Map<String, String> open = null;
+      Map<String, String> lastComplete = null;
       WALEntry key = new WALEntry();
       WALEntry value = new WALEntry();
       while (reader.next(key, value)) {
         String keyName = key.getName();
         if (keyName.equals(beginMarker)) {
-          entries.clear();
+          open = new LinkedHashMap<>();
         } else if (keyName.equals(endMarker)) {
-          for (Map.Entry<WALEntry, WALEntry> entry: entries.entrySet()) {
-            String tempFile = entry.getKey().getName();
-            String committedFile = entry.getValue().getName();
-            if (!storage.exists(committedFile)) {
-              storage.commit(tempFile, committedFile);
-            }
+          if (open != null) {
+            lastComplete = open;
+            open = null;
           }
-        } else {
-          WALEntry mapKey = new WALEntry(key.getName());
-          WALEntry mapValue = new WALEntry(value.getName());
-          entries.put(mapKey, mapValue);
+        } else if (open != null) {
+          open.put(keyName, value.getName());
         }
       }
+      if (lastComplete != null) {
+        firstLostOffset = WALReplay.commit(storage, lastComplete, optimisticCommit);
+        transactions.setLastComplete(lastComplete);
+      }
     } catch (IOException e) {
       throw new ConnectException(e);
     }
   }
 
+  @Override
+  public long firstLostOffset() {
+    return firstLostOffset;
+  }
+
   @Override
   public void truncate() throws ConnectException {
     try {
-      String oldLogFile = logFile + ".1";
-      storage.delete(oldLogFile);
-      storage.commit(logFile, oldLogFile);
-      // Clean out references to the current WAL file.
-      // Open a new one on the next lease acquisition.
-      close();
+      rotate();
+      transactions.checkpointed();
     } catch (IOException e) {
       throw new ConnectException(e);
     }
   }
 
+  /**
+   * Starts a fresh log that only holds the last complete and the open transaction, so that
+   * replaying the log reads what was appended since the checkpoint instead of everything since
+   * the last recovery. This is called before a transaction begins, when the previous one has been
+   * committed, and after a failed append.
+   */
+  private void checkpoint() throws IOException {
+    rotate();
+    acquireLease();
+    try {
+      Map<String, String> lastComplete = transactions.lastComplete();
+      if (lastComplete != null) {
+        appendTransaction(lastComplete);
+        writer.append(new WALEntry(endMarker), new WALEntry(""));
+      }
+      Map<String, String> open = transactions.open();
+      if (open != null) {
+        appendTransaction(open);
+      }
+      writer.hsync();
+    } catch (IOException e) {
+      failedWriter = writer;
+      writer = null;
+      throw e;
+    }
+    transactions.checkpointed();
+    log.info("Checkpointed WAL {}", logFile);
+  }
+
+  private void appendTransaction(Map<String, String> transaction) throws IOException {
+    writer.append(new WALEntry(beginMarker), new WALEntry(""));
+    for (Map.Entry<String, String> entry : transaction.entrySet()) {
+      writer.append(new WALEntry(entry.getKey()), new WALEntry(entry.getValue()));
+    }
+  }
+
+  /**
+   * Replaces the log after an append failed. The failed append may have written part of an
+   * entry, or may still be running if it missed its deadline, so its writer is not used again:
+   * once the append is done, the writer is closed and a fresh log is started.
+   */
+  private void restart() throws IOException {
+    logStorage.executor().awaitPending("wal-append", failedWriter);
+    try {
+      failedWriter.close();
+    } catch (IOException e) {
+      log.warn("Error closing the writer of {} after a failed append", logFile, e);
+    }
+    failedWriter = null;
+    checkpoint();
+  }
+
+  private void rotate() throws IOException {
+    String oldLogFile = logFile + ".1";
+    logStorage.delete(oldLogFile);
+    logStorage.commit(logFile, oldLogFile);
+    // Clean out references to the current WAL file.
+    // Open a new one on the next lease acquisition.
+    close();
+  }
+
   @Override
   public void close() throws ConnectException {
     try {
+      if (failedWriter != null) {
+        try {
+          failedWriter.close();
+        } catch (IOException e) {
+          log.warn("Error closing the writer of {} after a failed append", logFile, e);
+        }
+        failedWriter = null;
+      }
       if (writer != null) {
         writer.close();
         writer = null;
@@ -0,0 +1,671 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.wal;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import io.confluent.connect.hdfs.FileUtils;
+import io.confluent.connect.hdfs.storage.Storage;
+import io.confluent.connect.hdfs.wal.WALFile.Reader;
+import io.confluent.connect.hdfs.wal.WALFile.Writer;
+
+/**
+ * A write ahead log shared by all topic partitions of a task. Entries are tagged with their topic
+ * partition, and {@link #forPartition} returns a {@link WAL} view for each partition, so that a
+ * task holds a single lease and a single open stream no matter how many partitions it writes.
+ *
+ * <p>The log of a task is a sequence of segments in its own directory. A new segment is started
+ * whenever the log is opened for writing. It starts with the last complete transaction of every
+ * partition found in the previous segments, after which those are deleted. Only the last
+ * complete transaction of a partition can have files that were not committed yet, so nothing is
+ * lost and replaying the log never has to read more than the partitions' last transactions plus
+ * what was written since the segment was started. The same happens every
+ * {@code wal.checkpoint.interval} transactions while the task is running, so that the segments do
+ * not grow with the uptime of the task. The last transaction of a partition that is no longer
+ * assigned to the task is carried over until its files are committed, by the next owner of the
+ * partition replaying it, rather than dropped when the partition is closed.
+ *
+ * <p>Before it reads or deletes its segments, a task holds the lease on a lease file in its
+ * directory for as long as the log is open, so that another instance of the same task, for example
+ * one started while the previous one has not noticed that it lost its assignment yet, waits until
+ * the previous instance closes the log or its lease expires. A task also holds the lease on a
+ * lease file of each partition assigned to it, next to the log the partition has in partition
+ * scope, and writes to it before it completes a transaction of the partition. A task that takes
+ * over a partition waits for that lease before it replays the partition, and once it holds the
+ * lease, a previous owner that has not noticed the new assignment fails to complete any further
+ * transaction of the partition.
+ *
+ * <p>A partition can move between tasks, so replaying a partition reads the logs of all tasks of
+ * the connector. The logs are scanned once for all partitions assigned together, and again
+ * when a partition is recovered a second time.
+ */
+public class TaskWAL {
+
+  private static final Logger log = LoggerFactory.getLogger(TaskWAL.class);
+  private static final String SEGMENT_PREFIX = "log.";
+  private static final String SEGMENT_FORMAT = SEGMENT_PREFIX + "%010d";
+  private static final String LEASE_FILE = "lease";
+  // The number of fence entries after which the lease file of a partition is started over.
+  private static final int MAX_FENCES = 10000;
+  private static final String leaseException =
+      "org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException";
+  // Topic names cannot contain either character, see legalChars in Topic.scala.
+  private static final char PARTITION_SEPARATOR = '/';
+  private static final char TAG_SEPARATOR = ':';
+
+  private final Storage storage;
+  // Holds the logs and lease files, which may be on another file system than the data.
+  private final Storage logStorage;
+  private final Configuration conf;
+  private final String logsDir;
+  private final String connectorDirectory;
+  private final String taskDirectory;
+  private final String leaseFile;
+  private final boolean optimisticCommit;
+  private final int checkpointInterval;
+  private final byte version;
+
+  // Held open while the log is open, nothing is written to it.
+  private WALFile.Writer leaseWriter = null;
+  private WALFile.Writer writer = null;
+  // A writer that failed to append, replaced by a fresh segment before the next append.
+  private WALFile.Writer failedWriter = null;
+  private String logFile = null;
+  // Transactions of the partitions in the current segment, carried over to the next one.
+  private final Map<TopicPartition, WALTransactions> segmentTransactions = new LinkedHashMap<>();
+  private int completedSinceCheckpoint = 0;
+  // Last complete transactions by partition, from the latest scan of the logs of all tasks.
+  private Map<TopicPartition, List<Map<String, String>>> transactions = null;
+  private final Set<TopicPartition> replayed = new HashSet<>();
+  // Partitions assigned to the task, and the leases held on their lease files.
+  private final Set<TopicPartition> openPartitions = new HashSet<>();
+  private final Map<TopicPartition, PartitionLease> partitionLeases = new HashMap<>();
+
+  public TaskWAL(String logsDir, String connectorName, String taskId, Storage storage,
+                 boolean optimisticCommit, int checkpointInterval) {
+    this(logsDir, connectorName, taskId, storage, storage, optimisticCommit, checkpointInterval,
+         WALFile.INITIAL_VERSION);
+  }
+
+  /**
+   * @param logStorage the storage that holds the logs and lease files, while the files they record
+   *                   are committed with {@code storage}
+   * @param version the format version of new log and lease files, see wal.version
+   */
+  public TaskWAL(String logsDir, String connectorName, String taskId, Storage storage,
+                 Storage logStorage, boolean optimisticCommit, int checkpointInterval,
+                 byte version) {
+    this.storage = storage;
+    this.logStorage = logStorage;
+    this.conf = logStorage.conf();
+    this.logsDir = logsDir;
+    this.optimisticCommit = optimisticCommit;
+    this.checkpointInterval = checkpointInterval;
+    this.version = version;
+    connectorDirectory = FileUtils.taskLogDirectory(logStorage.url(), logsDir, connectorName);
+    taskDirectory = connectorDirectory + "/" + taskId;
+    leaseFile = taskDirectory + "/" + LEASE_FILE;
+  }
+
+  /**
+   * Returns the view of this log for a topic partition that was just assigned to the task.
+   */
+  public synchronized WAL forPartition(TopicPartition tp) {
+    // The previous owner of the partition may have written to its log since the last scan.
+    transactions = null;
+    openPartitions.add(tp);
+    return new PartitionWAL(tp);
+  }
+
+  public synchronized void acquireLease() throws ConnectException {
+    if (writer != null) {
+      return;
+    }
+    acquireTaskLease();
+    try {
+      List<Path> segments = listSegments(taskDirectory);
+      Map<TopicPartition, Map<String, String>> lastTransactions = new LinkedHashMap<>();
+      for (Path segment : segments) {
+        readSegment(segment, lastTransactions);
+      }
+      segmentTransactions.clear();
+      for (Map.Entry<TopicPartition, Map<String, String>> transaction : lastTransactions.entrySet()) {
+        transactionsOf(transaction.getKey()).setLastComplete(transaction.getValue());
+      }
+      startSegment(segments);
+    } catch (IOException e) {
+      closeQuietly();
+      throw new ConnectException("Error creating writer for log file " + logFile, e);
+    }
+  }
+
+  private void acquireTaskLease() throws ConnectException {
+    if (leaseWriter == null) {
+      leaseWriter = openLease(leaseFile, Writer.appendIfExists(true));
+    }
+  }
+
+  /**
+   * Returns the lease of a partition assigned to the task, opening its lease file if it is not
+   * held yet. The file is created again, so that it only holds the fences of the current owner.
+   */
+  private synchronized PartitionLease acquirePartitionLease(TopicPartition tp)
+      throws ConnectException {
+    PartitionLease lease = partitionLeases.get(tp);
+    if (lease == null) {
+      String file = FileUtils.fileName(logStorage.url(), logsDir, tp, LEASE_FILE);
+      lease = new PartitionLease(openLease(file, Writer.appendIfExists(false)));
+      partitionLeases.put(tp, lease);
+    }
+    return lease;
+  }
+
+  /**
+   * Opens a lease file, retrying while another client holds it, the same way
+   * {@link FSWAL#acquireLease} does for the log of a partition.
+   */
+  private WALFile.Writer openLease(String file, Writer.Option mode) throws ConnectException {
+    long sleepIntervalMs = 1000L;
+    long MAX_SLEEP_INTERVAL_MS = 16000L;
+    while (sleepIntervalMs < MAX_SLEEP_INTERVAL_MS) {
+      try {
+        WALFile.Writer lease = WALFile.createWriter(conf, Writer.file(new Path(file)), mode,
+                                                    Writer.version(version));
+        log.info("Successfully acquired lease for {}", file);
+        return lease;
+      } catch (RemoteException e) {
+        if (e.getClassName().equals(leaseException)) {
+          log.info("Cannot acquire lease on WAL {}", file);
+          try {
+            Thread.sleep(sleepIntervalMs);
+          } catch (InterruptedException ie) {
+            throw new ConnectException(ie);
+          }
+          sleepIntervalMs = sleepIntervalMs * 2;
+        } else {
+          throw new ConnectException(e);
+        }
+      } catch (IOException e) {
+        throw new ConnectException("Error creating writer for lease file " + file, e);
+      }
+    }
+    throw new ConnectException("Cannot acquire lease after timeout, will retry.");
+  }
+
+  /**
+   * Writes a fence entry to the lease file of a partition. Once another task has taken over the
+   * lease, the write fails, so that this task does not complete a transaction of a partition that
+   * it no longer owns.
+   */
+  private void fence(TopicPartition tp) throws IOException {
+    PartitionLease lease = acquirePartitionLease(tp);
+    if (lease.fences >= MAX_FENCES) {
+      // Creating the file again fails if another task holds the lease by then.
+      releasePartitionLease(tp);
+      lease = acquirePartitionLease(tp);
+    }
+    final WALFile.Writer fenceWriter = lease.writer;
+    final WALEntry key = new WALEntry(tag(tp, WAL.endMarker));
+    try {
+      logStorage.executor().execute("wal-fence", fenceWriter, new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          fenceWriter.append(key, new WALEntry(""));
+          fenceWriter.hflush();
+          return null;
+        }
+      });
+    } catch (IOException e) {
+      // The lease may be lost, so it is acquired again before the next append.
+      releasePartitionLease(tp);
+      throw e;
+    }
+    ++lease.fences;
+  }
+
+  public synchronized void close() throws ConnectException {
+    try {
+      if (failedWriter != null) {
+        try {
+          failedWriter.close();
+        } catch (IOException e) {
+          log.warn("Error closing the writer of {} after a failed append", logFile, e);
+        }
+        failedWriter = null;
+      }
+      if (writer != null) {
+        writer.close();
+      }
+    } catch (IOException e) {
+      throw new ConnectException("Error closing " + logFile, e);
+    } finally {
+      writer = null;
+      for (TopicPartition tp : new ArrayList<>(partitionLeases.keySet())) {
+        releasePartitionLease(tp);
+      }
+      releaseTaskLease();
+    }
+  }
+
+  private void releaseTaskLease() {
+    if (leaseWriter == null) {
+      return;
+    }
+    try {
+      leaseWriter.close();
+    } catch (IOException e) {
+      log.warn("Error closing lease file {}", leaseFile, e);
+    } finally {
+      leaseWriter = null;
+    }
+  }
+
+  private void releasePartitionLease(TopicPartition tp) {
+    PartitionLease lease = partitionLeases.remove(tp);
+    if (lease == null) {
+      return;
+    }
+    try {
+      lease.writer.close();
+    } catch (IOException e) {
+      log.warn("Error closing the lease file of {}", tp, e);
+    }
+  }
+
+  /**
+   * Releases the lease of a partition once it is closed. Its last transaction is still carried
+   * into new segments until its files are committed, see {@link #startSegment}.
+   */
+  private synchronized void closePartition(TopicPartition tp) {
+    openPartitions.remove(tp);
+    releasePartitionLease(tp);
+  }
+
+  private synchronized void append(TopicPartition tp, String tempFile, String committedFile)
+      throws ConnectException {
+    try {
+      if (failedWriter != null) {
+        restart();
+      }
+      acquireLease();
+      if (tempFile.equals(WAL.beginMarker) && checkpointInterval > 0
+          && completedSinceCheckpoint >= checkpointInterval) {
+        checkpoint();
+      }
+      if (tempFile.equals(WAL.endMarker)) {
+        fence(tp);
+      } else {
+        acquirePartitionLease(tp);
+      }
+      final WALEntry key = new WALEntry(tag(tp, tempFile));
+      final WALEntry value = new WALEntry(committedFile);
+      final WALFile.Writer walWriter = writer;
+      try {
+        // Keyed by the writer, so that restart() can wait for an append that missed its deadline.
+        logStorage.executor().execute("wal-append", walWriter, new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            walWriter.append(key, value);
+            walWriter.hsync();
+            return null;
+          }
+        });
+      } catch (IOException e) {
+        failedWriter = walWriter;
+        writer = null;
+        throw e;
+      }
+      WALTransactions partitionTransactions = transactionsOf(tp);
+      if (tempFile.equals(WAL.endMarker) && partitionTransactions.open() != null) {
+        ++completedSinceCheckpoint;
+      }
+      partitionTransactions.record(tempFile, committedFile);
+    } catch (IOException e) {
+      throw new ConnectException(e);
+    }
+  }
+
+  /**
+   * Replaces the current segment with one that holds the last complete and the open transaction
+   * of every partition written to it.
+   */
+  private void checkpoint() throws IOException {
+    List<Path> segments = listSegments(taskDirectory);
+    try {
+      writer.close();
+    } finally {
+      writer = null;
+    }
+    try {
+      startSegment(segments);
+    } catch (IOException e) {
+      closeQuietly();
+      throw e;
+    }
+  }
+
+  /**
+   * Replaces the current segment after an append failed. The failed append may have written part
+   * of an entry, or may still be running if it missed its deadline, so its writer is not used
+   * again: once the append is done, the writer is closed and the next segment is started with the
+   * transactions known to this task.
+   */
+  private void restart() throws IOException {
+    logStorage.executor().awaitPending("wal-append", failedWriter);
+    try {
+      failedWriter.close();
+    } catch (IOException e) {
+      log.warn("Error closing the writer of {} after a failed append", logFile, e);
+    }
+    failedWriter = null;
+    try {
+      startSegment(listSegments(taskDirectory));
+    } catch (IOException e) {
+      closeQuietly();
+      throw e;
+    }
+  }
+
+  /**
+   * Starts the next segment with the transactions in {@link #segmentTransactions} and deletes the
+   * given segments once the new one is synced. Partitions that are not assigned to the task only
+   * keep their last complete transaction, and only until its files are committed.
+   */
+  private void startSegment(List<Path> segments) throws IOException {
+    Iterator<Map.Entry<TopicPartition, WALTransactions>> iterator =
+        segmentTransactions.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<TopicPartition, WALTransactions> transactions = iterator.next();
+      if (openPartitions.contains(transactions.getKey())) {
+        continue;
+      }
+      Map<String, String> lastComplete = transactions.getValue().lastComplete();
+      if (lastComplete == null || WALReplay.isCommitted(storage, lastComplete)) {
+        iterator.remove();
+      } else {
+        WALTransactions carried = new WALTransactions();
+        carried.setLastComplete(lastComplete);
+        transactions.setValue(carried);
+      }
+    }
+    long next = segments.isEmpty() ? 0 : segmentNumber(segments.get(segments.size() - 1)) + 1;
+    logFile = taskDirectory + "/" + String.format(SEGMENT_FORMAT, next);
+    writer = WALFile.createWriter(conf, Writer.file(new Path(logFile)), Writer.version(version));
+    for (Map.Entry<TopicPartition, WALTransactions> transactions : segmentTransactions.entrySet()) {
+      TopicPartition tp = transactions.getKey();
+      Map<String, String> lastComplete = transactions.getValue().lastComplete();
+      if (lastComplete != null) {
+        appendTransaction(tp, lastComplete);
+        writer.append(new WALEntry(tag(tp, WAL.endMarker)), new WALEntry(""));
+      }
+      Map<String, String> open = transactions.getValue().open();
+      if (open != null) {
+        appendTransaction(tp, open);
+      }
+    }
+    writer.hsync();
+    for (Path segment : segments) {
+      logStorage.delete(segment);
+    }
+    completedSinceCheckpoint = 0;
+    log.info("Started WAL segment {} with the last transactions of {} partitions",
+             logFile, segmentTransactions.size());
+  }
+
+  private void appendTransaction(TopicPartition tp, Map<String, String> transaction)
+      throws IOException {
+    writer.append(new WALEntry(tag(tp, WAL.beginMarker)), new WALEntry(""));
+    for (Map.Entry<String, String> entry : transaction.entrySet()) {
+      writer.append(new WALEntry(tag(tp, entry.getKey())), new WALEntry(entry.getValue()));
+    }
+  }
+
+  private WALTransactions transactionsOf(TopicPartition tp) {
+    WALTransactions transactions = segmentTransactions.get(tp);
+    if (transactions == null) {
+      transactions = new WALTransactions();
+      segmentTransactions.put(tp, transactions);
+    }
+    return transactions;
+  }
+
+  /**
+   * Replays the transactions of a partition and returns the first lost offset, see
+   * {@link WALReplay#commit}.
+   */
+  private synchronized long apply(TopicPartition tp) throws ConnectException {
+    long firstLostOffset = -1L;
+    try {
+      if (transactions == null || replayed.contains(tp)) {
+        transactions = scan();
+        replayed.clear();
+      }
+      replayed.add(tp);
+      List<Map<String, String>> partitionTransactions = transactions.get(tp);
+      if (partitionTransactions == null) {
+        return firstLostOffset;
+      }
+      for (Map<String, String> transaction : partitionTransactions) {
+        long lostOffset = WALReplay.commit(storage, transaction, optimisticCommit);
+        if (lostOffset >= 0 && (firstLostOffset < 0 || lostOffset < firstLostOffset)) {
+          firstLostOffset = lostOffset;
+        }
+      }
+      return firstLostOffset;
+    } catch (IOException e) {
+      throw new ConnectException(e);
+    }
+  }
+
+  /**
+   * Reads the logs of all tasks of the connector and returns the last complete transaction of
+   * each partition in each segment.
+   */
+  private Map<TopicPartition, List<Map<String, String>>> scan() throws IOException {
+    Map<TopicPartition, List<Map<String, String>>> result = new HashMap<>();
+    if (!logStorage.exists(connectorDirectory)) {
+      return result;
+    }
+    for (FileStatus taskStatus : logStorage.listStatus(connectorDirectory)) {
+      if (!taskStatus.isDirectory()) {
+        continue;
+      }
+      for (Path segment : listSegments(taskStatus.getPath().toString())) {
+        Map<TopicPartition, Map<String, String>> lastTransactions = new HashMap<>();
+        readSegment(segment, lastTransactions);
+        for (Map.Entry<TopicPartition, Map<String, String>> entry : lastTransactions.entrySet()) {
+          List<Map<String, String>> partitionTransactions = result.get(entry.getKey());
+          if (partitionTransactions == null) {
+            partitionTransactions = new ArrayList<>();
+            result.put(entry.getKey(), partitionTransactions);
+          }
+          partitionTransactions.add(entry.getValue());
+        }
+      }
+    }
+    return result;
+  }
+
+  private void readSegment(Path segment, Map<TopicPartition, Map<String, String>> lastTransactions)
+      throws IOException {
+    Map<TopicPartition, Map<String, String>> openTransactions = new HashMap<>();
+    try (WALFile.Reader reader = new WALFile.Reader(conf, Reader.file(segment))) {
+      WALEntry key = new WALEntry();
+      WALEntry value = new WALEntry();
+      while (reader.next(key, value)) {
+        String name = key.getName();
+        int partitionStart = name.indexOf(PARTITION_SEPARATOR);
+        int nameStart = name.indexOf(TAG_SEPARATOR, partitionStart + 1);
+        if (partitionStart < 0 || nameStart < 0) {
+          log.warn("Skipping untagged entry {} in {}", name, segment);
+          continue;
+        }
+        TopicPartition tp = new TopicPartition(
+            name.substring(0, partitionStart),
+            Integer.parseInt(name.substring(partitionStart + 1, nameStart)));
+        String entryName = name.substring(nameStart + 1);
+        if (entryName.equals(WAL.beginMarker)) {
+          openTransactions.put(tp, new LinkedHashMap<String, String>());
+        } else if (entryName.equals(WAL.endMarker)) {
+          Map<String, String> transaction = openTransactions.remove(tp);
+          if (transaction != null) {
+            lastTransactions.put(tp, transaction);
+          }
+        } else {
+          Map<String, String> transaction = openTransactions.get(tp);
+          if (transaction != null) {
+            transaction.put(entryName, value.getName());
+          }
+        }
+      }
+    }
+  }
+
+  private List<Path> listSegments(String directory) throws IOException {
+    List<Path> segments = new ArrayList<>();
+    if (!logStorage.exists(directory)) {
+      return segments;
+    }
+    FileStatus[] statuses = logStorage.listStatus(directory);
+    Arrays.sort(statuses);
+    for (FileStatus status : statuses) {
+      if (status.isFile() && status.getPath().getName().startsWith(SEGMENT_PREFIX)) {
+        segments.add(status.getPath());
+      }
+    }
+    return segments;
+  }
+
+  private static long segmentNumber(Path segment) {
+    return Long.parseLong(segment.getName().substring(SEGMENT_PREFIX.length()));
+  }
+
+  private static String tag(TopicPartition tp, String name) {
+    return tp.topic() + PARTITION_SEPARATOR + tp.partition() + TAG_SEPARATOR + name;
+  }
+
+  private void closeQuietly() {
+    try {
+      close();
+    } catch (ConnectException e) {
+      log.warn("Error closing {}", logFile, e);
+    }
+  }
+
+  private static class PartitionLease {
+    private final WALFile.Writer writer;
+    private int fences = 0;
+
+    PartitionLease(WALFile.Writer writer) {
+      this.writer = writer;
+    }
+  }
+
+  private class PartitionWAL implements WAL {
+
+    private final TopicPartition tp;
+    private long firstLostOffset = -1L;
+
+    PartitionWAL(TopicPartition tp) {
+      this.tp = tp;
+    }
+
+    @Override
+    public void acquireLease() throws ConnectException {
+      TaskWAL.this.acquireLease();
+      acquirePartitionLease(tp);
+    }
+
+    @Override
+    public void append(String tempFile, String committedFile) throws ConnectException {
+      TaskWAL.this.append(tp, tempFile, committedFile);
+    }
+
+    @Override
+    public void apply() throws ConnectException {
+      // A previous owner of the partition may still be writing to it until it loses the lease.
+      acquirePartitionLease(tp);
+      long partitionLogLostOffset = applyPartitionLog();
+      firstLostOffset = TaskWAL.this.apply(tp);
+      if (partitionLogLostOffset >= 0
+          && (firstLostOffset < 0 || partitionLogLostOffset < firstLostOffset)) {
+        firstLostOffset = partitionLogLostOffset;
+      }
+    }
+
+    @Override
+    public long firstLostOffset() {
+      return firstLostOffset;
+    }
+
+    @Override
+    public void truncate() throws ConnectException {
+      // Replayed transactions are dropped when the task starts its next segment.
+    }
+
+    @Override
+    public void close() throws ConnectException {
+      // The log is shared with the other partitions of the task and closed with the storage.
+      closePartition(tp);
+    }
+
+    @Override
+    public String getLogFile() {
+      return logFile;
+    }
+
+    /**
+     * Replays and rotates the log this partition had in partition scope, if there is one, and
+     * returns its first lost offset.
+     */
+    private long applyPartitionLog() throws ConnectException {
+      try {
+        if (!logStorage.exists(FileUtils.logFileName(logStorage.url(), logsDir, tp))) {
+          return -1L;
+        }
+      } catch (IOException e) {
+        throw new ConnectException(e);
+      }
+      FSWAL partitionLog = new FSWAL(logsDir, tp, storage, logStorage, optimisticCommit, 0,
+                                    version);
+      try {
+        partitionLog.apply();
+        partitionLog.truncate();
+        return partitionLog.firstLostOffset();
+      } finally {
+        partitionLog.close();
+      }
+    }
+  }
+}
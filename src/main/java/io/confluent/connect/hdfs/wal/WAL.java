@@ -24,6 +24,11 @@ public interface WAL {
   void acquireLease() throws ConnectException;
   void append(String tempFile, String committedFile) throws ConnectException;
   void apply() throws ConnectException;
+  /**
+   * Returns the first offset of the records in files of the transactions replayed by
+   * {@link #apply()} that could neither be committed nor found committed, or -1 if there are none.
+   */
+  long firstLostOffset();
   void truncate() throws ConnectException;
   void close() throws ConnectException;
   String getLogFile();
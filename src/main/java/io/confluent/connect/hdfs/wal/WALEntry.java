@@ -37,6 +37,10 @@ public class WALEntry implements Writable {
     return name;
   }
 
+  void setName(String name) {
+    this.name = name;
+  }
+
   @Override
   public void readFields(DataInput in) throws IOException {
     name = Text.readString(in);
@@ -0,0 +1,202 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.wal;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The compact encoding of WAL entry names used from version 1 of {@link WALFile}.
+ *
+ * <p>Entry names are mostly file names that share long prefixes: the URL, the topics directory
+ * and the partition directory. A name is split into its directory and file name, and the
+ * directory, as well as the topic partition prefix and extension of a committed file, is written
+ * once and referred to by a varint id afterwards. Temp file names are written as their 16 byte
+ * UUID, committed file names as their start and end offsets. Anything else, like the transaction
+ * markers, is written as a string. Every name decodes to exactly the string that was encoded.
+ *
+ * <p>Ids are defined the first time a writer uses them, so the names of a file have to be read
+ * in order from the start. A writer that appends to an existing file starts with no ids and
+ * redefines what it uses. Ids assigned while encoding a record only become defined once the
+ * record is written, see {@link #commit} and {@link #rollback}, so a record that fails to be
+ * written does not leave later records referring to ids the file never defines.
+ */
+class WALEntryCodec {
+
+  private static final byte STRING = 0;
+  private static final byte TEMP_FILE = 1;
+  private static final byte COMMITTED_FILE = 2;
+
+  private static final String TEMP_FILE_SUFFIX = "_tmp";
+  private static final int UUID_LENGTH = 36;
+  private static final Pattern COMMITTED_FILE_PATTERN =
+      Pattern.compile("(.*)\\+([0-9]{1,18})\\+([0-9]{1,18})((?:[^0-9].*)?)");
+  // Bounds the ids held by a writer and its readers; later strings are written inline.
+  private static final int MAX_IDS = 4096;
+
+  private final Map<String, Integer> ids = new HashMap<>();
+  private final Map<Integer, String> strings = new HashMap<>();
+  // Strings assigned an id since the last commit.
+  private final List<String> assigned = new ArrayList<>();
+
+  void write(DataOutput out, String name) throws IOException {
+    int separator = name.lastIndexOf('/');
+    if (separator >= 0) {
+      String directory = name.substring(0, separator);
+      String file = name.substring(separator + 1);
+      UUID uuid = tempFileId(file);
+      if (uuid != null) {
+        out.writeByte(TEMP_FILE);
+        writeString(out, directory);
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+        writeString(out, file.substring(UUID_LENGTH + TEMP_FILE_SUFFIX.length()));
+        return;
+      }
+      Matcher matcher = COMMITTED_FILE_PATTERN.matcher(file);
+      if (matcher.matches()) {
+        out.writeByte(COMMITTED_FILE);
+        writeString(out, directory);
+        writeString(out, matcher.group(1));
+        writeOffset(out, matcher.group(2));
+        writeOffset(out, matcher.group(3));
+        writeString(out, matcher.group(4));
+        return;
+      }
+    }
+    out.writeByte(STRING);
+    Text.writeString(out, name);
+  }
+
+  /**
+   * Keeps the ids assigned since the last commit or rollback, once the record they were written
+   * in is in the file.
+   */
+  void commit() {
+    assigned.clear();
+  }
+
+  /**
+   * Forgets the ids assigned since the last commit or rollback, when the record they were written
+   * in is discarded.
+   */
+  void rollback() {
+    for (String string : assigned) {
+      ids.remove(string);
+    }
+    assigned.clear();
+  }
+
+  String read(DataInput in) throws IOException {
+    byte type = in.readByte();
+    switch (type) {
+      case STRING:
+        return Text.readString(in);
+      case TEMP_FILE: {
+        String directory = readString(in);
+        UUID uuid = new UUID(in.readLong(), in.readLong());
+        return directory + "/" + uuid + TEMP_FILE_SUFFIX + readString(in);
+      }
+      case COMMITTED_FILE: {
+        String directory = readString(in);
+        String prefix = readString(in);
+        String start = readOffset(in);
+        String end = readOffset(in);
+        return directory + "/" + prefix + "+" + start + "+" + end + readString(in);
+      }
+      default:
+        throw new IOException("Unknown WAL entry type " + type);
+    }
+  }
+
+  private static UUID tempFileId(String file) {
+    if (!file.startsWith(TEMP_FILE_SUFFIX, UUID_LENGTH)) {
+      return null;
+    }
+    String id = file.substring(0, UUID_LENGTH);
+    try {
+      UUID uuid = UUID.fromString(id);
+      return uuid.toString().equals(id) ? uuid : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes a string as 0 followed by the string, as -(id + 1) followed by the string when it is
+   * assigned an id, or as id + 1 when it already has one.
+   */
+  private void writeString(DataOutput out, String string) throws IOException {
+    Integer id = ids.get(string);
+    if (id != null) {
+      WritableUtils.writeVInt(out, id + 1);
+    } else if (ids.size() < MAX_IDS) {
+      id = ids.size();
+      ids.put(string, id);
+      assigned.add(string);
+      WritableUtils.writeVInt(out, -(id + 1));
+      Text.writeString(out, string);
+    } else {
+      WritableUtils.writeVInt(out, 0);
+      Text.writeString(out, string);
+    }
+  }
+
+  private String readString(DataInput in) throws IOException {
+    int code = WritableUtils.readVInt(in);
+    if (code == 0) {
+      return Text.readString(in);
+    } else if (code < 0) {
+      String string = Text.readString(in);
+      strings.put(-code - 1, string);
+      return string;
+    }
+    String string = strings.get(code - 1);
+    if (string == null) {
+      throw new IOException("Undefined WAL string id " + (code - 1));
+    }
+    return string;
+  }
+
+  /**
+   * Offsets keep their zero padding, so they are written as their number of digits followed by
+   * their value.
+   */
+  private static void writeOffset(DataOutput out, String digits) throws IOException {
+    WritableUtils.writeVInt(out, digits.length());
+    WritableUtils.writeVLong(out, Long.parseLong(digits));
+  }
+
+  private static String readOffset(DataInput in) throws IOException {
+    int width = WritableUtils.readVInt(in);
+    String value = Long.toString(WritableUtils.readVLong(in));
+    StringBuilder digits = new StringBuilder(width);
+    for (int i = value.length(); i < width; ++i) {
+      digits.append('0');
+    }
+    return digits.append(value).toString();
+  }
+}
@@ -47,9 +47,12 @@ import java.util.Arrays;
 public class WALFile {
 
   private static final Log log = LogFactory.getLog(WALFile.class);
-  private static final byte INITIAL_VERSION = (byte) 0;
+  static final byte INITIAL_VERSION = (byte) 0;
+  // Entry names are written with WALEntryCodec instead of WALEntry.write(). Since a record may
+  // refer to names defined by earlier records, these files can only be read from the start.
+  static final byte COMPACT_VERSION = (byte) 1;
   private static byte[] VERSION = new byte[]{
-      (byte) 'W', (byte) 'A', (byte) 'L', INITIAL_VERSION
+      (byte) 'W', (byte) 'A', (byte) 'L', COMPACT_VERSION
   };
 
   private static final int SYNC_ESCAPE = -1;      // "length" of sync entries
@@ -75,6 +78,8 @@ public class WALFile {
     private DataOutputBuffer buffer = new DataOutputBuffer();
     boolean ownOutputStream = true;
     private boolean appendMode;
+    private byte version = INITIAL_VERSION;
+    private final WALEntryCodec codec = new WALEntryCodec();
     protected Serializer<WALEntry> keySerializer;
     protected Serializer<WALEntry> valSerializer;
 
@@ -124,6 +129,14 @@ public class WALFile {
       return new BlockSizeOption(value);
     }
 
+    /**
+     * The version of a new file, by default the initial one so that older readers can read it.
+     * Appending to a file keeps its version.
+     */
+    static Option version(byte value) {
+      return new VersionOption(value);
+    }
+
 
     static class FileOption extends Options.PathOption implements Option {
 
@@ -169,6 +182,12 @@ public class WALFile {
       }
     }
 
+    static class VersionOption extends Options.IntegerOption implements Option {
+      VersionOption(int value) {
+        super(value);
+      }
+    }
+
 
     Writer(Configuration conf, Option... opts) throws IOException {
       BlockSizeOption blockSizeOption =
@@ -182,6 +201,10 @@ public class WALFile {
       AppendIfExistsOption appendIfExistsOption = Options.getOption(
           AppendIfExistsOption.class, opts);
       StreamOption streamOption = Options.getOption(StreamOption.class, opts);
+      VersionOption versionOption = Options.getOption(VersionOption.class, opts);
+      if (versionOption != null) {
+        version = (byte) versionOption.getValue();
+      }
 
       // check consistency of options
       if ((fileOption == null) == (streamOption == null)) {
@@ -213,9 +236,11 @@ public class WALFile {
           // Read the file and verify header details
           try (WALFile.Reader reader =
                    new WALFile.Reader(conf, WALFile.Reader.file(p), new Reader.OnlyHeaderOption())){
-            if (reader.getVersion() != VERSION[3]) {
+            // Logs written before the compact encoding are appended to in their own version.
+            if (reader.getVersion() > VERSION[3]) {
               throw new VersionMismatchException(VERSION[3], reader.getVersion());
             }
+            version = reader.getVersion();
             sync = reader.getSync();
           }
           out = fs.append(p, bufferSize);
@@ -269,20 +294,38 @@ public class WALFile {
         throws IOException {
       buffer.reset();
 
-      // Append the 'key'
-      keySerializer.serialize(key);
-      int keyLength = buffer.getLength();
-      if (keyLength < 0) {
-        throw new IOException("negative length keys not allowed: " + key);
-      }
+      boolean written = false;
+      try {
+        // Append the 'key'
+        if (version >= COMPACT_VERSION) {
+          codec.write(buffer, key.getName());
+        } else {
+          keySerializer.serialize(key);
+        }
+        int keyLength = buffer.getLength();
+        if (keyLength < 0) {
+          throw new IOException("negative length keys not allowed: " + key);
+        }
 
-      valSerializer.serialize(val);
+        if (version >= COMPACT_VERSION) {
+          codec.write(buffer, val.getName());
+        } else {
+          valSerializer.serialize(val);
+        }
 
-      // Write the record out
-      checkAndWriteSync();                                // sync
-      out.writeInt(buffer.getLength());                   // total record length
-      out.writeInt(keyLength);                            // key portion length
-      out.write(buffer.getData(), 0, buffer.getLength()); // data
+        // Write the record out
+        checkAndWriteSync();                                // sync
+        out.writeInt(buffer.getLength());                   // total record length
+        out.writeInt(keyLength);                            // key portion length
+        out.write(buffer.getData(), 0, buffer.getLength()); // data
+        written = true;
+      } finally {
+        if (written) {
+          codec.commit();
+        } else {
+          codec.rollback();
+        }
+      }
     }
 
     /** Returns the current length of the output file.
@@ -307,7 +350,8 @@ public class WALFile {
 
     private void writeFileHeader()
         throws IOException {
-      out.write(VERSION);                    // write the version
+      out.write(VERSION, 0, VERSION.length - 1);
+      out.write(version);                    // write the version
       out.write(sync);                       // write the sync bytes
       out.flush();                           // flush header
     }
@@ -366,6 +410,9 @@ public class WALFile {
     private DataOutputBuffer outBuf = new DataOutputBuffer();
 
     private byte version;
+    private final WALEntryCodec codec = new WALEntryCodec();
+    // The value of the current entry, decoded together with the key in the compact encoding.
+    private String currentValue;
     private byte[] sync = new byte[SYNC_HASH_SIZE];
     private byte[] syncCheck = new byte[SYNC_HASH_SIZE];
     private boolean syncSeen;
@@ -543,7 +590,7 @@ public class WALFile {
       this.conf = conf;
       boolean succeeded = false;
       try {
-        seek(start);
+        in.seek(start);
         this.end = this.in.getPos() + length;
         // if it wrapped around, use the max
         if (end < length) {
@@ -684,6 +731,10 @@ public class WALFile {
      */
     public synchronized void getCurrentValue(Writable val)
         throws IOException {
+      if (version >= COMPACT_VERSION) {
+        ((WALEntry) val).setName(currentValue);
+        return;
+      }
       if (val instanceof Configurable) {
         ((Configurable) val).setConf(this.conf);
       }
@@ -706,6 +757,9 @@ public class WALFile {
      */
     public synchronized WALEntry getCurrentValue(WALEntry val)
         throws IOException {
+      if (version >= COMPACT_VERSION) {
+        return entry(val, currentValue);
+      }
       if (val instanceof Configurable) {
         ((Configurable) val).setConf(this.conf);
       }
@@ -746,6 +800,10 @@ public class WALFile {
 
       valBuffer.reset(outBuf.getData(), outBuf.getLength());
 
+      if (version >= COMPACT_VERSION) {
+        ((WALEntry) key).setName(readCompact());
+        return true;
+      }
       key.readFields(valBuffer);
       valBuffer.mark(0);
       if (valBuffer.getPosition() != keyLength) {
@@ -834,6 +892,9 @@ public class WALFile {
         return null;
       }
       valBuffer.reset(outBuf.getData(), outBuf.getLength());
+      if (version >= COMPACT_VERSION) {
+        return entry(key, readCompact());
+      }
       key = deserializeKey(key);
       valBuffer.mark(0);
       if (valBuffer.getPosition() != keyLength) {
@@ -847,9 +908,32 @@ public class WALFile {
       return keyDeserializer.deserialize(key);
     }
 
+    /**
+     * Decodes the key and the value of the current record. The value is decoded right away even
+     * if it is skipped, since it may define ids used by later records.
+     */
+    private String readCompact() throws IOException {
+      String key = codec.read(valBuffer);
+      if (valBuffer.getPosition() != keyLength) {
+        throw new IOException(key + " read " + valBuffer.getPosition()
+                              + " bytes, should read " + keyLength);
+      }
+      currentValue = codec.read(valBuffer);
+      return key;
+    }
+
+    private static WALEntry entry(WALEntry entry, String name) {
+      if (entry == null) {
+        return new WALEntry(name);
+      }
+      entry.setName(name);
+      return entry;
+    }
+
     private void handleChecksumException(ChecksumException e)
         throws IOException {
-      if (this.conf.getBoolean("io.skip.checksum.errors", false)) {
+      // Entries past a corrupt one of a compact file may refer to names defined in it.
+      if (this.conf.getBoolean("io.skip.checksum.errors", false) && version < COMPACT_VERSION) {
         log.warn("Bad checksum at " + getPosition() + ". Skipping entries.");
         sync(getPosition() + this.conf.getInt("io.bytes.per.checksum", 512));
       } else {
@@ -870,17 +954,25 @@ public class WALFile {
      * <p>The position passed must be a position returned by {@link WALFile.Writer#getLength()}
      * when writing this file.  To seek to an arbitrary position, use {@link
      * WALFile.Reader#sync(long)}.
+     *
+     * @throws UnsupportedOperationException if the file has the compact encoding, which can only be
+     *                                       read from the start
      */
     public synchronized void seek(long position) throws IOException {
+      checkSeekable();
       in.seek(position);
     }
 
     /**
      * Seek to the next sync mark past a given position.
+     *
+     * @throws UnsupportedOperationException if the file has the compact encoding, which can only be
+     *                                       read from the start
      */
     public synchronized void sync(long position) throws IOException {
+      checkSeekable();
       if (position + SYNC_SIZE >= end) {
-        seek(end);
+        in.seek(end);
         return;
       }
 
@@ -893,7 +985,7 @@ public class WALFile {
       }
 
       try {
-        seek(position + 4);                         // skip escape
+        in.seek(position + 4);                      // skip escape
         in.readFully(syncCheck);
         int syncLen = sync.length;
         for (int i = 0; in.getPos() < end; i++) {
@@ -914,6 +1006,13 @@ public class WALFile {
       }
     }
 
+    private void checkSeekable() {
+      if (version >= COMPACT_VERSION) {
+        throw new UnsupportedOperationException(
+            "Cannot seek in " + filename + ", a compact WAL file must be read from the start");
+      }
+    }
+
     /**
      * Returns true iff the previous call to next passed a sync mark.
      */
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.wal;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+
+import io.confluent.connect.hdfs.FileUtils;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConstants;
+import io.confluent.connect.hdfs.filter.TopicPartitionCommittedFileFilter;
+import io.confluent.connect.hdfs.storage.Storage;
+
+/**
+ * Commits the files of a transaction replayed from a WAL. The files of a transaction are
+ * independent of each other, so they are committed concurrently; a transaction written by a wide
+ * partitioned writer can hold one file per directory, and committing them one after the other
+ * makes recovery take one NameNode round trip per file.
+ *
+ * <p>Temp files staged on the local disk of a worker, outside the storage, can be gone when the
+ * transaction is replayed, e.g. because the task moved to another worker. Such a file is lost if
+ * it was not committed either, and the other files of its transaction may be committed with
+ * higher offsets than some of its records. The replay reports the first offset of the lost files,
+ * so that the partition fails instead of resuming after those records.
+ */
+class WALReplay {
+
+  private static final Logger log = LoggerFactory.getLogger(WALReplay.class);
+  private static final int MAX_THREADS = 8;
+
+  /**
+   * Commits the files of a transaction and returns the first offset of the files that are lost,
+   * or -1 if there are none.
+   */
+  static long commit(Storage storage, Map<String, String> transaction, boolean optimisticCommit)
+      throws IOException {
+    long firstLostOffset = -1L;
+    Map<String, String> files = new LinkedHashMap<>();
+    for (Map.Entry<String, String> entry : transaction.entrySet()) {
+      long lostOffset = isStaged(storage, entry.getKey())
+                        ? lostOffset(storage, entry.getKey(), entry.getValue())
+                        : -1L;
+      if (lostOffset < 0) {
+        files.put(entry.getKey(), entry.getValue());
+        continue;
+      }
+      log.warn("Staged file {} of {} is lost, its records start at offset {}",
+               entry.getKey(), entry.getValue(), lostOffset);
+      if (firstLostOffset < 0 || lostOffset < firstLostOffset) {
+        firstLostOffset = lostOffset;
+      }
+    }
+    commitAll(storage, files, optimisticCommit);
+    return firstLostOffset;
+  }
+
+  /**
+   * Returns whether replaying a transaction would neither commit a file nor report a lost one:
+   * none of its temp files exist anymore, and each staged file that was not committed has had its
+   * records consumed again.
+   */
+  static boolean isCommitted(Storage storage, Map<String, String> transaction)
+      throws IOException {
+    for (Map.Entry<String, String> entry : transaction.entrySet()) {
+      if (storage.exists(entry.getKey())) {
+        return false;
+      }
+      if (isStaged(storage, entry.getKey())
+          && lostOffset(storage, entry.getKey(), entry.getValue()) >= 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void commitAll(final Storage storage, Map<String, String> transaction,
+                                final boolean optimisticCommit) throws IOException {
+    if (transaction.size() <= 1) {
+      for (Map.Entry<String, String> entry : transaction.entrySet()) {
+        commit(storage, entry.getKey(), entry.getValue(), optimisticCommit);
+      }
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.min(transaction.size(), MAX_THREADS), new ThreadFactory() {
+          private final AtomicInteger threads = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "hdfs-wal-replay-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+    try {
+      List<Future<Void>> commits = new ArrayList<>(transaction.size());
+      for (final Map.Entry<String, String> entry : transaction.entrySet()) {
+        commits.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            commit(storage, entry.getKey(), entry.getValue(), optimisticCommit);
+            return null;
+          }
+        }));
+      }
+      // Wait for all commits before reporting a failure, so that a retry does not race with them.
+      Throwable failure = null;
+      for (Future<Void> commit : commits) {
+        try {
+          commit.get();
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while committing replayed files");
+        }
+      }
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      } else if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      } else if (failure != null) {
+        throw new IOException(failure);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void commit(Storage storage, String tempFile, String committedFile,
+                             boolean optimisticCommit) throws IOException {
+    if (optimisticCommit || !storage.exists(committedFile)) {
+      storage.commit(tempFile, committedFile);
+    }
+  }
+
+  private static boolean isStaged(Storage storage, String tempFile) {
+    return !tempFile.startsWith(storage.url());
+  }
+
+  /**
+   * Returns the start offset of a committed file if neither it nor its temp file exists, and no
+   * committed file of its directory overlaps its offsets. An overlapping file holds the records
+   * consumed again after an earlier replay, or the compacted records of the file. Returns -1
+   * otherwise.
+   */
+  private static long lostOffset(Storage storage, String tempFile, String committedFile)
+      throws IOException {
+    Path committedPath = new Path(committedFile);
+    Matcher m = HdfsSinkConnectorConstants.COMMITTED_FILENAME_PATTERN.matcher(
+        committedPath.getName());
+    if (!m.matches() || storage.exists(tempFile) || storage.exists(committedPath)) {
+      return -1L;
+    }
+    TopicPartition tp = new TopicPartition(
+        m.group(HdfsSinkConnectorConstants.PATTERN_TOPIC_GROUP),
+        Integer.parseInt(m.group(HdfsSinkConnectorConstants.PATTERN_PARTITION_GROUP)));
+    long startOffset = FileUtils.extractStartOffset(committedPath.getName());
+    long endOffset = FileUtils.extractOffset(committedPath.getName());
+    Path directory = committedPath.getParent();
+    if (storage.exists(directory)) {
+      for (FileStatus status :
+          storage.listStatus(directory, new TopicPartitionCommittedFileFilter(tp))) {
+        String name = status.getPath().getName();
+        if (FileUtils.extractStartOffset(name) <= endOffset
+            && FileUtils.extractOffset(name) >= startOffset) {
+          return -1L;
+        }
+      }
+    }
+    return startOffset;
+  }
+}
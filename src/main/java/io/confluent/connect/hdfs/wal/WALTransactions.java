@@ -0,0 +1,64 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.wal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tracks the transactions appended to the WAL of a topic partition: the last complete transaction
+ * and the one being appended, if any. This is what a checkpoint has to carry over to the next
+ * log segment.
+ */
+class WALTransactions {
+
+  private Map<String, String> lastComplete = null;
+  private Map<String, String> open = null;
+  private int completedSinceCheckpoint = 0;
+
+  void record(String name, String value) {
+    if (name.equals(WAL.beginMarker)) {
+      open = new LinkedHashMap<>();
+    } else if (name.equals(WAL.endMarker)) {
+      if (open != null) {
+        lastComplete = open;
+        open = null;
+        ++completedSinceCheckpoint;
+      }
+    } else if (open != null) {
+      open.put(name, value);
+    }
+  }
+
+  void setLastComplete(Map<String, String> transaction) {
+    lastComplete = transaction;
+  }
+
+  Map<String, String> lastComplete() {
+    return lastComplete;
+  }
+
+  Map<String, String> open() {
+    return open;
+  }
+
+  int completedSinceCheckpoint() {
+    return completedSinceCheckpoint;
+  }
+
+  void checkpointed() {
+    completedSinceCheckpoint = 0;
+  }
+}
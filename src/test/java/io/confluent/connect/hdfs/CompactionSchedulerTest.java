@@ -0,0 +1,231 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.confluent.connect.hdfs.avro.AvroFileReader;
+import io.confluent.connect.hdfs.avro.AvroFormat;
+import io.confluent.connect.hdfs.filter.CommittedFileFilter;
+import io.confluent.connect.hdfs.filter.TopicPartitionCommittedFileFilter;
+import io.confluent.connect.hdfs.partitioner.TimeBasedPartitioner;
+import io.confluent.connect.hdfs.storage.HdfsStorage;
+import io.confluent.connect.hdfs.utils.MockTime;
+import io.confluent.connect.hdfs.wal.WAL;
+import io.confluent.connect.hdfs.wal.WALEntry;
+import io.confluent.connect.hdfs.wal.WALFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompactionSchedulerTest extends TestWithMiniDFSCluster {
+  private static final long PARTITION_DURATION_MS = 2000L;
+  private static final long RETRY_BACKOFF_MS = 500L;
+
+  private MockTime time;
+  private FailingStorage storage;
+  private TimeBasedPartitioner timePartitioner;
+  private CompactionScheduler scheduler;
+
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    connectorProps.put(HdfsSinkConnectorConfig.COMPACTION_WATERMARK_MS_CONFIG, "0");
+    connectorProps.put(HdfsSinkConnectorConfig.RETRY_BACKOFF_CONFIG, String.valueOf(RETRY_BACKOFF_MS));
+    configureConnector();
+    schemaFileReader = new AvroFileReader(avroData);
+    extension = ".avro";
+
+    // The start of a time partition.
+    time = new MockTime(1500000000000L);
+    Map<String, Object> config = new HashMap<>();
+    config.put(HdfsSinkConnectorConfig.PARTITION_DURATION_MS_CONFIG, PARTITION_DURATION_MS);
+    config.put(HdfsSinkConnectorConfig.PATH_FORMAT_CONFIG, "'time'=YYYYMMddHHmmss/");
+    config.put(HdfsSinkConnectorConfig.LOCALE_CONFIG, "en");
+    config.put(HdfsSinkConnectorConfig.TIMEZONE_CONFIG, "UTC");
+    timePartitioner = new TimeBasedPartitioner();
+    timePartitioner.configure(config);
+    timePartitioner.setTime(time);
+    storage = new FailingStorage();
+    scheduler = new CompactionScheduler(connectorConfig, storage, new AvroFormat(), timePartitioner,
+                                        time);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    scheduler.close();
+    storage.close();
+    super.tearDown();
+  }
+
+  @Test
+  public void testMergeCommitsBetweenTransactions() throws Exception {
+    CompactionScheduler.TopicPartitionCompaction compaction =
+        scheduler.forPartition(TOPIC_PARTITION);
+    TopicPartitionWriter writer = new TopicPartitionWriter(
+        TOPIC_PARTITION, storage, new AvroFormat().getRecordWriterProvider(), timePartitioner,
+        connectorConfig, context, avroData, null, null, schemaFileReader, null, null, compaction,
+        time);
+    String first = currentDirectory();
+    write(writer, createSinkRecords(9));
+    assertEquals(3, committedFiles(first).size());
+
+    // Once the partition is closed, its files are merged in the background.
+    time.advance(PARTITION_DURATION_MS);
+    String second = currentDirectory();
+    write(writer, Collections.<SinkRecord>emptyList());
+    awaitMerge(compaction);
+
+    // A transaction whose files fail to commit keeps the merge from being committed.
+    storage.failCommits(second, 2);
+    write(writer, createSinkRecords(3, 9));
+    assertTrue(compaction.isMergeDone());
+    assertEquals(3, committedFiles(first).size());
+    assertEquals(0, committedFiles(second).size());
+    List<List<String>> transactions = Arrays.asList(
+        files(0, 2), files(3, 5), files(6, 8), files(9, 11), files(9, 11));
+    assertEquals(transactions, walTransactions());
+
+    // The merge is committed once the transaction is, and a failed commit of the merge is
+    // retried before anything else is written.
+    storage.failCommits(first, 1);
+    time.advance(RETRY_BACKOFF_MS);
+    write(writer, Collections.<SinkRecord>emptyList());
+    assertTrue(compaction.isCommitting());
+    assertEquals(3, committedFiles(first).size());
+    assertEquals(1, committedFiles(second).size());
+    transactions = new ArrayList<>(transactions);
+    transactions.add(files(9, 11));
+    transactions.add(files(0, 8));
+    assertEquals(transactions, walTransactions());
+
+    time.advance(RETRY_BACKOFF_MS);
+    write(writer, Collections.<SinkRecord>emptyList());
+    assertFalse(compaction.isCommitting());
+    List<FileStatus> merged = committedFiles(first);
+    assertEquals(1, merged.size());
+    assertEquals(files(0, 8).get(0), merged.get(0).getPath().getName());
+    assertEquals(9, schemaFileReader.readData(conf, merged.get(0).getPath()).size());
+    transactions.add(files(0, 8));
+    assertEquals(transactions, walTransactions());
+    writer.close();
+
+    writer = new TopicPartitionWriter(
+        TOPIC_PARTITION, storage, new AvroFormat().getRecordWriterProvider(), timePartitioner,
+        connectorConfig, context, avroData);
+    writer.recover();
+    assertEquals(12L, (long) context.offsets().get(TOPIC_PARTITION));
+    writer.close();
+  }
+
+  private void write(TopicPartitionWriter writer, List<SinkRecord> records) {
+    for (SinkRecord record : records) {
+      writer.buffer(record);
+    }
+    writer.write();
+  }
+
+  private void awaitMerge(CompactionScheduler.TopicPartitionCompaction compaction)
+      throws InterruptedException {
+    for (int i = 0; i < 300 && !compaction.isMergeDone(); ++i) {
+      Thread.sleep(100);
+    }
+    assertTrue(compaction.isMergeDone());
+  }
+
+  private String currentDirectory() {
+    return timePartitioner.generatePartitionedPath(TOPIC, timePartitioner.encodePartition(null));
+  }
+
+  private List<FileStatus> committedFiles(String directory) throws IOException {
+    Path path = new Path(FileUtils.directoryName(url, topicsDir, directory));
+    if (!fs.exists(path)) {
+      return new ArrayList<>();
+    }
+    return Arrays.asList(fs.listStatus(path, new TopicPartitionCommittedFileFilter(TOPIC_PARTITION)));
+  }
+
+  private List<String> files(long startOffset, long endOffset) {
+    return Collections.singletonList(
+        new Path(FileUtils.committedFileName(url, topicsDir, "", TOPIC_PARTITION, startOffset,
+                                             endOffset, extension, zeroPadFormat)).getName());
+  }
+
+  /**
+   * Returns the committed files of each transaction in the WAL, in order.
+   */
+  private List<List<String>> walTransactions() throws IOException {
+    Path logFile = new Path(FileUtils.logFileName(url, logsDir, TOPIC_PARTITION));
+    CommittedFileFilter filter = new CommittedFileFilter();
+    List<List<String>> transactions = new ArrayList<>();
+    List<String> transaction = null;
+    try (WALFile.Reader reader = new WALFile.Reader(conf, WALFile.Reader.file(logFile))) {
+      WALEntry key = new WALEntry();
+      WALEntry value = new WALEntry();
+      while (reader.next(key, value)) {
+        if (key.getName().equals(WAL.beginMarker)) {
+          transaction = new ArrayList<>();
+        } else if (key.getName().equals(WAL.endMarker)) {
+          transactions.add(transaction);
+        } else if (filter.accept(new Path(value.getName()))) {
+          transaction.add(new Path(value.getName()).getName());
+        }
+      }
+    }
+    return transactions;
+  }
+
+  /**
+   * Fails a number of commits to a partition directory.
+   */
+  private class FailingStorage extends HdfsStorage {
+    private Path failDirectory;
+    private int failures;
+
+    FailingStorage() throws IOException {
+      super(conf, url);
+    }
+
+    synchronized void failCommits(String directory, int failures) {
+      this.failDirectory = new Path(FileUtils.directoryName(url, topicsDir, directory));
+      this.failures = failures;
+    }
+
+    @Override
+    public void commit(String tempFile, String committedFile) throws IOException {
+      synchronized (this) {
+        if (failures > 0 && new Path(committedFile).getParent().equals(failDirectory)) {
+          --failures;
+          throw new IOException("Failed to commit " + committedFile);
+        }
+      }
+      super.commit(tempFile, committedFile);
+    }
+  }
+}
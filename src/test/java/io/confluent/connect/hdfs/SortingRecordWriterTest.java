@@ -0,0 +1,229 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs;
+
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.confluent.connect.avro.AvroData;
+import io.confluent.connect.hdfs.avro.AvroRecordWriterProvider;
+import io.confluent.connect.hdfs.errors.IncompleteFileException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SortingRecordWriterTest {
+
+  private static final Schema SCHEMA = SchemaBuilder.struct().name("record").version(1)
+      .field("id", Schema.INT32_SCHEMA)
+      .field("name", Schema.OPTIONAL_STRING_SCHEMA)
+      .build();
+  private static final int[] IDS = {3, 1, 2, 1, 3};
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final AvroData avroData = new AvroData(100);
+
+  @Test
+  public void testSortInMemory() throws Exception {
+    verifySorted(100);
+  }
+
+  @Test
+  public void testSortWithSpilledRuns() throws Exception {
+    verifySorted(2);
+    assertEquals(0, new File(folder.getRoot(), "sort").list().length);
+  }
+
+  @Test
+  public void testSpilledRunsThroughAvroWriter() throws Exception {
+    Schema inner = SchemaBuilder.struct().name("inner").optional()
+        .field("tag", Schema.STRING_SCHEMA)
+        .build();
+    Schema schema = SchemaBuilder.struct().name("nested").version(2)
+        .field("id", Schema.INT32_SCHEMA)
+        .field("name", SchemaBuilder.string().optional().defaultValue("none").build())
+        .field("tags", SchemaBuilder.array(Schema.STRING_SCHEMA).build())
+        .field("inner", inner)
+        .build();
+    List<SinkRecord> records = new ArrayList<>();
+    for (int i = 0; i < IDS.length; ++i) {
+      Struct value = new Struct(schema)
+          .put("id", IDS[i])
+          .put("name", "name" + i)
+          .put("tags", Arrays.asList("tag" + i))
+          .put("inner", new Struct(inner).put("tag", "inner" + i));
+      records.add(new SinkRecord("topic", 12, null, null, schema, value, i));
+    }
+    File file = new File(folder.getRoot(), "sorted.avro");
+    RecordWriter<SinkRecord> writer = SortingRecordWriter.wrap(
+        new AvroRecordWriterProvider().getRecordWriter(
+            new Configuration(), file.toURI().toString(), records.get(0), avroData),
+        Collections.singletonList("id"), 2, new File(folder.getRoot(), "sort"), avroData,
+        records.get(0));
+    for (SinkRecord record : records) {
+      writer.write(record);
+    }
+    writer.close();
+
+    long[] offsets = {1, 3, 2, 0, 4};
+    List<GenericRecord> written = new ArrayList<>();
+    try (DataFileReader<GenericRecord> reader =
+             new DataFileReader<>(file, new GenericDatumReader<GenericRecord>())) {
+      for (GenericRecord record : reader) {
+        written.add(record);
+      }
+    }
+    assertEquals(offsets.length, written.size());
+    for (int i = 0; i < offsets.length; ++i) {
+      GenericRecord record = written.get(i);
+      assertEquals(IDS[(int) offsets[i]], record.get("id"));
+      assertEquals("name" + offsets[i], record.get("name").toString());
+      assertEquals("inner" + offsets[i], ((GenericRecord) record.get("inner")).get("tag").toString());
+    }
+  }
+
+  @Test
+  public void testRetryCloseAfterFailedUnderlyingClose() throws Exception {
+    CollectingWriter collected = new CollectingWriter();
+    collected.closeFailures = 1;
+    RecordWriter<SinkRecord> writer = wrapAndWrite(collected, 2);
+    try {
+      writer.close();
+      fail("The first close should fail");
+    } catch (IOException e) {
+      // expected
+    }
+    writer.close();
+
+    assertEquals(1, collected.closed);
+    assertEquals(IDS.length, collected.records.size());
+    assertEquals(0, new File(folder.getRoot(), "sort").list().length);
+  }
+
+  @Test
+  public void testRetryCloseAfterFailedWriteFails() throws Exception {
+    CollectingWriter collected = new CollectingWriter();
+    collected.writeFailures = 1;
+    RecordWriter<SinkRecord> writer = wrapAndWrite(collected, 2);
+    for (int attempt = 0; attempt < 2; ++attempt) {
+      try {
+        writer.close();
+        fail("Closing after records were partly written should fail");
+      } catch (IncompleteFileException e) {
+        // expected
+      }
+    }
+    // The underlying writer is released, and its partial file is left to the caller to discard.
+    assertEquals(1, collected.closed);
+    assertEquals(0, new File(folder.getRoot(), "sort").list().length);
+  }
+
+  @Test
+  public void testUnsortedWithoutSortFields() throws Exception {
+    CollectingWriter collected = new CollectingWriter();
+    RecordWriter<SinkRecord> writer = SortingRecordWriter.wrap(
+        collected, Collections.singletonList("missing"), 100, folder.getRoot(), avroData,
+        createRecord(0, 1));
+    assertSame(collected, writer);
+  }
+
+  private void verifySorted(int maxRecords) throws Exception {
+    CollectingWriter collected = new CollectingWriter();
+    List<SinkRecord> records = new ArrayList<>();
+    for (int i = 0; i < IDS.length; ++i) {
+      records.add(createRecord(i, IDS[i]));
+    }
+    RecordWriter<SinkRecord> writer = SortingRecordWriter.wrap(
+        collected, Arrays.asList("id", "missing"), maxRecords, new File(folder.getRoot(), "sort"),
+        avroData, records.get(0));
+    ((BatchRecordWriter<SinkRecord>) writer).writeAll(records.subList(0, 2));
+    for (SinkRecord record : records.subList(2, records.size())) {
+      writer.write(record);
+    }
+    assertEquals(0, collected.records.size());
+    writer.close();
+
+    assertEquals(1, collected.closed);
+    long[] offsets = {1, 3, 2, 0, 4};
+    assertEquals(offsets.length, collected.records.size());
+    for (int i = 0; i < offsets.length; ++i) {
+      SinkRecord record = collected.records.get(i);
+      assertEquals(offsets[i], record.kafkaOffset());
+      Struct value = (Struct) record.value();
+      assertEquals(IDS[(int) offsets[i]], (int) value.getInt32("id"));
+      assertEquals("name" + offsets[i], value.getString("name"));
+    }
+  }
+
+  private RecordWriter<SinkRecord> wrapAndWrite(CollectingWriter collected, int maxRecords)
+      throws IOException {
+    RecordWriter<SinkRecord> writer = SortingRecordWriter.wrap(
+        collected, Collections.singletonList("id"), maxRecords, new File(folder.getRoot(), "sort"),
+        avroData, createRecord(0, IDS[0]));
+    for (int i = 0; i < IDS.length; ++i) {
+      writer.write(createRecord(i, IDS[i]));
+    }
+    return writer;
+  }
+
+  private static SinkRecord createRecord(long offset, int id) {
+    Struct value = new Struct(SCHEMA).put("id", id).put("name", "name" + offset);
+    return new SinkRecord("topic", 12, Schema.STRING_SCHEMA, "key", SCHEMA, value, offset);
+  }
+
+  private static class CollectingWriter implements RecordWriter<SinkRecord> {
+    private final List<SinkRecord> records = new ArrayList<>();
+    private int closed = 0;
+    private int writeFailures = 0;
+    private int closeFailures = 0;
+
+    @Override
+    public void write(SinkRecord value) throws IOException {
+      if (writeFailures > 0) {
+        --writeFailures;
+        throw new IOException("Failed to write " + value.kafkaOffset());
+      }
+      records.add(value);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closeFailures > 0) {
+        --closeFailures;
+        throw new IOException("Failed to close");
+      }
+      ++closed;
+    }
+  }
+}
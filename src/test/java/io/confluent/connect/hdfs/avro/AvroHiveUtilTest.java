@@ -132,6 +132,31 @@ public class AvroHiveUtilTest extends HiveTestBase {
     }
   }
 
+  @Test
+  public void testApplySchemaSkipsAppliedSchema() throws Exception {
+    Partitioner partitioner = HiveTestUtils.getPartitioner();
+    Schema schema = createSchema();
+    Schema newSchema = createNewSchema();
+    String schemaLiteral = avroData.fromConnectSchema(schema).toString();
+    String newSchemaLiteral = avroData.fromConnectSchema(newSchema).toString();
+
+    hive.applySchema(hiveDatabase, TOPIC, schema, partitioner);
+    Table table = hiveMetaStore.getTable(hiveDatabase, TOPIC);
+    assertEquals(schemaLiteral, table.getParameters().get("avro.schema.literal"));
+
+    // Another partition applying the same schema does not go to the metastore, so it does not
+    // undo a change made behind the back of the task.
+    hive.alterSchema(hiveDatabase, TOPIC, newSchema);
+    hive.applySchema(hiveDatabase, TOPIC, schema, partitioner);
+    table = hiveMetaStore.getTable(hiveDatabase, TOPIC);
+    assertEquals(newSchemaLiteral, table.getParameters().get("avro.schema.literal"));
+
+    hive.applySchema(hiveDatabase, TOPIC, newSchema, partitioner);
+    hive.applySchema(hiveDatabase, TOPIC, schema, partitioner);
+    table = hiveMetaStore.getTable(hiveDatabase, TOPIC);
+    assertEquals(schemaLiteral, table.getParameters().get("avro.schema.literal"));
+  }
+
   private void prepareData(String topic, int partition) throws Exception {
     TopicPartition tp = new TopicPartition(topic, partition);
     DataWriter hdfsWriter = createWriter(context, avroData);
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.avro;
+
+import org.apache.kafka.connect.data.Date;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.Test;
+
+import io.confluent.connect.avro.AvroData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class AvroRecordConverterTest {
+
+  private final AvroData avroData = new AvroData(10);
+
+  @Test
+  public void testFlatStructReusesRecord() {
+    Schema schema = SchemaBuilder.struct().name("record")
+        .field("byte", Schema.INT8_SCHEMA)
+        .field("short", Schema.INT16_SCHEMA)
+        .field("int", Schema.INT32_SCHEMA)
+        .field("bytes", Schema.BYTES_SCHEMA)
+        .field("string", Schema.OPTIONAL_STRING_SCHEMA)
+        .field("long", SchemaBuilder.int64().defaultValue(7L).build())
+        .build();
+    AvroRecordConverter converter =
+        new AvroRecordConverter(avroData, schema, avroData.fromConnectSchema(schema));
+
+    Struct first = new Struct(schema).put("byte", (byte) 1).put("short", (short) 2).put("int", 3)
+        .put("bytes", new byte[]{4}).put("string", "five").put("long", 6L);
+    Struct second = new Struct(schema).put("byte", (byte) -1).put("short", (short) -2)
+        .put("int", -3).put("bytes", new byte[]{-4});
+
+    Object converted = converter.convert(first);
+    assertEquals(avroData.fromConnectData(schema, first), converted);
+    assertSame(converted, converter.convert(second));
+    assertEquals(avroData.fromConnectData(schema, second), converted);
+  }
+
+  @Test
+  public void testOtherSchemasUseAvroData() {
+    Schema schema = SchemaBuilder.struct().name("record")
+        .field("int", Schema.INT32_SCHEMA)
+        .field("date", Date.SCHEMA)
+        .build();
+    AvroRecordConverter converter =
+        new AvroRecordConverter(avroData, schema, avroData.fromConnectSchema(schema));
+    Struct value = new Struct(schema).put("int", 1).put("date", new java.util.Date(0L));
+
+    Object converted = converter.convert(value);
+    assertEquals(avroData.fromConnectData(schema, value), converted);
+    assertNotSame(converted, converter.convert(value));
+  }
+
+  @Test
+  public void testPrimitiveValues() {
+    AvroRecordConverter converter = new AvroRecordConverter(
+        avroData, Schema.INT16_SCHEMA, avroData.fromConnectSchema(Schema.INT16_SCHEMA));
+    assertEquals(12, converter.convert((short) 12));
+
+    converter = new AvroRecordConverter(
+        avroData, Schema.STRING_SCHEMA, avroData.fromConnectSchema(Schema.STRING_SCHEMA));
+    assertEquals("value", converter.convert("value"));
+  }
+}
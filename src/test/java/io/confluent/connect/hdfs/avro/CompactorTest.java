@@ -0,0 +1,102 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.avro;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import io.confluent.connect.hdfs.Compactor;
+import io.confluent.connect.hdfs.DataWriter;
+import io.confluent.connect.hdfs.FileUtils;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+import io.confluent.connect.hdfs.TestWithMiniDFSCluster;
+import io.confluent.connect.hdfs.storage.Storage;
+import io.confluent.connect.hdfs.storage.StorageFactory;
+import io.confluent.connect.hdfs.wal.WAL;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompactorTest extends TestWithMiniDFSCluster {
+
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    schemaFileReader = new AvroFileReader(avroData);
+    extension = ".avro";
+  }
+
+  @Test
+  public void testCompact() throws Exception {
+    List<SinkRecord> sinkRecords = writeRecords();
+
+    assertEquals(2, compact(0L));
+    verify(sinkRecords.subList(0, 9), new long[]{0, 9});
+
+    // The merged file keeps the offset the next task recovers from.
+    DataWriter hdfsWriter = new DataWriter(connectorConfig, context, avroData);
+    hdfsWriter.recover(TOPIC_PARTITION);
+    Map<TopicPartition, Long> offsets = context.offsets();
+    assertEquals(9L, (long) offsets.get(TOPIC_PARTITION));
+    hdfsWriter.write(createSinkRecords(3, 9));
+    hdfsWriter.close(assignment);
+    hdfsWriter.stop();
+
+    verifyFileListing(new long[]{0, 9, 12}, Collections.singleton(TOPIC_PARTITION));
+  }
+
+  @Test
+  public void testCompactWithinMaxFileSize() throws Exception {
+    List<SinkRecord> sinkRecords = writeRecords();
+    String firstFile = FileUtils.committedFileName(url, topicsDir, getDirectory(), TOPIC_PARTITION,
+                                                   0, 2, extension, zeroPadFormat);
+    long fileSize = fs.getFileStatus(new Path(firstFile)).getLen();
+
+    assertEquals(1, compact(2 * fileSize));
+    verify(sinkRecords.subList(0, 9), new long[]{0, 6, 9});
+  }
+
+  private List<SinkRecord> writeRecords() {
+    DataWriter hdfsWriter = new DataWriter(connectorConfig, context, avroData);
+    hdfsWriter.recover(TOPIC_PARTITION);
+    List<SinkRecord> sinkRecords = createSinkRecords(10);
+    hdfsWriter.write(sinkRecords);
+    hdfsWriter.close(assignment);
+    hdfsWriter.stop();
+    return sinkRecords;
+  }
+
+  private int compact(long maxFileSize) throws Exception {
+    @SuppressWarnings("unchecked")
+    Class<? extends Storage> storageClass = (Class<? extends Storage>)
+        Class.forName(connectorConfig.getString(HdfsSinkConnectorConfig.STORAGE_CLASS_CONFIG));
+    Storage storage = StorageFactory.createStorage(storageClass, conf, url);
+    Compactor compactor = new Compactor(connectorConfig, storage, new AvroFileMerger(), extension,
+                                        maxFileSize);
+    WAL wal = storage.wal(logsDir, TOPIC_PARTITION);
+    try {
+      wal.apply();
+      return compactor.compact(wal, TOPIC_PARTITION, getDirectory());
+    } finally {
+      wal.close();
+    }
+  }
+}
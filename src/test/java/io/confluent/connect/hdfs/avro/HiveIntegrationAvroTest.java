@@ -26,8 +26,10 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import io.confluent.connect.hdfs.DataWriter;
@@ -101,6 +103,94 @@ public class HiveIntegrationAvroTest extends HiveTestBase {
     hdfsWriter.stop();
   }
 
+  @Test
+  public void testSyncWithHiveAddsMissingPartitions() throws Exception {
+    DataWriter hdfsWriter = new DataWriter(connectorConfig, context, avroData);
+    hdfsWriter.recover(TOPIC_PARTITION);
+    hdfsWriter.recover(TOPIC_PARTITION2);
+
+    String key = "key";
+    Schema schema = createSchema();
+    Struct record = createRecord(schema);
+
+    Collection<SinkRecord> sinkRecords = new ArrayList<>();
+    for (long offset = 0; offset < 3; offset++) {
+      sinkRecords.add(new SinkRecord(TOPIC, PARTITION, Schema.STRING_SCHEMA, key, schema, record, offset));
+      sinkRecords.add(new SinkRecord(TOPIC, PARTITION2, Schema.STRING_SCHEMA, key, schema, record, offset));
+    }
+
+    hdfsWriter.write(sinkRecords);
+    hdfsWriter.close(assignment);
+    hdfsWriter.stop();
+
+    Map<String, String> props = createProps();
+    props.put(HdfsSinkConnectorConfig.HIVE_INTEGRATION_CONFIG, "true");
+    HdfsSinkConnectorConfig config = new HdfsSinkConnectorConfig(props);
+
+    hdfsWriter = new DataWriter(config, context, avroData);
+    hdfsWriter.syncWithHive();
+    hdfsWriter.close(assignment);
+    hdfsWriter.stop();
+
+    // A partition dropped from the table is added back by the next sync.
+    hiveMetaStore.dropPartition(hiveDatabase, TOPIC, "partition=" + PARTITION2);
+    assertEquals(1, hiveMetaStore.listPartitionNames(hiveDatabase, TOPIC).size());
+
+    hdfsWriter = new DataWriter(config, context, avroData);
+    hdfsWriter.syncWithHive();
+
+    Set<String> expectedPartitions = new HashSet<>();
+    expectedPartitions.add(FileUtils.directoryName(url, topicsDir, TOPIC + "/partition=" + PARTITION));
+    expectedPartitions.add(FileUtils.directoryName(url, topicsDir, TOPIC + "/partition=" + PARTITION2));
+    assertEquals(expectedPartitions,
+                 new HashSet<>(hiveMetaStore.listPartitions(hiveDatabase, TOPIC, (short) -1)));
+
+    hdfsWriter.close(assignment);
+    hdfsWriter.stop();
+  }
+
+  @Test
+  public void testBackgroundSyncWithHive() throws Exception {
+    DataWriter hdfsWriter = new DataWriter(connectorConfig, context, avroData);
+    hdfsWriter.recover(TOPIC_PARTITION);
+
+    String key = "key";
+    Schema schema = createSchema();
+    Struct record = createRecord(schema);
+
+    Collection<SinkRecord> sinkRecords = new ArrayList<>();
+    for (long offset = 0; offset < 7; offset++) {
+      sinkRecords.add(new SinkRecord(TOPIC, PARTITION, Schema.STRING_SCHEMA, key, schema, record, offset));
+    }
+    hdfsWriter.write(sinkRecords);
+    hdfsWriter.close(assignment);
+    hdfsWriter.stop();
+
+    Map<String, String> props = createProps();
+    props.put(HdfsSinkConnectorConfig.HIVE_INTEGRATION_CONFIG, "true");
+    HdfsSinkConnectorConfig config = new HdfsSinkConnectorConfig(props);
+
+    // Records are written while the table is synced, and the writer's Hive updates are applied
+    // after the sync.
+    hdfsWriter = new DataWriter(config, context, avroData);
+    hdfsWriter.startHiveSync();
+    hdfsWriter.recover(TOPIC_PARTITION);
+    sinkRecords.clear();
+    for (long offset = 7; offset < 14; offset++) {
+      sinkRecords.add(new SinkRecord(TOPIC, PARTITION, Schema.STRING_SCHEMA, key, schema, record, offset));
+    }
+    hdfsWriter.write(sinkRecords);
+    hdfsWriter.close(assignment);
+    hdfsWriter.stop();
+
+    Table table = hiveMetaStore.getTable(hiveDatabase, TOPIC);
+    assertEquals(schema.fields().size(), table.getSd().getCols().size());
+
+    List<String> expectedPartitions = new ArrayList<>();
+    expectedPartitions.add(FileUtils.directoryName(url, topicsDir, TOPIC + "/partition=" + PARTITION));
+    assertEquals(expectedPartitions, hiveMetaStore.listPartitions(hiveDatabase, TOPIC, (short) -1));
+  }
+
   @Test
   public void testHiveIntegrationAvro() throws Exception {
     Map<String, String> props = createProps();
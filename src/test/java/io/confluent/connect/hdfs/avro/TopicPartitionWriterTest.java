@@ -14,6 +14,7 @@
 
 package io.confluent.connect.hdfs.avro;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.Path;
 import org.apache.kafka.connect.data.Schema;
@@ -24,6 +25,7 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -33,25 +35,32 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
+import io.confluent.connect.avro.AvroData;
+import io.confluent.connect.hdfs.BatchRecordWriter;
 import io.confluent.connect.hdfs.FileUtils;
 import io.confluent.connect.hdfs.Format;
 import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+import io.confluent.connect.hdfs.RecordWriter;
 import io.confluent.connect.hdfs.RecordWriterProvider;
 import io.confluent.connect.hdfs.TestWithMiniDFSCluster;
 import io.confluent.connect.hdfs.TopicPartitionWriter;
+import io.confluent.connect.hdfs.errors.BatchWriteException;
 import io.confluent.connect.hdfs.filter.CommittedFileFilter;
 import io.confluent.connect.hdfs.partitioner.DefaultPartitioner;
 import io.confluent.connect.hdfs.partitioner.FieldPartitioner;
 import io.confluent.connect.hdfs.partitioner.Partitioner;
 import io.confluent.connect.hdfs.partitioner.TimeBasedPartitioner;
 import io.confluent.connect.hdfs.partitioner.TimeUtils;
+import io.confluent.connect.hdfs.storage.HdfsStorage;
 import io.confluent.connect.hdfs.storage.Storage;
 import io.confluent.connect.hdfs.storage.StorageFactory;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class TopicPartitionWriterTest extends TestWithMiniDFSCluster {
+  private static final String DIRECTORY = TOPIC + "/partition=" + PARTITION;
   private RecordWriterProvider writerProvider;
   private Storage storage;
 
@@ -151,6 +160,169 @@ public class TopicPartitionWriterTest extends TestWithMiniDFSCluster {
     verify(expectedFiles, expectedBatchSize, records, schema);
   }
 
+  @Test
+  public void testWriteRecordFieldPartitionerWithMaxOpenWriters() throws Exception {
+    connectorProps.put(HdfsSinkConnectorConfig.FLUSH_SIZE_CONFIG, "6");
+    connectorProps.put(HdfsSinkConnectorConfig.MAX_OPEN_WRITERS_CONFIG, "2");
+    configureConnector();
+    Map<String, Object> config = createConfig();
+    Partitioner partitioner = new FieldPartitioner();
+    partitioner.configure(config);
+
+    String partitionField = (String) config.get(HdfsSinkConnectorConfig.PARTITION_FIELD_NAME_CONFIG);
+
+    TopicPartitionWriter topicPartitionWriter = new TopicPartitionWriter(
+        TOPIC_PARTITION, storage, writerProvider, partitioner, connectorConfig, context, avroData);
+
+    Schema schema = createSchema();
+    List<Struct> records = new ArrayList<>();
+    for (int j = 0; j < 2; ++j) {
+      for (int i = 16; i < 19; ++i) {
+        records.add(createRecord(schema, i, 12.2f));
+      }
+    }
+    for (SinkRecord record : createSinkRecords(records, schema)) {
+      topicPartitionWriter.buffer(record);
+    }
+
+    topicPartitionWriter.recover();
+    topicPartitionWriter.write();
+    topicPartitionWriter.close();
+
+    // Every record needs a third file, so the least recently written one is closed each time and
+    // each file holds a single record. All of them are committed by the same rotation.
+    Set<Path> expectedFiles = new HashSet<>();
+    for (long offset = 0; offset < 6; ++offset) {
+      String directory = partitioner.generatePartitionedPath(
+          TOPIC, partitionField + "=" + String.valueOf(16 + offset % 3));
+      expectedFiles.add(new Path(FileUtils.committedFileName(
+          url, topicsDir, directory, TOPIC_PARTITION, offset, offset, extension, zeroPadFormat)));
+    }
+    Path path = new Path(FileUtils.topicDirectory(url, topicsDir, TOPIC));
+    FileStatus[] statuses = FileUtils.traverse(storage, path, new CommittedFileFilter());
+    assertEquals(expectedFiles.size(), statuses.length);
+    for (FileStatus status : statuses) {
+      assertTrue(expectedFiles.contains(status.getPath()));
+      assertEquals(1, schemaFileReader.readData(conf, status.getPath()).size());
+    }
+  }
+
+  @Test
+  public void testCloseKeepsClosedFilesRecordedInWAL() throws Exception {
+    connectorProps.put(HdfsSinkConnectorConfig.FLUSH_SIZE_CONFIG, "6");
+    connectorProps.put(HdfsSinkConnectorConfig.MAX_OPEN_WRITERS_CONFIG, "2");
+    configureConnector();
+    Map<String, Object> config = createConfig();
+    Partitioner partitioner = new FieldPartitioner();
+    partitioner.configure(config);
+
+    String partitionField = (String) config.get(HdfsSinkConnectorConfig.PARTITION_FIELD_NAME_CONFIG);
+    final Path failedFile = committedPath(
+        partitioner.generatePartitionedPath(TOPIC, partitionField + "=17"), 1, 1);
+    // Fails the commit of the second closed file, and of its retry, after the WAL is appended.
+    Storage failingStorage = new HdfsStorage(conf, url) {
+      private int failures = 2;
+
+      @Override
+      public void commit(String tempFile, String committedFile) throws IOException {
+        if (failures > 0 && new Path(committedFile).equals(failedFile)) {
+          --failures;
+          throw new IOException("Failed to commit " + committedFile);
+        }
+        super.commit(tempFile, committedFile);
+      }
+    };
+    TopicPartitionWriter topicPartitionWriter = new TopicPartitionWriter(
+        TOPIC_PARTITION, failingStorage, writerProvider, partitioner, connectorConfig, context,
+        avroData);
+
+    Schema schema = createSchema();
+    List<Struct> records = new ArrayList<>();
+    for (int j = 0; j < 2; ++j) {
+      for (int i = 16; i < 19; ++i) {
+        records.add(createRecord(schema, i, 12.2f));
+      }
+    }
+    for (SinkRecord record : createSinkRecords(records, schema)) {
+      topicPartitionWriter.buffer(record);
+    }
+    topicPartitionWriter.recover();
+    topicPartitionWriter.write();
+    topicPartitionWriter.close();
+    assertFalse(storage.exists(failedFile.toString()));
+
+    // The closed files left behind are committed when the WAL is replayed.
+    topicPartitionWriter = new TopicPartitionWriter(
+        TOPIC_PARTITION, storage, writerProvider, partitioner, connectorConfig, context, avroData);
+    topicPartitionWriter.recover();
+    topicPartitionWriter.close();
+
+    Set<Path> expectedFiles = new HashSet<>();
+    for (long offset = 0; offset < 6; ++offset) {
+      String directory = partitioner.generatePartitionedPath(
+          TOPIC, partitionField + "=" + String.valueOf(16 + offset % 3));
+      expectedFiles.add(committedPath(directory, offset, offset));
+    }
+    assertCommittedFiles(expectedFiles);
+    assertEquals(6, topicPartitionWriter.offset());
+  }
+
+  @Test
+  public void testWriteRecordFieldPartitionerWithEncodedPartitionRotation() throws Exception {
+    connectorProps.put(HdfsSinkConnectorConfig.FLUSH_SIZE_CONFIG, "3");
+    connectorProps.put(HdfsSinkConnectorConfig.ROTATE_INTERVAL_MS_CONFIG, "3600000");
+    connectorProps.put(HdfsSinkConnectorConfig.ROTATION_SCOPE_CONFIG,
+                       HdfsSinkConnectorConfig.ROTATION_SCOPE_ENCODED_PARTITION);
+    configureConnector();
+    Map<String, Object> config = createConfig();
+    Partitioner partitioner = new FieldPartitioner();
+    partitioner.configure(config);
+
+    String partitionField = (String) config.get(HdfsSinkConnectorConfig.PARTITION_FIELD_NAME_CONFIG);
+
+    TopicPartitionWriter topicPartitionWriter = new TopicPartitionWriter(
+        TOPIC_PARTITION, storage, writerProvider, partitioner, connectorConfig, context, avroData);
+
+    Schema schema = createSchema();
+    int[] values = {16, 16, 16, 17, 16, 16, 16};
+    List<Struct> records = new ArrayList<>();
+    for (int value : values) {
+      records.add(createRecord(schema, value, 12.2f));
+    }
+    for (SinkRecord record : createSinkRecords(records, schema)) {
+      topicPartitionWriter.buffer(record);
+    }
+
+    topicPartitionWriter.recover();
+    topicPartitionWriter.write();
+
+    // The second file of 16 is closed, but the file of 17 is still open with an earlier record.
+    String directory16 = partitioner.generatePartitionedPath(TOPIC, partitionField + "=16");
+    String directory17 = partitioner.generatePartitionedPath(TOPIC, partitionField + "=17");
+    Set<Path> expectedFiles = new HashSet<>();
+    expectedFiles.add(new Path(FileUtils.committedFileName(
+        url, topicsDir, directory16, TOPIC_PARTITION, 0, 2, extension, zeroPadFormat)));
+    assertCommittedFiles(expectedFiles);
+    assertEquals(3, topicPartitionWriter.offset());
+
+    records.clear();
+    records.add(createRecord(schema, 17, 12.2f));
+    records.add(createRecord(schema, 17, 12.2f));
+    for (SinkRecord record : createSinkRecords(records, schema, values.length,
+                                               Collections.singleton(TOPIC_PARTITION))) {
+      topicPartitionWriter.buffer(record);
+    }
+    topicPartitionWriter.write();
+    topicPartitionWriter.close();
+
+    expectedFiles.add(new Path(FileUtils.committedFileName(
+        url, topicsDir, directory16, TOPIC_PARTITION, 4, 6, extension, zeroPadFormat)));
+    expectedFiles.add(new Path(FileUtils.committedFileName(
+        url, topicsDir, directory17, TOPIC_PARTITION, 3, 8, extension, zeroPadFormat)));
+    assertCommittedFiles(expectedFiles);
+    assertEquals(9, topicPartitionWriter.offset());
+  }
+
   @Test
   public void testWriteRecordTimeBasedPartition() throws Exception {
     Map<String, Object> config = createConfig();
@@ -192,6 +364,166 @@ public class TopicPartitionWriterTest extends TestWithMiniDFSCluster {
     verify(expectedFiles, expectedBatchSize, records, schema);
   }
 
+  @Test
+  public void testWriteRunsUpToFlushSize() throws Exception {
+    RecordingWriterProvider recordingProvider = new RecordingWriterProvider(writerProvider, true);
+    Schema schema = createSchema();
+    List<Struct> records = createRecordBatch(schema, 7);
+    writeAll(recordingProvider, new DefaultPartitioner(), createSinkRecords(records, schema));
+
+    // The first record is written on its own, as there is no offset to continue from yet.
+    assertEquals(Arrays.asList(1, 2, 3, 1), recordingProvider.calls);
+    Set<Path> expectedFiles = new HashSet<>();
+    expectedFiles.add(committedPath(DIRECTORY, 0, 2));
+    expectedFiles.add(committedPath(DIRECTORY, 3, 5));
+    verify(expectedFiles, 3, records, schema);
+  }
+
+  @Test
+  public void testWriteRunsEndAtSchemaChange() throws Exception {
+    RecordingWriterProvider recordingProvider = new RecordingWriterProvider(writerProvider, true);
+    Schema schema = createSchema();
+    Schema newSchema = createNewSchema();
+    List<SinkRecord> sinkRecords = new ArrayList<>();
+    sinkRecords.addAll(createSinkRecords(createRecordBatch(schema, 2), schema));
+    sinkRecords.addAll(createSinkRecords(
+        Arrays.asList(createNewRecord(newSchema), createNewRecord(newSchema)), newSchema, 2,
+        Collections.singleton(TOPIC_PARTITION)));
+    writeAll(recordingProvider, new DefaultPartitioner(), sinkRecords);
+
+    assertEquals(Arrays.asList(1, 1, 2), recordingProvider.calls);
+    assertCommittedFiles(Collections.singleton(committedPath(DIRECTORY, 0, 1)));
+  }
+
+  @Test
+  public void testWriteRunsEndAtEncodedPartitionChange() throws Exception {
+    RecordingWriterProvider recordingProvider = new RecordingWriterProvider(writerProvider, true);
+    Map<String, Object> config = createConfig();
+    Partitioner partitioner = new FieldPartitioner();
+    partitioner.configure(config);
+    String partitionField = (String) config.get(HdfsSinkConnectorConfig.PARTITION_FIELD_NAME_CONFIG);
+
+    Schema schema = createSchema();
+    int[] values = {16, 16, 17, 17, 17, 16};
+    List<Struct> records = new ArrayList<>();
+    for (int value : values) {
+      records.add(createRecord(schema, value, 12.2f));
+    }
+    writeAll(recordingProvider, partitioner, createSinkRecords(records, schema));
+
+    // Runs end where the partition changes and where flush.size is reached.
+    assertEquals(Arrays.asList(1, 1, 1, 2, 1), recordingProvider.calls);
+    String directory16 = partitioner.generatePartitionedPath(TOPIC, partitionField + "=16");
+    String directory17 = partitioner.generatePartitionedPath(TOPIC, partitionField + "=17");
+    Set<Path> expectedFiles = new HashSet<>();
+    expectedFiles.add(committedPath(directory16, 0, 1));
+    expectedFiles.add(committedPath(directory17, 2, 2));
+    expectedFiles.add(committedPath(directory17, 3, 4));
+    expectedFiles.add(committedPath(directory16, 5, 5));
+    assertCommittedFiles(expectedFiles);
+  }
+
+  @Test
+  public void testWriteRunsWithoutBatchWriter() throws Exception {
+    RecordingWriterProvider recordingProvider = new RecordingWriterProvider(writerProvider, false);
+    Schema schema = createSchema();
+    List<Struct> records = createRecordBatch(schema, 7);
+    writeAll(recordingProvider, new DefaultPartitioner(), createSinkRecords(records, schema));
+
+    assertEquals(Collections.nCopies(7, 1), recordingProvider.calls);
+    Set<Path> expectedFiles = new HashSet<>();
+    expectedFiles.add(committedPath(DIRECTORY, 0, 2));
+    expectedFiles.add(committedPath(DIRECTORY, 3, 5));
+    verify(expectedFiles, 3, records, schema);
+  }
+
+  @Test
+  public void testRetryAfterPartialBatchWrite() throws Exception {
+    connectorProps.put(HdfsSinkConnectorConfig.RETRY_BACKOFF_CONFIG, "0");
+    configureConnector();
+    RecordingWriterProvider recordingProvider = new RecordingWriterProvider(writerProvider, true);
+    recordingProvider.failAfter = 1;
+    Partitioner partitioner = new DefaultPartitioner();
+    partitioner.configure(Collections.<String, Object>emptyMap());
+    TopicPartitionWriter topicPartitionWriter = new TopicPartitionWriter(
+        TOPIC_PARTITION, storage, recordingProvider, partitioner, connectorConfig, context, avroData);
+
+    Schema schema = createSchema();
+    List<Struct> records = createRecordBatch(schema, 6);
+    for (SinkRecord record : createSinkRecords(records, schema)) {
+      topicPartitionWriter.buffer(record);
+    }
+    topicPartitionWriter.recover();
+    // The run of the second and third record fails after writing the second one, and the retry
+    // writes the third one only.
+    topicPartitionWriter.write();
+    topicPartitionWriter.write();
+    topicPartitionWriter.close();
+
+    assertEquals(Arrays.asList(1, 2, 1, 3), recordingProvider.calls);
+    Set<Path> expectedFiles = new HashSet<>();
+    expectedFiles.add(committedPath(DIRECTORY, 0, 2));
+    expectedFiles.add(committedPath(DIRECTORY, 3, 5));
+    verify(expectedFiles, 3, records, schema);
+  }
+
+  @Test
+  public void testRewindAfterIncompleteSortedFile() throws Exception {
+    connectorProps.put(HdfsSinkConnectorConfig.SORT_FIELDS_CONFIG, "int");
+    configureConnector();
+    RecordingWriterProvider recordingProvider = new RecordingWriterProvider(writerProvider, true);
+    recordingProvider.failAfter = 1;
+    Partitioner partitioner = new DefaultPartitioner();
+    partitioner.configure(Collections.<String, Object>emptyMap());
+    TopicPartitionWriter topicPartitionWriter = new TopicPartitionWriter(
+        TOPIC_PARTITION, storage, recordingProvider, partitioner, connectorConfig, context, avroData);
+
+    Schema schema = createSchema();
+    List<Struct> records = createRecordBatch(schema, 6);
+    List<SinkRecord> sinkRecords = createSinkRecords(records, schema);
+    for (SinkRecord record : sinkRecords) {
+      topicPartitionWriter.buffer(record);
+    }
+    topicPartitionWriter.recover();
+    context.offsets().clear();
+    // The first file fails after part of its sorted records were written, so it is discarded and
+    // the topic partition is consumed again from its start.
+    topicPartitionWriter.write();
+    assertEquals(0L, (long) context.offsets().get(TOPIC_PARTITION));
+    assertCommittedFiles(Collections.<Path>emptySet());
+
+    for (SinkRecord record : sinkRecords) {
+      topicPartitionWriter.buffer(record);
+    }
+    topicPartitionWriter.write();
+    topicPartitionWriter.close();
+
+    Set<Path> expectedFiles = new HashSet<>();
+    expectedFiles.add(committedPath(DIRECTORY, 0, 2));
+    expectedFiles.add(committedPath(DIRECTORY, 3, 5));
+    verify(expectedFiles, 3, records, schema);
+  }
+
+  private void writeAll(RecordWriterProvider provider, Partitioner partitioner,
+                        List<SinkRecord> sinkRecords) throws Exception {
+    if (partitioner instanceof DefaultPartitioner) {
+      partitioner.configure(Collections.<String, Object>emptyMap());
+    }
+    TopicPartitionWriter topicPartitionWriter = new TopicPartitionWriter(
+        TOPIC_PARTITION, storage, provider, partitioner, connectorConfig, context, avroData);
+    for (SinkRecord record : sinkRecords) {
+      topicPartitionWriter.buffer(record);
+    }
+    topicPartitionWriter.recover();
+    topicPartitionWriter.write();
+    topicPartitionWriter.close();
+  }
+
+  private Path committedPath(String directory, long startOffset, long endOffset) {
+    return new Path(FileUtils.committedFileName(url, topicsDir, directory, TOPIC_PARTITION,
+                                                startOffset, endOffset, extension, zeroPadFormat));
+  }
+
   private Map<String, Object> createConfig() {
     Map<String, Object> config = new HashMap<>();
     config.put(HdfsSinkConnectorConfig.PARTITION_FIELD_NAME_CONFIG, "int");
@@ -216,6 +548,15 @@ public class TopicPartitionWriterTest extends TestWithMiniDFSCluster {
     }
   }
 
+  private void assertCommittedFiles(Set<Path> expectedFiles) throws IOException {
+    Path path = new Path(FileUtils.topicDirectory(url, topicsDir, TOPIC));
+    FileStatus[] statuses = FileUtils.traverse(storage, path, new CommittedFileFilter());
+    assertEquals(expectedFiles.size(), statuses.length);
+    for (FileStatus status : statuses) {
+      assertTrue(expectedFiles.contains(status.getPath()));
+    }
+  }
+
   private void verify(Set<Path> expectedFiles, int expectedSize, List<Struct> records, Schema schema) throws IOException {
     Path path = new Path(FileUtils.topicDirectory(url, topicsDir, TOPIC));
     FileStatus[] statuses = FileUtils.traverse(storage, path, new CommittedFileFilter());
@@ -232,4 +573,72 @@ public class TopicPartitionWriterTest extends TestWithMiniDFSCluster {
     }
   }
 
+  /**
+   * Records the number of records of every call to the writers of a provider, and can fail the
+   * first batch after writing some of its records.
+   */
+  private static class RecordingWriterProvider implements RecordWriterProvider {
+    private final RecordWriterProvider provider;
+    private final boolean batch;
+    private final List<Integer> calls = new ArrayList<>();
+    private int failAfter = -1;
+
+    RecordingWriterProvider(RecordWriterProvider provider, boolean batch) {
+      this.provider = provider;
+      this.batch = batch;
+    }
+
+    @Override
+    public String getExtension() {
+      return provider.getExtension();
+    }
+
+    @Override
+    public RecordWriter<SinkRecord> getRecordWriter(Configuration conf, String fileName,
+                                                    SinkRecord record, AvroData avroData)
+        throws IOException {
+      final RecordWriter<SinkRecord> writer =
+          provider.getRecordWriter(conf, fileName, record, avroData);
+      if (!batch) {
+        return new RecordWriter<SinkRecord>() {
+          @Override
+          public void write(SinkRecord value) throws IOException {
+            calls.add(1);
+            writer.write(value);
+          }
+
+          @Override
+          public void close() throws IOException {
+            writer.close();
+          }
+        };
+      }
+      return new BatchRecordWriter<SinkRecord>() {
+        @Override
+        public void write(SinkRecord value) throws IOException {
+          calls.add(1);
+          writer.write(value);
+        }
+
+        @Override
+        public void writeAll(List<SinkRecord> values) throws IOException {
+          calls.add(values.size());
+          if (failAfter >= 0) {
+            int written = failAfter;
+            failAfter = -1;
+            for (SinkRecord value : values.subList(0, written)) {
+              writer.write(value);
+            }
+            throw new BatchWriteException(written, new IOException("write failed."));
+          }
+          ((BatchRecordWriter<SinkRecord>) writer).writeAll(values);
+        }
+
+        @Override
+        public void close() throws IOException {
+          writer.close();
+        }
+      };
+    }
+  }
 }
@@ -0,0 +1,256 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.hive;
+
+import org.apache.hadoop.hive.common.StatsSetupConst;
+import org.apache.hadoop.hive.metastore.api.FieldSchema;
+import org.apache.hadoop.hive.metastore.api.MetaException;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.StorageDescriptor;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.confluent.connect.avro.AvroData;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+import io.confluent.connect.hdfs.avro.AvroHiveUtil;
+import io.confluent.connect.hdfs.errors.HiveMetaStoreException;
+import io.confluent.connect.hdfs.partitioner.Partitioner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HiveMetaStoreTest {
+
+  private static final String DATABASE = "default";
+  private static final String TABLE = "test_table";
+  private static final Schema SCHEMA = SchemaBuilder.struct().name("record")
+      .field("id", Schema.INT64_SCHEMA)
+      .build();
+
+  private InMemoryMetaStore store;
+  private HiveMetaStore hiveMetaStore;
+
+  @Before
+  public void setUp() {
+    store = new InMemoryMetaStore();
+    hiveMetaStore = new HiveMetaStore(store.clients(2));
+  }
+
+  @After
+  public void tearDown() {
+    hiveMetaStore.close();
+  }
+
+  @Test
+  public void testAddPartitionsInBatches() throws Exception {
+    createTable();
+    Map<String, String> partitions = new LinkedHashMap<>();
+    for (int i = 0; i < 2500; ++i) {
+      partitions.put("partition=" + i, "/" + TABLE + "/partition=" + i);
+    }
+    hiveMetaStore.addPartitions(DATABASE, TABLE, partitions);
+    // Adding them again skips the existing ones.
+    hiveMetaStore.addPartitions(DATABASE, TABLE, partitions);
+
+    assertEquals(6, store.calls("add_partitions"));
+    assertEquals(2500, hiveMetaStore.listPartitionNames(DATABASE, TABLE).size());
+  }
+
+  @Test
+  public void testPartitionNameMatchesListedNames() throws Exception {
+    createTable();
+    hiveMetaStore.addPartitions(DATABASE, TABLE,
+                                Collections.singletonMap("partition=a#b", "/" + TABLE + "/p"));
+
+    List<String> names = hiveMetaStore.listPartitionNames(DATABASE, TABLE);
+    assertEquals(1, names.size());
+    assertEquals(names.get(0), HiveMetaStore.partitionName("partition=a#b"));
+    assertEquals(names.get(0), HiveMetaStore.partitionName(names.get(0)));
+    assertEquals("partition", HiveMetaStore.partitionName("partition"));
+  }
+
+  @Test
+  public void testUpdatePartitionStatsInOneCallPerKind() throws Exception {
+    createTable();
+    Map<String, PartitionStats> stats = new HashMap<>();
+    for (int i = 0; i < 3; ++i) {
+      hiveMetaStore.addPartition(DATABASE, TABLE, "partition=" + i);
+      PartitionStats fileStats = new PartitionStats(SCHEMA);
+      fileStats.record(new Struct(SCHEMA).put("id", (long) i), i);
+      fileStats.partitionListed(1L, 10L);
+      stats.put("partition=" + i, fileStats);
+    }
+    store.resetCalls();
+
+    hiveMetaStore.updatePartitionStats(DATABASE, TABLE, "topic-0", stats);
+    hiveMetaStore.updatePartitionStats(DATABASE, TABLE, "topic-0", stats);
+
+    assertEquals(2, store.calls("getPartitionsByNames"));
+    assertEquals(2, store.calls("getPartitionColumnStatistics"));
+    assertEquals(2, store.calls("alter_partitions"));
+    assertEquals(2, store.calls("setPartitionColumnStatistics"));
+    Partition partition = store.client().getPartition(DATABASE, TABLE, "partition=1");
+    // The totals of the topic partition are set again rather than added twice.
+    assertEquals("1", partition.getParameters().get(StatsSetupConst.ROW_COUNT));
+    assertEquals("10", partition.getParameters().get(StatsSetupConst.TOTAL_SIZE));
+    assertEquals(StatsSetupConst.FALSE,
+                 partition.getParameters().get(StatsSetupConst.COLUMN_STATS_ACCURATE));
+  }
+
+  @Test
+  public void testApplySchemaCallsMetastoreOnce() throws Exception {
+    Map<String, String> props = new HashMap<>();
+    props.put(HdfsSinkConnectorConfig.HDFS_URL_CONFIG, "hdfs://localhost:9001");
+    props.put(HdfsSinkConnectorConfig.FLUSH_SIZE_CONFIG, "3");
+    HdfsSinkConnectorConfig connectorConfig = new HdfsSinkConnectorConfig(props);
+    HiveUtil hive = new AvroHiveUtil(connectorConfig, new AvroData(10), hiveMetaStore);
+
+    hive.applySchema(DATABASE, TABLE, SCHEMA, HiveTestUtils.getPartitioner());
+    assertEquals(1, store.calls("createTable"));
+    store.resetCalls();
+
+    hive.applySchema(DATABASE, TABLE, SCHEMA, HiveTestUtils.getPartitioner());
+    assertEquals(0, store.calls("getTable"));
+    assertEquals(0, store.calls("alter_table"));
+  }
+
+  @Test
+  public void testCloseClosesClientsInUse() throws Exception {
+    createTable();
+    store.setLatency(2000L);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<List<String>> call = executor.submit(new Callable<List<String>>() {
+        @Override
+        public List<String> call() throws Exception {
+          return hiveMetaStore.listPartitionNames(DATABASE, TABLE);
+        }
+      });
+      Thread.sleep(500L);
+      hiveMetaStore.close();
+      assertEquals(1, store.calls("close"));
+
+      call.get(10, TimeUnit.SECONDS);
+      assertEquals(2, store.calls("close"));
+    } finally {
+      executor.shutdownNow();
+    }
+    try {
+      hiveMetaStore.listPartitionNames(DATABASE, TABLE);
+      fail("Calls after close should fail");
+    } catch (HiveMetaStoreException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testApplySchemaLocksPerTable() throws Exception {
+    Map<String, String> props = new HashMap<>();
+    props.put(HdfsSinkConnectorConfig.HDFS_URL_CONFIG, "hdfs://localhost:9001");
+    props.put(HdfsSinkConnectorConfig.FLUSH_SIZE_CONFIG, "3");
+    HdfsSinkConnectorConfig connectorConfig = new HdfsSinkConnectorConfig(props);
+    final CountDownLatch blocked = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final HiveUtil hive = new HiveUtil(connectorConfig, new AvroData(10), hiveMetaStore) {
+      @Override
+      public void createTable(String database, String tableName, Schema schema,
+                              Partitioner partitioner) {
+        if (tableName.equals(TABLE)) {
+          blocked.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }
+
+      @Override
+      public void alterSchema(String database, String tableName, Schema schema) {
+      }
+    };
+
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        hive.applySchema(DATABASE, TABLE, SCHEMA, HiveTestUtils.getPartitioner());
+      }
+    });
+    thread.start();
+    try {
+      assertTrue(blocked.await(10, TimeUnit.SECONDS));
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+        // Another table is updated while the first one is still being created.
+        executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() {
+            hive.applySchema(DATABASE, "other_table", SCHEMA, HiveTestUtils.getPartitioner());
+            return null;
+          }
+        }).get(10, TimeUnit.SECONDS);
+      } finally {
+        executor.shutdownNow();
+      }
+    } finally {
+      release.countDown();
+      thread.join();
+    }
+  }
+
+  @Test
+  public void testMetastoreFailure() throws Exception {
+    createTable();
+    store.failNextCall(new MetaException("unavailable"));
+    try {
+      hiveMetaStore.getTable(DATABASE, TABLE);
+      fail("The metastore failure should have been reported");
+    } catch (HiveMetaStoreException e) {
+      // expected
+    }
+    assertEquals(TABLE, hiveMetaStore.getTable(DATABASE, TABLE).getTableName());
+  }
+
+  private void createTable() throws Exception {
+    StorageDescriptor sd = new StorageDescriptor();
+    sd.setCols(Collections.singletonList(new FieldSchema("id", "bigint", "")));
+    sd.setLocation("/" + TABLE);
+    Table table = new Table();
+    table.setDbName(DATABASE);
+    table.setTableName(TABLE);
+    table.setSd(sd);
+    table.setPartitionKeys(Collections.singletonList(new FieldSchema("partition", "string", "")));
+    table.setParameters(new HashMap<String, String>());
+    store.client().createTable(table);
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.hive;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HiveUpdateExecutorTest {
+
+  @Test
+  public void testUpdatesOfTableRunInOrder() throws Exception {
+    HiveUpdateExecutor executor = new HiveUpdateExecutor(4);
+    final List<Integer> updates = Collections.synchronizedList(new ArrayList<Integer>());
+    List<Integer> expected = new ArrayList<>();
+    for (int i = 0; i < 100; ++i) {
+      final int update = i;
+      executor.submit("table", new Callable<Void>() {
+        @Override
+        public Void call() {
+          updates.add(update);
+          return null;
+        }
+      });
+      expected.add(i);
+    }
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(expected, updates);
+  }
+
+  @Test
+  public void testUpdatesOfTablesRunInParallel() throws Exception {
+    HiveUpdateExecutor executor = new HiveUpdateExecutor(2);
+    // Find two tables on different threads.
+    String table = "table";
+    String other = null;
+    for (int i = 0; other == null; ++i) {
+      String candidate = "table" + i;
+      if ((candidate.hashCode() & Integer.MAX_VALUE) % 2 != (table.hashCode() & Integer.MAX_VALUE) % 2) {
+        other = candidate;
+      }
+    }
+
+    final CountDownLatch blocked = new CountDownLatch(1);
+    executor.submit(table, new Callable<Void>() {
+      @Override
+      public Void call() throws InterruptedException {
+        blocked.await();
+        return null;
+      }
+    });
+    Future<Void> update = executor.submit(other, new Callable<Void>() {
+      @Override
+      public Void call() {
+        return null;
+      }
+    });
+    update.get(10, TimeUnit.SECONDS);
+    blocked.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,374 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.hive;
+
+import org.apache.hadoop.hive.metastore.IMetaStoreClient;
+import org.apache.hadoop.hive.metastore.Warehouse;
+import org.apache.hadoop.hive.metastore.api.AlreadyExistsException;
+import org.apache.hadoop.hive.metastore.api.ColumnStatistics;
+import org.apache.hadoop.hive.metastore.api.ColumnStatisticsObj;
+import org.apache.hadoop.hive.metastore.api.Database;
+import org.apache.hadoop.hive.metastore.api.NoSuchObjectException;
+import org.apache.hadoop.hive.metastore.api.Partition;
+import org.apache.hadoop.hive.metastore.api.SetPartitionsStatsRequest;
+import org.apache.hadoop.hive.metastore.api.StorageDescriptor;
+import org.apache.hadoop.hive.metastore.api.Table;
+import org.apache.thrift.TException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * An in-memory stand-in for the Hive metastore, for tests that exercise the Hive path without
+ * starting an embedded metastore. It implements the {@link IMetaStoreClient} calls that
+ * {@link HiveMetaStore} makes; any other call throws {@link UnsupportedOperationException}.
+ *
+ * <p>All the clients of a stand-in share its state. Calls are counted by method name, can be
+ * delayed by a fixed latency to model a remote metastore, and can be made to fail.
+ */
+public class InMemoryMetaStore implements InvocationHandler {
+
+  private final Map<String, Database> databases = new TreeMap<>();
+  private final Map<String, Table> tables = new TreeMap<>();
+  // Partitions and their column statistics by table, then by partition name.
+  private final Map<String, Map<String, Partition>> partitions = new HashMap<>();
+  private final Map<String, Map<String, Map<String, ColumnStatisticsObj>>> columnStats = new HashMap<>();
+  private final Map<String, Integer> calls = new HashMap<>();
+  private final Queue<TException> failures = new LinkedList<>();
+  private volatile long latencyMs = 0L;
+
+  public InMemoryMetaStore() {
+    databases.put("default", new Database("default", "", null, null));
+  }
+
+  public IMetaStoreClient client() {
+    return (IMetaStoreClient) Proxy.newProxyInstance(
+        IMetaStoreClient.class.getClassLoader(), new Class<?>[]{IMetaStoreClient.class}, this);
+  }
+
+  public List<IMetaStoreClient> clients(int count) {
+    List<IMetaStoreClient> clients = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      clients.add(client());
+    }
+    return clients;
+  }
+
+  /**
+   * Delays every call by the given latency. Calls of different clients wait concurrently.
+   */
+  public void setLatency(long latencyMs) {
+    this.latencyMs = latencyMs;
+  }
+
+  /**
+   * Makes the next call fail with the given exception.
+   */
+  public synchronized void failNextCall(TException exception) {
+    failures.add(exception);
+  }
+
+  public synchronized int calls(String method) {
+    Integer count = calls.get(method);
+    return count == null ? 0 : count;
+  }
+
+  public synchronized void resetCalls() {
+    calls.clear();
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    String name = method.getName();
+    if (method.getDeclaringClass() == Object.class) {
+      switch (name) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        default:
+          return "InMemoryMetaStore client@" + Integer.toHexString(System.identityHashCode(proxy));
+      }
+    }
+    if (name.equals("close")) {
+      synchronized (this) {
+        Integer count = calls.get(name);
+        calls.put(name, count == null ? 1 : count + 1);
+      }
+      return null;
+    }
+    if (latencyMs > 0) {
+      Thread.sleep(latencyMs);
+    }
+    synchronized (this) {
+      Integer count = calls.get(name);
+      calls.put(name, count == null ? 1 : count + 1);
+      if (!failures.isEmpty()) {
+        throw failures.poll();
+      }
+      return call(method, args == null ? new Object[0] : args);
+    }
+  }
+
+  private Object call(Method method, Object[] args) throws TException {
+    String name = method.getName();
+    Class<?>[] types = method.getParameterTypes();
+    switch (name) {
+      case "getAllDatabases":
+        return new ArrayList<>(databases.keySet());
+      case "getDatabase":
+        return database((String) args[0]);
+      case "createDatabase": {
+        Database database = (Database) args[0];
+        if (databases.containsKey(database.getName())) {
+          throw new AlreadyExistsException("Database " + database.getName() + " already exists");
+        }
+        databases.put(database.getName(), new Database(database));
+        return null;
+      }
+      case "dropDatabase":
+        if (types.length == 3) {
+          if (databases.remove((String) args[0]) == null && !(Boolean) args[2]) {
+            throw new NoSuchObjectException("Database " + args[0] + " not found");
+          }
+          return null;
+        }
+        break;
+      case "getAllTables": {
+        database((String) args[0]);
+        List<String> names = new ArrayList<>();
+        for (Table table : tables.values()) {
+          if (table.getDbName().equals(args[0])) {
+            names.add(table.getTableName());
+          }
+        }
+        return names;
+      }
+      case "tableExists":
+        return tables.containsKey(key((String) args[0], (String) args[1]));
+      case "getTable":
+        return new Table(table((String) args[0], (String) args[1]));
+      case "createTable": {
+        Table table = (Table) args[0];
+        database(table.getDbName());
+        String key = key(table.getDbName(), table.getTableName());
+        if (tables.containsKey(key)) {
+          throw new AlreadyExistsException("Table " + key + " already exists");
+        }
+        tables.put(key, new Table(table));
+        partitions.put(key, new TreeMap<String, Partition>());
+        columnStats.put(key, new HashMap<String, Map<String, ColumnStatisticsObj>>());
+        return null;
+      }
+      case "alter_table":
+        table((String) args[0], (String) args[1]);
+        tables.put(key((String) args[0], (String) args[1]), new Table((Table) args[2]));
+        return null;
+      case "dropTable":
+        if (types.length == 4) {
+          String key = key((String) args[0], (String) args[1]);
+          if (tables.remove(key) == null && !(Boolean) args[3]) {
+            throw new NoSuchObjectException("Table " + key + " not found");
+          }
+          partitions.remove(key);
+          columnStats.remove(key);
+          return null;
+        }
+        break;
+      case "appendPartition":
+        if (types[2] == String.class) {
+          Table table = table((String) args[0], (String) args[1]);
+          String partitionName = (String) args[2];
+          Map<String, Partition> tablePartitions = partitions.get(key(table));
+          if (tablePartitions.containsKey(partitionName)) {
+            throw new AlreadyExistsException("Partition " + partitionName + " already exists");
+          }
+          StorageDescriptor sd = new StorageDescriptor(table.getSd());
+          sd.setLocation(table.getSd().getLocation() + "/" + partitionName);
+          Partition partition = new Partition();
+          partition.setDbName(table.getDbName());
+          partition.setTableName(table.getTableName());
+          partition.setValues(new ArrayList<String>(Warehouse.makeSpecFromName(partitionName).values()));
+          partition.setSd(sd);
+          partition.setParameters(new HashMap<String, String>());
+          tablePartitions.put(partitionName, partition);
+          return new Partition(partition);
+        }
+        break;
+      case "add_partitions":
+        if (types.length == 3) {
+          @SuppressWarnings("unchecked")
+          List<Partition> added = (List<Partition>) args[0];
+          List<Partition> result = new ArrayList<>();
+          for (Partition partition : added) {
+            Table table = table(partition.getDbName(), partition.getTableName());
+            String partitionName = Warehouse.makePartName(table.getPartitionKeys(), partition.getValues());
+            Map<String, Partition> tablePartitions = partitions.get(key(table));
+            if (tablePartitions.containsKey(partitionName)) {
+              if (!(Boolean) args[1]) {
+                throw new AlreadyExistsException("Partition " + partitionName + " already exists");
+              }
+              continue;
+            }
+            Partition copy = new Partition(partition);
+            if (copy.getParameters() == null) {
+              copy.setParameters(new HashMap<String, String>());
+            }
+            tablePartitions.put(partitionName, copy);
+            result.add(new Partition(copy));
+          }
+          return (Boolean) args[2] ? result : null;
+        }
+        break;
+      case "dropPartition":
+        if (types.length == 4 && types[2] == String.class) {
+          Table table = table((String) args[0], (String) args[1]);
+          if (partitions.get(key(table)).remove((String) args[2]) == null) {
+            throw new NoSuchObjectException("Partition " + args[2] + " not found");
+          }
+          columnStats.get(key(table)).remove((String) args[2]);
+          return true;
+        }
+        break;
+      case "getPartition":
+        if (types[2] == String.class) {
+          Table table = table((String) args[0], (String) args[1]);
+          Partition partition = partitions.get(key(table)).get((String) args[2]);
+          if (partition == null) {
+            throw new NoSuchObjectException("Partition " + args[2] + " not found");
+          }
+          return new Partition(partition);
+        }
+        break;
+      case "listPartitionNames":
+        if (types.length == 3 && types[2] == short.class) {
+          Table table = table((String) args[0], (String) args[1]);
+          return limit(new ArrayList<String>(partitions.get(key(table)).keySet()), (Short) args[2]);
+        }
+        break;
+      case "listPartitions":
+        if (types.length == 3 && types[2] == short.class) {
+          Table table = table((String) args[0], (String) args[1]);
+          List<Partition> result = new ArrayList<>();
+          for (Partition partition : partitions.get(key(table)).values()) {
+            result.add(new Partition(partition));
+          }
+          return limit(result, (Short) args[2]);
+        }
+        break;
+      case "getPartitionsByNames":
+        if (types.length == 3) {
+          Table table = table((String) args[0], (String) args[1]);
+          List<Partition> result = new ArrayList<>();
+          for (Object partitionName : (List<?>) args[2]) {
+            Partition partition = partitions.get(key(table)).get((String) partitionName);
+            if (partition != null) {
+              result.add(new Partition(partition));
+            }
+          }
+          return result;
+        }
+        break;
+      case "alter_partitions":
+        if (types.length == 3) {
+          Table table = table((String) args[0], (String) args[1]);
+          for (Object altered : (List<?>) args[2]) {
+            Partition partition = (Partition) altered;
+            String partitionName = Warehouse.makePartName(table.getPartitionKeys(), partition.getValues());
+            if (!partitions.get(key(table)).containsKey(partitionName)) {
+              throw new NoSuchObjectException("Partition " + partitionName + " not found");
+            }
+            partitions.get(key(table)).put(partitionName, new Partition(partition));
+          }
+          return null;
+        }
+        break;
+      case "getPartitionColumnStatistics": {
+        Table table = table((String) args[0], (String) args[1]);
+        List<?> columns = (List<?>) args[3];
+        Map<String, List<ColumnStatisticsObj>> result = new HashMap<>();
+        for (Object partitionName : (List<?>) args[2]) {
+          Map<String, ColumnStatisticsObj> stats = columnStats.get(key(table)).get((String) partitionName);
+          if (stats == null) {
+            continue;
+          }
+          List<ColumnStatisticsObj> objs = new ArrayList<>();
+          for (ColumnStatisticsObj obj : stats.values()) {
+            if (columns.contains(obj.getColName())) {
+              objs.add(new ColumnStatisticsObj(obj));
+            }
+          }
+          result.put((String) partitionName, objs);
+        }
+        return result;
+      }
+      case "setPartitionColumnStatistics":
+        for (ColumnStatistics stats : ((SetPartitionsStatsRequest) args[0]).getColStats()) {
+          Table table = table(stats.getStatsDesc().getDbName(), stats.getStatsDesc().getTableName());
+          String partitionName = stats.getStatsDesc().getPartName();
+          if (!partitions.get(key(table)).containsKey(partitionName)) {
+            throw new NoSuchObjectException("Partition " + partitionName + " not found");
+          }
+          Map<String, Map<String, ColumnStatisticsObj>> tableStats = columnStats.get(key(table));
+          if (!tableStats.containsKey(partitionName)) {
+            tableStats.put(partitionName, new TreeMap<String, ColumnStatisticsObj>());
+          }
+          for (ColumnStatisticsObj obj : stats.getStatsObj()) {
+            tableStats.get(partitionName).put(obj.getColName(), new ColumnStatisticsObj(obj));
+          }
+        }
+        return true;
+      default:
+        break;
+    }
+    throw new UnsupportedOperationException("InMemoryMetaStore does not support " + method);
+  }
+
+  private Database database(String name) throws NoSuchObjectException {
+    Database database = databases.get(name);
+    if (database == null) {
+      throw new NoSuchObjectException("Database " + name + " not found");
+    }
+    return database;
+  }
+
+  private Table table(String database, String name) throws NoSuchObjectException {
+    Table table = tables.get(key(database, name));
+    if (table == null) {
+      throw new NoSuchObjectException("Table " + key(database, name) + " not found");
+    }
+    return table;
+  }
+
+  private static String key(Table table) {
+    return key(table.getDbName(), table.getTableName());
+  }
+
+  private static String key(String database, String table) {
+    return database + "." + table;
+  }
+
+  private static <T> List<T> limit(List<T> list, short max) {
+    return max >= 0 && list.size() > max ? new ArrayList<>(list.subList(0, max)) : list;
+  }
+}
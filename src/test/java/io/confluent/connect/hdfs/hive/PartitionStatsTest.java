@@ -0,0 +1,128 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.hive;
+
+import org.apache.hadoop.hive.common.StatsSetupConst;
+import org.apache.hadoop.hive.metastore.api.ColumnStatisticsData;
+import org.apache.hadoop.hive.metastore.api.LongColumnStatsData;
+import org.apache.hadoop.hive.metastore.api.StringColumnStatsData;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PartitionStatsTest {
+
+  private static final Schema SCHEMA = SchemaBuilder.struct().name("record")
+      .field("id", Schema.INT32_SCHEMA)
+      .field("name", Schema.OPTIONAL_STRING_SCHEMA)
+      .field("tags", SchemaBuilder.array(Schema.STRING_SCHEMA).build())
+      .build();
+
+  @Test
+  public void testAddToPartitionStats() {
+    PartitionStats stats = new PartitionStats(SCHEMA);
+    stats.record(createRecord(3, "ab"), 0L);
+    stats.record(createRecord(1, null), 1L);
+    stats.partitionListed(1L, 100L);
+
+    Map<String, String> parameters = new HashMap<>();
+    Map<String, ColumnStatisticsData> columns = new HashMap<>();
+    stats.addTo("topic-0", parameters, columns);
+
+    assertEquals("2", parameters.get(StatsSetupConst.ROW_COUNT));
+    assertEquals("1", parameters.get(StatsSetupConst.NUM_FILES));
+    assertEquals("100", parameters.get(StatsSetupConst.TOTAL_SIZE));
+    assertEquals(StatsSetupConst.FALSE, parameters.get(StatsSetupConst.COLUMN_STATS_ACCURATE));
+    assertFalse(columns.containsKey("tags"));
+    LongColumnStatsData id = columns.get("id").getLongStats();
+    assertEquals(1L, id.getLowValue());
+    assertEquals(3L, id.getHighValue());
+    StringColumnStatsData name = columns.get("name").getStringStats();
+    assertEquals(1L, name.getNumNulls());
+    assertEquals(2L, name.getMaxColLen());
+    assertEquals(2.0, name.getAvgColLen(), 0.0);
+
+    // A retried update sets the same totals and adds no column statistics.
+    stats.addTo("topic-0", parameters, columns);
+    assertEquals("2", parameters.get(StatsSetupConst.ROW_COUNT));
+    assertEquals(1L, columns.get("name").getStringStats().getNumNulls());
+
+    PartitionStats file = new PartitionStats(SCHEMA);
+    file.record(createRecord(7, "abcd"), 2L);
+    stats.merge(file);
+    // Merging the first file into another one leaves a single file in the partition.
+    stats.partitionListed(1L, 150L);
+    stats.addTo("topic-0", parameters, columns);
+
+    assertEquals("3", parameters.get(StatsSetupConst.ROW_COUNT));
+    assertEquals("1", parameters.get(StatsSetupConst.NUM_FILES));
+    assertEquals("150", parameters.get(StatsSetupConst.TOTAL_SIZE));
+    id = columns.get("id").getLongStats();
+    assertEquals(1L, id.getLowValue());
+    assertEquals(7L, id.getHighValue());
+    name = columns.get("name").getStringStats();
+    assertEquals(1L, name.getNumNulls());
+    assertEquals(4L, name.getMaxColLen());
+    assertEquals(3.0, name.getAvgColLen(), 0.0);
+  }
+
+  @Test
+  public void testTotalsOfTopicPartitions() {
+    Map<String, String> parameters = new HashMap<>();
+    // Rows counted before the connector set the statistics are kept.
+    parameters.put(StatsSetupConst.ROW_COUNT, "10");
+    Map<String, ColumnStatisticsData> columns = new HashMap<>();
+
+    PartitionStats first = new PartitionStats(SCHEMA);
+    first.record(createRecord(1, "a"), 5L);
+    first.addTo("topic-0", parameters, columns);
+    assertEquals("11", parameters.get(StatsSetupConst.ROW_COUNT));
+    Map<String, String> lost = new HashMap<>(parameters);
+
+    PartitionStats second = new PartitionStats(SCHEMA);
+    second.record(createRecord(2, "b"), 7L);
+    second.record(createRecord(3, "c"), 8L);
+    second.addTo("topic-1", parameters, columns);
+    assertEquals("13", parameters.get(StatsSetupConst.ROW_COUNT));
+
+    // An update of the first topic partition overwritten by a concurrent one is set again.
+    first.record(createRecord(4, "d"), 6L);
+    second.addTo("topic-1", lost, columns);
+    assertEquals("13", lost.get(StatsSetupConst.ROW_COUNT));
+    first.addTo("topic-0", lost, columns);
+    assertEquals("14", lost.get(StatsSetupConst.ROW_COUNT));
+
+    // A task that restarted after the last offset in Hive adds to the totals of its predecessor.
+    PartitionStats restarted = new PartitionStats(SCHEMA);
+    restarted.record(createRecord(5, "e"), 9L);
+    restarted.addTo("topic-1", lost, columns);
+    assertEquals("15", lost.get(StatsSetupConst.ROW_COUNT));
+  }
+
+  private static Struct createRecord(int id, String name) {
+    return new Struct(SCHEMA)
+        .put("id", id)
+        .put("name", name)
+        .put("tags", Arrays.asList("a", "b"));
+  }
+}
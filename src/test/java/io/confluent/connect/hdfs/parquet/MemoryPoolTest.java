@@ -0,0 +1,96 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.parquet;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+public class MemoryPoolTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testAllocateSharesPool() {
+    MemoryPool pool = new MemoryPool(100);
+    assertEquals(30, pool.allocate(30, 10));
+    assertEquals(30, pool.allocate(30, 10));
+    assertEquals(33, pool.allocate(80, 10));
+    assertEquals(3, pool.openWriters());
+    assertEquals(93, pool.allocated());
+  }
+
+  @Test
+  public void testAllocateAtMostRemaining() {
+    MemoryPool pool = new MemoryPool(100);
+    assertEquals(80, pool.allocate(80, 10));
+    assertEquals(20, pool.allocate(80, 10));
+    assertEquals(100, pool.allocated());
+  }
+
+  @Test
+  public void testAllocateAtLeastMinimum() {
+    MemoryPool pool = new MemoryPool(100);
+    for (int i = 0; i < 10; ++i) {
+      pool.allocate(80, 10);
+    }
+    assertEquals(10, pool.allocate(80, 10));
+    assertEquals(20, pool.allocate(80, 20));
+  }
+
+  @Test
+  public void testReleaseReturnsAllocation() {
+    MemoryPool pool = new MemoryPool(100);
+    long first = pool.allocate(80, 10);
+    long second = pool.allocate(80, 10);
+    pool.release(first);
+    assertEquals(second, pool.allocated());
+    long third = pool.allocate(80, 10);
+    assertEquals(50, third);
+    pool.release(second);
+    pool.release(third);
+    pool.release(third);
+    assertEquals(0, pool.openWriters());
+    assertEquals(0, pool.allocated());
+    assertEquals(80, pool.allocate(80, 10));
+  }
+
+  @Test
+  public void testWriterReleasesOnClose() throws Exception {
+    Configuration conf = new Configuration();
+    Schema schema = SchemaBuilder.record("record").fields().requiredLong("id").endRecord();
+    MemoryPool pool = ParquetRecordWriterProvider.memoryPool(conf);
+    int open = pool.openWriters();
+    long allocated = pool.allocated();
+
+    ParquetWriter<GenericRecord> writer = ParquetRecordWriterProvider.createWriter(
+        conf, new Path(new File(folder.getRoot(), "file").getAbsolutePath()), schema);
+    assertEquals(open + 1, pool.openWriters());
+    writer.close();
+    assertEquals(open, pool.openWriters());
+    assertEquals(allocated, pool.allocated());
+  }
+}
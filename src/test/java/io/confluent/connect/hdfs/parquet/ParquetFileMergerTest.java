@@ -0,0 +1,117 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.parquet;
+
+import org.apache.avro.Schema;
+import org.apache.avro.SchemaBuilder;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.parquet.avro.AvroReadSupport;
+import org.apache.parquet.hadoop.ParquetReader;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParquetFileMergerTest {
+
+  private static final Schema SCHEMA = SchemaBuilder.record("record").fields()
+      .requiredLong("id")
+      .endRecord();
+  private static final Schema NEW_SCHEMA = SchemaBuilder.record("record").fields()
+      .requiredLong("id")
+      .optionalString("name")
+      .endRecord();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private final Configuration conf = new Configuration();
+
+  @Test
+  public void testMergeStopsAtSchemaChange() throws Exception {
+    List<Path> inputs = Arrays.asList(write("a", SCHEMA, 0, 2), write("b", SCHEMA, 2, 3),
+                                      write("c", NEW_SCHEMA, 3, 5), write("d", SCHEMA, 5, 6));
+    Path output = path("merged");
+
+    assertEquals(2, new ParquetFileMerger().merge(conf, inputs, output));
+    assertEquals(Arrays.asList(0L, 1L, 2L), read(output));
+
+    // The merge from the first file with the new schema stops at the next change back.
+    Path next = path("next");
+    assertEquals(1, new ParquetFileMerger().merge(conf, inputs.subList(2, 4), next));
+    assertEquals(Arrays.asList(3L, 4L), read(next));
+  }
+
+  @Test
+  public void testMergeEmptyInputs() throws Exception {
+    List<Path> inputs = Arrays.asList(write("a", SCHEMA, 0, 0), write("b", SCHEMA, 0, 0));
+    Path output = path("merged");
+
+    assertEquals(2, new ParquetFileMerger().merge(conf, inputs, output));
+    assertTrue(new File(output.toUri()).exists());
+    assertEquals(new ArrayList<Long>(), read(output));
+
+    inputs = Arrays.asList(write("c", SCHEMA, 0, 0), write("d", SCHEMA, 0, 2));
+    output = path("merged2");
+    assertEquals(2, new ParquetFileMerger().merge(conf, inputs, output));
+    assertEquals(Arrays.asList(0L, 1L), read(output));
+  }
+
+  private Path path(String name) {
+    return new Path(new File(folder.getRoot(), name + ".parquet").toURI().toString());
+  }
+
+  private Path write(String name, Schema schema, long start, long end) throws IOException {
+    Path path = path(name);
+    ParquetWriter<GenericRecord> writer = ParquetRecordWriterProvider.createWriter(conf, path, schema);
+    try {
+      for (long id = start; id < end; ++id) {
+        GenericRecord record = new GenericData.Record(schema);
+        record.put("id", id);
+        writer.write(record);
+      }
+    } finally {
+      writer.close();
+    }
+    return path;
+  }
+
+  private List<Long> read(Path path) throws IOException {
+    List<Long> ids = new ArrayList<>();
+    ParquetReader<GenericRecord> reader =
+        ParquetReader.builder(new AvroReadSupport<GenericRecord>(), path).withConf(conf).build();
+    try {
+      GenericRecord record;
+      while ((record = reader.read()) != null) {
+        ids.add((Long) record.get("id"));
+      }
+    } finally {
+      reader.close();
+    }
+    return ids;
+  }
+}
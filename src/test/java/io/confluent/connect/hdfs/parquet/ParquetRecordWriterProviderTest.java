@@ -0,0 +1,95 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.parquet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.parquet.column.Encoding;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.hadoop.metadata.ParquetMetadata;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import io.confluent.connect.avro.AvroData;
+import io.confluent.connect.hdfs.RecordWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParquetRecordWriterProviderTest {
+
+  private static final Schema SCHEMA = SchemaBuilder.struct().name("record").version(1)
+      .field("id", Schema.INT64_SCHEMA)
+      .field("name", Schema.STRING_SCHEMA)
+      .build();
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testWriterSettingsFromConfiguration() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(ParquetRecordWriterProvider.BLOCK_SIZE_CONFIG, 1024);
+    conf.setInt(ParquetRecordWriterProvider.PAGE_SIZE_CONFIG, 1024);
+    conf.setBoolean(ParquetRecordWriterProvider.ENABLE_DICTIONARY_CONFIG, false);
+    conf.set(ParquetRecordWriterProvider.COMPRESSION_CONFIG, "gzip");
+
+    ParquetMetadata footer = write(conf);
+
+    assertTrue(footer.getBlocks().size() > 1);
+    for (BlockMetaData block : footer.getBlocks()) {
+      for (ColumnChunkMetaData column : block.getColumns()) {
+        assertEquals(CompressionCodecName.GZIP, column.getCodec());
+        assertFalse(column.getEncodings().contains(Encoding.PLAIN_DICTIONARY));
+      }
+    }
+  }
+
+  @Test
+  public void testDefaultWriterSettings() throws Exception {
+    ParquetMetadata footer = write(new Configuration());
+
+    assertEquals(1, footer.getBlocks().size());
+    ColumnChunkMetaData name = footer.getBlocks().get(0).getColumns().get(1);
+    assertEquals(CompressionCodecName.SNAPPY, name.getCodec());
+    assertTrue(name.getEncodings().contains(Encoding.PLAIN_DICTIONARY));
+  }
+
+  private ParquetMetadata write(Configuration conf) throws Exception {
+    AvroData avroData = new AvroData(100);
+    String fileName = new File(folder.getRoot(), "test.parquet").toURI().toString();
+    RecordWriter<SinkRecord> writer = null;
+    for (long i = 0; i < 1000; ++i) {
+      Struct value = new Struct(SCHEMA).put("id", i).put("name", "name" + (i % 10));
+      SinkRecord record = new SinkRecord("topic", 12, null, null, SCHEMA, value, i);
+      if (writer == null) {
+        writer = new ParquetRecordWriterProvider().getRecordWriter(conf, fileName, record, avroData);
+      }
+      writer.write(record);
+    }
+    writer.close();
+    return org.apache.parquet.hadoop.ParquetFileReader.readFooter(conf, new Path(fileName));
+  }
+}
@@ -25,6 +25,8 @@ import java.util.concurrent.TimeUnit;
 import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class HourlyPartitionerTest {
 
@@ -46,6 +48,25 @@ public class HourlyPartitionerTest {
     assertEquals("topic/year=2015/month=02/day=01/hour=03/", path);
   }
 
+  @Test
+  public void testIsClosed() throws Exception {
+    Map<String, Object> config = createConfig();
+
+    HourlyPartitioner partitioner = new HourlyPartitioner();
+    partitioner.configure(config);
+
+    String pathFormat = partitioner.getPathFormat();
+    String timeZoneString = (String) config.get(HdfsSinkConnectorConfig.TIMEZONE_CONFIG);
+    DateTimeZone timeZone = DateTimeZone.forID(timeZoneString);
+    long timestamp = new DateTime(2015, 2, 1, 3, 0, 0, 0, timeZone).getMillis();
+    String encodedPartition = TimeUtils.encodeTimestamp(partitionDurationMs, pathFormat,
+                                                        timeZoneString, timestamp);
+    assertFalse(partitioner.isClosed(encodedPartition, timestamp - 1));
+    assertFalse(partitioner.isClosed(encodedPartition, timestamp + TimeUnit.MINUTES.toMillis(59)));
+    assertTrue(partitioner.isClosed(encodedPartition, timestamp + partitionDurationMs));
+    assertTrue(partitioner.isClosed(encodedPartition, timestamp + TimeUnit.DAYS.toMillis(40)));
+  }
+
   private Map<String, Object> createConfig() {
     Map<String, Object> config = new HashMap<>();
     config.put(HdfsSinkConnectorConfig.LOCALE_CONFIG, "en");
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.sequence;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import io.confluent.connect.hdfs.DataWriter;
+import io.confluent.connect.hdfs.FileUtils;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+import io.confluent.connect.hdfs.RecordWriter;
+import io.confluent.connect.hdfs.TestWithMiniDFSCluster;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DataWriterSequenceFileTest extends TestWithMiniDFSCluster {
+
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    schemaFileReader = new SequenceFileReader(avroData);
+    extension = ".seq";
+  }
+
+  @Override
+  protected Map<String, String> createProps() {
+    Map<String, String> props = super.createProps();
+    props.put(HdfsSinkConnectorConfig.FORMAT_CLASS_CONFIG, SequenceFileFormat.class.getName());
+    return props;
+  }
+
+  @Test
+  public void testWriteRecord() throws Exception {
+    DataWriter hdfsWriter = new DataWriter(connectorConfig, context, avroData);
+    partitioner = hdfsWriter.getPartitioner();
+    hdfsWriter.recover(TOPIC_PARTITION);
+
+    List<SinkRecord> sinkRecords = createSinkRecords(7);
+
+    hdfsWriter.write(sinkRecords);
+    hdfsWriter.close(assignment);
+    hdfsWriter.stop();
+
+    // Last file (offset 6) doesn't satisfy size requirement and gets discarded on close
+    long[] validOffsets = {0, 3, 6};
+    verify(sinkRecords, validOffsets);
+  }
+
+  @Test
+  public void testBlockCompressionAndKeys() throws Exception {
+    DataWriter hdfsWriter = new DataWriter(connectorConfig, context, avroData);
+    partitioner = hdfsWriter.getPartitioner();
+    hdfsWriter.recover(TOPIC_PARTITION);
+
+    List<SinkRecord> sinkRecords = createSinkRecords(3);
+
+    hdfsWriter.write(sinkRecords);
+    hdfsWriter.close(assignment);
+    hdfsWriter.stop();
+
+    String filename = FileUtils.committedFileName(url, topicsDir, getDirectory(), TOPIC_PARTITION,
+                                                  0, 2, extension, zeroPadFormat);
+    Path path = new Path(filename);
+    try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(path))) {
+      assertTrue(reader.isBlockCompressed());
+      assertEquals(LongWritable.class, reader.getKeyClass());
+      assertEquals(Text.class, reader.getValueClass());
+      LongWritable key = new LongWritable();
+      Text value = new Text();
+      long expectedOffset = 0;
+      while (reader.next(key, value)) {
+        assertEquals(expectedOffset++, key.get());
+      }
+      assertEquals(3, expectedOffset);
+    }
+
+    Schema schema = schemaFileReader.getSchema(conf, path);
+    assertEquals(createSchema().name(), schema.name());
+    assertEquals(createSchema().fields().size(), schema.fields().size());
+  }
+
+  @Test
+  public void testWriteStrictJson() throws Exception {
+    Schema schema = SchemaBuilder.struct().name("record")
+        .field("bytes", Schema.BYTES_SCHEMA)
+        .field("optional", Schema.OPTIONAL_STRING_SCHEMA)
+        .field("array", SchemaBuilder.array(Schema.INT32_SCHEMA).build())
+        .build();
+    Struct value = new Struct(schema)
+        .put("bytes", new byte[]{1, 2, 3})
+        .put("array", Arrays.asList(1, 2));
+    SinkRecord record = new SinkRecord(TOPIC, PARTITION, null, null, schema, value, 0);
+    String fileName = FileUtils.tempFileName(url, topicsDir, getDirectory(), extension);
+
+    RecordWriter<SinkRecord> writer = new SequenceFileRecordWriterProvider()
+        .getRecordWriter(conf, fileName, record, avroData);
+    writer.write(record);
+    writer.close();
+
+    Collection<Object> values = schemaFileReader.readData(conf, new Path(fileName));
+    assertEquals(Arrays.<Object>asList("{\"bytes\":\"AQID\",\"optional\":null,\"array\":[1,2]}"),
+                 values);
+  }
+
+  @Test
+  public void testRejectNonStructValues() throws Exception {
+    SinkRecord record = new SinkRecord(TOPIC, PARTITION, null, null, Schema.STRING_SCHEMA, "value", 0);
+    String fileName = FileUtils.tempFileName(url, topicsDir, getDirectory(), extension);
+    try {
+      new SequenceFileRecordWriterProvider().getRecordWriter(conf, fileName, record, avroData);
+      fail("A value that is not a struct should be rejected");
+    } catch (DataException e) {
+      // expected
+    }
+  }
+
+  @Override
+  protected void verifyContents(List<SinkRecord> expectedRecords, int startIndex, Collection<Object> records) {
+    for (Object value : records) {
+      Struct expected = (Struct) expectedRecords.get(startIndex++).value();
+      assertEquals("{\"boolean\":" + expected.getBoolean("boolean")
+                   + ",\"int\":" + expected.getInt32("int")
+                   + ",\"long\":" + expected.getInt64("long")
+                   + ",\"float\":" + expected.getFloat32("float")
+                   + ",\"double\":" + expected.getFloat64("double") + "}", value);
+    }
+  }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.storage;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Map;
+
+import io.confluent.connect.hdfs.FileUtils;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+import io.confluent.connect.hdfs.TestWithMiniDFSCluster;
+import io.confluent.connect.hdfs.wal.WAL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HdfsStorageTest extends TestWithMiniDFSCluster {
+
+  private static final String EXTENSION = ".avro";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Storage storage;
+  private String directory;
+
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    storage = StorageFactory.createStorage(HdfsStorage.class, connectorConfig, conf, url);
+    directory = TOPIC + "/" + String.valueOf(PARTITION);
+  }
+
+  @Override
+  protected Map<String, String> createProps() {
+    Map<String, String> props = super.createProps();
+    props.put(HdfsSinkConnectorConfig.OPTIMISTIC_COMMIT_CONFIG, "true");
+    return props;
+  }
+
+  @Test
+  public void testOptimisticCommitCreatesDirectory() throws Exception {
+    Path tempFile = createTempFile(1);
+    Path committedFile = new Path(committedFileName(0, 9));
+
+    storage.commit(tempFile, committedFile);
+    assertTrue(fs.exists(committedFile));
+    assertFalse(fs.exists(tempFile));
+
+    // A directory removed behind the connector's back is recreated on the next commit.
+    Path committedDirectory = committedFile.getParent();
+    fs.delete(committedDirectory, true);
+    assertTrue(storage.exists(committedDirectory));
+    tempFile = createTempFile(1);
+    committedFile = new Path(committedFileName(10, 19));
+    storage.commit(tempFile, committedFile);
+    assertTrue(fs.exists(committedFile));
+    storage.close();
+  }
+
+  @Test
+  public void testOptimisticCommitKeepsCommittedFile() throws Exception {
+    Path committedFile = new Path(committedFileName(0, 9));
+    storage.commit(createTempFile(1), committedFile);
+
+    Path tempFile = createTempFile(2);
+    storage.commit(tempFile, committedFile);
+    assertEquals(1, fs.getFileStatus(committedFile).getLen());
+
+    // Committing a temp file that is already gone is a no-op.
+    storage.commit(new Path(FileUtils.tempFileName(url, topicsDir, directory, EXTENSION)),
+                   new Path(committedFileName(10, 19)));
+    assertFalse(fs.exists(new Path(committedFileName(10, 19))));
+    storage.close();
+  }
+
+  @Test
+  public void testApplyWALWithOptimisticCommit() throws Exception {
+    String tempFile = createTempFile(1).toString();
+    String committedFile = committedFileName(0, 9);
+    String missingFile = FileUtils.tempFileName(url, topicsDir, directory, EXTENSION);
+
+    WAL wal = storage.wal(logsDir, TOPIC_PARTITION);
+    wal.append(WAL.beginMarker, "");
+    wal.append(tempFile, committedFile);
+    wal.append(missingFile, committedFileName(10, 19));
+    wal.append(WAL.endMarker, "");
+    wal.apply();
+    // Applying again finds nothing left to commit.
+    wal.apply();
+    wal.close();
+
+    assertTrue(fs.exists(new Path(committedFile)));
+    assertFalse(fs.exists(new Path(tempFile)));
+    assertFalse(fs.exists(new Path(committedFileName(10, 19))));
+    storage.close();
+  }
+
+  @Test
+  public void testLocalStaging() throws Exception {
+    Storage stagingStorage = createStagingStorage(temporaryFolder.newFolder("staging"), 0);
+    FileSystem localFs = FileSystem.getLocal(conf);
+
+    Path stagedFile = new Path(stagingStorage.tempFileName(topicsDir, directory, EXTENSION));
+    assertEquals("file", stagedFile.toUri().getScheme());
+    try (FSDataOutputStream out = localFs.create(stagedFile)) {
+      out.write(new byte[20]);
+    }
+    Path committedFile = new Path(committedFileName(0, 9));
+    assertTrue(stagingStorage.exists(stagedFile));
+    stagingStorage.commit(stagedFile, committedFile);
+    assertEquals(20, fs.getFileStatus(committedFile).getLen());
+    assertFalse(localFs.exists(stagedFile));
+    assertFalse(stagingStorage.exists(stagedFile));
+
+    // Committing again after the staged file was uploaded is a no-op.
+    stagingStorage.commit(stagedFile, committedFile);
+    assertEquals(20, fs.getFileStatus(committedFile).getLen());
+    stagingStorage.close();
+    storage.close();
+  }
+
+  @Test
+  public void testReplayPersistedStagedFilesWithoutStagingDirectory() throws Exception {
+    File stagingDir = temporaryFolder.newFolder("staging");
+    Storage stagingStorage = createStagingStorage(stagingDir, 0);
+    FileSystem localFs = FileSystem.getLocal(conf);
+    String directory2 = TOPIC + "/" + PARTITION + "/hour=1";
+
+    Path stagedFile = new Path(stagingStorage.tempFileName(topicsDir, directory, EXTENSION));
+    Path stagedFile2 = new Path(stagingStorage.tempFileName(topicsDir, directory2, EXTENSION));
+    for (Path staged : new Path[]{stagedFile, stagedFile2}) {
+      try (FSDataOutputStream out = localFs.create(staged)) {
+        out.write(new byte[20]);
+      }
+    }
+    String tempFile = stagingStorage.persist(stagedFile.toString());
+    String tempFile2 = stagingStorage.persist(stagedFile2.toString());
+    assertEquals("hdfs", new Path(tempFile).toUri().getScheme());
+    assertTrue(fs.exists(new Path(tempFile2)));
+    assertFalse(localFs.exists(stagedFile));
+    // Persisting again returns the same file.
+    assertEquals(tempFile, stagingStorage.persist(tempFile));
+
+    String committedFile = committedFileName(0, 9);
+    String committedFile2 = committedFileName(directory2, 10, 19);
+    WAL wal = stagingStorage.wal(logsDir, TOPIC_PARTITION);
+    wal.append(WAL.beginMarker, "");
+    wal.append(tempFile, committedFile);
+    wal.append(tempFile2, committedFile2);
+    wal.append(WAL.endMarker, "");
+    // The task fails after committing the first file and restarts on a worker without the
+    // staging directory.
+    stagingStorage.commit(tempFile, committedFile);
+    wal.close();
+    stagingStorage.close();
+    localFs.delete(new Path(stagingDir.getAbsolutePath()), true);
+
+    Storage restarted = createStagingStorage(temporaryFolder.newFolder("staging2"), 0);
+    wal = restarted.wal(logsDir, TOPIC_PARTITION);
+    wal.apply();
+    wal.close();
+    assertEquals(20, fs.getFileStatus(new Path(committedFile)).getLen());
+    assertEquals(20, fs.getFileStatus(new Path(committedFile2)).getLen());
+    assertFalse(fs.exists(new Path(tempFile2)));
+    assertEquals(-1L, wal.firstLostOffset());
+    restarted.close();
+    storage.close();
+  }
+
+  @Test
+  public void testLocalStagingBudget() throws Exception {
+    File stagingDir = temporaryFolder.newFolder("staging");
+    FileSystem localFs = FileSystem.getLocal(conf);
+    try (FSDataOutputStream out = localFs.create(new Path(stagingDir.getAbsolutePath(), "staged"))) {
+      out.write(new byte[20]);
+    }
+    Storage stagingStorage = createStagingStorage(stagingDir, 10);
+    // The staging directory is over its budget, so temp files are created in HDFS.
+    Path tempFile = new Path(stagingStorage.tempFileName(topicsDir, directory, EXTENSION));
+    assertEquals("hdfs", tempFile.toUri().getScheme());
+    stagingStorage.close();
+    storage.close();
+  }
+
+  private Storage createStagingStorage(File stagingDir, long maxBytes) throws Exception {
+    Map<String, String> props = createProps();
+    props.put(HdfsSinkConnectorConfig.LOCAL_STAGING_CONFIG, "true");
+    props.put(HdfsSinkConnectorConfig.STAGING_DIR_CONFIG, stagingDir.getAbsolutePath());
+    props.put(HdfsSinkConnectorConfig.STAGING_MAX_BYTES_CONFIG, String.valueOf(maxBytes));
+    return StorageFactory.createStorage(
+        HdfsStorage.class, new HdfsSinkConnectorConfig(props), conf, url);
+  }
+
+  private Path createTempFile(int length) throws Exception {
+    Path path = new Path(FileUtils.tempFileName(url, topicsDir, directory, EXTENSION));
+    try (FSDataOutputStream out = fs.create(path)) {
+      out.write(new byte[length]);
+    }
+    return path;
+  }
+
+  private String committedFileName(long startOffset, long endOffset) {
+    return committedFileName(directory, startOffset, endOffset);
+  }
+
+  private String committedFileName(String directory, long startOffset, long endOffset) {
+    return FileUtils.committedFileName(url, topicsDir, directory, TOPIC_PARTITION, startOffset,
+                                       endOffset, EXTENSION, zeroPadFormat);
+  }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.storage;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+
+import io.confluent.connect.hdfs.FileUtils;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConstants;
+import io.confluent.connect.hdfs.TestWithMiniDFSCluster;
+import io.confluent.connect.hdfs.TopicPartitionWriter;
+import io.confluent.connect.hdfs.avro.AvroRecordWriterProvider;
+import io.confluent.connect.hdfs.errors.StagedFileLostException;
+import io.confluent.connect.hdfs.partitioner.DefaultPartitioner;
+import io.confluent.connect.hdfs.utils.ObjectStoreFileSystem;
+import io.confluent.connect.hdfs.wal.WAL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ObjectStoreStorageTest extends TestWithMiniDFSCluster {
+
+  private static final String ZERO_PAD_FMT = "%010d";
+  private static final String EXTENSION = ".avro";
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private String stagingDir;
+  private Storage storage;
+
+  @Before
+  public void setUp() throws Exception {
+    super.setUp();
+    // The object store cannot append to the write ahead logs, so they are kept in HDFS.
+    connectorProps.put(HdfsSinkConnectorConfig.LOGS_URL_CONFIG, url);
+    url = ObjectStoreFileSystem.SCHEME + "://" + temporaryFolder.newFolder("store").getAbsolutePath();
+    stagingDir = temporaryFolder.newFolder("staging").getAbsolutePath();
+    connectorProps.put(HdfsSinkConnectorConfig.HDFS_URL_CONFIG, url);
+    connectorProps.put(HdfsSinkConnectorConfig.STORAGE_CLASS_CONFIG, ObjectStoreStorage.class.getName());
+    connectorProps.put(HdfsSinkConnectorConfig.STAGING_DIR_CONFIG, stagingDir);
+    configureConnector();
+
+    conf.set("fs." + ObjectStoreFileSystem.SCHEME + ".impl", ObjectStoreFileSystem.class.getName());
+    conf.setBoolean("fs." + ObjectStoreFileSystem.SCHEME + ".impl.disable.cache", true);
+    ObjectStoreFileSystem.clearRenames();
+
+    storage = StorageFactory.createStorage(ObjectStoreStorage.class, connectorConfig, conf, url);
+    partitioner = new DefaultPartitioner();
+    partitioner.configure(Collections.<String, Object>emptyMap());
+  }
+
+  @Test
+  public void testCommitWithoutRename() throws Exception {
+    TopicPartitionWriter topicPartitionWriter = new TopicPartitionWriter(
+        TOPIC_PARTITION, storage, new AvroRecordWriterProvider(), partitioner, connectorConfig, context, avroData);
+
+    Schema schema = createSchema();
+    Struct record = createRecord(schema);
+    for (long offset = 0; offset < 7; ++offset) {
+      topicPartitionWriter.buffer(
+          new SinkRecord(TOPIC, PARTITION, Schema.STRING_SCHEMA, "key", schema, record, offset));
+    }
+
+    topicPartitionWriter.recover();
+    topicPartitionWriter.write();
+    topicPartitionWriter.close();
+
+    String directory = partitioner.generatePartitionedPath(TOPIC, "partition=" + PARTITION);
+    assertTrue(storage.exists(committedFileName(directory, 0, 2)));
+    assertTrue(storage.exists(committedFileName(directory, 3, 5)));
+    assertFalse(storage.exists(committedFileName(directory, 6, 6)));
+
+    for (Path path : ObjectStoreFileSystem.renames()) {
+      assertFalse("Data file " + path + " was renamed", path.toString().contains("/" + topicsDir + "/"));
+    }
+
+    FileSystem localFs = FileSystem.getLocal(conf);
+    for (FileStatus status : FileUtils.traverse(localFs, new Path(stagingDir))) {
+      assertFalse("Staged file " + status.getPath() + " left behind", status.getPath().getName().endsWith(EXTENSION));
+    }
+    storage.close();
+  }
+
+  @Test
+  public void testApplyWALWithStagedFiles() throws Exception {
+    String directory = partitioner.generatePartitionedPath(TOPIC, "partition=" + PARTITION);
+    String otherDirectory = partitioner.generatePartitionedPath(TOPIC, "partition=other");
+    String stagedFile = storage.tempFileName(
+        topicsDir, HdfsSinkConnectorConstants.TEMPFILE_DIRECTORY + directory, EXTENSION);
+    String missingFile = storage.tempFileName(
+        topicsDir, HdfsSinkConnectorConstants.TEMPFILE_DIRECTORY + otherDirectory, EXTENSION);
+    assertTrue(stagedFile.startsWith("file:" + stagingDir));
+
+    FileSystem localFs = FileSystem.getLocal(conf);
+    localFs.create(new Path(stagedFile)).close();
+
+    // One transaction with a file in each directory, whose records interleave.
+    String committedFile = committedFileName(directory, 1, 9);
+    String lostFile = committedFileName(otherDirectory, 0, 8);
+    WAL wal = storage.wal(logsDir, TOPIC_PARTITION);
+    wal.append(WAL.beginMarker, "");
+    wal.append(stagedFile, committedFile);
+    wal.append(missingFile, lostFile);
+    wal.append(WAL.endMarker, "");
+    wal.apply();
+
+    assertTrue(storage.exists(committedFile));
+    assertFalse(storage.exists(stagedFile));
+    assertFalse(storage.exists(lostFile));
+    assertEquals(0, ObjectStoreFileSystem.renames().size());
+    // The committed file ends after the first record of the lost one.
+    assertEquals(0L, wal.firstLostOffset());
+
+    // Once the records are written again, the lost file is no longer reported.
+    createFile(committedFileName(otherDirectory, 0, 4));
+    wal.close();
+    wal.apply();
+    assertEquals(-1L, wal.firstLostOffset());
+    wal.close();
+    storage.close();
+  }
+
+  @Test
+  public void testRecoverFromLostStagedFile() throws Exception {
+    String directory = partitioner.generatePartitionedPath(TOPIC, "partition=" + PARTITION);
+    String missingFile = storage.tempFileName(
+        topicsDir, HdfsSinkConnectorConstants.TEMPFILE_DIRECTORY + directory, EXTENSION);
+    String committedFile = committedFileName(directory, 5, 9);
+    createFile(committedFile);
+
+    WAL wal = storage.wal(logsDir, TOPIC_PARTITION);
+    wal.append(WAL.beginMarker, "");
+    wal.append(missingFile, committedFileName(directory, 0, 4));
+    wal.append(WAL.endMarker, "");
+    wal.close();
+
+    TopicPartitionWriter topicPartitionWriter = new TopicPartitionWriter(
+        TOPIC_PARTITION, storage, new AvroRecordWriterProvider(), partitioner, connectorConfig, context, avroData);
+    try {
+      topicPartitionWriter.recover();
+      fail("Recovered past the records of a lost staged file");
+    } catch (StagedFileLostException e) {
+      // expected
+    }
+    assertFalse(context.offsets().containsKey(TOPIC_PARTITION));
+
+    // Once the file committed past the lost records is deleted, they are consumed again.
+    storage.delete(committedFile);
+    topicPartitionWriter.recover();
+    assertEquals(0L, (long) context.offsets().get(TOPIC_PARTITION));
+    topicPartitionWriter.close();
+    storage.close();
+  }
+
+  @Test(expected = ConnectException.class)
+  public void testRequiresLogsUrl() throws Exception {
+    storage.close();
+    connectorProps.remove(HdfsSinkConnectorConfig.LOGS_URL_CONFIG);
+    configureConnector();
+    StorageFactory.createStorage(ObjectStoreStorage.class, connectorConfig, conf, url);
+  }
+
+  private void createFile(String file) throws Exception {
+    Path path = new Path(file);
+    path.getFileSystem(conf).create(path).close();
+  }
+
+  private String committedFileName(String directory, long startOffset, long endOffset) {
+    return FileUtils.committedFileName(url, topicsDir, directory, TOPIC_PARTITION, startOffset,
+                                       endOffset, EXTENSION, ZERO_PAD_FMT);
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.storage;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StorageOperationExecutorTest {
+
+  private StorageOperationExecutor executor;
+
+  @After
+  public void tearDown() {
+    if (executor != null) {
+      executor.close();
+    }
+  }
+
+  @Test
+  public void testOperationTimesOut() throws Exception {
+    executor = new StorageOperationExecutor(100, 0, true);
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      executor.execute("close", new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          release.await();
+          return null;
+        }
+      });
+      fail("Expected the operation to time out");
+    } catch (InterruptedIOException e) {
+      // expected
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void testKeyedRetryWaitsForPendingOperation() throws Exception {
+    executor = new StorageOperationExecutor(100, 0, true);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger calls = new AtomicInteger();
+    Callable<Integer> close = new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        release.await();
+        return calls.incrementAndGet();
+      }
+    };
+    Object key = new Object();
+    try {
+      executor.execute("close", key, close);
+      fail("Expected the operation to time out");
+    } catch (InterruptedIOException e) {
+      // expected
+    }
+
+    release.countDown();
+    assertEquals(1, (int) executor.execute("close", key, close));
+    assertEquals(1, calls.get());
+    assertEquals(2, (int) executor.execute("close", key, close));
+  }
+
+  @Test
+  public void testTimedOutOperationKeepsRunning() throws Exception {
+    executor = new StorageOperationExecutor(100, 0, true);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger completed = new AtomicInteger();
+    Object key = new Object();
+    try {
+      executor.execute("wal-append", key, new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          // Not interrupted by the timeout, so the operation completes once released.
+          release.await();
+          completed.incrementAndGet();
+          return null;
+        }
+      });
+      fail("Expected the operation to time out");
+    } catch (InterruptedIOException e) {
+      // expected
+    }
+    try {
+      executor.awaitPending("wal-append", key);
+      fail("Expected the pending operation to time out");
+    } catch (InterruptedIOException e) {
+      // expected
+    }
+
+    release.countDown();
+    executor.awaitPending("wal-append", key);
+    assertEquals(1, completed.get());
+    // Nothing is pending anymore.
+    executor.awaitPending("wal-append", key);
+  }
+
+  @Test
+  public void testFailureIsPropagated() throws Exception {
+    executor = new StorageOperationExecutor(1000, 0, true);
+    try {
+      executor.execute("delete", new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          throw new IOException("delete failed");
+        }
+      });
+      fail("Expected the failure to be propagated");
+    } catch (IOException e) {
+      assertEquals("delete failed", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testHedgedReadUsesFasterAttempt() throws Exception {
+    executor = new StorageOperationExecutor(5000, 50, true);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger attempts = new AtomicInteger();
+    try {
+      boolean exists = executor.executeIdempotent("exists", new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          if (attempts.incrementAndGet() == 1) {
+            // The first attempt hangs until the test is done.
+            release.await(10, TimeUnit.SECONDS);
+            return false;
+          }
+          return true;
+        }
+      });
+      assertEquals(true, exists);
+      assertEquals(2, attempts.get());
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void testHedgedReadDoesNotInterruptSlowerAttempt() throws Exception {
+    executor = new StorageOperationExecutor(5000, 50, true);
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch completed = new CountDownLatch(1);
+    final AtomicInteger attempts = new AtomicInteger();
+    final AtomicInteger interrupts = new AtomicInteger();
+    executor.executeIdempotent("exists", new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        if (attempts.incrementAndGet() == 1) {
+          try {
+            release.await(10, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            interrupts.incrementAndGet();
+          }
+          completed.countDown();
+          return false;
+        }
+        return true;
+      }
+    });
+
+    release.countDown();
+    assertTrue(completed.await(10, TimeUnit.SECONDS));
+    assertEquals(0, interrupts.get());
+  }
+
+  @Test
+  public void testRunningOperationsAreBounded() throws Exception {
+    executor = new StorageOperationExecutor(50, 0, true);
+    final CountDownLatch release = new CountDownLatch(1);
+    Callable<Void> hang = new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        release.await();
+        return null;
+      }
+    };
+    try {
+      for (int i = 0; i < StorageOperationExecutor.MAX_THREADS; ++i) {
+        try {
+          executor.execute("close", hang);
+          fail("Expected the operation to time out");
+        } catch (InterruptedIOException e) {
+          // expected
+        }
+      }
+      try {
+        executor.execute("close", hang);
+        fail("Expected the operation to be rejected");
+      } catch (InterruptedIOException e) {
+        fail("Expected the operation to be rejected instead of started");
+      } catch (IOException e) {
+        // expected
+      }
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void testDirectExecutorRunsInline() throws Exception {
+    executor = StorageOperationExecutor.direct();
+    final Thread caller = Thread.currentThread();
+    boolean inline = executor.executeIdempotent("exists", new Callable<Boolean>() {
+      @Override
+      public Boolean call() {
+        return Thread.currentThread() == caller;
+      }
+    });
+    assertEquals(true, inline);
+  }
+}
@@ -28,7 +28,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import io.confluent.connect.hdfs.FileUtils;
 import io.confluent.connect.hdfs.storage.Storage;
+import io.confluent.connect.hdfs.storage.StorageOperationExecutor;
 import io.confluent.connect.hdfs.wal.WAL;
 
 public class MemoryStorage implements Storage {
@@ -37,6 +39,7 @@ public class MemoryStorage implements Storage {
   private Configuration conf;
   private String url;
   private Failure failure = Failure.noFailure;
+  private final StorageOperationExecutor executor = StorageOperationExecutor.direct();
 
   public enum Failure {
     noFailure,
@@ -66,6 +69,11 @@ public class MemoryStorage implements Storage {
     return result.toArray(new FileStatus[result.size()]);
   }
 
+  @Override
+  public FileStatus[] listStatus(Path path) throws IOException {
+    return listStatus(path.toString());
+  }
+
   @Override
   public FileStatus[] listStatus(String path, PathFilter filter) throws IOException {
     if (failure == Failure.listStatusFailure) {
@@ -82,6 +90,11 @@ public class MemoryStorage implements Storage {
     return result.toArray(new FileStatus[result.size()]);
   }
 
+  @Override
+  public FileStatus[] listStatus(Path path, PathFilter filter) throws IOException {
+    return listStatus(path.toString(), filter);
+  }
+
   @Override
   public void append(String filename, Object object) throws IOException {
     if (failure == Failure.appendFailure) {
@@ -103,6 +116,11 @@ public class MemoryStorage implements Storage {
     return true;
   }
 
+  @Override
+  public boolean mkdirs(Path path) throws IOException {
+    return mkdirs(path.toString());
+  }
+
   @Override
   public boolean exists(String filename) throws IOException {
     if (failure == Failure.existsFailure) {
@@ -112,6 +130,11 @@ public class MemoryStorage implements Storage {
     return data.containsKey(filename);
   }
 
+  @Override
+  public boolean exists(Path path) throws IOException {
+    return exists(path.toString());
+  }
+
   @Override
   public void delete(String filename) throws IOException {
     if (failure == Failure.deleteFailure) {
@@ -124,6 +147,11 @@ public class MemoryStorage implements Storage {
     }
   }
 
+  @Override
+  public void delete(Path path) throws IOException {
+    delete(path.toString());
+  }
+
   @Override
   public void commit(String tempFile, String committedFile) throws IOException {
     if (failure == Failure.commitFailure) {
@@ -137,6 +165,21 @@ public class MemoryStorage implements Storage {
     }
   }
 
+  @Override
+  public void commit(Path tempFile, Path committedFile) throws IOException {
+    commit(tempFile.toString(), committedFile.toString());
+  }
+
+  @Override
+  public String tempFileName(String topicsDir, String directory, String extension) {
+    return FileUtils.tempFileName(url, topicsDir, directory, extension);
+  }
+
+  @Override
+  public String persist(String tempFile) {
+    return tempFile;
+  }
+
   @Override
   public void close() throws IOException {
     if (failure == Failure.closeFailure) {
@@ -151,6 +194,11 @@ public class MemoryStorage implements Storage {
     return new MemoryWAL(topicsDir, topicPart, this);
   }
 
+  @Override
+  public StorageOperationExecutor executor() {
+    return executor;
+  }
+
   @Override
   public Configuration conf() {
     return conf;
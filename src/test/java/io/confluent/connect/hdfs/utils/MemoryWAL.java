@@ -71,6 +71,11 @@ public class MemoryWAL implements WAL {
     }
   }
 
+  @Override
+  public long firstLostOffset() {
+    return -1L;
+  }
+
   @Override
   public void truncate() throws ConnectException {
     try {
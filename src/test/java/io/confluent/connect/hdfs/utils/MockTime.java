@@ -0,0 +1,55 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.utils;
+
+import org.apache.kafka.common.utils.Time;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock that only moves when a test advances or sleeps on it.
+ */
+public class MockTime implements Time {
+
+  private volatile long timeMs;
+
+  public MockTime(long timeMs) {
+    this.timeMs = timeMs;
+  }
+
+  public void advance(long ms) {
+    timeMs += ms;
+  }
+
+  @Override
+  public long milliseconds() {
+    return timeMs;
+  }
+
+  @Override
+  public long hiResClockMs() {
+    return timeMs;
+  }
+
+  @Override
+  public long nanoseconds() {
+    return TimeUnit.MILLISECONDS.toNanos(timeMs);
+  }
+
+  @Override
+  public void sleep(long ms) {
+    advance(ms);
+  }
+}
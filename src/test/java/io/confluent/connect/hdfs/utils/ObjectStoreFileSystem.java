@@ -0,0 +1,106 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+package io.confluent.connect.hdfs.utils;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.util.Progressable;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stand-in for an object store backed by the local file system. It is registered under the
+ * {@value #SCHEME} scheme and records every rename so tests can assert that data files are never
+ * copied around after they are written. Like an object store, it cannot append to a file or flush
+ * one before it is closed.
+ */
+public class ObjectStoreFileSystem extends RawLocalFileSystem {
+
+  public static final String SCHEME = "objstore";
+  private static final List<Path> renames = Collections.synchronizedList(new ArrayList<Path>());
+
+  @Override
+  public URI getUri() {
+    return URI.create(SCHEME + ":///");
+  }
+
+  @Override
+  public String getScheme() {
+    return SCHEME;
+  }
+
+  @Override
+  public FSDataOutputStream create(Path f, boolean overwrite, int bufferSize, short replication,
+                                   long blockSize, Progressable progress) throws IOException {
+    return unflushable(super.create(f, overwrite, bufferSize, replication, blockSize, progress));
+  }
+
+  @Override
+  public FSDataOutputStream create(Path f, FsPermission permission, boolean overwrite,
+                                   int bufferSize, short replication, long blockSize,
+                                   Progressable progress) throws IOException {
+    return unflushable(
+        super.create(f, permission, overwrite, bufferSize, replication, blockSize, progress));
+  }
+
+  @Override
+  public FSDataOutputStream append(Path f, int bufferSize, Progressable progress) {
+    throw new UnsupportedOperationException("Append is not supported by " + SCHEME);
+  }
+
+  @Override
+  public boolean rename(Path src, Path dst) throws IOException {
+    renames.add(src);
+    return super.rename(src, dst);
+  }
+
+  public static List<Path> renames() {
+    return renames;
+  }
+
+  public static void clearRenames() {
+    renames.clear();
+  }
+
+  // One create() may delegate to the other, so a stream is only wrapped once.
+  private static FSDataOutputStream unflushable(FSDataOutputStream out) throws IOException {
+    return out instanceof UnflushableOutputStream ? out : new UnflushableOutputStream(out);
+  }
+
+  private static class UnflushableOutputStream extends FSDataOutputStream {
+
+    UnflushableOutputStream(FSDataOutputStream out) throws IOException {
+      super(out, null);
+    }
+
+    @Override
+    public void hflush() {
+      throw new UnsupportedOperationException("hflush is not supported by " + SCHEME);
+    }
+
+    @Override
+    public void hsync() {
+      throw new UnsupportedOperationException("hsync is not supported by " + SCHEME);
+    }
+  }
+}
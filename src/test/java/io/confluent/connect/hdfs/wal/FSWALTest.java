@@ -16,13 +16,19 @@
 
 package io.confluent.connect.hdfs.wal;
 
+import org.apache.hadoop.fs.Path;
 import org.apache.kafka.common.TopicPartition;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import io.confluent.connect.hdfs.TestWithMiniDFSCluster;
 import io.confluent.connect.hdfs.storage.HdfsStorage;
 import io.confluent.connect.hdfs.storage.Storage;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -46,4 +52,69 @@ public class FSWALTest extends TestWithMiniDFSCluster {
     assertTrue("Rotated WAL file should exist after truncate + append",
             storage.exists("/logs/mytopic/123/log.1"));
   }
+
+  @Test
+  public void testCheckpoint() throws Exception {
+    Storage storage = new HdfsStorage(conf, url);
+    TopicPartition tp = new TopicPartition("mytopic", 123);
+    FSWAL wal = new FSWAL("/logs", tp, storage, false, 2);
+    for (String name : Arrays.asList("a", "b", "c")) {
+      wal.append(WAL.beginMarker, "");
+      wal.append(name, name + "-committed");
+      wal.append(WAL.endMarker, "");
+    }
+    // The third transaction started a new log with the second one, followed by the third one.
+    assertTrue("Checkpointed WAL file should exist",
+            storage.exists("/logs/mytopic/123/log.1"));
+    assertEquals(Arrays.asList(WAL.beginMarker, "b", WAL.endMarker,
+                               WAL.beginMarker, "c", WAL.endMarker),
+                 readNames(wal.getLogFile()));
+    wal.close();
+  }
+
+  @Test
+  public void testApplyCommitsLastCompleteTransaction() throws Exception {
+    Storage storage = new HdfsStorage(conf, url);
+    TopicPartition tp = new TopicPartition("mytopic", 123);
+    String directory = url + "/topics/mytopic/123/";
+    fs.mkdirs(new Path(directory));
+    FSWAL wal = new FSWAL("/logs", tp, storage);
+    wal.append(WAL.beginMarker, "");
+    wal.append(createFile(directory + "temp0"), directory + "committed0");
+    wal.append(WAL.endMarker, "");
+    wal.append(WAL.beginMarker, "");
+    for (int i = 1; i <= 3; ++i) {
+      wal.append(createFile(directory + "temp" + i), directory + "committed" + i);
+    }
+    wal.append(WAL.endMarker, "");
+    wal.close();
+
+    wal = new FSWAL("/logs", tp, storage);
+    wal.apply();
+    wal.close();
+    // Earlier transactions were committed before the next one began and are not replayed.
+    assertTrue(fs.exists(new Path(directory + "temp0")));
+    assertFalse(fs.exists(new Path(directory + "committed0")));
+    for (int i = 1; i <= 3; ++i) {
+      assertFalse(fs.exists(new Path(directory + "temp" + i)));
+      assertTrue(fs.exists(new Path(directory + "committed" + i)));
+    }
+  }
+
+  private String createFile(String file) throws Exception {
+    fs.createNewFile(new Path(file));
+    return file;
+  }
+
+  private List<String> readNames(String logFile) throws Exception {
+    List<String> names = new ArrayList<>();
+    try (WALFile.Reader reader = new WALFile.Reader(conf, WALFile.Reader.file(new Path(logFile)))) {
+      WALEntry key = new WALEntry();
+      WALEntry value = new WALEntry();
+      while (reader.next(key, value)) {
+        names.add(key.getName());
+      }
+    }
+    return names;
+  }
 }
@@ -0,0 +1,296 @@
+/**
+ * Copyright 2015 Confluent Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ **/
+
+package io.confluent.connect.hdfs.wal;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.Map;
+
+import io.confluent.connect.hdfs.FileUtils;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConfig;
+import io.confluent.connect.hdfs.HdfsSinkConnectorConstants;
+import io.confluent.connect.hdfs.TestWithMiniDFSCluster;
+import io.confluent.connect.hdfs.storage.HdfsStorage;
+import io.confluent.connect.hdfs.storage.Storage;
+import io.confluent.connect.hdfs.storage.StorageFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TaskWALTest extends TestWithMiniDFSCluster {
+
+  private static final String EXTENSION = ".avro";
+  private static final String CONNECTOR_NAME = "hdfs-sink";
+  private volatile boolean closed = false;
+
+  @Override
+  protected Map<String, String> createProps() {
+    Map<String, String> props = super.createProps();
+    props.put(HdfsSinkConnectorConfig.WAL_SCOPE_CONFIG, HdfsSinkConnectorConfig.WAL_SCOPE_TASK);
+    props.put(HdfsSinkConnectorConstants.CONNECTOR_NAME_CONFIG, CONNECTOR_NAME);
+    props.put(HdfsSinkConnectorConstants.TASK_ID_CONFIG, "0");
+    return props;
+  }
+
+  @Test
+  public void testPartitionsShareOneLog() throws Exception {
+    Storage storage = createStorage("0");
+    WAL wal1 = storage.wal(logsDir, TOPIC_PARTITION);
+    WAL wal2 = storage.wal(logsDir, TOPIC_PARTITION2);
+
+    appendTransaction(wal1, TOPIC_PARTITION, 0, 9);
+    appendTransaction(wal2, TOPIC_PARTITION2, 0, 9);
+
+    assertEquals(wal1.getLogFile(), wal2.getLogFile());
+    assertEquals(1, listLogs("0").length);
+    assertFalse(fs.exists(new Path(FileUtils.logFileName(url, logsDir, TOPIC_PARTITION))));
+    assertFalse(fs.exists(new Path(FileUtils.logFileName(url, logsDir, TOPIC_PARTITION2))));
+    storage.close();
+  }
+
+  @Test
+  public void testApplyReadsLogsOfOtherTasks() throws Exception {
+    Storage storage0 = createStorage("0");
+    WAL wal = storage0.wal(logsDir, TOPIC_PARTITION);
+    String tempFile = appendTransaction(wal, TOPIC_PARTITION, 0, 9);
+    String tempFile2 = appendTransaction(storage0.wal(logsDir, TOPIC_PARTITION2), TOPIC_PARTITION2, 0, 4);
+    storage0.close();
+
+    // The partitions moved to task 1, which replays them from the log of task 0.
+    Storage storage1 = createStorage("1");
+    WAL moved = storage1.wal(logsDir, TOPIC_PARTITION);
+    WAL moved2 = storage1.wal(logsDir, TOPIC_PARTITION2);
+    moved.apply();
+    moved2.apply();
+
+    assertTrue(fs.exists(new Path(committedFileName(TOPIC_PARTITION, 0, 9))));
+    assertTrue(fs.exists(new Path(committedFileName(TOPIC_PARTITION2, 0, 4))));
+    assertFalse(fs.exists(new Path(tempFile)));
+    assertFalse(fs.exists(new Path(tempFile2)));
+    storage1.close();
+  }
+
+  @Test
+  public void testNewSegmentKeepsLastTransactions() throws Exception {
+    Storage storage = createStorage("0");
+    WAL wal = storage.wal(logsDir, TOPIC_PARTITION);
+    String committedTemp = appendTransaction(wal, TOPIC_PARTITION, 0, 9);
+    fs.rename(new Path(committedTemp), new Path(committedFileName(TOPIC_PARTITION, 0, 9)));
+    String pendingTemp = appendTransaction(wal, TOPIC_PARTITION, 10, 19);
+    // An incomplete transaction is dropped.
+    wal.append(WAL.beginMarker, "");
+    wal.append(createTempFile(TOPIC_PARTITION), committedFileName(TOPIC_PARTITION, 20, 29));
+    String firstSegment = wal.getLogFile();
+    storage.close();
+
+    storage = createStorage("0");
+    wal = storage.wal(logsDir, TOPIC_PARTITION);
+    wal.acquireLease();
+    assertFalse(fs.exists(new Path(firstSegment)));
+    assertEquals(1, listLogs("0").length);
+
+    wal.apply();
+    assertTrue(fs.exists(new Path(committedFileName(TOPIC_PARTITION, 10, 19))));
+    assertFalse(fs.exists(new Path(pendingTemp)));
+    assertFalse(fs.exists(new Path(committedFileName(TOPIC_PARTITION, 20, 29))));
+    storage.close();
+  }
+
+  @Test
+  public void testCheckpointStartsNewSegment() throws Exception {
+    Map<String, String> props = createProps();
+    props.put(HdfsSinkConnectorConfig.WAL_CHECKPOINT_INTERVAL_CONFIG, "2");
+    Storage storage = StorageFactory.createStorage(
+        HdfsStorage.class, new HdfsSinkConnectorConfig(props), conf, url);
+    WAL wal = storage.wal(logsDir, TOPIC_PARTITION);
+    WAL wal2 = storage.wal(logsDir, TOPIC_PARTITION2);
+    appendTransaction(wal, TOPIC_PARTITION, 0, 9);
+    String firstSegment = wal.getLogFile();
+    String pendingTemp = appendTransaction(wal2, TOPIC_PARTITION2, 0, 9);
+    appendTransaction(wal, TOPIC_PARTITION, 10, 19);
+
+    assertFalse(fs.exists(new Path(firstSegment)));
+    assertEquals(1, listLogs("0").length);
+    storage.close();
+
+    storage = createStorage("1");
+    storage.wal(logsDir, TOPIC_PARTITION2).apply();
+    assertTrue(fs.exists(new Path(committedFileName(TOPIC_PARTITION2, 0, 9))));
+    assertFalse(fs.exists(new Path(pendingTemp)));
+    storage.close();
+  }
+
+  @Test
+  public void testApplyPartitionScopeLog() throws Exception {
+    Storage partitionStorage = new HdfsStorage(conf, url);
+    FSWAL partitionWAL = new FSWAL(logsDir, TOPIC_PARTITION, partitionStorage);
+    String tempFile = appendTransaction(partitionWAL, TOPIC_PARTITION, 0, 9);
+    partitionWAL.close();
+
+    Storage storage = createStorage("0");
+    storage.wal(logsDir, TOPIC_PARTITION).apply();
+    assertTrue(fs.exists(new Path(committedFileName(TOPIC_PARTITION, 0, 9))));
+    assertFalse(fs.exists(new Path(tempFile)));
+    assertFalse(fs.exists(new Path(FileUtils.logFileName(url, logsDir, TOPIC_PARTITION))));
+    storage.close();
+  }
+
+  @Test
+  public void testSecondInstanceWaitsForLease() throws Exception {
+    final Storage storage = createStorage("0");
+    WAL wal = storage.wal(logsDir, TOPIC_PARTITION);
+    appendTransaction(wal, TOPIC_PARTITION, 0, 9);
+
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          // holding the lease for awhile
+          Thread.sleep(3000);
+          closed = true;
+          storage.close();
+        } catch (Exception e) {
+          // Ignored
+        }
+      }
+    });
+    thread.start();
+
+    Storage second = createStorage("0");
+    WAL secondWAL = second.wal(logsDir, TOPIC_PARTITION);
+    secondWAL.acquireLease();
+    assertTrue(closed);
+    assertEquals(1, listLogs("0").length);
+    secondWAL.apply();
+    assertTrue(fs.exists(new Path(committedFileName(TOPIC_PARTITION, 0, 9))));
+    second.close();
+    thread.join();
+  }
+
+  @Test
+  public void testNewOwnerWaitsForPartitionLease() throws Exception {
+    final Storage storage = createStorage("0");
+    WAL wal = storage.wal(logsDir, TOPIC_PARTITION);
+    appendTransaction(wal, TOPIC_PARTITION, 0, 9);
+
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          // holding the lease of the partition for awhile
+          Thread.sleep(3000);
+          closed = true;
+          storage.close();
+        } catch (Exception e) {
+          // Ignored
+        }
+      }
+    });
+    thread.start();
+
+    // The partition moved to task 1, which replays it once task 0 released it.
+    Storage second = createStorage("1");
+    second.wal(logsDir, TOPIC_PARTITION).apply();
+    assertTrue(closed);
+    assertTrue(fs.exists(new Path(committedFileName(TOPIC_PARTITION, 0, 9))));
+    second.close();
+    thread.join();
+  }
+
+  @Test
+  public void testClosedPartitionIsCarriedOverUntilCommitted() throws Exception {
+    Map<String, String> props = createProps();
+    props.put(HdfsSinkConnectorConfig.WAL_CHECKPOINT_INTERVAL_CONFIG, "1");
+    Storage storage = StorageFactory.createStorage(
+        HdfsStorage.class, new HdfsSinkConnectorConfig(props), conf, url);
+    WAL wal = storage.wal(logsDir, TOPIC_PARTITION);
+    WAL wal2 = storage.wal(logsDir, TOPIC_PARTITION2);
+    String closedTemp = appendTransaction(wal2, TOPIC_PARTITION2, 0, 9);
+    wal2.close();
+    // The next transaction checkpoints the log, with the transaction of the closed partition.
+    appendTransaction(wal, TOPIC_PARTITION, 0, 9);
+    assertTrue(hasEntries(wal.getLogFile(), TOPIC_PARTITION2));
+
+    // The next owner of the partition commits its files, after which it is no longer carried.
+    Storage other = createStorage("1");
+    other.wal(logsDir, TOPIC_PARTITION2).apply();
+    assertTrue(fs.exists(new Path(committedFileName(TOPIC_PARTITION2, 0, 9))));
+    assertFalse(fs.exists(new Path(closedTemp)));
+    other.close();
+    appendTransaction(wal, TOPIC_PARTITION, 10, 19);
+    assertFalse(hasEntries(wal.getLogFile(), TOPIC_PARTITION2));
+    storage.close();
+  }
+
+  private boolean hasEntries(String logFile, TopicPartition tp) throws Exception {
+    String prefix = tp.topic() + "/" + tp.partition() + ":";
+    try (WALFile.Reader reader = new WALFile.Reader(conf, WALFile.Reader.file(new Path(logFile)))) {
+      WALEntry key = new WALEntry();
+      WALEntry value = new WALEntry();
+      while (reader.next(key, value)) {
+        if (key.getName().startsWith(prefix)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private Storage createStorage(String taskId) throws Exception {
+    Map<String, String> props = createProps();
+    props.put(HdfsSinkConnectorConstants.TASK_ID_CONFIG, taskId);
+    return StorageFactory.createStorage(HdfsStorage.class, new HdfsSinkConnectorConfig(props), conf, url);
+  }
+
+  private FileStatus[] listLogs(String taskId) throws Exception {
+    return fs.listStatus(
+        new Path(FileUtils.taskLogDirectory(url, logsDir, CONNECTOR_NAME) + "/" + taskId),
+        new PathFilter() {
+          @Override
+          public boolean accept(Path path) {
+            return path.getName().startsWith("log.");
+          }
+        });
+  }
+
+  private String appendTransaction(WAL wal, TopicPartition tp, long start, long end) throws Exception {
+    String tempFile = createTempFile(tp);
+    wal.append(WAL.beginMarker, "");
+    wal.append(tempFile, committedFileName(tp, start, end));
+    wal.append(WAL.endMarker, "");
+    return tempFile;
+  }
+
+  private String createTempFile(TopicPartition tp) throws Exception {
+    String tempFile = FileUtils.tempFileName(url, topicsDir, directory(tp), EXTENSION);
+    fs.createNewFile(new Path(tempFile));
+    fs.mkdirs(new Path(FileUtils.directoryName(url, topicsDir, directory(tp))));
+    return tempFile;
+  }
+
+  private String committedFileName(TopicPartition tp, long start, long end) {
+    return FileUtils.committedFileName(url, topicsDir, directory(tp), tp, start, end, EXTENSION,
+                                       zeroPadFormat);
+  }
+
+  private static String directory(TopicPartition tp) {
+    return tp.topic() + "/" + tp.partition();
+  }
+}
@@ -21,6 +21,9 @@ import org.apache.kafka.common.TopicPartition;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import io.confluent.connect.hdfs.FileUtils;
@@ -29,6 +32,8 @@ import io.confluent.connect.hdfs.TestWithMiniDFSCluster;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class WALFileTest extends TestWithMiniDFSCluster {
 
@@ -76,6 +81,104 @@ public class WALFileTest extends TestWithMiniDFSCluster {
     fs.deleteOnExit(file);
   }
 
+  @Test
+  public void testCompactEncoding() throws Exception {
+    String directory = TOPIC + "/" + PARTITION;
+    List<String> names = Arrays.asList(
+        WAL.beginMarker,
+        FileUtils.tempFileName(url, topicsDir, directory, ".avro"),
+        FileUtils.committedFileName(url, topicsDir, directory, TOPIC_PARTITION, 0, 99, ".avro",
+                                    "%010d"),
+        FileUtils.tempFileName(url, topicsDir, directory, ".avro"),
+        FileUtils.committedFileName(url, topicsDir, directory, TOPIC_PARTITION, 100, 12345678901L,
+                                    ".avro", "%d"),
+        TOPIC + "/" + PARTITION + ":" + FileUtils.tempFileName(url, topicsDir, directory, ""),
+        "/not+a+committed+file+",
+        WAL.endMarker);
+
+    Path compact = new Path(FileUtils.logFileName(url, logsDir, TOPIC_PARTITION));
+    Path legacy = new Path(FileUtils.logFileName(url, logsDir, TOPIC_PARTITION2));
+    writeNames(WALFile.createWriter(conf, WALFile.Writer.file(compact),
+                                    WALFile.Writer.version((byte) 1)), names);
+    writeNames(WALFile.createWriter(conf, WALFile.Writer.file(legacy)), names);
+    assertEquals(names, readNames(compact));
+    assertEquals(names, readNames(legacy));
+    assertTrue(fs.getFileStatus(compact).getLen() < fs.getFileStatus(legacy).getLen());
+
+    // Appending keeps the version of the file and redefines the ids used by the new entries.
+    writeNames(WALFile.createWriter(conf, WALFile.Writer.file(compact),
+                                    WALFile.Writer.appendIfExists(true)), names);
+    writeNames(WALFile.createWriter(conf, WALFile.Writer.file(legacy),
+                                    WALFile.Writer.appendIfExists(true)), names);
+    List<String> twice = new ArrayList<>(names);
+    twice.addAll(names);
+    assertEquals(twice, readNames(compact));
+    assertEquals(twice, readNames(legacy));
+  }
+
+  @Test
+  public void testFailedAppendDoesNotDefineIds() throws Exception {
+    String directory = TOPIC + "/" + PARTITION;
+    String tempFile = FileUtils.tempFileName(url, topicsDir, directory, ".avro");
+    String committedFile = FileUtils.committedFileName(url, topicsDir, directory, TOPIC_PARTITION,
+                                                       0, 99, ".avro", "%010d");
+    Path file = new Path(FileUtils.logFileName(url, logsDir, TOPIC_PARTITION));
+    WALFile.Writer writer = WALFile.createWriter(conf, WALFile.Writer.file(file),
+                                                 WALFile.Writer.version((byte) 1));
+    try {
+      // The key assigns an id to the directory before the value fails to encode.
+      writer.append(new WALEntry(tempFile), new WALEntry(null));
+      fail("Appending an entry without a name should fail");
+    } catch (NullPointerException e) {
+      // expected
+    }
+    writeNames(writer, Arrays.asList(tempFile, committedFile));
+    assertEquals(Arrays.asList(tempFile, committedFile), readNames(file));
+  }
+
+  @Test
+  public void testCompactFileCannotSeek() throws Exception {
+    Path file = new Path(FileUtils.logFileName(url, logsDir, TOPIC_PARTITION));
+    writeNames(WALFile.createWriter(conf, WALFile.Writer.file(file),
+                                    WALFile.Writer.version((byte) 1)),
+               Arrays.asList(WAL.beginMarker, WAL.endMarker));
+    try (WALFile.Reader reader = new WALFile.Reader(conf, WALFile.Reader.file(file))) {
+      try {
+        reader.seek(0);
+        fail("Seeking in a compact file should fail");
+      } catch (UnsupportedOperationException e) {
+        // expected
+      }
+      try {
+        reader.sync(0);
+        fail("Syncing in a compact file should fail");
+      } catch (UnsupportedOperationException e) {
+        // expected
+      }
+    }
+  }
+
+  private void writeNames(WALFile.Writer writer, List<String> names) throws IOException {
+    for (String name : names) {
+      // Values are written with the same encoding as keys.
+      writer.append(new WALEntry(name), new WALEntry(name));
+    }
+    writer.close();
+  }
+
+  private List<String> readNames(Path file) throws IOException {
+    List<String> names = new ArrayList<>();
+    try (WALFile.Reader reader = new WALFile.Reader(conf, WALFile.Reader.file(file))) {
+      WALEntry key = new WALEntry();
+      WALEntry value = new WALEntry();
+      while (reader.next(key, value)) {
+        assertEquals(key.getName(), value.getName());
+        names.add(key.getName());
+      }
+    }
+    return names;
+  }
+
   private void verify2Values(Path file) throws IOException {
     WALEntry key1 = new WALEntry("key1");
     WALEntry val1 = new WALEntry("val1");